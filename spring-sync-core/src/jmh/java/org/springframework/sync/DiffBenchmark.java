@@ -0,0 +1,103 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.sync;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares diffing entities with the specialized {@link ClassDiffer}s against the reflective field walk.
+ * Each of a list of entities is diffed against its counterpart, every tenth of which is modified;
+ * the entities don't implement equals(), so each pair is compared field by field. Run with "gradle :spring-sync-core:jmh".
+ * 
+ * @author Craig Walls
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DiffBenchmark {
+
+	@Param({ "10", "1000" })
+	private int size;
+
+	private List<Item> original;
+
+	private List<Item> modified;
+
+	@Setup
+	public void setup() {
+		original = new ArrayList<Item>(size);
+		modified = new ArrayList<Item>(size);
+		for (int i = 0; i < size; i++) {
+			original.add(new Item(i, "Item " + i, false, i * 10));
+			modified.add(new Item(i, "Item " + i, i % 10 == 0, i % 10 == 0 ? i * 10 + 1 : i * 10));
+		}
+	}
+
+	@Benchmark
+	public int specialized() {
+		int operations = 0;
+		for (int i = 0; i < size; i++) {
+			operations += Diff.diff(original.get(i), modified.get(i), true).size();
+		}
+		return operations;
+	}
+
+	@Benchmark
+	public int reflective() {
+		int operations = 0;
+		for (int i = 0; i < size; i++) {
+			operations += Diff.diff(original.get(i), modified.get(i), false).size();
+		}
+		return operations;
+	}
+
+	public static class Item {
+
+		private long id;
+
+		private String description;
+
+		private boolean complete;
+
+		private int priority;
+
+		public Item(long id, String description, boolean complete, int priority) {
+			this.id = id;
+			this.description = description;
+			this.complete = complete;
+			this.priority = priority;
+		}
+
+	}
+
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.sync.util;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the {@link ReflectiveDeepCloner} with the {@link SerializationDeepCloner} when cloning a list of entities.
+ * Run with "gradle :spring-sync-core:jmh".
+ * 
+ * @author Craig Walls
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DeepClonerBenchmark {
+
+	@Param({ "10", "1000" })
+	private int size;
+
+	private final DeepCloner reflectiveDeepCloner = new ReflectiveDeepCloner();
+
+	private final DeepCloner serializationDeepCloner = new SerializationDeepCloner();
+
+	private ArrayList<Item> items;
+
+	@Setup
+	public void setup() {
+		items = new ArrayList<Item>(size);
+		for (int i = 0; i < size; i++) {
+			items.add(new Item((long) i, "Item " + i, i % 2 == 0));
+		}
+	}
+
+	@Benchmark
+	public List<Item> reflective() {
+		return reflectiveDeepCloner.deepClone(items);
+	}
+
+	@Benchmark
+	public List<Item> serialization() {
+		return serializationDeepCloner.deepClone(items);
+	}
+
+	public static class Item implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private Long id;
+
+		private String description;
+
+		private boolean complete;
+
+		public Item() {
+		}
+
+		public Item(Long id, String description, boolean complete) {
+			this.id = id;
+			this.description = description;
+			this.complete = complete;
+		}
+
+		public Long getId() {
+			return id;
+		}
+
+		public String getDescription() {
+			return description;
+		}
+
+		public boolean isComplete() {
+			return complete;
+		}
+
+	}
+
+}
@@ -34,8 +34,8 @@ public class AddOperation extends PatchOperation {
 	}
 	
 	@Override
-	<T> void perform(Object targetObject, Class<T> type) {
-		addValue(targetObject, evaluateValueFromTarget(targetObject, type));
+	<T> void perform(Object targetObject, Class<T> type, ModificationListener listener) {
+		addValue(targetObject, evaluateValueFromTarget(targetObject, type), listener);
 	}
 	
 }
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.sync;
+
+import java.util.Set;
+
+/**
+ * <p>Contract for objects that record which of their properties have changed.</p>
+ * 
+ * <p>
+ * When diffing for dirty properties with {@link Diff#diffDirty(Object, Object)}, only the properties of a change-tracked
+ * object that are reported dirty are compared with the original; properties that aren't reported dirty are assumed
+ * unchanged, except that change-tracked values held by them are consulted for their own dirty properties. A property
+ * must therefore be reported dirty whenever its value is replaced or, unless the value is itself change-tracked,
+ * modified in place (for instance, when an item is added to a list).
+ * </p>
+ * 
+ * <p>
+ * Dirty paths are JSON Pointer paths relative to the object, such as "/description". A path below a property, such as
+ * "/address/city", marks that whole property dirty. {@link ChangeTracker} can be used to implement this contract.
+ * </p>
+ * 
+ * @author Craig Walls
+ */
+public interface ChangeTracked {
+
+	/**
+	 * @return the paths of the properties that have changed since the dirty paths were last cleared.
+	 */
+	Set<String> getDirtyPaths();
+
+	/**
+	 * Clears the dirty paths, usually once the changes have been synchronized. Should also clear the dirty paths of any
+	 * change-tracked values held by this object.
+	 */
+	void clearDirtyPaths();
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.sync;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * <p>Records the dirty paths of a {@link ChangeTracked} object, which delegates to it.</p>
+ * 
+ * <p>
+ * An entity holds a ChangeTracker in a field, marks properties dirty from its setters (and from any method that
+ * modifies a property's value in place), and implements {@link ChangeTracked} by delegating to the tracker:
+ * </p>
+ * 
+ * <pre class="code">
+ * public class Todo implements ChangeTracked {
+ *   private final ChangeTracker changes = new ChangeTracker();
+ *   private String description;
+ * 
+ *   public void setDescription(String description) {
+ *     this.description = description;
+ *     changes.markDirty("description");
+ *   }
+ * 
+ *   public Set&lt;String&gt; getDirtyPaths() {
+ *     return changes.getDirtyPaths();
+ *   }
+ * 
+ *   public void clearDirtyPaths() {
+ *     changes.clearDirtyPaths();
+ *   }
+ * }
+ * </pre>
+ * 
+ * <p>
+ * Fields of type ChangeTracker are never diffed. The tracker is {@link Serializable} so that deep copies of an entity
+ * keep their dirty paths; it should be left out of the entity's equals() and hashCode(). A ChangeTracker isn't thread-safe.
+ * </p>
+ * 
+ * @author Craig Walls
+ */
+public class ChangeTracker implements ChangeTracked, Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final Set<String> dirtyPaths = new LinkedHashSet<String>();
+
+	/**
+	 * Marks a property dirty.
+	 * @param path the property's name or its JSON Pointer path, such as "description" or "/address/city".
+	 */
+	public void markDirty(String path) {
+		dirtyPaths.add(path.startsWith("/") ? path : "/" + path);
+	}
+
+	/**
+	 * @return true if any property has been marked dirty since the dirty paths were last cleared.
+	 */
+	public boolean isDirty() {
+		return !dirtyPaths.isEmpty();
+	}
+
+	@Override
+	public Set<String> getDirtyPaths() {
+		return Collections.unmodifiableSet(dirtyPaths);
+	}
+
+	@Override
+	public void clearDirtyPaths() {
+		dirtyPaths.clear();
+	}
+
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.sync;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.List;
+
+import org.springframework.sync.Diff.DiffContext;
+import org.springframework.sync.Diff.FieldKind;
+import org.springframework.sync.Diff.FieldMetadata;
+import org.springframework.util.ObjectUtils;
+
+/**
+ * <p>Compares two objects of the same type, field by field, producing the same operations as the reflective field walk
+ * in {@link Diff}.</p>
+ *
+ * <p>
+ * A differ is built once per type from the type's {@link FieldMetadata}. Each field gets a step specialized to its kind:
+ * boolean, int, long, and double fields are compared without boxing their values, and each field's path segment is
+ * precomputed so that a path is only built for fields that differ or that must be descended into.
+ * </p>
+ *
+ * @author Craig Walls
+ */
+class ClassDiffer {
+
+	private final FieldDiffer[] fieldDiffers;
+
+	ClassDiffer(FieldMetadata[] fields) {
+		fieldDiffers = new FieldDiffer[fields.length];
+		for (int i = 0; i < fields.length; i++) {
+			fieldDiffers[i] = forField(fields[i]);
+		}
+	}
+
+	/**
+	 * Adds the operations describing the differences between two objects of this differ's type.
+	 * @param operations the list to add operations to
+	 * @param path the path of the objects being compared
+	 * @param original the original object
+	 * @param modified the modified object
+	 * @param context the settings of the difference operation
+	 */
+	void diff(List<PatchOperation> operations, String path, Object original, Object modified, DiffContext context) throws IOException, IllegalAccessException {
+		for (FieldDiffer fieldDiffer : fieldDiffers) {
+			fieldDiffer.diff(operations, path, original, modified, context);
+		}
+	}
+
+	private static FieldDiffer forField(FieldMetadata metadata) {
+		Field field = metadata.getField();
+		Class<?> type = field.getType();
+		if (type == boolean.class) {
+			return new BooleanFieldDiffer(field);
+		} else if (type == int.class) {
+			return new IntFieldDiffer(field);
+		} else if (type == long.class) {
+			return new LongFieldDiffer(field);
+		} else if (type == double.class) {
+			return new DoubleFieldDiffer(field);
+		} else if (metadata.getKind() == FieldKind.SIMPLE) {
+			return new ValueFieldDiffer(field);
+		} else if (metadata.getKind() == FieldKind.COLLECTION || metadata.getKind() == FieldKind.MAP) {
+			return new CollectionFieldDiffer(field);
+		} else if (metadata.getKind() == FieldKind.ARRAY) {
+			return new ArrayFieldDiffer(field);
+		}
+		return new NestedFieldDiffer(field);
+	}
+
+	private static abstract class FieldDiffer {
+
+		protected final Field field;
+
+		protected final String pathSegment;
+
+		protected FieldDiffer(Field field) {
+			this.field = field;
+			this.pathSegment = "/" + field.getName();
+		}
+
+		abstract void diff(List<PatchOperation> operations, String path, Object original, Object modified, DiffContext context) throws IOException, IllegalAccessException;
+
+	}
+
+	private static class BooleanFieldDiffer extends FieldDiffer {
+
+		BooleanFieldDiffer(Field field) {
+			super(field);
+		}
+
+		@Override
+		void diff(List<PatchOperation> operations, String path, Object original, Object modified, DiffContext context) throws IllegalAccessException {
+			boolean origValue = field.getBoolean(original);
+			boolean modValue = field.getBoolean(modified);
+			if (origValue != modValue) {
+				Diff.diffValue(operations, path + pathSegment, origValue, modValue);
+			}
+		}
+
+	}
+
+	private static class IntFieldDiffer extends FieldDiffer {
+
+		IntFieldDiffer(Field field) {
+			super(field);
+		}
+
+		@Override
+		void diff(List<PatchOperation> operations, String path, Object original, Object modified, DiffContext context) throws IllegalAccessException {
+			int origValue = field.getInt(original);
+			int modValue = field.getInt(modified);
+			if (origValue != modValue) {
+				Diff.diffValue(operations, path + pathSegment, origValue, modValue);
+			}
+		}
+
+	}
+
+	private static class LongFieldDiffer extends FieldDiffer {
+
+		LongFieldDiffer(Field field) {
+			super(field);
+		}
+
+		@Override
+		void diff(List<PatchOperation> operations, String path, Object original, Object modified, DiffContext context) throws IllegalAccessException {
+			long origValue = field.getLong(original);
+			long modValue = field.getLong(modified);
+			if (origValue != modValue) {
+				Diff.diffValue(operations, path + pathSegment, origValue, modValue);
+			}
+		}
+
+	}
+
+	private static class DoubleFieldDiffer extends FieldDiffer {
+
+		DoubleFieldDiffer(Field field) {
+			super(field);
+		}
+
+		@Override
+		void diff(List<PatchOperation> operations, String path, Object original, Object modified, DiffContext context) throws IllegalAccessException {
+			double origValue = field.getDouble(original);
+			double modValue = field.getDouble(modified);
+			// compared by bits, as Double.equals() does, so that NaN equals NaN and 0.0 differs from -0.0
+			if (Double.doubleToLongBits(origValue) != Double.doubleToLongBits(modValue)) {
+				Diff.diffValue(operations, path + pathSegment, origValue, modValue);
+			}
+		}
+
+	}
+
+	private static class ValueFieldDiffer extends FieldDiffer {
+
+		ValueFieldDiffer(Field field) {
+			super(field);
+		}
+
+		@Override
+		void diff(List<PatchOperation> operations, String path, Object original, Object modified, DiffContext context) throws IllegalAccessException {
+			Object origValue = field.get(original);
+			Object modValue = field.get(modified);
+			if (!ObjectUtils.nullSafeEquals(origValue, modValue)) {
+				if (modValue == null) {
+					operations.add(new RemoveOperation(path + pathSegment));
+				} else {
+					Diff.diffValue(operations, path + pathSegment, origValue, modValue);
+				}
+			}
+		}
+
+	}
+
+	private static class CollectionFieldDiffer extends FieldDiffer {
+
+		CollectionFieldDiffer(Field field) {
+			super(field);
+		}
+
+		@Override
+		void diff(List<PatchOperation> operations, String path, Object original, Object modified, DiffContext context) throws IOException, IllegalAccessException {
+			Object origValue = field.get(original);
+			Object modValue = field.get(modified);
+			if (origValue == modValue) {
+				return;
+			}
+			if (origValue != null && modValue != null) {
+				Diff.diffCollection(operations, path + pathSegment, origValue, modValue, context);
+			} else {
+				Diff.diffNonList(operations, path + pathSegment, origValue, modValue, context);
+			}
+		}
+
+	}
+
+	private static class ArrayFieldDiffer extends FieldDiffer {
+
+		ArrayFieldDiffer(Field field) {
+			super(field);
+		}
+
+		@Override
+		void diff(List<PatchOperation> operations, String path, Object original, Object modified, DiffContext context) throws IOException, IllegalAccessException {
+			Object origValue = field.get(original);
+			Object modValue = field.get(modified);
+			if (origValue == modValue) {
+				return;
+			}
+			if (origValue != null && modValue != null) {
+				Diff.diffList(operations, path + pathSegment, Arrays.asList((Object[]) origValue), Arrays.asList((Object[]) modValue), context);
+			} else {
+				Diff.diffNonList(operations, path + pathSegment, origValue, modValue, context);
+			}
+		}
+
+	}
+
+	private static class NestedFieldDiffer extends FieldDiffer {
+
+		NestedFieldDiffer(Field field) {
+			super(field);
+		}
+
+		@Override
+		void diff(List<PatchOperation> operations, String path, Object original, Object modified, DiffContext context) throws IOException, IllegalAccessException {
+			Object origValue = field.get(original);
+			Object modValue = field.get(modified);
+			if (origValue != modValue) {
+				Diff.diffNonList(operations, path + pathSegment, origValue, modValue, context);
+			}
+		}
+
+	}
+
+}
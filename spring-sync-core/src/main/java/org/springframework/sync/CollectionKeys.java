@@ -0,0 +1,126 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.sync;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.core.convert.ConversionException;
+import org.springframework.core.convert.ConversionService;
+import org.springframework.core.convert.support.DefaultConversionService;
+
+/**
+ * <p>Support for addressing the entries of maps and the members of sets with path tokens.</p>
+ *
+ * <p>
+ * A map entry is addressed by its key and a set member by the member itself, each written as a string. Only simple
+ * values (non-empty strings, numbers, booleans, characters, and enums) can be written as path tokens. When resolving a
+ * token against a map or set whose keys or members aren't strings, the token is converted to the type of the existing
+ * keys or members. A token resolved against an empty map is converted to the map's declared key type, if it's known.
+ * </p>
+ *
+ * @author Craig Walls
+ */
+final class CollectionKeys {
+
+	private static final ConversionService CONVERSION_SERVICE = new DefaultConversionService();
+
+	private CollectionKeys() {
+	}
+
+	/**
+	 * @param value the value
+	 * @return true if the value can be written as a path token and resolved back to an equal value. An empty string
+	 * can't, because an empty token would address the enclosing collection itself.
+	 */
+	static boolean isKeyable(Object value) {
+		return (value instanceof String && ((String) value).length() > 0) || value instanceof Number || value instanceof Boolean
+				|| value instanceof Character || value instanceof Enum;
+	}
+
+	/**
+	 * @param values the values
+	 * @return true if every value can be written as a path token
+	 */
+	static boolean areKeyable(Collection<?> values) {
+		for (Object value : values) {
+			if (!isKeyable(value)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Resolves a path token to a key of a map.
+	 * @param map the map
+	 * @param token the token
+	 * @return the existing key that the token refers to, or the token converted to the type of the map's keys
+	 */
+	static Object resolveKey(Map<?, ?> map, String token) {
+		return resolveKey(map, token, null);
+	}
+
+	/**
+	 * Resolves a path token to a key of a map whose declared key type is known.
+	 * @param map the map
+	 * @param token the token
+	 * @param keyType the declared type of the map's keys, or null if it isn't known
+	 * @return the existing key that the token refers to, or the token converted to the type of the map's keys, taken from
+	 * the declared key type if the map is empty
+	 */
+	static Object resolveKey(Map<?, ?> map, String token, Class<?> keyType) {
+		if (map.containsKey(token)) {
+			return token;
+		}
+		if (map.isEmpty()) {
+			return convert(token, keyType);
+		}
+		Object sample = map.keySet().iterator().next();
+		return convert(token, sample != null ? sample.getClass() : null);
+	}
+
+	/**
+	 * Resolves a path token to a member of a set.
+	 * @param set the set
+	 * @param token the token
+	 * @return the member that the token refers to, or null if the set has no such member
+	 */
+	static Object resolveMember(Set<?> set, String token) {
+		if (set.isEmpty()) {
+			return null;
+		}
+		if (set.contains(token)) {
+			return token;
+		}
+		Object sample = set.iterator().next();
+		Object member = convert(token, sample != null ? sample.getClass() : null);
+		return set.contains(member) ? member : null;
+	}
+
+	private static Object convert(String token, Class<?> type) {
+		if (type == null || type.isAssignableFrom(String.class) || !CONVERSION_SERVICE.canConvert(String.class, type)) {
+			return token;
+		}
+		try {
+			return CONVERSION_SERVICE.convert(token, type);
+		} catch (ConversionException e) {
+			return token;
+		}
+	}
+
+}
@@ -15,8 +15,6 @@
  */
 package org.springframework.sync;
 
-import static org.springframework.sync.PathToSpEL.*;
-
 /**
  * <p>
  * Operation to copy a value from the given "from" path to the given "path".
@@ -55,8 +53,8 @@ public class CopyOperation extends FromOperation {
 	}
 	
 	@Override
-	<T> void perform(Object target, Class<T> type) {
-		addValue(target, pathToExpression(from).getValue(target));
+	<T> void perform(Object target, Class<T> type, ModificationListener listener) {
+		addValue(target, getValueFromPath(target, fromPointer), listener);
 	}
 	
 }
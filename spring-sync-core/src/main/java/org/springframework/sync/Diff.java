@@ -17,23 +17,49 @@ package org.springframework.sync;
 
 import java.io.IOException;
 import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
+import org.springframework.sync.diffsync.Equivalency;
+import org.springframework.sync.diffsync.KeyedEquivalency;
+
+import org.springframework.util.ConcurrentReferenceHashMap;
 import org.springframework.util.ObjectUtils;
+import org.springframework.util.ReflectionUtils;
 
 import difflib.Delta;
-import difflib.Delta.TYPE;
-import difflib.DiffUtils;
 
 /**
  * Provides support for producing a {@link Patch} from the comparison of two objects.
+ * The fields compared for each type are resolved once, and objects of the same type are compared with a cached
+ * {@link ClassDiffer} specialized to that type. Objects of differing types are compared with a reflective field walk.
+ * Lists are compared with a {@link ListDiffer}. Maps are compared entry by entry, with entries addressed by their
+ * key, and sets are compared member by member, with members addressed by their value; maps with keys and sets with
+ * members other than strings, numbers, booleans, characters, and enums are replaced whole.
  * @author Craig Walls
  */
 public class Diff {
 
+	private static final Map<Class<?>, FieldMetadata[]> FIELD_METADATA = new ConcurrentReferenceHashMap<Class<?>, FieldMetadata[]>();
+
+	private static final ListDiffer DEFAULT_LIST_DIFFER = new ListDiffer();
+
+	private static final Map<Class<?>, ClassDiffer> CLASS_DIFFERS = new ConcurrentReferenceHashMap<Class<?>, ClassDiffer>();
+
 	/**
 	 * Performs a difference operation between two objects, resulting in a {@link Patch} describing the differences.
 	 * 
@@ -43,12 +69,93 @@ public class Diff {
 	 * @throws PatchException if an error occurs while performing the difference.
 	 */
 	public static Patch diff(Object original, Object modified) throws PatchException {
+		return diff(original, modified, new DiffContext(true, null, DEFAULT_LIST_DIFFER));
+	}
+
+	/**
+	 * Performs a difference operation between two objects, comparing lists with the given {@link ListDiffer}.
+	 * 
+	 * @param original the original, unmodified object.
+	 * @param modified the modified object.
+	 * @param listDiffer the list differ used to compare lists.
+	 * @return a {@link Patch} describing the differences between the two objects.
+	 * @throws PatchException if an error occurs while performing the difference.
+	 */
+	public static Patch diff(Object original, Object modified, ListDiffer listDiffer) throws PatchException {
+		return diff(original, modified, new DiffContext(true, null, listDiffer));
+	}
+
+	/**
+	 * <p>Performs a difference operation between two objects, matching the items of lists by equivalency.</p>
+	 * 
+	 * <p>
+	 * Rather than comparing list items by equality, each modified item is matched with an equivalent original item, such as
+	 * one with the same id. Unmatched original items are removed, unmatched modified items are added, matched items that
+	 * have changed position are moved, and the differences within matched items are described by their changed fields.
+	 * When the equivalency is a {@link KeyedEquivalency}, items are matched by hashing their keys. Lists whose items have
+	 * no keys, or that hold only simple values such as strings, are compared by equality as they would be without an equivalency.
+	 * </p>
+	 * 
+	 * @param original the original, unmodified object.
+	 * @param modified the modified object.
+	 * @param equivalency the equivalency used to match list items.
+	 * @return a {@link Patch} describing the differences between the two objects.
+	 * @throws PatchException if an error occurs while performing the difference.
+	 */
+	public static Patch diff(Object original, Object modified, Equivalency equivalency) throws PatchException {
+		return diff(original, modified, new DiffContext(true, equivalency, DEFAULT_LIST_DIFFER));
+	}
+
+	/**
+	 * <p>Performs a difference operation between two objects, comparing only the dirty properties of {@link ChangeTracked} objects.</p>
+	 * 
+	 * <p>
+	 * Wherever a change-tracked object is compared with an original of the same type, only its dirty properties are
+	 * diffed, along with the dirty properties of change-tracked values held by its other properties, so the cost of the
+	 * difference grows with the number of changes rather than with the size of the object graph. Other objects are
+	 * compared as by {@link #diff(Object, Object)}. The dirty paths must cover every change made since the original was
+	 * taken, or those changes will be missed.
+	 * </p>
+	 * 
+	 * @param original the original, unmodified object.
+	 * @param modified the modified object.
+	 * @return a {@link Patch} describing the differences between the two objects.
+	 * @throws PatchException if an error occurs while performing the difference.
+	 */
+	public static Patch diffDirty(Object original, Object modified) throws PatchException {
+		return diffDirty(original, modified, null, null);
+	}
+
+	/**
+	 * Performs a difference operation between two objects, comparing only the dirty properties of {@link ChangeTracked} objects
+	 * as described for {@link #diffDirty(Object, Object)}.
+	 * 
+	 * @param original the original, unmodified object.
+	 * @param modified the modified object.
+	 * @param equivalency the equivalency used to match list items, or null to match them by equality.
+	 * @param listDiffer the list differ used to compare lists, or null for the default.
+	 * @return a {@link Patch} describing the differences between the two objects.
+	 * @throws PatchException if an error occurs while performing the difference.
+	 */
+	public static Patch diffDirty(Object original, Object modified, Equivalency equivalency, ListDiffer listDiffer) throws PatchException {
+		return diff(original, modified, new DiffContext(true, equivalency, listDiffer != null ? listDiffer : DEFAULT_LIST_DIFFER, true, true));
+	}
+
+	/**
+	 * Performs a difference operation, optionally with the generic reflective field walk in place of specialized
+	 * {@link ClassDiffer}s. Exposed so that the two can be compared.
+	 */
+	static Patch diff(Object original, Object modified, boolean specialized) throws PatchException {
+		return diff(original, modified, new DiffContext(specialized, null, DEFAULT_LIST_DIFFER));
+	}
+
+	private static Patch diff(Object original, Object modified, DiffContext context) throws PatchException {
 		try {
 			List<PatchOperation> operations = new ArrayList<PatchOperation>();
 			if (original instanceof List && modified instanceof List) {
-				diffList(operations, "", (List<?>) original, (List<?>) modified);
+				diffList(operations, "", (List<?>) original, (List<?>) modified, context);
 			} else {
-				diffNonList(operations, "", original, modified);
+				diffNonList(operations, "", original, modified, context);
 			}
 			
 			return new Patch(operations);
@@ -57,40 +164,124 @@ public class Diff {
 		}
 	}
 	
-	// private helpers
+	// helpers
 	
-	private static void diffList(List<PatchOperation> operations, String path, List<?> original, List<?> modified) throws IOException, IllegalAccessException {
+	static void diffList(List<PatchOperation> operations, String path, List<?> original, List<?> modified, DiffContext context) throws IOException, IllegalAccessException {
+		if (context.equivalency != null) {
+			if (diffListByEquivalency(operations, path, original, modified, context)) {
+				return;
+			}
+			// the items have no keys to match them by (as in a list of strings), so they're compared by equality instead
+			if (original.equals(modified)) {
+				return;
+			}
+		}
 	
-		difflib.Patch diff = DiffUtils.diff(original, modified);
-		List<Delta> deltas = diff.getDeltas();
+		List<Delta> deltas = context.listDiffer.diff(original, modified).getDeltas();
+		Iterator<List<PatchOperation>> pairOperations = context.parallel ? diffPairsInParallel(path, original, modified, deltas, context) : null;
 		for (Delta delta : deltas) {
-			TYPE type = delta.getType();
+			// earlier deltas have already been applied, so paths are at revised positions while values come from original positions
+			int originalPosition = delta.getOriginal().getPosition();
 			int revisedPosition = delta.getRevised().getPosition();
-			if (type == TYPE.CHANGE) {
-				List<?> lines = delta.getRevised().getLines();
-				for(int offset = 0; offset < lines.size(); offset++) {
-					Object originalObject = original.get(revisedPosition + offset);
-					Object revisedObject = modified.get(revisedPosition + offset);
-					diffNonList(operations, path + "/" + (revisedPosition + offset), originalObject, revisedObject);					
-				}
-				
-			} else if (type == TYPE.INSERT) {
-				List<?> lines = delta.getRevised().getLines();
-				for(int offset = 0; offset < lines.size(); offset++) {
-					operations.add(new AddOperation(path + "/" + (revisedPosition + offset), lines.get(offset)));
-				}
-			} else if (type == TYPE.DELETE) {
-				List<?> lines = delta.getOriginal().getLines();
-				for(int offset = 0; offset < lines.size(); offset++) {
-					Object originalObject = original.get(revisedPosition + offset);
-					operations.add(new TestOperation(path + "/" + revisedPosition, originalObject));
-					operations.add(new RemoveOperation(path + "/" + revisedPosition));
+			int originalSize = delta.getOriginal().size();
+			int revisedSize = delta.getRevised().size();
+			int changed = Math.min(originalSize, revisedSize);
+			for (int offset = 0; offset < changed; offset++) {
+				if (pairOperations != null) {
+					operations.addAll(pairOperations.next());
+					continue;
 				}
+				Object originalObject = original.get(originalPosition + offset);
+				Object revisedObject = modified.get(revisedPosition + offset);
+				diffNonList(operations, path + "/" + (revisedPosition + offset), originalObject, revisedObject, context);
+			}
+			for (int offset = changed; offset < originalSize; offset++) {
+				Object originalObject = original.get(originalPosition + offset);
+				operations.add(new TestOperation(path + "/" + (revisedPosition + changed), originalObject));
+				operations.add(new RemoveOperation(path + "/" + (revisedPosition + changed)));
+			}
+			for (int offset = changed; offset < revisedSize; offset++) {
+				operations.add(new AddOperation(path + "/" + (revisedPosition + offset), modified.get(revisedPosition + offset)));
 			}
 		}
 	}
 	
-	private static void diffNonList(List<PatchOperation> operations, String path, Object original, Object modified) throws IOException, IllegalAccessException {
+	/*
+	 * Compares the paired elements of the deltas in chunks, the first on the calling thread and the rest with the list
+	 * differ's executor, returning the operations for each pair in order. Returns null if the list differ has no executor
+	 * or there are too few pairs to be worth splitting up. Lists nested within the elements are compared sequentially,
+	 * so that tasks never wait on tasks queued behind them in the executor.
+	 */
+	private static Iterator<List<PatchOperation>> diffPairsInParallel(String path, List<?> original, List<?> modified, List<Delta> deltas, DiffContext context) throws IOException, IllegalAccessException {
+		ListDiffer listDiffer = context.listDiffer;
+		ExecutorService executor = listDiffer.getExecutor();
+		if (executor == null) {
+			return null;
+		}
+		int pairCount = 0;
+		for (Delta delta : deltas) {
+			pairCount += Math.min(delta.getOriginal().size(), delta.getRevised().size());
+		}
+		if (pairCount == 0 || pairCount < listDiffer.getParallelThreshold()) {
+			return null;
+		}
+
+		int[] originalPositions = new int[pairCount];
+		int[] revisedPositions = new int[pairCount];
+		int pair = 0;
+		for (Delta delta : deltas) {
+			int changed = Math.min(delta.getOriginal().size(), delta.getRevised().size());
+			for (int offset = 0; offset < changed; offset++, pair++) {
+				originalPositions[pair] = delta.getOriginal().getPosition() + offset;
+				revisedPositions[pair] = delta.getRevised().getPosition() + offset;
+			}
+		}
+
+		DiffContext sequentialContext = new DiffContext(context.specialized, context.equivalency, listDiffer, false, context.dirtyOnly);
+		int chunks = Math.min(listDiffer.getParallelism(), pairCount);
+		int chunkSize = (pairCount + chunks - 1) / chunks;
+		List<Future<List<List<PatchOperation>>>> futures = new ArrayList<Future<List<List<PatchOperation>>>>(chunks);
+		try {
+			for (int from = chunkSize; from < pairCount; from += chunkSize) {
+				futures.add(executor.submit(new PairDiffTask(path, original, modified, originalPositions, revisedPositions,
+						from, Math.min(from + chunkSize, pairCount), sequentialContext)));
+			}
+			List<List<PatchOperation>> pairOperations = new ArrayList<List<PatchOperation>>(pairCount);
+			pairOperations.addAll(new PairDiffTask(path, original, modified, originalPositions, revisedPositions,
+					0, Math.min(chunkSize, pairCount), sequentialContext).call());
+			for (Future<List<List<PatchOperation>>> future : futures) {
+				pairOperations.addAll(future.get());
+			}
+			listDiffer.recordParallelDiff();
+			return pairOperations.iterator();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof IllegalAccessException) {
+				throw (IllegalAccessException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IllegalStateException(cause);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while comparing list elements", e);
+		} finally {
+			for (Future<List<List<PatchOperation>>> future : futures) {
+				future.cancel(true);
+			}
+		}
+	}
+
+	static void diffNonList(List<PatchOperation> operations, String path, Object original, Object modified, DiffContext context) throws IOException, IllegalAccessException {
+		if (context.dirtyOnly && modified instanceof ChangeTracked && original != null && original.getClass() == modified.getClass()) {
+			// checked ahead of equality, which would compare the whole object
+			diffDirtyFields(operations, path, original, (ChangeTracked) modified, context);
+			return;
+		}
 		if (!ObjectUtils.nullSafeEquals(original, modified)) {
 			if (modified == null) {
 				operations.add(new RemoveOperation(path));
@@ -98,40 +289,436 @@ public class Diff {
 			}
 			
 			if (isPrimitive(modified)) {
-				
-				operations.add(new TestOperation(path, original));
-				if (original == null) {
-					operations.add(new AddOperation(path, modified));
+				diffValue(operations, path, original, modified);
+				return;
+			}
+
+			if ((original instanceof List && modified instanceof List) || (original instanceof Set && modified instanceof Set)
+					|| (original instanceof Map && modified instanceof Map)) {
+				diffCollection(operations, path, original, modified, context);
+				return;
+			}
+			
+			Class<?> type = original.getClass();
+			if (context.specialized && type == modified.getClass()) {
+				getClassDiffer(type).diff(operations, path, original, modified, context);
+				return;
+			}
+
+			for (FieldMetadata field : getFieldMetadata(type)) {
+				diffField(operations, path + "/" + field.getName(), field, field.get(original), field.get(modified), context);
+			}
+			
+		}
+	}
+
+	private static void diffField(List<PatchOperation> operations, String fieldPath, FieldMetadata field, Object origValue, Object modValue, DiffContext context) throws IOException, IllegalAccessException {
+		if (field.getKind() == FieldKind.SIMPLE) {
+			if (!ObjectUtils.nullSafeEquals(origValue, modValue)) {
+				if (modValue == null) {
+					operations.add(new RemoveOperation(fieldPath));
 				} else {
-					operations.add(new ReplaceOperation(path, modified));
+					diffValue(operations, fieldPath, origValue, modValue);
 				}
-				return;
 			}
-						
-			Class<? extends Object> originalType = original.getClass();
-			Field[] fields = originalType.getDeclaredFields();
-			for (Field field : fields) {
-				field.setAccessible(true);
-				Class<?> fieldType = field.getType();
-				Object origValue = field.get(original);
-				Object modValue = field.get(modified);
-				if ((fieldType.isArray() || Collection.class.isAssignableFrom(fieldType)) && origValue != null && modValue != null) {
-					if (Collection.class.isAssignableFrom(fieldType)) {
-						diffList(operations, path + "/" + field.getName(), (List<?>) origValue, (List<?>) modValue);
+		} else if ((field.getKind() == FieldKind.COLLECTION || field.getKind() == FieldKind.MAP) && origValue != null && modValue != null) {
+			diffCollection(operations, fieldPath, origValue, modValue, context);
+		} else if (field.getKind() == FieldKind.ARRAY && origValue != null && modValue != null) {
+			diffList(operations, fieldPath, Arrays.asList((Object[]) origValue), Arrays.asList((Object[]) modValue), context);
+		} else {
+			diffNonList(operations, fieldPath, origValue, modValue, context);
+		}
+	}
+
+	// diffs the dirty fields of a change-tracked object, and descends into change-tracked values held by its other fields
+	private static void diffDirtyFields(List<PatchOperation> operations, String path, Object original, ChangeTracked modified, DiffContext context) throws IOException, IllegalAccessException {
+		Set<String> dirtyFields = new HashSet<String>();
+		for (String dirtyPath : modified.getDirtyPaths()) {
+			int start = dirtyPath.startsWith("/") ? 1 : 0;
+			int end = dirtyPath.indexOf('/', start);
+			dirtyFields.add(end < 0 ? dirtyPath.substring(start) : dirtyPath.substring(start, end));
+		}
+		for (FieldMetadata field : getFieldMetadata(original.getClass())) {
+			Object origValue = field.get(original);
+			Object modValue = field.get(modified);
+			if (dirtyFields.contains(field.getName())) {
+				diffField(operations, path + "/" + field.getName(), field, origValue, modValue, context);
+			} else if (field.getKind() == FieldKind.NESTED && modValue instanceof ChangeTracked && origValue != null) {
+				diffNonList(operations, path + "/" + field.getName(), origValue, modValue, context);
+			}
+		}
+	}
+
+	// returns false, having produced no operations, if the items can't be matched by the equivalency
+	private static boolean diffListByEquivalency(List<PatchOperation> operations, String path, List<?> original, List<?> modified, DiffContext context) throws IOException, IllegalAccessException {
+		int[] matches = matchEquivalents(original, modified, context.equivalency);
+		if (matches == null) {
+			return false;
+		}
+		boolean[] matched = new boolean[original.size()];
+		for (int match : matches) {
+			if (match >= 0) {
+				matched[match] = true;
+			}
+		}
+
+		// remove unmatched items from the end so that the remaining indexes stay valid
+		for (int i = original.size() - 1; i >= 0; i--) {
+			if (!matched[i]) {
+				operations.add(new TestOperation(path + "/" + i, original.get(i)));
+				operations.add(new RemoveOperation(path + "/" + i));
+			}
+		}
+
+		// tracks the original index of each item in the list as patched so far (-1 for added items)
+		List<Integer> working = new ArrayList<Integer>(Math.max(original.size(), modified.size()));
+		for (int i = 0; i < original.size(); i++) {
+			if (matched[i]) {
+				working.add(i);
+			}
+		}
+		for (int j = 0; j < modified.size(); j++) {
+			String itemPath = path + "/" + j;
+			int match = matches[j];
+			if (match < 0) {
+				operations.add(new AddOperation(itemPath, modified.get(j)));
+				working.add(j, -1);
+				continue;
+			}
+			if (working.get(j) != match) {
+				// items before j are already in place, so the matched item is always found after j
+				int position = working.indexOf(match);
+				operations.add(new MoveOperation(itemPath, path + "/" + position));
+				working.remove(position);
+				working.add(j, match);
+			}
+			diffNonList(operations, itemPath, original.get(match), modified.get(j), context);
+		}
+		return true;
+	}
+
+	/*
+	 * Finds the index of the original item that each modified item is matched with, or -1 if it has no match.
+	 * Returns null if none of the items has a key or, with an equivalency that doesn't produce keys, if all of the items
+	 * are simple values, so that lists such as lists of strings aren't replaced item by item.
+	 */
+	private static int[] matchEquivalents(List<?> original, List<?> modified, Equivalency equivalency) {
+		int[] matches = new int[modified.size()];
+		Arrays.fill(matches, -1);
+		if (equivalency instanceof KeyedEquivalency) {
+			KeyedEquivalency keyedEquivalency = (KeyedEquivalency) equivalency;
+			Map<Object, LinkedList<Integer>> originalIndexes = new HashMap<Object, LinkedList<Integer>>();
+			boolean keyed = false;
+			for (int i = 0; i < original.size(); i++) {
+				Object key = original.get(i) != null ? keyedEquivalency.getKey(original.get(i)) : null;
+				if (key != null) {
+					keyed = true;
+					LinkedList<Integer> indexes = originalIndexes.get(key);
+					if (indexes == null) {
+						indexes = new LinkedList<Integer>();
+						originalIndexes.put(key, indexes);
 					}
-					else if (fieldType.isArray()) {
-						diffList(operations, path + "/" + field.getName(), Arrays.asList((Object[]) origValue), Arrays.asList((Object[]) modValue));
+					indexes.add(i);
+				}
+			}
+			for (int j = 0; j < modified.size(); j++) {
+				Object key = modified.get(j) != null ? keyedEquivalency.getKey(modified.get(j)) : null;
+				keyed |= key != null;
+				LinkedList<Integer> indexes = key != null ? originalIndexes.get(key) : null;
+				if (indexes != null && !indexes.isEmpty()) {
+					matches[j] = indexes.removeFirst();
+				}
+			}
+			if (!keyed) {
+				return null;
+			}
+		} else if (isSimpleValues(original) && isSimpleValues(modified)) {
+			return null;
+		} else {
+			boolean[] matched = new boolean[original.size()];
+			for (int j = 0; j < modified.size(); j++) {
+				Object item = modified.get(j);
+				for (int i = 0; item != null && i < original.size(); i++) {
+					if (!matched[i] && original.get(i) != null && equivalency.isEquivalent(original.get(i), item)) {
+						matches[j] = i;
+						matched[i] = true;
+						break;
 					}
-				} else {
-					diffNonList(operations, path+"/"+field.getName(), origValue, modValue);
 				}
 			}
-			
+		}
+		return matches;
+	}
+
+	/**
+	 * Compares two lists, two sets, or two maps. Anything else is compared as an object.
+	 */
+	static void diffCollection(List<PatchOperation> operations, String path, Object original, Object modified, DiffContext context) throws IOException, IllegalAccessException {
+		if (original instanceof List && modified instanceof List) {
+			diffList(operations, path, (List<?>) original, (List<?>) modified, context);
+		} else if (original instanceof Set && modified instanceof Set) {
+			diffSet(operations, path, (Set<?>) original, (Set<?>) modified);
+		} else if (original instanceof Map && modified instanceof Map) {
+			diffMap(operations, path, (Map<?, ?>) original, (Map<?, ?>) modified, context);
+		} else {
+			diffNonList(operations, path, original, modified, context);
+		}
+	}
+
+	// sets of simple values are compared by hashing, with members addressed by their value; other sets are replaced whole
+	private static void diffSet(List<PatchOperation> operations, String path, Set<?> original, Set<?> modified) {
+		if (original.equals(modified)) {
+			return;
+		}
+		if (!CollectionKeys.areKeyable(original) || !CollectionKeys.areKeyable(modified)) {
+			diffValue(operations, path, original, modified);
+			return;
+		}
+		for (Object member : original) {
+			if (!modified.contains(member)) {
+				String memberPath = path + "/" + JsonPointer.escape(String.valueOf(member));
+				operations.add(new TestOperation(memberPath, member));
+				operations.add(new RemoveOperation(memberPath));
+			}
+		}
+		for (Object member : modified) {
+			if (!original.contains(member)) {
+				operations.add(new AddOperation(path + "/" + JsonPointer.escape(String.valueOf(member)), member));
+			}
 		}
 	}
 
+	// maps with simple keys are compared entry by entry, with entries addressed by their key; other maps are replaced whole
+	private static void diffMap(List<PatchOperation> operations, String path, Map<?, ?> original, Map<?, ?> modified, DiffContext context) throws IOException, IllegalAccessException {
+		if (!CollectionKeys.areKeyable(original.keySet()) || !CollectionKeys.areKeyable(modified.keySet())) {
+			if (!original.equals(modified)) {
+				diffValue(operations, path, original, modified);
+			}
+			return;
+		}
+		for (Map.Entry<?, ?> entry : original.entrySet()) {
+			if (!modified.containsKey(entry.getKey())) {
+				String keyPath = path + "/" + JsonPointer.escape(String.valueOf(entry.getKey()));
+				operations.add(new TestOperation(keyPath, entry.getValue()));
+				operations.add(new RemoveOperation(keyPath));
+			}
+		}
+		for (Map.Entry<?, ?> entry : modified.entrySet()) {
+			String keyPath = path + "/" + JsonPointer.escape(String.valueOf(entry.getKey()));
+			Object modifiedValue = entry.getValue();
+			if (!original.containsKey(entry.getKey())) {
+				operations.add(new AddOperation(keyPath, modifiedValue));
+				continue;
+			}
+			Object originalValue = original.get(entry.getKey());
+			if (originalValue == null || modifiedValue == null) {
+				// a null value is kept as an entry rather than removed, so it's set rather than diffed
+				if (originalValue != modifiedValue) {
+					diffValue(operations, keyPath, originalValue, modifiedValue);
+				}
+			} else {
+				diffNonList(operations, keyPath, originalValue, modifiedValue, context);
+			}
+		}
+	}
+
+	static void diffValue(List<PatchOperation> operations, String path, Object original, Object modified) {
+		operations.add(new TestOperation(path, original));
+		if (original == null) {
+			operations.add(new AddOperation(path, modified));
+		} else {
+			operations.add(new ReplaceOperation(path, modified));
+		}
+	}
+
+	/**
+	 * Looks up the fields that are compared when diffing instances of a type, resolving and caching them on first use.
+	 * Static, transient, and synthetic fields are left out, as are {@link ChangeTracker} fields; inherited fields are included, except where hidden by a
+	 * field of the same name declared lower in the hierarchy.
+	 */
+	static FieldMetadata[] getFieldMetadata(Class<?> type) {
+		FieldMetadata[] fields = FIELD_METADATA.get(type);
+		if (fields == null) {
+			List<FieldMetadata> resolved = new ArrayList<FieldMetadata>();
+			Set<String> names = new HashSet<String>();
+			List<Class<?>> hierarchy = new ArrayList<Class<?>>();
+			for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+				hierarchy.add(0, current);
+			}
+			for (int i = hierarchy.size() - 1; i >= 0; i--) {
+				List<FieldMetadata> declared = new ArrayList<FieldMetadata>();
+				for (Field field : hierarchy.get(i).getDeclaredFields()) {
+					int modifiers = field.getModifiers();
+					if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()
+							|| field.getType() == ChangeTracker.class || !names.add(field.getName())) {
+						continue;
+					}
+					ReflectionUtils.makeAccessible(field);
+					declared.add(new FieldMetadata(field));
+				}
+				resolved.addAll(0, declared);
+			}
+			fields = resolved.toArray(new FieldMetadata[resolved.size()]);
+			FIELD_METADATA.put(type, fields);
+		}
+		return fields;
+	}
+
 	private static boolean isPrimitive(Object o) {
 		return o instanceof String || o instanceof Number || o instanceof Boolean;
 	}
+
+	private static boolean isSimpleValues(List<?> list) {
+		for (Object item : list) {
+			if (item != null && !isPrimitive(item)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	static ClassDiffer getClassDiffer(Class<?> type) {
+		ClassDiffer differ = CLASS_DIFFERS.get(type);
+		if (differ == null) {
+			differ = new ClassDiffer(getFieldMetadata(type));
+			CLASS_DIFFERS.put(type, differ);
+		}
+		return differ;
+	}
+
+	/**
+	 * Settings that apply throughout a single difference operation.
+	 */
+	static class DiffContext {
+
+		final boolean specialized;
+
+		final Equivalency equivalency;
+
+		final ListDiffer listDiffer;
+
+		final boolean parallel;
+
+		final boolean dirtyOnly;
+
+		DiffContext(boolean specialized, Equivalency equivalency, ListDiffer listDiffer) {
+			this(specialized, equivalency, listDiffer, true, false);
+		}
+
+		DiffContext(boolean specialized, Equivalency equivalency, ListDiffer listDiffer, boolean parallel, boolean dirtyOnly) {
+			this.specialized = specialized;
+			this.equivalency = equivalency;
+			this.listDiffer = listDiffer;
+			this.parallel = parallel;
+			this.dirtyOnly = dirtyOnly;
+		}
+
+	}
+
+	/**
+	 * Compares a range of the paired elements of two lists, collecting the operations for each pair separately.
+	 */
+	private static class PairDiffTask implements Callable<List<List<PatchOperation>>> {
+
+		private final String path;
+
+		private final List<?> original;
+
+		private final List<?> modified;
+
+		private final int[] originalPositions;
+
+		private final int[] revisedPositions;
+
+		private final int from;
+
+		private final int to;
+
+		private final DiffContext context;
+
+		PairDiffTask(String path, List<?> original, List<?> modified, int[] originalPositions, int[] revisedPositions, int from, int to, DiffContext context) {
+			this.path = path;
+			this.original = original;
+			this.modified = modified;
+			this.originalPositions = originalPositions;
+			this.revisedPositions = revisedPositions;
+			this.from = from;
+			this.to = to;
+			this.context = context;
+		}
+
+		@Override
+		public List<List<PatchOperation>> call() throws IOException, IllegalAccessException {
+			List<List<PatchOperation>> pairOperations = new ArrayList<List<PatchOperation>>(to - from);
+			List<PatchOperation> operations = new ArrayList<PatchOperation>();
+			for (int pair = from; pair < to; pair++) {
+				diffNonList(operations, path + "/" + revisedPositions[pair], original.get(originalPositions[pair]), modified.get(revisedPositions[pair]), context);
+				if (operations.isEmpty()) {
+					pairOperations.add(Collections.<PatchOperation>emptyList());
+				} else {
+					pairOperations.add(new ArrayList<PatchOperation>(operations));
+					operations.clear();
+				}
+			}
+			return pairOperations;
+		}
+
+	}
+
+	enum FieldKind {
+		/** A primitive, String, Number, or Boolean field, compared by value. */
+		SIMPLE,
+		/** A Collection field, diffed as a list or a set. */
+		COLLECTION,
+		/** A Map field, diffed by key. */
+		MAP,
+		/** An array field, diffed as a list. */
+		ARRAY,
+		/** Any other field, diffed by its own fields. */
+		NESTED
+	}
+
+	/**
+	 * An accessible field along with its classification.
+	 */
+	static class FieldMetadata {
+
+		private final Field field;
+
+		private final FieldKind kind;
+
+		private FieldMetadata(Field field) {
+			this.field = field;
+			Class<?> type = field.getType();
+			if (type.isPrimitive() || type == String.class || type == Boolean.class || Number.class.isAssignableFrom(type)) {
+				this.kind = FieldKind.SIMPLE;
+			} else if (Collection.class.isAssignableFrom(type)) {
+				this.kind = FieldKind.COLLECTION;
+			} else if (Map.class.isAssignableFrom(type)) {
+				this.kind = FieldKind.MAP;
+			} else if (type.isArray()) {
+				this.kind = FieldKind.ARRAY;
+			} else {
+				this.kind = FieldKind.NESTED;
+			}
+		}
+
+		Field getField() {
+			return field;
+		}
+
+		String getName() {
+			return field.getName();
+		}
+
+		FieldKind getKind() {
+			return kind;
+		}
+
+		Object get(Object target) throws IllegalAccessException {
+			return field.get(target);
+		}
+
+	}
 	
 }
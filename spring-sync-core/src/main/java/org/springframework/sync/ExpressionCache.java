@@ -0,0 +1,156 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.sync;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.expression.Expression;
+import org.springframework.util.Assert;
+
+/**
+ * <p>Thread-safe, size-bounded cache of parsed SpEL {@link Expression}s, keyed by normalized patch path.</p>
+ *
+ * <p>
+ * Once the cache holds its maximum number of expressions, the least recently used expression is evicted
+ * to make room for a new one. Hit, miss, and eviction counts are tracked so that the effectiveness of the
+ * cache can be monitored.
+ * </p>
+ *
+ * @author Craig Walls
+ */
+public class ExpressionCache {
+
+	/**
+	 * The default maximum number of expressions held by the cache.
+	 */
+	public static final int DEFAULT_MAX_SIZE = 1024;
+
+	private final int maxSize;
+
+	private final Map<String, Expression> expressions;
+
+	private final AtomicLong hitCount = new AtomicLong();
+
+	private final AtomicLong missCount = new AtomicLong();
+
+	private final AtomicLong evictionCount = new AtomicLong();
+
+	/**
+	 * Constructs a cache holding at most {@link #DEFAULT_MAX_SIZE} expressions.
+	 */
+	public ExpressionCache() {
+		this(DEFAULT_MAX_SIZE);
+	}
+
+	/**
+	 * Constructs a cache.
+	 * @param maxSize the maximum number of expressions to hold
+	 */
+	public ExpressionCache(int maxSize) {
+		Assert.isTrue(maxSize > 0, "Maximum cache size must be greater than zero");
+		this.maxSize = maxSize;
+		this.expressions = new LinkedHashMap<String, Expression>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Expression> eldest) {
+				if (size() > ExpressionCache.this.maxSize) {
+					evictionCount.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Looks up a cached expression.
+	 * @param path the normalized path that the expression was cached under
+	 * @return the cached {@link Expression} or null if no expression is cached for the path
+	 */
+	public Expression get(String path) {
+		Expression expression;
+		synchronized (expressions) {
+			expression = expressions.get(path);
+		}
+		if (expression != null) {
+			hitCount.incrementAndGet();
+		} else {
+			missCount.incrementAndGet();
+		}
+		return expression;
+	}
+
+	/**
+	 * Caches an expression, possibly evicting the least recently used expression.
+	 * @param path the normalized path to cache the expression under
+	 * @param expression the expression
+	 */
+	public void put(String path, Expression expression) {
+		synchronized (expressions) {
+			expressions.put(path, expression);
+		}
+	}
+
+	/**
+	 * Removes all expressions from the cache. Statistics are left untouched.
+	 */
+	public void clear() {
+		synchronized (expressions) {
+			expressions.clear();
+		}
+	}
+
+	/**
+	 * @return the number of expressions currently cached
+	 */
+	public int size() {
+		synchronized (expressions) {
+			return expressions.size();
+		}
+	}
+
+	/**
+	 * @return the maximum number of expressions this cache will hold
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * @return the number of lookups that found a cached expression
+	 */
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	/**
+	 * @return the number of lookups that did not find a cached expression
+	 */
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	/**
+	 * @return the number of expressions evicted to stay within the maximum size
+	 */
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+}
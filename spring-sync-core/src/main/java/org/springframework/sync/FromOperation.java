@@ -23,6 +23,8 @@ package org.springframework.sync;
 public abstract class FromOperation extends PatchOperation {
 
 	protected String from;
+
+	protected final JsonPointer fromPointer;
 	
 	/**
 	 * Constructs the operation
@@ -33,6 +35,7 @@ public abstract class FromOperation extends PatchOperation {
 	public FromOperation(String op, String path, String from) {
 		super(op, path);
 		this.from = from;
+		this.fromPointer = JsonPointer.parse(from);
 	}
 	
 	public String getFrom() {
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.sync;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.util.Assert;
+import org.springframework.util.ObjectUtils;
+
+import difflib.DiffAlgorithm;
+import difflib.Patch;
+
+/**
+ * <p>{@link DiffAlgorithm} that compares lists in linear time by indexing the positions of the original elements.</p>
+ *
+ * <p>
+ * The modified list is walked once, matching each element with the next position at which it occurs in the original
+ * list. Original elements that are skipped over are deleted, and modified elements that don't occur within the
+ * lookahead distance of the current original position are inserted. Matches are found greedily, so the patch isn't
+ * always minimal, but the time taken grows linearly with the size of the lists no matter how many elements differ.
+ * Elements are hashed, so their hashCode() must be consistent with equals().
+ * </p>
+ *
+ * @author Craig Walls
+ */
+public class HashIndexDiffAlgorithm implements DiffAlgorithm {
+
+	/**
+	 * The default maximum number of original elements that may be skipped to match an element.
+	 */
+	public static final int DEFAULT_MAX_LOOKAHEAD = 256;
+
+	private final int maxLookahead;
+
+	/**
+	 * Constructs a hash-indexed diff algorithm with a lookahead of {@link #DEFAULT_MAX_LOOKAHEAD}.
+	 */
+	public HashIndexDiffAlgorithm() {
+		this(DEFAULT_MAX_LOOKAHEAD);
+	}
+
+	/**
+	 * Constructs a hash-indexed diff algorithm.
+	 * @param maxLookahead the maximum number of original elements that may be skipped to match an element
+	 */
+	public HashIndexDiffAlgorithm(int maxLookahead) {
+		Assert.isTrue(maxLookahead >= 0, "Maximum lookahead must not be negative");
+		this.maxLookahead = maxLookahead;
+	}
+
+	@Override
+	public Patch diff(Object[] original, Object[] revised) {
+		return diff(Arrays.asList(original), Arrays.asList(revised));
+	}
+
+	@Override
+	public Patch diff(List<?> original, List<?> revised) {
+		Map<Object, Positions> index = new HashMap<Object, Positions>();
+		for (int i = 0; i < original.size(); i++) {
+			Object element = original.get(i);
+			Positions positions = index.get(element);
+			if (positions == null) {
+				positions = new Positions();
+				index.put(element, positions);
+			}
+			positions.add(i);
+		}
+
+		List<int[]> runs = new ArrayList<int[]>();
+		int[] run = null;
+		int i = 0;
+		for (int j = 0; j < revised.size(); j++) {
+			Object element = revised.get(j);
+			int match = -1;
+			if (i < original.size() && ObjectUtils.nullSafeEquals(original.get(i), element)) {
+				match = i;
+			} else {
+				Positions positions = index.get(element);
+				int next = positions != null ? positions.next(i) : -1;
+				if (next >= 0 && next - i <= maxLookahead) {
+					match = next;
+				}
+			}
+			if (match < 0) {
+				continue;
+			}
+			if (run != null && run[0] + run[2] == match && run[1] + run[2] == j) {
+				run[2]++;
+			} else {
+				run = new int[] { match, j, 1 };
+				runs.add(run);
+			}
+			i = match + 1;
+		}
+		return ListDiffer.toPatch(original, revised, runs);
+	}
+
+	/**
+	 * The ascending positions of an element in the original list, with a cursor that only moves forward.
+	 */
+	private static class Positions {
+
+		private int[] positions = new int[1];
+
+		private int size;
+
+		private int cursor;
+
+		void add(int position) {
+			if (size == positions.length) {
+				int[] grown = new int[size * 2];
+				System.arraycopy(positions, 0, grown, 0, size);
+				positions = grown;
+			}
+			positions[size++] = position;
+		}
+
+		// the first position at or after the given position, or -1 if there's none
+		int next(int from) {
+			while (cursor < size && positions[cursor] < from) {
+				cursor++;
+			}
+			return cursor < size ? positions[cursor] : -1;
+		}
+
+	}
+
+}
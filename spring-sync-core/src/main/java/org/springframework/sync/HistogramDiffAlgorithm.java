@@ -0,0 +1,167 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.sync;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.util.Assert;
+import org.springframework.util.ObjectUtils;
+
+import difflib.DiffAlgorithm;
+import difflib.Patch;
+
+/**
+ * <p>{@link DiffAlgorithm} that compares lists with a histogram diff, a variant of patience diff.</p>
+ *
+ * <p>
+ * Within each region of the lists, the element that occurs least often in the original region and also appears in the
+ * modified region is used as an anchor. The longest common run through the anchor is matched and the regions before
+ * and after it are compared in turn. Elements occurring more often than the maximum chain length are never used as
+ * anchors, which bounds the cost of a region to the number of elements in it times the chain length.
+ * </p>
+ *
+ * <p>
+ * Anchoring on rare elements, such as entities with distinct ids, tends to produce smaller patches than Myers diff for
+ * lists whose items have been reordered or edited. Elements are hashed, so their hashCode() must be consistent with equals().
+ * </p>
+ *
+ * @author Craig Walls
+ */
+public class HistogramDiffAlgorithm implements DiffAlgorithm {
+
+	/**
+	 * The default maximum number of occurrences of an element for it to be used as an anchor.
+	 */
+	public static final int DEFAULT_MAX_CHAIN_LENGTH = 64;
+
+	private final int maxChainLength;
+
+	/**
+	 * Constructs a histogram diff algorithm with a maximum chain length of {@link #DEFAULT_MAX_CHAIN_LENGTH}.
+	 */
+	public HistogramDiffAlgorithm() {
+		this(DEFAULT_MAX_CHAIN_LENGTH);
+	}
+
+	/**
+	 * Constructs a histogram diff algorithm.
+	 * @param maxChainLength the maximum number of occurrences of an element for it to be used as an anchor
+	 */
+	public HistogramDiffAlgorithm(int maxChainLength) {
+		Assert.isTrue(maxChainLength > 0, "Maximum chain length must be greater than zero");
+		this.maxChainLength = maxChainLength;
+	}
+
+	@Override
+	public Patch diff(Object[] original, Object[] revised) {
+		return diff(Arrays.asList(original), Arrays.asList(revised));
+	}
+
+	@Override
+	public Patch diff(List<?> original, List<?> revised) {
+		List<int[]> runs = new ArrayList<int[]>();
+		// regions are compared from a work list rather than recursively, so that long lists can't overflow the stack
+		LinkedList<int[]> regions = new LinkedList<int[]>();
+		regions.add(new int[] { 0, original.size(), 0, revised.size() });
+		while (!regions.isEmpty()) {
+			int[] region = regions.removeFirst();
+			int originalStart = region[0];
+			int originalEnd = region[1];
+			int revisedStart = region[2];
+			int revisedEnd = region[3];
+
+			int prefix = 0;
+			while (originalStart + prefix < originalEnd && revisedStart + prefix < revisedEnd
+					&& ObjectUtils.nullSafeEquals(original.get(originalStart + prefix), revised.get(revisedStart + prefix))) {
+				prefix++;
+			}
+			if (prefix > 0) {
+				runs.add(new int[] { originalStart, revisedStart, prefix });
+				originalStart += prefix;
+				revisedStart += prefix;
+			}
+			int suffix = 0;
+			while (originalStart < originalEnd - suffix && revisedStart < revisedEnd - suffix
+					&& ObjectUtils.nullSafeEquals(original.get(originalEnd - suffix - 1), revised.get(revisedEnd - suffix - 1))) {
+				suffix++;
+			}
+			if (suffix > 0) {
+				originalEnd -= suffix;
+				revisedEnd -= suffix;
+				runs.add(new int[] { originalEnd, revisedEnd, suffix });
+			}
+			if (originalStart == originalEnd || revisedStart == revisedEnd) {
+				continue;
+			}
+
+			int[] anchor = findAnchor(original, revised, originalStart, originalEnd, revisedStart, revisedEnd);
+			if (anchor != null) {
+				runs.add(anchor);
+				regions.add(new int[] { originalStart, anchor[0], revisedStart, anchor[1] });
+				regions.add(new int[] { anchor[0] + anchor[2], originalEnd, anchor[1] + anchor[2], revisedEnd });
+			}
+		}
+		return ListDiffer.toPatch(original, revised, runs);
+	}
+
+	// finds the longest common run through the least frequent element of the original region, or null if there's none
+	private int[] findAnchor(List<?> original, List<?> revised, int originalStart, int originalEnd, int revisedStart, int revisedEnd) {
+		Map<Object, List<Integer>> histogram = new HashMap<Object, List<Integer>>();
+		for (int i = originalStart; i < originalEnd; i++) {
+			Object element = original.get(i);
+			List<Integer> positions = histogram.get(element);
+			if (positions == null) {
+				positions = new ArrayList<Integer>(1);
+				histogram.put(element, positions);
+			}
+			if (positions.size() <= maxChainLength) {
+				positions.add(i);
+			}
+		}
+
+		int[] anchor = null;
+		int anchorCount = maxChainLength + 1;
+		for (int j = revisedStart; j < revisedEnd; ) {
+			List<Integer> positions = histogram.get(revised.get(j));
+			if (positions == null || positions.size() > maxChainLength || positions.size() > anchorCount) {
+				j++;
+				continue;
+			}
+			int longest = 0;
+			for (int i : positions) {
+				int length = 1;
+				while (i + length < originalEnd && j + length < revisedEnd
+						&& ObjectUtils.nullSafeEquals(original.get(i + length), revised.get(j + length))) {
+					length++;
+				}
+				if (positions.size() < anchorCount || length > anchor[2]) {
+					anchor = new int[] { i, j, length };
+					anchorCount = positions.size();
+				}
+				longest = Math.max(longest, length);
+			}
+			// the elements of the run just examined would only be anchors of shorter runs through the same elements
+			j += longest;
+		}
+		return anchor;
+	}
+
+}
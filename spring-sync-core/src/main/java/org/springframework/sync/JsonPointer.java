@@ -0,0 +1,305 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.sync;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>A patch path, tokenized per RFC 6901 (JSON Pointer).</p>
+ * 
+ * <p>
+ * A path is scanned once, unescaping "~0" and "~1" in each token and classifying each token as a property name,
+ * a list index, or a reference to the end of a list ("~" or "-"). Empty tokens are ignored, so "/foo//bar/" and
+ * "/foo/bar" produce the same pointer. Pointers are immutable and may be shared freely.
+ * </p>
+ * 
+ * @author Craig Walls
+ */
+public final class JsonPointer {
+
+	private static final JsonPointer ROOT = new JsonPointer(new Token[0], "");
+
+	private final Token[] tokens;
+
+	private String path;
+
+	private JsonPointer(Token[] tokens, String path) {
+		this.tokens = tokens;
+		this.path = path;
+	}
+
+	/**
+	 * Parses a patch path into a {@link JsonPointer}.
+	 * @param path the patch path (e.g., '/1/description')
+	 * @return the {@link JsonPointer} for the path
+	 */
+	public static JsonPointer parse(String path) {
+		int length = path.length();
+		int count = 0;
+		for (int i = 0; i < length; i++) {
+			if (path.charAt(i) != '/' && (i == 0 || path.charAt(i - 1) == '/')) {
+				count++;
+			}
+		}
+		if (count == 0) {
+			return ROOT;
+		}
+		Token[] tokens = new Token[count];
+		int start = 0;
+		int next = 0;
+		for (int i = 0; i <= length; i++) {
+			if (i == length || path.charAt(i) == '/') {
+				if (i > start) {
+					tokens[next++] = Token.parse(path, start, i);
+				}
+				start = i + 1;
+			}
+		}
+		return new JsonPointer(tokens, null);
+	}
+
+	/**
+	 * @return the number of tokens in the pointer
+	 */
+	public int size() {
+		return tokens.length;
+	}
+
+	/**
+	 * @return true if the pointer refers to the target itself (i.e., it has no tokens)
+	 */
+	public boolean isRoot() {
+		return tokens.length == 0;
+	}
+
+	/**
+	 * @param index the position of the token
+	 * @return the token at the given position
+	 */
+	public Token getToken(int index) {
+		return tokens[index];
+	}
+
+	/**
+	 * @return the tokens of this pointer
+	 */
+	public List<Token> getTokens() {
+		return Collections.unmodifiableList(Arrays.asList(tokens));
+	}
+
+	/**
+	 * @return the last token of the pointer or null if the pointer refers to the target itself
+	 */
+	public Token getLastToken() {
+		return tokens.length > 0 ? tokens[tokens.length - 1] : null;
+	}
+
+	/**
+	 * @return a pointer to the parent of the value this pointer refers to. The parent of the root pointer is the root pointer.
+	 */
+	public JsonPointer getParent() {
+		return getPrefix(Math.max(tokens.length - 1, 0));
+	}
+
+	/**
+	 * @param size the number of leading tokens to keep
+	 * @return a pointer made up of the first tokens of this pointer
+	 */
+	public JsonPointer getPrefix(int size) {
+		if (size == tokens.length) {
+			return this;
+		}
+		if (size == 0) {
+			return ROOT;
+		}
+		Token[] prefixTokens = new Token[size];
+		System.arraycopy(tokens, 0, prefixTokens, 0, size);
+		return new JsonPointer(prefixTokens, null);
+	}
+
+	/**
+	 * Escapes "~" and "/" in a name so that it can be appended to a path as a single token.
+	 * @param name the unescaped name
+	 * @return the escaped name
+	 */
+	public static String escape(String name) {
+		if (name.indexOf('~') < 0 && name.indexOf('/') < 0) {
+			return name;
+		}
+		StringBuilder builder = new StringBuilder(name.length() + 2);
+		appendEscaped(builder, name);
+		return builder.toString();
+	}
+
+	/**
+	 * @return the normalized path, in the form "/token/token", with "~" and "/" in property names escaped.
+	 */
+	@Override
+	public String toString() {
+		String path = this.path;
+		if (path == null) {
+			StringBuilder builder = new StringBuilder();
+			for (Token token : tokens) {
+				builder.append('/');
+				token.appendEscaped(builder);
+			}
+			path = builder.toString();
+			this.path = path;
+		}
+		return path;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return other instanceof JsonPointer && toString().equals(other.toString());
+	}
+
+	@Override
+	public int hashCode() {
+		return toString().hashCode();
+	}
+
+	private static void appendEscaped(StringBuilder builder, String name) {
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (c == '~') {
+				builder.append("~0");
+			} else if (c == '/') {
+				builder.append("~1");
+			} else {
+				builder.append(c);
+			}
+		}
+	}
+
+	/**
+	 * A single, unescaped token of a {@link JsonPointer}.
+	 */
+	public static final class Token {
+
+		private static final int END_OF_LIST = -1;
+
+		private static final int NOT_AN_INDEX = -2;
+
+		private final String name;
+
+		private final int index;
+
+		private Token(String name, int index) {
+			this.name = name;
+			this.index = index;
+		}
+
+		/**
+		 * @return the unescaped token
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return true if the token is a property name
+		 */
+		public boolean isProperty() {
+			return index == NOT_AN_INDEX;
+		}
+
+		/**
+		 * @return true if the token is a list index or refers to the end of a list
+		 */
+		public boolean isIndex() {
+			return index != NOT_AN_INDEX;
+		}
+
+		/**
+		 * @return true if the token refers to the end of a list
+		 */
+		public boolean isEndOfList() {
+			return index == END_OF_LIST;
+		}
+
+		/**
+		 * @return the list index of the token, or -1 if the token refers to the end of a list
+		 * @throws IllegalStateException if the token is a property name
+		 */
+		public int getIndex() {
+			if (index == NOT_AN_INDEX) {
+				throw new IllegalStateException("'" + name + "' is not a list index");
+			}
+			return index;
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+
+		private void appendEscaped(StringBuilder builder) {
+			if (isProperty()) {
+				JsonPointer.appendEscaped(builder, name);
+			} else {
+				builder.append(name);
+			}
+		}
+
+		private static Token parse(String path, int start, int end) {
+			int length = end - start;
+			if (length == 1 && (path.charAt(start) == '~' || path.charAt(start) == '-')) {
+				return new Token(path.substring(start, end), END_OF_LIST);
+			}
+			if (length <= 9) {
+				int index = 0;
+				for (int i = start; i < end; i++) {
+					char c = path.charAt(i);
+					if (c < '0' || c > '9') {
+						index = NOT_AN_INDEX;
+						break;
+					}
+					index = index * 10 + (c - '0');
+				}
+				if (index != NOT_AN_INDEX) {
+					return new Token(path.substring(start, end), index);
+				}
+			}
+			return new Token(unescape(path, start, end), NOT_AN_INDEX);
+		}
+
+		private static String unescape(String path, int start, int end) {
+			int escape = path.indexOf('~', start);
+			if (escape < 0 || escape >= end - 1) {
+				return path.substring(start, end);
+			}
+			StringBuilder builder = new StringBuilder(end - start);
+			for (int i = start; i < end; i++) {
+				char c = path.charAt(i);
+				if (c == '~' && i + 1 < end && path.charAt(i + 1) == '0') {
+					builder.append('~');
+					i++;
+				} else if (c == '~' && i + 1 < end && path.charAt(i + 1) == '1') {
+					builder.append('/');
+					i++;
+				} else {
+					builder.append(c);
+				}
+			}
+			return builder.toString();
+		}
+
+	}
+
+}
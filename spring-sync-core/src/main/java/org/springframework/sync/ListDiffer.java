@@ -0,0 +1,318 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.sync;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.util.Assert;
+import org.springframework.util.ObjectUtils;
+
+import difflib.ChangeDelta;
+import difflib.Chunk;
+import difflib.DeleteDelta;
+import difflib.Delta;
+import difflib.DiffAlgorithm;
+import difflib.InsertDelta;
+import difflib.Patch;
+import difflib.myers.MyersDiff;
+
+/**
+ * <p>Compares two lists, producing the deltas from which {@link Diff} builds a list's patch operations.</p>
+ *
+ * <p>
+ * The common prefix and suffix of the lists are trimmed before the remainder is handed to a pluggable
+ * {@link DiffAlgorithm}: {@link MyersDiff} by default, or a {@link HistogramDiffAlgorithm} or {@link HashIndexDiffAlgorithm}.
+ * When the remainder of either list is larger than the linear threshold, the linear-time {@link HashIndexDiffAlgorithm}
+ * is used instead, so that large lists with scattered changes don't take quadratic time.
+ * </p>
+ *
+ * <p>
+ * Counts and elapsed times are tracked for each algorithm so that the cost of diffing lists can be monitored.
+ * </p>
+ *
+ * <p>
+ * When an executor is set, the elements that the deltas pair up with each other are compared in parallel once there
+ * are enough of them. Their operations are merged back in the order of their paths, so the resulting patch is the same
+ * as when they're compared sequentially.
+ * </p>
+ *
+ * @author Craig Walls
+ */
+public class ListDiffer {
+
+	/**
+	 * The default size above which the linear algorithm is used.
+	 */
+	public static final int DEFAULT_LINEAR_THRESHOLD = 10000;
+
+	/**
+	 * The default number of paired elements above which they're compared in parallel, when an executor is set.
+	 */
+	public static final int DEFAULT_PARALLEL_THRESHOLD = 1000;
+
+	private final DiffAlgorithm algorithm;
+
+	private final DiffAlgorithm linearAlgorithm = new HashIndexDiffAlgorithm();
+
+	private int linearThreshold = DEFAULT_LINEAR_THRESHOLD;
+
+	private ExecutorService executor;
+
+	private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+
+	private final AtomicLong diffCount = new AtomicLong();
+
+	private final AtomicLong trimmedCount = new AtomicLong();
+
+	private final AtomicLong algorithmCount = new AtomicLong();
+
+	private final AtomicLong algorithmNanos = new AtomicLong();
+
+	private final AtomicLong linearCount = new AtomicLong();
+
+	private final AtomicLong linearNanos = new AtomicLong();
+
+	private final AtomicLong parallelCount = new AtomicLong();
+
+	/**
+	 * Constructs a list differ using the {@link MyersDiff} algorithm.
+	 */
+	public ListDiffer() {
+		this(new MyersDiff());
+	}
+
+	/**
+	 * Constructs a list differ.
+	 * @param algorithm the algorithm used to compare lists whose remainder, once trimmed, is within the linear threshold
+	 */
+	public ListDiffer(DiffAlgorithm algorithm) {
+		Assert.notNull(algorithm, "Diff algorithm must not be null");
+		this.algorithm = algorithm;
+	}
+
+	/**
+	 * Sets the size above which lists are compared with the linear algorithm rather than the configured algorithm.
+	 * Defaults to {@link #DEFAULT_LINEAR_THRESHOLD}; {@link Integer#MAX_VALUE} always uses the configured algorithm.
+	 * @param linearThreshold the number of elements, after trimming, in the larger of the two lists
+	 */
+	public void setLinearThreshold(int linearThreshold) {
+		Assert.isTrue(linearThreshold >= 0, "Linear threshold must not be negative");
+		this.linearThreshold = linearThreshold;
+	}
+
+	/**
+	 * Sets the executor used to compare the paired elements of large lists in parallel. Defaults to null, in which case
+	 * elements are compared on the calling thread. The executor should have multiple threads; lists nested within the
+	 * elements are compared sequentially by the executor's threads.
+	 * @param executor the executor
+	 */
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Sets the number of paired elements, across all of a list's deltas, at or above which they're compared in parallel.
+	 * Defaults to {@link #DEFAULT_PARALLEL_THRESHOLD}.
+	 * @param parallelThreshold the number of paired elements
+	 */
+	public void setParallelThreshold(int parallelThreshold) {
+		Assert.isTrue(parallelThreshold >= 0, "Parallel threshold must not be negative");
+		this.parallelThreshold = parallelThreshold;
+	}
+
+	/**
+	 * Sets the number of chunks that paired elements are split into when compared in parallel, one of which is compared
+	 * on the calling thread. Defaults to the number of available processors.
+	 * @param parallelism the number of chunks
+	 */
+	public void setParallelism(int parallelism) {
+		Assert.isTrue(parallelism > 0, "Parallelism must be greater than zero");
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Compares two lists.
+	 * @param original the original list
+	 * @param modified the modified list
+	 * @return the deltas that turn the original list into the modified list, in order of position
+	 */
+	public Patch diff(List<?> original, List<?> modified) {
+		diffCount.incrementAndGet();
+		int originalSize = original.size();
+		int modifiedSize = modified.size();
+		int prefix = 0;
+		while (prefix < originalSize && prefix < modifiedSize && ObjectUtils.nullSafeEquals(original.get(prefix), modified.get(prefix))) {
+			prefix++;
+		}
+		int suffix = 0;
+		while (suffix < originalSize - prefix && suffix < modifiedSize - prefix
+				&& ObjectUtils.nullSafeEquals(original.get(originalSize - suffix - 1), modified.get(modifiedSize - suffix - 1))) {
+			suffix++;
+		}
+
+		List<?> originalMiddle = original.subList(prefix, originalSize - suffix);
+		List<?> modifiedMiddle = modified.subList(prefix, modifiedSize - suffix);
+		if (originalMiddle.isEmpty() || modifiedMiddle.isEmpty()) {
+			trimmedCount.incrementAndGet();
+			List<int[]> runs = Collections.emptyList();
+			return offset(toPatch(originalMiddle, modifiedMiddle, runs), prefix);
+		}
+
+		boolean linear = Math.max(originalMiddle.size(), modifiedMiddle.size()) > linearThreshold;
+		long start = System.nanoTime();
+		Patch patch = (linear ? linearAlgorithm : algorithm).diff(originalMiddle, modifiedMiddle);
+		long elapsed = System.nanoTime() - start;
+		if (linear) {
+			linearCount.incrementAndGet();
+			linearNanos.addAndGet(elapsed);
+		} else {
+			algorithmCount.incrementAndGet();
+			algorithmNanos.addAndGet(elapsed);
+		}
+		return offset(patch, prefix);
+	}
+
+	/**
+	 * @return the number of lists compared
+	 */
+	public long getDiffCount() {
+		return diffCount.get();
+	}
+
+	/**
+	 * @return the number of comparisons resolved by trimming the common prefix and suffix alone
+	 */
+	public long getTrimmedCount() {
+		return trimmedCount.get();
+	}
+
+	/**
+	 * @return the number of comparisons performed with the configured algorithm
+	 */
+	public long getAlgorithmCount() {
+		return algorithmCount.get();
+	}
+
+	/**
+	 * @return the total time spent in the configured algorithm, in nanoseconds
+	 */
+	public long getAlgorithmTime() {
+		return algorithmNanos.get();
+	}
+
+	/**
+	 * @return the number of comparisons performed with the linear algorithm because the lists exceeded the linear threshold
+	 */
+	public long getLinearCount() {
+		return linearCount.get();
+	}
+
+	/**
+	 * @return the total time spent in the linear algorithm, in nanoseconds
+	 */
+	public long getLinearTime() {
+		return linearNanos.get();
+	}
+
+	/**
+	 * @return the number of lists whose paired elements were compared in parallel
+	 */
+	public long getParallelCount() {
+		return parallelCount.get();
+	}
+
+	ExecutorService getExecutor() {
+		return executor;
+	}
+
+	int getParallelThreshold() {
+		return parallelThreshold;
+	}
+
+	int getParallelism() {
+		return parallelism;
+	}
+
+	void recordParallelDiff() {
+		parallelCount.incrementAndGet();
+	}
+
+	// shifts the deltas of a patch produced for trimmed lists back to the positions of the untrimmed lists
+	private static Patch offset(Patch patch, int prefix) {
+		if (prefix == 0) {
+			return patch;
+		}
+		Patch offsetPatch = new Patch();
+		for (Delta delta : patch.getDeltas()) {
+			Chunk original = new Chunk(delta.getOriginal().getPosition() + prefix, delta.getOriginal().getLines());
+			Chunk revised = new Chunk(delta.getRevised().getPosition() + prefix, delta.getRevised().getLines());
+			offsetPatch.addDelta(newDelta(original, revised));
+		}
+		return offsetPatch;
+	}
+
+	/**
+	 * Builds a patch from the runs of elements that two lists have in common. Elements between runs are deltas.
+	 * @param original the original list
+	 * @param modified the modified list
+	 * @param runs the common runs as {original position, modified position, length}, in any order
+	 * @return the patch
+	 */
+	static Patch toPatch(List<?> original, List<?> modified, List<int[]> runs) {
+		List<int[]> sortedRuns = new ArrayList<int[]>(runs);
+		Collections.sort(sortedRuns, new Comparator<int[]>() {
+			@Override
+			public int compare(int[] run1, int[] run2) {
+				return run1[0] < run2[0] ? -1 : (run1[0] == run2[0] ? 0 : 1);
+			}
+		});
+		Patch patch = new Patch();
+		int originalPosition = 0;
+		int modifiedPosition = 0;
+		for (int[] run : sortedRuns) {
+			addDelta(patch, original, modified, originalPosition, run[0], modifiedPosition, run[1]);
+			originalPosition = run[0] + run[2];
+			modifiedPosition = run[1] + run[2];
+		}
+		addDelta(patch, original, modified, originalPosition, original.size(), modifiedPosition, modified.size());
+		return patch;
+	}
+
+	private static void addDelta(Patch patch, List<?> original, List<?> modified, int originalStart, int originalEnd, int modifiedStart, int modifiedEnd) {
+		if (originalStart < originalEnd || modifiedStart < modifiedEnd) {
+			Chunk originalChunk = new Chunk(originalStart, new ArrayList<Object>(original.subList(originalStart, originalEnd)));
+			Chunk revisedChunk = new Chunk(modifiedStart, new ArrayList<Object>(modified.subList(modifiedStart, modifiedEnd)));
+			patch.addDelta(newDelta(originalChunk, revisedChunk));
+		}
+	}
+
+	private static Delta newDelta(Chunk original, Chunk revised) {
+		if (original.size() == 0) {
+			return new InsertDelta(original, revised);
+		} else if (revised.size() == 0) {
+			return new DeleteDelta(original, revised);
+		}
+		return new ChangeDelta(original, revised);
+	}
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.sync;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Callback notified by a {@link PatchOperation} as it modifies its target.
+ * The default implementation does nothing.
+ * 
+ * @author Craig Walls
+ */
+class ModificationListener {
+
+	/**
+	 * A listener that does nothing.
+	 */
+	static final ModificationListener NONE = new ModificationListener();
+
+	/**
+	 * Called before an operation modifies the object, list, map, or set that contains the value at the given path.
+	 * @param target the target of the operation
+	 * @param pointer the path of the value that is about to be set, added, or removed
+	 */
+	void beforeModification(Object target, JsonPointer pointer) {
+	}
+
+	/**
+	 * Called before an operation sets a value.
+	 * @param target the target of the operation
+	 * @param accessor the {@link PathAccessor} that will be used to set the value
+	 */
+	void beforeSet(Object target, PathAccessor accessor) {
+	}
+
+	/**
+	 * Called after an operation adds a value to a list.
+	 * @param list the list that the value was added to
+	 * @param index the index at which the value was added
+	 */
+	void afterAdd(List<?> list, int index) {
+	}
+
+	/**
+	 * Called after an operation removes a value from a list.
+	 * @param list the list that the value was removed from
+	 * @param index the index from which the value was removed
+	 * @param value the removed value
+	 */
+	void afterRemove(List<?> list, int index, Object value) {
+	}
+
+	/**
+	 * Called after an operation puts a value into a map.
+	 * @param map the map that the value was put into
+	 * @param key the key that the value was put under
+	 * @param replaced whether the key was already mapped
+	 * @param previousValue the value that the key was previously mapped to
+	 */
+	void afterPut(Map<?, ?> map, Object key, boolean replaced, Object previousValue) {
+	}
+
+	/**
+	 * Called after an operation removes an entry from a map.
+	 * @param map the map that the entry was removed from
+	 * @param key the key of the removed entry
+	 * @param value the removed value
+	 */
+	void afterRemove(Map<?, ?> map, Object key, Object value) {
+	}
+
+	/**
+	 * Called after an operation adds a member to a set that didn't already contain it.
+	 * @param set the set that the member was added to
+	 * @param member the added member
+	 */
+	void afterAdd(Set<?> set, Object member) {
+	}
+
+	/**
+	 * Called after an operation removes a member from a set.
+	 * @param set the set that the member was removed from
+	 * @param member the removed member
+	 */
+	void afterRemove(Set<?> set, Object member) {
+	}
+
+}
@@ -43,8 +43,8 @@ public class MoveOperation extends FromOperation {
 	}
 	
 	@Override
-	<T> void perform(Object target, Class<T> type) {
-		addValue(target, popValueAtPath(target, from));
+	<T> void perform(Object target, Class<T> type, ModificationListener listener) {
+		addValue(target, popValueAtPath(target, fromPointer, listener), listener);
 	}
 	
 }
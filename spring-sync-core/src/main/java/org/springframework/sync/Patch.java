@@ -59,14 +59,30 @@ public class Patch {
 	 * @throws PatchException if there are any errors while applying the patch.
 	 */
 	public <T> T apply(T in, Class<T> type) throws PatchException {
-		// Make defensive copy of in before performing operations so that if any op fails, the original is left untouched
-		T work = DeepCloneUtils.deepClone(in);
-		
-		for (PatchOperation operation : operations) {
-			operation.perform(work, type);
-		}
+		return apply(in, type, ApplyMode.DEEP_COPY);
+	}
 
-		return work;
+	/**
+	 * Applies the Patch to a given Object graph as specified by the {@link ApplyMode}. Unless the mode is {@link ApplyMode#IN_PLACE},
+	 * the given object will remain unchanged after application of the patch; in any mode, it will be unchanged if any errors occur while performing the patch.
+	 * 
+	 * @param in The object graph to apply the patch to. 
+	 * @param type The object type.
+	 * @param mode How the object graph is protected from changes while the patch is applied.
+	 * @param <T> the object type.
+	 * @return An object graph modified by the patch.
+	 * @throws PatchException if there are any errors while applying the patch.
+	 */
+	public <T> T apply(T in, Class<T> type, ApplyMode mode) throws PatchException {
+		if (mode == ApplyMode.PATH_COPY) {
+			PathCopier copier = new PathCopier();
+			return performOperations(copier.copyTarget(in), type, copier);
+		} else if (mode == ApplyMode.IN_PLACE) {
+			return performOperationsInPlace(in, type);
+		}
+		
+		// Make defensive copy of in before performing operations so that if any op fails, the original is left untouched
+		return performOperations(DeepCloneUtils.deepClone(in), type, ModificationListener.NONE);
 	}
 
 	/**
@@ -80,14 +96,76 @@ public class Patch {
 	 * @throws PatchException if there are any errors while applying the patch.
 	 */
 	public <T> List<T> apply(List<T> in, Class<T> type) throws PatchException {
+		return apply(in, type, ApplyMode.DEEP_COPY);
+	}
+
+	/**
+	 * Applies the Patch to a given List of objects as specified by the {@link ApplyMode}. Unless the mode is {@link ApplyMode#IN_PLACE},
+	 * the given list will remain unchanged after application of the patch; in any mode, it will be unchanged if any errors occur while performing the patch.
+	 * 
+	 * @param in The list to apply the patch to. 
+	 * @param type The list's generic type.
+	 * @param mode How the list is protected from changes while the patch is applied.
+	 * @param <T> the list's generic type.
+	 * @return An list modified by the patch.
+	 * @throws PatchException if there are any errors while applying the patch.
+	 */
+	public <T> List<T> apply(List<T> in, Class<T> type, ApplyMode mode) throws PatchException {
+		if (mode == ApplyMode.PATH_COPY) {
+			PathCopier copier = new PathCopier();
+			return performOperations(copier.copyTarget(in), type, copier);
+		} else if (mode == ApplyMode.IN_PLACE) {
+			return performOperationsInPlace(in, type);
+		}
+
 		// Make defensive copy of in before performing operations so that if any op fails, the original is left untouched
-		List<T> work = DeepCloneUtils.deepClone(in);
-		
+		return performOperations(DeepCloneUtils.deepClone(in), type, ModificationListener.NONE);
+	}
+
+	private <T, W> W performOperations(W work, Class<T> type, ModificationListener listener) {
 		for (PatchOperation operation : operations) {
-			operation.perform(work, type);
+			operation.perform(work, type, listener);
 		}
 
 		return work;
 	}
+
+	private <T, W> W performOperationsInPlace(W work, Class<T> type) {
+		UndoLog undoLog = new UndoLog();
+		try {
+			return performOperations(work, type, undoLog);
+		} catch (RuntimeException e) {
+			// Put back everything the operations changed before the failure
+			undoLog.undo();
+			throw e;
+		}
+	}
+
+	/**
+	 * Strategies for protecting an object graph from partially applied changes when a patch is applied to it.
+	 */
+	public enum ApplyMode {
+
+		/**
+		 * Deep clones the entire object graph before applying the patch.
+		 */
+		DEEP_COPY,
+
+		/**
+		 * Copies only the objects and lists along the paths that the patch modifies, sharing all other objects with the original object graph.
+		 * The cost of applying a patch is proportional to the size of the patch rather than to the size of the object graph,
+		 * but the objects along modified paths must be instantiable with a no-argument constructor (or be {@link java.io.Serializable})
+		 * and their properties must be writable.
+		 */
+		PATH_COPY,
+
+		/**
+		 * Applies the patch directly to the given object graph, which is returned. Each modification is recorded in an undo log
+		 * and, if any operation fails, the modifications are undone in reverse order before the failure is rethrown.
+		 * Nothing is copied, but the given object graph is changed and must not be in use elsewhere while the patch is applied.
+		 */
+		IN_PLACE
+
+	}
 	
 }
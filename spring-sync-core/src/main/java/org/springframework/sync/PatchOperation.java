@@ -15,27 +15,48 @@
  */
 package org.springframework.sync;
 
-import static org.springframework.sync.PathToSpEL.*;
-
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
-import org.springframework.expression.Expression;
+import org.springframework.core.convert.TypeDescriptor;
 import org.springframework.expression.ExpressionException;
+import org.springframework.sync.ReflectivePathAccessorFactory.PropertyHandle;
+import org.springframework.util.Assert;
 
 /**
- * Abstract base class representing and providing support methods for patch operations.
+ * <p>Abstract base class representing and providing support methods for patch operations.</p>
+ * 
+ * <p>
+ * Operations read and write values through {@link PathAccessor}s produced by a {@link PathAccessorFactory}.
+ * By default, a {@link ReflectivePathAccessorFactory} is used, which invokes getters and setters directly and
+ * falls back to SpEL for paths it can't resolve. Use {@link #setPathAccessorFactory(PathAccessorFactory)} to
+ * choose a different strategy, such as {@link SpelPathAccessorFactory}.
+ * </p>
+ * 
+ * <p>
+ * The last token of a path may refer to the key of a map or the member of a set, in which case the operation puts or
+ * removes a map entry or adds or removes a set member.
+ * </p>
  * 
  * @author Craig Walls
  */
 public abstract class PatchOperation {
 
+	private static volatile PathAccessorFactory pathAccessorFactory = new ReflectivePathAccessorFactory();
+
 	protected final String op;
 	
 	protected final String path;
 		
 	protected final Object value;
 	
-	protected final Expression spelExpression;
+	protected final JsonPointer pointer;
+
+	protected final PathAccessor pathAccessor;
+
+	private final PathAccessor parentPathAccessor;
 
 	/**
 	 * Constructs the operation.
@@ -56,7 +77,25 @@ public abstract class PatchOperation {
 		this.op = op;
 		this.path = path;
 		this.value = value;
-		this.spelExpression = pathToExpression(path);
+		this.pointer = JsonPointer.parse(path);
+		this.pathAccessor = pathAccessorFactory.getPathAccessor(pointer);
+		this.parentPathAccessor = pathAccessorFactory.getPathAccessor(pointer.getParent());
+	}
+
+	/**
+	 * Sets the {@link PathAccessorFactory} used by operations constructed from then on.
+	 * @param pathAccessorFactory the {@link PathAccessorFactory}
+	 */
+	public static void setPathAccessorFactory(PathAccessorFactory pathAccessorFactory) {
+		Assert.notNull(pathAccessorFactory, "PathAccessorFactory must not be null");
+		PatchOperation.pathAccessorFactory = pathAccessorFactory;
+	}
+
+	/**
+	 * @return the {@link PathAccessorFactory} used to construct operations.
+	 */
+	public static PathAccessorFactory getPathAccessorFactory() {
+		return pathAccessorFactory;
 	}
 	
 	/**
@@ -83,24 +122,35 @@ public abstract class PatchOperation {
 	/**
 	 * Pops a value from the given path.
 	 * @param target the target from which to pop a value.
-	 * @param removePath the path from which to pop a value. Must be a list.
+	 * @param removePointer the path from which to pop a value. Must be a list.
+	 * @param listener the {@link ModificationListener} to notify before the target is modified.
 	 * @return the value popped from the list
 	 */
-	protected Object popValueAtPath(Object target, String removePath) {
-		Integer listIndex = targetListIndex(removePath);
-		Expression expression = pathToExpression(removePath);
-		Object value = expression.getValue(target);
+	protected Object popValueAtPath(Object target, JsonPointer removePointer, ModificationListener listener) {
+		boolean operationPath = removePointer == pointer;
+		Integer listIndex = targetListIndex(removePointer);
+		PathAccessor accessor = operationPath ? pathAccessor : pathAccessorFactory.getPathAccessor(removePointer);
+		PathAccessor parentAccessor = operationPath ? parentPathAccessor : pathAccessorFactory.getPathAccessor(removePointer.getParent());
+		listener.beforeModification(target, removePointer);
+		Object parent = removePointer.isRoot() ? null : parentAccessor.getValue(target);
+		if (parent instanceof Map) {
+			return removeMapEntry((Map<?, ?>) parent, removePointer, listener);
+		} else if (parent instanceof Set) {
+			return removeSetMember((Set<?>) parent, removePointer, listener);
+		}
+		Object value = accessor.getValue(target);
 		if (listIndex == null) {
 			try {
-				expression.setValue(target, null);
+				listener.beforeSet(target, accessor);
+				accessor.setValue(target, null);
 				return value;
 			} catch (NullPointerException e) {
-				throw new PatchException("Path '" + removePath + "' is not nullable.");
+				throw new PatchException("Path '" + removePointer + "' is not nullable.");
 			}
 		} else {
-			Expression parentExpression = pathToParentExpression(removePath);
-			List<?> list = (List<?>) parentExpression.getValue(target);
-			list.remove(listIndex >= 0 ? listIndex.intValue() : list.size() - 1);
+			List<?> list = (List<?>) parent;
+			int removeAtIndex = listIndex >= 0 ? listIndex.intValue() : list.size() - 1;
+			listener.afterRemove(list, removeAtIndex, list.remove(removeAtIndex));
 			return value;
 		}
 	}
@@ -108,31 +158,62 @@ public abstract class PatchOperation {
 	/**
 	 * Adds a value to the operation's path.
 	 * If the path references a list index, the value is added to the list at the given index.
+	 * If the path references a map key, the value is put into the map under that key.
+	 * If the path references a set member, the value is added to the set.
 	 * If the path references an object property, the property is set to the value.
 	 * @param target The target object.
 	 * @param value The value to add.
+	 * @param listener the {@link ModificationListener} to notify before the target is modified.
 	 */
-	protected void addValue(Object target, Object value) {
-		Expression parentExpression = pathToParentExpression(path);
-		Object parent = parentExpression != null ? parentExpression.getValue(target) : null;
-		Integer listIndex = targetListIndex(path);
+	protected void addValue(Object target, Object value, ModificationListener listener) {
+		listener.beforeModification(target, pointer);
+		Object parent = parentPathAccessor.getValue(target);
+		if (parent instanceof Map) {
+			@SuppressWarnings("unchecked")
+			Map<Object, Object> map = (Map<Object, Object>) parent;
+			Object key = CollectionKeys.resolveKey(map, pointer.getLastToken().getName(), map.isEmpty() ? mapKeyType(target) : null);
+			boolean replaced = map.containsKey(key);
+			listener.afterPut(map, key, replaced, map.put(key, value));
+			return;
+		} else if (parent instanceof Set) {
+			@SuppressWarnings("unchecked")
+			Set<Object> set = (Set<Object>) parent;
+			if (set.add(value)) {
+				listener.afterAdd(set, value);
+			}
+			return;
+		}
+		Integer listIndex = targetListIndex(pointer);
 		if (parent == null || !(parent instanceof List) || listIndex == null) {
-			spelExpression.setValue(target, value);
+			listener.beforeSet(target, pathAccessor);
+			pathAccessor.setValue(target, value);
 		} else {
 			@SuppressWarnings("unchecked")
-			List<Object> list = (List<Object>) parentExpression.getValue(target);
+			List<Object> list = (List<Object>) parent;
 			int addAtIndex = listIndex >= 0 ? listIndex.intValue() : list.size();
 			list.add(addAtIndex, value);
+			listener.afterAdd(list, addAtIndex);
 		}
 	}
 
 	/**
 	 * Sets a value to the operation's path.
+	 * If the path references a set member, the member is removed and the value is added to the set.
 	 * @param target The target object.
 	 * @param value The value to set.
+	 * @param listener the {@link ModificationListener} to notify before the target is modified.
 	 */
-	protected void setValueOnTarget(Object target, Object value) {
-		spelExpression.setValue(target, value);
+	protected void setValueOnTarget(Object target, Object value, ModificationListener listener) {
+		listener.beforeModification(target, pointer);
+		Object parent = pointer.isRoot() ? null : parentPathAccessor.getValue(target);
+		if (parent instanceof Set) {
+			@SuppressWarnings("unchecked")
+			Set<Object> set = (Set<Object>) parent;
+			replaceSetMember(set, value, listener);
+			return;
+		}
+		listener.beforeSet(target, pathAccessor);
+		pathAccessor.setValue(target, value);
 	}
 
 	/**
@@ -142,7 +223,7 @@ public abstract class PatchOperation {
 	 */
 	protected Object getValueFromTarget(Object target) {
 		try {
-			return spelExpression.getValue(target);
+			return pathAccessor.getValue(target);
 		} catch (ExpressionException e) {
 			throw new PatchException("Unable to get value from target", e);
 		}
@@ -163,25 +244,81 @@ public abstract class PatchOperation {
 	 * Perform the operation.
 	 * @param target the target of the operation.
 	 */
-	abstract <T> void perform(Object target, Class<T> type);
+	<T> void perform(Object target, Class<T> type) {
+		perform(target, type, ModificationListener.NONE);
+	}
+
+	/**
+	 * Perform the operation, notifying a {@link ModificationListener} before the target is modified.
+	 * @param target the target of the operation.
+	 * @param listener the {@link ModificationListener} to notify.
+	 */
+	abstract <T> void perform(Object target, Class<T> type, ModificationListener listener);
+
+	/**
+	 * Retrieves a value from a path other than the operation's path.
+	 * @param target the target object.
+	 * @param pointer the pre-parsed path to retrieve a value from.
+	 * @return the value at the path on the given target object.
+	 */
+	protected Object getValueFromPath(Object target, JsonPointer pointer) {
+		return pathAccessorFactory.getPathAccessor(pointer).getValue(target);
+	}
 
 	// private helpers
+
+	private Object removeMapEntry(Map<?, ?> map, JsonPointer removePointer, ModificationListener listener) {
+		Object key = CollectionKeys.resolveKey(map, removePointer.getLastToken().getName());
+		if (!map.containsKey(key)) {
+			throw new PatchException("Path '" + removePointer + "' refers to a map key that doesn't exist.");
+		}
+		Object value = map.remove(key);
+		listener.afterRemove(map, key, value);
+		return value;
+	}
+
+	private Object removeSetMember(Set<?> set, JsonPointer removePointer, ModificationListener listener) {
+		Object member = CollectionKeys.resolveMember(set, removePointer.getLastToken().getName());
+		if (member == null) {
+			throw new PatchException("Path '" + removePointer + "' refers to a set member that doesn't exist.");
+		}
+		set.remove(member);
+		listener.afterRemove(set, member);
+		return member;
+	}
 	
-	private Integer targetListIndex(String path) {
-		String[] pathNodes = path.split("\\/");
-		
-		String lastNode = pathNodes[pathNodes.length - 1];
-		
-		if ("~".equals(lastNode)) {
-			return -1;
+	// the replaced member and the value are recorded separately, since the value isn't addressed by the member's token
+	private void replaceSetMember(Set<Object> set, Object value, ModificationListener listener) {
+		Object member = CollectionKeys.resolveMember(set, pointer.getLastToken().getName());
+		if (member != null && set.remove(member)) {
+			listener.afterRemove(set, member);
 		}
-		
-		try {
-			return Integer.parseInt(lastNode);
-		} catch (NumberFormatException e) {
+		if (value != null && set.add(value)) {
+			listener.afterAdd(set, value);
+		}
+	}
+
+	// the declared key type of the map that the operation's path adds to, if the map is a property of an object
+	private Class<?> mapKeyType(Object target) {
+		JsonPointer mapPointer = pointer.getParent();
+		if (mapPointer.isRoot() || !mapPointer.getLastToken().isProperty()) {
 			return null;
 		}
+		Object owner = getValueFromPath(target, mapPointer.getParent());
+		if (owner == null || owner instanceof Map || owner instanceof Collection) {
+			return null;
+		}
+		PropertyHandle handle = PropertyHandle.resolve(owner.getClass(), mapPointer.getLastToken().getName());
+		if (!handle.isResolved() || !handle.getTypeDescriptor().isMap()) {
+			return null;
+		}
+		TypeDescriptor keyType = handle.getTypeDescriptor().getMapKeyTypeDescriptor();
+		return keyType != null ? keyType.getType() : null;
+	}
+
+	private Integer targetListIndex(JsonPointer pointer) {
+		JsonPointer.Token lastToken = pointer.getLastToken();
+		return lastToken != null && lastToken.isIndex() ? lastToken.getIndex() : null;
 	}
-	
 
 }
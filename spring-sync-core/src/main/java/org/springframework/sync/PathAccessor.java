@@ -0,0 +1,40 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.sync;
+
+/**
+ * Strategy interface for reading and writing the value that a patch path refers to on a target object.
+ * 
+ * @author Craig Walls
+ * @see PathAccessorFactory
+ */
+public interface PathAccessor {
+
+	/**
+	 * Retrieves the value at the path.
+	 * @param target the object to navigate from.
+	 * @return the value at the path on the given target object.
+	 */
+	Object getValue(Object target);
+
+	/**
+	 * Sets the value at the path.
+	 * @param target the object to navigate from.
+	 * @param value the value to set.
+	 */
+	void setValue(Object target, Object value);
+
+}
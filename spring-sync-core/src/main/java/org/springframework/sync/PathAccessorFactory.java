@@ -0,0 +1,39 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.sync;
+
+/**
+ * <p>Strategy interface for producing {@link PathAccessor}s for patch paths.</p>
+ * 
+ * <p>
+ * This decouples {@link PatchOperation} from the mechanism used to navigate an object graph,
+ * such as evaluating SpEL expressions or invoking getters and setters directly.
+ * </p>
+ * 
+ * @author Craig Walls
+ * @see SpelPathAccessorFactory
+ * @see ReflectivePathAccessorFactory
+ */
+public interface PathAccessorFactory {
+
+	/**
+	 * Produces a {@link PathAccessor} for a path.
+	 * @param pointer the tokenized patch path (e.g., '/1/description')
+	 * @return a {@link PathAccessor} for the path
+	 */
+	PathAccessor getPathAccessor(JsonPointer pointer);
+
+}
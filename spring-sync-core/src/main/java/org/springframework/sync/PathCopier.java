@@ -0,0 +1,68 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.sync;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.springframework.sync.util.ShallowCopyUtils;
+
+/**
+ * <p>{@link ModificationListener} that copies the objects along a path before they're modified.</p>
+ * 
+ * <p>
+ * Before an operation modifies the object or list containing a value, each object along the path from the
+ * target to that container is replaced with a shallow copy (unless it has already been copied). Objects that
+ * aren't on the path of any modification are shared with the original object graph, which remains unchanged.
+ * </p>
+ * 
+ * @author Craig Walls
+ */
+class PathCopier extends ModificationListener {
+
+	private final Map<Object, Boolean> copies = new IdentityHashMap<Object, Boolean>();
+
+	/**
+	 * Produces a shallow copy of the target of a patch, from which modified paths will be copied.
+	 * @param target the target of the patch
+	 * @param <T> the target type
+	 * @return a shallow copy of the target
+	 */
+	<T> T copyTarget(T target) {
+		T copy = ShallowCopyUtils.shallowCopy(target);
+		copies.put(copy, Boolean.TRUE);
+		return copy;
+	}
+
+	@Override
+	void beforeModification(Object target, JsonPointer pointer) {
+		PathAccessorFactory pathAccessorFactory = PatchOperation.getPathAccessorFactory();
+		JsonPointer parentPointer = pointer.getParent();
+		for (int i = 1; i <= parentPointer.size(); i++) {
+			PathAccessor accessor = pathAccessorFactory.getPathAccessor(parentPointer.getPrefix(i));
+			Object value = accessor.getValue(target);
+			if (value == null || copies.containsKey(value)) {
+				continue;
+			}
+			Object copy = ShallowCopyUtils.shallowCopy(value);
+			if (copy != value) {
+				accessor.setValue(target, copy);
+				copies.put(copy, Boolean.TRUE);
+			}
+		}
+	}
+
+}
@@ -15,8 +15,6 @@
  */
 package org.springframework.sync;
 
-import java.lang.reflect.Array;
-
 import org.springframework.expression.Expression;
 import org.springframework.expression.spel.standard.SpelExpressionParser;
 
@@ -31,13 +29,16 @@ public class PathToSpEL {
 
 	private static final SpelExpressionParser SPEL_EXPRESSION_PARSER = new SpelExpressionParser();
 
+	private static final ExpressionCache EXPRESSION_CACHE = new ExpressionCache();
+
 	/**
 	 * Converts a patch path to an {@link Expression}.
+	 * Expressions are cached by their normalized path, so repeated conversions of the same path are not parsed again.
 	 * @param path the patch path to convert.
 	 * @return an {@link Expression}
 	 */
 	public static Expression pathToExpression(String path) {
-		return SPEL_EXPRESSION_PARSER.parseExpression(pathToSpEL(path));
+		return normalizedPathToExpression(normalizePath(path));
 	}
 	
 	/**
@@ -55,37 +56,50 @@ public class PathToSpEL {
 	 * @return an {@link Expression} targeting the parent of the object specifed by path.
 	 */
 	public static Expression pathToParentExpression(String path) {
-		return spelToExpression(pathNodesToSpEL(copyOf(path.split("\\/"), path.split("\\/").length - 1)));
+		String normalizedPath = normalizePath(path);
+		return normalizedPathToExpression(normalizedPath.substring(0, Math.max(normalizedPath.lastIndexOf('/'), 0)));
+	}
+
+	/**
+	 * @return the {@link ExpressionCache} shared by all path conversions, useful for monitoring its hit, miss, and eviction counts.
+	 */
+	public static ExpressionCache getExpressionCache() {
+		return EXPRESSION_CACHE;
 	}
 
 	// private helpers
-	
-	private static String pathToSpEL(String path) {
-		return pathNodesToSpEL(path.split("\\/"));
+
+	private static Expression normalizedPathToExpression(String normalizedPath) {
+		Expression expression = EXPRESSION_CACHE.get(normalizedPath);
+		if (expression == null) {
+			expression = spelToExpression(pathToSpEL(normalizedPath));
+			EXPRESSION_CACHE.put(normalizedPath, expression);
+		}
+		return expression;
 	}
-	
-	private static String pathNodesToSpEL(String[] pathNodes) {
+
+	// Normalizes a path to the form "/node/node", dropping empty nodes. Paths that are already normalized are returned as-is.
+	private static String normalizePath(String path) {
+		int length = path.length();
+		boolean normalized = length == 0 || (path.charAt(0) == '/' && path.charAt(length - 1) != '/' && path.indexOf("//") < 0);
+		return normalized ? path : JsonPointer.parse(path).toString();
+	}
+
+	private static String pathToSpEL(String path) {
+		JsonPointer pointer = JsonPointer.parse(path);
 		StringBuilder spelBuilder = new StringBuilder();
 		
-		for(int i=0; i < pathNodes.length; i++) {
-			String pathNode = pathNodes[i];
-			if (pathNode.length() == 0) {
-				continue;
-			}
-			
-			if ("~".equals(pathNode)) {
+		for (int i = 0; i < pointer.size(); i++) {
+			JsonPointer.Token token = pointer.getToken(i);
+			if (token.isEndOfList()) {
 				spelBuilder.append("[size() - 1]");
-				continue;
-			}
-			
-			try {
-				int index = Integer.parseInt(pathNode);
-				spelBuilder.append('[').append(index).append(']');
-			} catch (NumberFormatException e) {
+			} else if (token.isIndex()) {
+				spelBuilder.append('[').append(token.getIndex()).append(']');
+			} else {
 				if (spelBuilder.length() > 0) {
 					spelBuilder.append('.');	
 				}
-				spelBuilder.append(pathNode);
+				spelBuilder.append(token.getName());
 			}
 		}
 		
@@ -96,19 +110,4 @@ public class PathToSpEL {
 		return spel;		
 	}
 
-	@SuppressWarnings("unchecked")
-	private static <T> T[] copyOf(T[] original, int newLength) {
-		return (T[]) copyOf(original, newLength, original.getClass());
-	}
-
-	// reproduces Arrays.copyOf because that API is missing on Android 2.2
-	private static <T, U> T[] copyOf(U[] original, int newLength,
-			Class<? extends T[]> newType) {
-		@SuppressWarnings("unchecked")
-		T[] copy = ((Object) newType == (Object) Object[].class) ? (T[]) new Object[newLength]
-				: (T[]) Array.newInstance(newType.getComponentType(), newLength);
-		System.arraycopy(original, 0, copy, 0, Math.min(original.length, newLength));
-		return copy;
-	}
-
 }
@@ -0,0 +1,486 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.sync;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.core.MethodParameter;
+import org.springframework.core.convert.TypeDescriptor;
+import org.springframework.expression.EvaluationException;
+import org.springframework.expression.TypeConverter;
+import org.springframework.expression.spel.support.StandardTypeConverter;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
+import org.springframework.util.StringUtils;
+
+/**
+ * <p>
+ * {@link PathAccessorFactory} that produces {@link PathAccessor}s which navigate an object graph by invoking
+ * getters and setters (or reading and writing fields) directly, rather than by evaluating SpEL expressions.
+ * </p>
+ *
+ * <p>
+ * Each path is broken into a chain of steps: property steps, list index steps, and end-of-list steps (referring to
+ * the last item in a list). Map entries and set members are addressed by their key or member, as a property or
+ * index. The getter, setter, and field backing a property are resolved once per class and reused for every
+ * subsequent access. Values are converted to the property type with the same type conversion rules that SpEL
+ * applies.
+ * </p>
+ *
+ * <p>
+ * If a property can't be resolved on a class, the accessor falls back to a {@link PathAccessor} produced by
+ * a fallback {@link PathAccessorFactory} (a {@link SpelPathAccessorFactory} by default). Properties that can't be
+ * resolved aren't cached, so paths taken from patches can't grow the cache beyond the properties that exist.
+ * </p>
+ *
+ * @author Craig Walls
+ */
+public class ReflectivePathAccessorFactory implements PathAccessorFactory {
+
+	private final PathAccessorFactory fallbackFactory;
+
+	private final ConcurrentMap<Class<?>, ConcurrentMap<String, PropertyHandle>> propertyHandles =
+			new ConcurrentHashMap<Class<?>, ConcurrentMap<String, PropertyHandle>>();
+
+	private final TypeConverter typeConverter = new StandardTypeConverter();
+
+	/**
+	 * Constructs the factory, falling back to SpEL for paths that can't be resolved reflectively.
+	 */
+	public ReflectivePathAccessorFactory() {
+		this(new SpelPathAccessorFactory());
+	}
+
+	/**
+	 * Constructs the factory.
+	 * @param fallbackFactory the {@link PathAccessorFactory} to fall back to for paths that can't be resolved reflectively.
+	 */
+	public ReflectivePathAccessorFactory(PathAccessorFactory fallbackFactory) {
+		this.fallbackFactory = fallbackFactory;
+	}
+
+	@Override
+	public PathAccessor getPathAccessor(JsonPointer pointer) {
+		PathStep[] steps = new PathStep[pointer.size()];
+		for (int i = 0; i < steps.length; i++) {
+			JsonPointer.Token token = pointer.getToken(i);
+			steps[i] = token.isIndex() ? new IndexStep(token.getIndex(), token.getName()) : new PropertyStep(token.getName());
+		}
+		return new ReflectivePathAccessor(pointer, steps);
+	}
+
+	PropertyHandle getPropertyHandle(Class<?> type, String propertyName) {
+		ConcurrentMap<String, PropertyHandle> handles = propertyHandles.get(type);
+		PropertyHandle handle = handles != null ? handles.get(propertyName) : null;
+		if (handle != null) {
+			return handle;
+		}
+		handle = PropertyHandle.resolve(type, propertyName);
+		if (!handle.isResolved()) {
+			return null;
+		}
+		if (handles == null) {
+			handles = new ConcurrentHashMap<String, PropertyHandle>();
+			ConcurrentMap<String, PropertyHandle> existing = propertyHandles.putIfAbsent(type, handles);
+			if (existing != null) {
+				handles = existing;
+			}
+		}
+		handles.put(propertyName, handle);
+		return handle;
+	}
+
+	Object convert(Object value, TypeDescriptor targetType) {
+		if (value == null || ClassUtils.isAssignableValue(targetType.getType(), value)) {
+			return value;
+		}
+		return typeConverter.convertValue(value, TypeDescriptor.forObject(value), targetType);
+	}
+
+	/**
+	 * {@link PathAccessor} that walks a chain of {@link PathStep}s.
+	 */
+	class ReflectivePathAccessor implements PathAccessor {
+
+		private final JsonPointer pointer;
+
+		private final String path;
+
+		private final PathStep[] steps;
+
+		private volatile PathAccessor fallbackAccessor;
+
+		ReflectivePathAccessor(JsonPointer pointer, PathStep[] steps) {
+			this.pointer = pointer;
+			this.path = pointer.toString();
+			this.steps = steps;
+		}
+
+		@Override
+		public Object getValue(Object target) {
+			try {
+				Object current = target;
+				for (PathStep step : steps) {
+					current = step.get(path, current);
+				}
+				return current;
+			} catch (UnresolvablePropertyException e) {
+				return getFallbackAccessor().getValue(target);
+			}
+		}
+
+		@Override
+		public void setValue(Object target, Object value) {
+			if (steps.length == 0) {
+				throw new PatchException("Path '" + path + "' refers to the target itself and can't be set.");
+			}
+			try {
+				Object parent = target;
+				for (int i = 0; i < steps.length - 1; i++) {
+					parent = steps[i].get(path, parent);
+				}
+				steps[steps.length - 1].set(path, parent, value);
+			} catch (UnresolvablePropertyException e) {
+				getFallbackAccessor().setValue(target, value);
+			}
+		}
+
+		private PathAccessor getFallbackAccessor() {
+			if (fallbackAccessor == null) {
+				fallbackAccessor = fallbackFactory.getPathAccessor(pointer);
+			}
+			return fallbackAccessor;
+		}
+
+	}
+
+	/**
+	 * A single step in navigating a path, such as reading a property or a list item.
+	 */
+	static abstract class PathStep {
+
+		abstract Object get(String path, Object container);
+
+		abstract void set(String path, Object container, Object value);
+
+		static void assertNotNull(String path, Object container) {
+			if (container == null) {
+				throw new PatchException("Path '" + path + "' could not be resolved because it navigates through a null value.");
+			}
+		}
+
+	}
+
+	// reads the value of a map entry or a set member, which is null if the set has no such member
+	static Object getKeyed(Object container, String token) {
+		if (container instanceof Map) {
+			Map<?, ?> map = (Map<?, ?>) container;
+			return map.get(CollectionKeys.resolveKey(map, token));
+		}
+		return CollectionKeys.resolveMember((Set<?>) container, token);
+	}
+
+	// writes the value of a map entry, or replaces a set member with the value
+	static void setKeyed(Object container, String token, Object value) {
+		if (container instanceof Map) {
+			@SuppressWarnings("unchecked")
+			Map<Object, Object> map = (Map<Object, Object>) container;
+			map.put(CollectionKeys.resolveKey(map, token), value);
+		} else {
+			@SuppressWarnings("unchecked")
+			Set<Object> set = (Set<Object>) container;
+			Object member = CollectionKeys.resolveMember(set, token);
+			if (member != null) {
+				set.remove(member);
+			}
+			if (value != null) {
+				set.add(value);
+			}
+		}
+	}
+
+	/**
+	 * Step that reads or writes a property of an object, or an entry of a map or a member of a set.
+	 */
+	class PropertyStep extends PathStep {
+
+		private final String propertyName;
+
+		PropertyStep(String propertyName) {
+			this.propertyName = propertyName;
+		}
+
+		@Override
+		Object get(String path, Object container) {
+			assertNotNull(path, container);
+			if (container instanceof Map || container instanceof Set) {
+				return getKeyed(container, propertyName);
+			}
+			return propertyHandle(container).get(container);
+		}
+
+		@Override
+		void set(String path, Object container, Object value) {
+			assertNotNull(path, container);
+			if (container instanceof Map || container instanceof Set) {
+				setKeyed(container, propertyName, value);
+				return;
+			}
+			PropertyHandle handle = propertyHandle(container);
+			if (value == null && handle.getType().isPrimitive()) {
+				throw new PatchException("Path '" + path + "' is not nullable.");
+			}
+			Object converted;
+			try {
+				converted = convert(value, handle.getTypeDescriptor());
+			} catch (EvaluationException e) {
+				throw new PatchException("Unable to set value at path '" + path + "'", e);
+			}
+			handle.set(container, converted);
+		}
+
+		private PropertyHandle propertyHandle(Object container) {
+			PropertyHandle handle = getPropertyHandle(container.getClass(), propertyName);
+			if (handle == null) {
+				throw new UnresolvablePropertyException();
+			}
+			return handle;
+		}
+
+	}
+
+	/**
+	 * Step that reads or writes an item in a list or array. An index of -1 refers to the last item.
+	 * Applied to a map or a set, the index is taken as a key or a member.
+	 */
+	class IndexStep extends PathStep {
+
+		private final int index;
+
+		private final String name;
+
+		IndexStep(int index, String name) {
+			this.index = index;
+			this.name = name;
+		}
+
+		@Override
+		Object get(String path, Object container) {
+			assertNotNull(path, container);
+			if (container instanceof Map || container instanceof Set) {
+				return getKeyed(container, name);
+			} else if (container instanceof List) {
+				List<?> list = (List<?>) container;
+				return list.get(checkIndex(path, list.size()));
+			} else if (container.getClass().isArray()) {
+				return Array.get(container, checkIndex(path, Array.getLength(container)));
+			}
+			throw new UnresolvablePropertyException();
+		}
+
+		@Override
+		void set(String path, Object container, Object value) {
+			assertNotNull(path, container);
+			if (container instanceof Map || container instanceof Set) {
+				setKeyed(container, name, value);
+			} else if (container instanceof List) {
+				@SuppressWarnings("unchecked")
+				List<Object> list = (List<Object>) container;
+				list.set(checkIndex(path, list.size()), value);
+			} else if (container.getClass().isArray()) {
+				int arrayIndex = checkIndex(path, Array.getLength(container));
+				Class<?> componentType = container.getClass().getComponentType();
+				if (value == null && componentType.isPrimitive()) {
+					throw new PatchException("Path '" + path + "' is not nullable.");
+				}
+				try {
+					Array.set(container, arrayIndex, convert(value, TypeDescriptor.valueOf(componentType)));
+				} catch (EvaluationException e) {
+					throw new PatchException("Unable to set value at path '" + path + "'", e);
+				}
+			} else {
+				throw new UnresolvablePropertyException();
+			}
+		}
+
+		private int checkIndex(String path, int size) {
+			int resolvedIndex = index >= 0 ? index : size - 1;
+			if (resolvedIndex < 0 || resolvedIndex >= size) {
+				throw new PatchException("Path '" + path + "' refers to index " + resolvedIndex +
+						" of a collection with " + size + " elements.");
+			}
+			return resolvedIndex;
+		}
+
+	}
+
+	/**
+	 * The getter, setter, and field backing a property of a class.
+	 */
+	static class PropertyHandle {
+
+		private final Method getter;
+
+		private final Method setter;
+
+		private final Field field;
+
+		private final TypeDescriptor typeDescriptor;
+
+		private PropertyHandle(Method getter, Method setter, Field field) {
+			this.getter = getter;
+			this.setter = setter;
+			this.field = field;
+			if (setter != null) {
+				this.typeDescriptor = new TypeDescriptor(new MethodParameter(setter, 0));
+			} else if (field != null) {
+				this.typeDescriptor = new TypeDescriptor(field);
+			} else if (getter != null) {
+				this.typeDescriptor = new TypeDescriptor(new MethodParameter(getter, -1));
+			} else {
+				this.typeDescriptor = null;
+			}
+		}
+
+		static PropertyHandle resolve(Class<?> type, String propertyName) {
+			String capitalized = StringUtils.capitalize(propertyName);
+			Method getter = findPublicMethod(type, "get" + capitalized);
+			if (getter == null) {
+				getter = findPublicMethod(type, "is" + capitalized);
+				if (getter != null && getter.getReturnType() != boolean.class && getter.getReturnType() != Boolean.class) {
+					getter = null;
+				}
+			}
+			Method setter = findSetter(type, "set" + capitalized, getter != null ? getter.getReturnType() : null);
+			Field field = ReflectionUtils.findField(type, propertyName);
+			if (field != null) {
+				if (Modifier.isStatic(field.getModifiers())) {
+					field = null;
+				} else {
+					ReflectionUtils.makeAccessible(field);
+				}
+			}
+			return new PropertyHandle(getter, setter, field);
+		}
+
+		boolean isResolved() {
+			return getter != null || setter != null || field != null;
+		}
+
+		Class<?> getType() {
+			return typeDescriptor.getType();
+		}
+
+		TypeDescriptor getTypeDescriptor() {
+			return typeDescriptor;
+		}
+
+		Object get(Object target) {
+			try {
+				if (getter != null) {
+					return getter.invoke(target);
+				} else if (field != null) {
+					return field.get(target);
+				}
+			} catch (IllegalAccessException e) {
+				throw new PatchException("Unable to read property of " + target.getClass().getName(), e);
+			} catch (InvocationTargetException e) {
+				throw rethrow(e);
+			}
+			throw new PatchException("Property of " + target.getClass().getName() + " is not readable.");
+		}
+
+		void set(Object target, Object value) {
+			try {
+				if (setter != null) {
+					setter.invoke(target, value);
+					return;
+				} else if (field != null && !Modifier.isFinal(field.getModifiers())) {
+					field.set(target, value);
+					return;
+				}
+			} catch (IllegalAccessException e) {
+				throw new PatchException("Unable to write property of " + target.getClass().getName(), e);
+			} catch (InvocationTargetException e) {
+				throw rethrow(e);
+			}
+			throw new PatchException("Property of " + target.getClass().getName() + " is not writable.");
+		}
+
+		private static RuntimeException rethrow(InvocationTargetException e) {
+			Throwable cause = e.getTargetException();
+			if (cause instanceof RuntimeException) {
+				return (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			return new PatchException("Property accessor threw an exception", (Exception) cause);
+		}
+
+		private static Method findPublicMethod(Class<?> type, String name) {
+			try {
+				Method method = type.getMethod(name);
+				return method.getReturnType() != void.class && !Modifier.isStatic(method.getModifiers()) ? accessible(method) : null;
+			} catch (NoSuchMethodException e) {
+				return null;
+			}
+		}
+
+		private static Method findSetter(Class<?> type, String name, Class<?> preferredType) {
+			Method candidate = null;
+			for (Method method : type.getMethods()) {
+				if (method.getName().equals(name) && method.getParameterTypes().length == 1 && !Modifier.isStatic(method.getModifiers())) {
+					if (preferredType == null || method.getParameterTypes()[0] == preferredType) {
+						return accessible(method);
+					}
+					candidate = method;
+				}
+			}
+			return candidate != null ? accessible(candidate) : null;
+		}
+
+		// public methods declared on non-public classes still need to be made accessible
+		private static Method accessible(Method method) {
+			ReflectionUtils.makeAccessible(method);
+			return method;
+		}
+
+	}
+
+	/**
+	 * Thrown internally when a property can't be resolved reflectively, triggering the fallback accessor.
+	 */
+	static class UnresolvablePropertyException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public synchronized Throwable fillInStackTrace() {
+			return this;
+		}
+
+	}
+
+}
@@ -32,8 +32,8 @@ public class RemoveOperation extends PatchOperation {
 	}
 	
 	@Override
-	<T> void perform(Object target, Class<T> type) {
-		popValueAtPath(target, path);
+	<T> void perform(Object target, Class<T> type, ModificationListener listener) {
+		popValueAtPath(target, pointer, listener);
 	}
 
 }
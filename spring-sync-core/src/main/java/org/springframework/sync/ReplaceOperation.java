@@ -32,8 +32,8 @@ public class ReplaceOperation extends PatchOperation {
 	}
 	
 	@Override
-	<T> void perform(Object target, Class<T> type) {
-		setValueOnTarget(target, evaluateValueFromTarget(target, type));
+	<T> void perform(Object target, Class<T> type, ModificationListener listener) {
+		setValueOnTarget(target, evaluateValueFromTarget(target, type), listener);
 	}
 	
 }
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.sync;
+
+import org.springframework.expression.Expression;
+
+/**
+ * {@link PathAccessorFactory} that produces {@link PathAccessor}s which evaluate paths as SpEL expressions.
+ * 
+ * @author Craig Walls
+ * @see PathToSpEL
+ */
+public class SpelPathAccessorFactory implements PathAccessorFactory {
+
+	@Override
+	public PathAccessor getPathAccessor(JsonPointer pointer) {
+		return new SpelPathAccessor(PathToSpEL.pathToExpression(pointer.toString()));
+	}
+
+	private static class SpelPathAccessor implements PathAccessor {
+
+		private final Expression expression;
+
+		public SpelPathAccessor(Expression expression) {
+			this.expression = expression;
+		}
+
+		@Override
+		public Object getValue(Object target) {
+			return expression.getValue(target);
+		}
+
+		@Override
+		public void setValue(Object target, Object value) {
+			expression.setValue(target, value);
+		}
+
+	}
+
+}
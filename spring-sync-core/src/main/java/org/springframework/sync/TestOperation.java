@@ -43,7 +43,7 @@ public class TestOperation extends PatchOperation {
 	}
 	
 	@Override
-	<T> void perform(Object target, Class<T> type) {
+	<T> void perform(Object target, Class<T> type, ModificationListener listener) {
 		Object expected = normalizeIfNumber(evaluateValueFromTarget(target, type));
 		Object actual = normalizeIfNumber(getValueFromTarget(target));		
 		if (!ObjectUtils.nullSafeEquals(expected, actual)) {
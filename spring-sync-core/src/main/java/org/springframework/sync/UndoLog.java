@@ -0,0 +1,139 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.sync;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>{@link ModificationListener} that records the inverse of each modification made to a target, so that the
+ * modifications can be undone.</p>
+ * 
+ * <p>
+ * Values that are about to be set are recorded along with how to set them back; values added to a list are
+ * recorded along with their index so that they can be removed; values removed from a list are recorded along with
+ * their index so that they can be reinserted. Map entries and set members that are added or removed are recorded
+ * likewise. Undoing replays the recorded inverses in reverse order.
+ * </p>
+ * 
+ * @author Craig Walls
+ */
+class UndoLog extends ModificationListener {
+
+	private final List<Entry> entries = new ArrayList<Entry>();
+
+	@Override
+	void beforeSet(final Object target, final PathAccessor accessor) {
+		final Object previousValue = accessor.getValue(target);
+		entries.add(new Entry() {
+			@Override
+			void undo() {
+				accessor.setValue(target, previousValue);
+			}
+		});
+	}
+
+	@Override
+	void afterAdd(final List<?> list, final int index) {
+		entries.add(new Entry() {
+			@Override
+			void undo() {
+				list.remove(index);
+			}
+		});
+	}
+
+	@Override
+	void afterRemove(List<?> list, final int index, final Object value) {
+		@SuppressWarnings("unchecked")
+		final List<Object> objectList = (List<Object>) list;
+		entries.add(new Entry() {
+			@Override
+			void undo() {
+				objectList.add(index, value);
+			}
+		});
+	}
+
+	@Override
+	void afterPut(Map<?, ?> map, final Object key, final boolean replaced, final Object previousValue) {
+		@SuppressWarnings("unchecked")
+		final Map<Object, Object> objectMap = (Map<Object, Object>) map;
+		entries.add(new Entry() {
+			@Override
+			void undo() {
+				if (replaced) {
+					objectMap.put(key, previousValue);
+				} else {
+					objectMap.remove(key);
+				}
+			}
+		});
+	}
+
+	@Override
+	void afterRemove(Map<?, ?> map, final Object key, final Object value) {
+		@SuppressWarnings("unchecked")
+		final Map<Object, Object> objectMap = (Map<Object, Object>) map;
+		entries.add(new Entry() {
+			@Override
+			void undo() {
+				objectMap.put(key, value);
+			}
+		});
+	}
+
+	@Override
+	void afterAdd(final Set<?> set, final Object member) {
+		entries.add(new Entry() {
+			@Override
+			void undo() {
+				set.remove(member);
+			}
+		});
+	}
+
+	@Override
+	void afterRemove(Set<?> set, final Object member) {
+		@SuppressWarnings("unchecked")
+		final Set<Object> objectSet = (Set<Object>) set;
+		entries.add(new Entry() {
+			@Override
+			void undo() {
+				objectSet.add(member);
+			}
+		});
+	}
+
+	/**
+	 * Undoes all recorded modifications, most recent first.
+	 */
+	void undo() {
+		for (int i = entries.size() - 1; i >= 0; i--) {
+			entries.get(i).undo();
+		}
+		entries.clear();
+	}
+
+	private static abstract class Entry {
+
+		abstract void undo();
+
+	}
+
+}
@@ -15,6 +15,9 @@
  */
 package org.springframework.sync.diffsync;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 public abstract class AbstractShadowStore implements ShadowStore {
 
 	private String nodeId;
@@ -36,5 +39,62 @@ public abstract class AbstractShadowStore implements ShadowStore {
 		return nodeId + ":" + key;
 	}
 
-	
+	/**
+	 * Determines if a stored shadow has the versions expected by {@link #replaceShadow(String, int, int, Shadow)}.
+	 * A missing shadow is considered to be at versions 0 and 0.
+	 * @param shadow the stored shadow, possibly null
+	 * @param expectedServerVersion the expected server version
+	 * @param expectedClientVersion the expected client version
+	 * @return true if the shadow has the expected versions
+	 */
+	protected boolean hasExpectedVersions(Shadow<?> shadow, int expectedServerVersion, int expectedClientVersion) {
+		if (shadow == null) {
+			return expectedServerVersion == 0 && expectedClientVersion == 0;
+		}
+		return shadow.getServerVersion() == expectedServerVersion && shadow.getClientVersion() == expectedClientVersion;
+	}
+
+	/**
+	 * Replaces the shadow copy with {@link #replaceShadow(String, int, int, Shadow)} and, if it is replaced, stores the
+	 * additional shadow copies with {@link #putShadows(Map)}.
+	 * Subclasses backed by a remote store should override this to store the shadow copies in a single round trip.
+	 */
+	@Override
+	public boolean replaceShadow(String key, int expectedServerVersion, int expectedClientVersion, Shadow<?> shadow, Map<String, Shadow<?>> additionalShadows) {
+		if (!replaceShadow(key, expectedServerVersion, expectedClientVersion, shadow)) {
+			return false;
+		}
+		if (!additionalShadows.isEmpty()) {
+			putShadows(additionalShadows);
+		}
+		return true;
+	}
+
+	/**
+	 * Retrieves each shadow copy with {@link #getShadow(String)}.
+	 * Subclasses backed by a remote store should override this to retrieve the shadows in a single round trip.
+	 */
+	@Override
+	public Map<String, Shadow<?>> getShadows(String... keys) {
+		Map<String, Shadow<?>> shadows = new LinkedHashMap<String, Shadow<?>>();
+		for (String key : keys) {
+			Shadow<?> shadow = getShadow(key);
+			if (shadow != null) {
+				shadows.put(key, shadow);
+			}
+		}
+		return shadows;
+	}
+
+	/**
+	 * Stores each shadow copy with {@link #putShadow(String, Shadow)}.
+	 * Subclasses backed by a remote store should override this to store the shadows in a single round trip.
+	 */
+	@Override
+	public void putShadows(Map<String, Shadow<?>> shadows) {
+		for (Map.Entry<String, Shadow<?>> entry : shadows.entrySet()) {
+			putShadow(entry.getKey(), entry.getValue());
+		}
+	}
+
 }
@@ -15,10 +15,18 @@
  */
 package org.springframework.sync.diffsync;
 
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+import org.springframework.sync.ChangeTracked;
 import org.springframework.sync.Diff;
+import org.springframework.sync.ListDiffer;
 import org.springframework.sync.Patch;
+import org.springframework.sync.Patch.ApplyMode;
+import org.springframework.sync.PatchException;
 import org.springframework.sync.util.DeepCloneUtils;
 
 /**
@@ -51,6 +59,32 @@ import org.springframework.sync.util.DeepCloneUtils;
  * It performs no persistence of the patched resources, which is the responsibility of the caller.
  * </p>
  * 
+ * <p>
+ * Shadows are replaced with {@link ShadowStore#replaceShadow(String, int, int, Shadow)}, which only succeeds if the shadow
+ * hasn't changed since it was read. If another request replaces a shadow concurrently, a {@link PatchException} is thrown
+ * rather than silently losing either update.
+ * </p>
+ * 
+ * <p>
+ * To keep round trips to a remote {@link ShadowStore} down, a shadow and its backup are read together with
+ * {@link ShadowStore#getShadows(String...)}, and a difference patch produced after applying a patch is compared against
+ * the shadow that was just stored rather than reading it back. Should that shadow have been replaced in the meantime,
+ * the difference is produced against the shadow that is stored now. A patched shadow is stored along with its backup with
+ * {@link ShadowStore#replaceShadow(String, int, int, Shadow, Map)}, and with {@link #setDeferredWrites(boolean) deferred writes}
+ * enabled they are stored along with the shadow produced by the following difference patch, so that applying a patch and
+ * producing the difference takes one round trip to read the shadows and one to store them.
+ * </p>
+ * 
+ * <p>
+ * Stored shadows are never modified. A patch is applied to a shadow, and to the target, by copying only the objects along
+ * the patched paths (see {@link ApplyMode#PATH_COPY}), and a patched shadow is stored as its own backup.
+ * </p>
+ * 
+ * <p>
+ * With {@link #setDirtyTracking(boolean) dirty tracking} enabled, a difference patch compares only the dirty properties of
+ * {@link ChangeTracked} resources with their shadows, and their dirty paths are cleared once the shadow has been replaced.
+ * </p>
+ * 
  * @author Craig Walls
  *
  * @param <T> The entity type to perform differential synchronization against.
@@ -61,14 +95,81 @@ public class DiffSync<T> {
 
 	private Class<T> entityType;
 
+	private ShadowKeyStrategy shadowKeyStrategy;
+
+	private Equivalency equivalency;
+
+	private ListDiffer listDiffer;
+
+	private boolean dirtyTracking;
+
+	private boolean deferredWrites;
+
+	private volatile Map.Entry<String, Shadow<?>> lastStoredShadow;
+
+	private volatile PendingWrite pendingWrite;
+
 	/**
-	 * Constructs the Differential Synchronization routine instance.
+	 * Constructs the Differential Synchronization routine instance, keying shadows with an {@link IdPropertyShadowKeyStrategy}.
 	 * @param shadowStore the shadow store
 	 * @param entityType the type of entity this DiffSync works with
 	 */
 	public DiffSync(ShadowStore shadowStore, Class<T> entityType) {
+		this(shadowStore, entityType, new IdPropertyShadowKeyStrategy());
+	}
+
+	/**
+	 * Constructs the Differential Synchronization routine instance.
+	 * @param shadowStore the shadow store
+	 * @param entityType the type of entity this DiffSync works with
+	 * @param shadowKeyStrategy the strategy for determining the key that a resource's shadow is stored under
+	 */
+	public DiffSync(ShadowStore shadowStore, Class<T> entityType, ShadowKeyStrategy shadowKeyStrategy) {
 		this.shadowStore = shadowStore;
 		this.entityType = entityType;
+		this.shadowKeyStrategy = shadowKeyStrategy;
+	}
+
+	/**
+	 * Sets the {@link Equivalency} used to match the items of lists when producing difference patches, so that a changed
+	 * or reordered item is described by its changed fields or by a move rather than by removing and re-adding it.
+	 * Defaults to null, in which case list items are matched by equality.
+	 * @param equivalency the equivalency
+	 */
+	public void setEquivalency(Equivalency equivalency) {
+		this.equivalency = equivalency;
+	}
+
+	/**
+	 * Sets the {@link ListDiffer} used to compare lists when producing difference patches, for example to choose the
+	 * list-diff algorithm or to monitor its cost. Not used when an {@link Equivalency} is set.
+	 * @param listDiffer the list differ
+	 */
+	public void setListDiffer(ListDiffer listDiffer) {
+		this.listDiffer = listDiffer;
+	}
+
+	/**
+	 * Sets whether difference patches compare only the dirty properties of {@link ChangeTracked} resources with their
+	 * shadows (see {@link Diff#diffDirty(Object, Object)}), clearing the dirty paths of a resource, or of each item of a
+	 * list resource, once its shadow has been replaced. Resources must then record every change made to them since their
+	 * shadow was last replaced, including changes made by the caller before storing a patched resource. Defaults to false.
+	 * @param dirtyTracking true to compare only dirty properties
+	 */
+	public void setDirtyTracking(boolean dirtyTracking) {
+		this.dirtyTracking = dirtyTracking;
+	}
+
+	/**
+	 * Sets whether the shadow and backup produced by applying a patch are held back until the following difference patch
+	 * is produced for the same resource, and then stored along with the shadow it produces in a single write.
+	 * Every {@code apply} must then be followed by a {@code diff} of the same resource, and the instance must not be shared
+	 * between requests. Should the patched resource fail to be persisted in between, the stored shadows are left as they
+	 * were, so the client's next patch is applied against them again. Defaults to false.
+	 * @param deferredWrites true to store the shadows of an apply along with those of the following diff
+	 */
+	public void setDeferredWrites(boolean deferredWrites) {
+		this.deferredWrites = deferredWrites;
 	}
 	
 	/**
@@ -99,21 +200,28 @@ public class DiffSync<T> {
 		if (patch.size() == 0) {
 			return target;
 		}
-		Shadow<T> shadow = getShadow(target);
+		String shadowStoreKey = shadowKeyStrategy.getShadowKey(target, entityType);
+		Map<String, Shadow<?>> storedShadows = getStoredShadows(shadowStoreKey, patch);
+		Shadow<T> shadow = toShadow(storedShadows.get(shadowStoreKey), target);
+		int storedServerVersion = shadow.getServerVersion();
+		int storedClientVersion = shadow.getClientVersion();
+		boolean backupRestored = false;
 		if (patch instanceof VersionedPatch) {
 			VersionedPatch versionedPatch = (VersionedPatch) patch;
 			if (versionedPatch.getServerVersion() < shadow.getServerVersion()) { // e.g., if (patch.serverVersion < shadow.serverVersion)
-				shadow = getBackupShadow(target);
-				putShadow(shadow);
+				shadow = toBackupShadow(storedShadows.get(shadowStoreKey + "_backup"), target);
+				backupRestored = true;
 			}
 		}
 
 		if (shouldApplyPatch(patch, shadow)) {
-			shadow = new Shadow<T>(patch.apply(shadow.getResource(), entityType), shadow.getServerVersion(), shadow.getClientVersion() + 1);
-			Shadow<T> backupShadow = new Shadow<T>(shadow.getResource(), shadow.getServerVersion(), shadow.getClientVersion());
-			putShadow(shadow);
-			putBackupShadow(backupShadow);
-			return patch.apply(DeepCloneUtils.deepClone(target), entityType);
+			T patched = patch.apply(shadow.getResource(), entityType, shadowApplyMode(shadow, target));
+			shadow = new Shadow<T>(patched, shadow.getServerVersion(), shadow.getClientVersion() + 1);
+			storeShadow(shadowStoreKey, storedServerVersion, storedClientVersion, shadow, shadow);
+			return patch.apply(target, entityType, ApplyMode.PATH_COPY);
+		}
+		if (backupRestored) {
+			storeShadow(shadowStoreKey, storedServerVersion, storedClientVersion, shadow, null);
 		}
 		return target;
 	}
@@ -146,21 +254,28 @@ public class DiffSync<T> {
 		if (patch.size() == 0) {
 			return target;
 		}
-		Shadow<List<T>> shadow = getShadow(target);
+		String shadowStoreKey = shadowKeyStrategy.getListShadowKey(target, entityType);
+		Map<String, Shadow<?>> storedShadows = getStoredShadows(shadowStoreKey, patch);
+		Shadow<List<T>> shadow = toShadow(storedShadows.get(shadowStoreKey), target);
+		int storedServerVersion = shadow.getServerVersion();
+		int storedClientVersion = shadow.getClientVersion();
+		boolean backupRestored = false;
 		if (patch instanceof VersionedPatch) {
 			VersionedPatch versionedPatch = (VersionedPatch) patch;
 			if (versionedPatch.getServerVersion() < shadow.getServerVersion()) {
-				shadow = getBackupShadow(target);
-				putListShadow(shadow);
+				shadow = toBackupShadow(storedShadows.get(shadowStoreKey + "_backup"), target);
+				backupRestored = true;
 			}
 		}
 		
 		if (shouldApplyPatch(patch, shadow)) {
-			shadow = new Shadow<List<T>>(patch.apply(shadow.getResource(), entityType), shadow.getServerVersion(), shadow.getClientVersion() + 1);
-			Shadow<List<T>> backupShadow = new Shadow<List<T>>(shadow.getResource(), shadow.getServerVersion(), shadow.getClientVersion());
-			putListShadow(shadow);
-			putBackupListShadow(backupShadow);
-			return patch.apply(DeepCloneUtils.deepClone(target), entityType);
+			List<T> patched = patch.apply(shadow.getResource(), entityType, shadowApplyMode(shadow, target));
+			shadow = new Shadow<List<T>>(patched, shadow.getServerVersion(), shadow.getClientVersion() + 1);
+			storeShadow(shadowStoreKey, storedServerVersion, storedClientVersion, shadow, shadow);
+			return patch.apply(target, entityType, ApplyMode.PATH_COPY);
+		}
+		if (backupRestored) {
+			storeShadow(shadowStoreKey, storedServerVersion, storedClientVersion, shadow, null);
 		}
 		return target;
 	}
@@ -172,12 +287,19 @@ public class DiffSync<T> {
 	 * @return a {@link VersionedPatch} describing the differences between the target and its shadow.
 	 */
 	public VersionedPatch diff(T target) {
-		Shadow<T> shadow = getShadow(target);
-		Patch diff = Diff.diff(shadow.getResource(), target);
-		VersionedPatch vDiff = new VersionedPatch(diff.getOperations(), shadow.getServerVersion(), shadow.getClientVersion());
-		T patched = diff.apply(shadow.getResource(), entityType);
-		shadow = new Shadow<T>(patched, shadow.getServerVersion() + 1, shadow.getClientVersion());
-		putShadow(shadow);
+		String shadowStoreKey = shadowKeyStrategy.getShadowKey(target, entityType);
+		Shadow<T> lastStored = getLastStoredShadow(shadowStoreKey);
+		if (lastStored != null) {
+			VersionedPatch vDiff = diff(shadowStoreKey, lastStored, target);
+			if (vDiff != null) {
+				return vDiff;
+			}
+			// the shadow was replaced since this instance stored it; diff against the shadow that is stored now
+		}
+		VersionedPatch vDiff = diff(shadowStoreKey, toShadow(shadowStore.getShadow(shadowStoreKey), target), target);
+		if (vDiff == null) {
+			throw concurrentModification(shadowStoreKey);
+		}
 		return vDiff;
 	}
 	
@@ -188,89 +310,197 @@ public class DiffSync<T> {
 	 * @return a {@link VersionedPatch} describing the differences between the target and its shadow.
 	 */
 	public VersionedPatch diff(List<T> target) {
-		Shadow<List<T>> shadow = getShadow(target);
-		Patch diff = Diff.diff(shadow.getResource(), target);
-		VersionedPatch vDiff = new VersionedPatch(diff.getOperations(), shadow.getServerVersion(), shadow.getClientVersion());
-		List<T> patched = diff.apply(shadow.getResource(), entityType);
-		shadow = new Shadow<List<T>>(patched, shadow.getServerVersion() + 1, shadow.getClientVersion());
-		putListShadow(shadow);
+		String shadowStoreKey = shadowKeyStrategy.getListShadowKey(target, entityType);
+		Shadow<List<T>> lastStored = getLastStoredShadow(shadowStoreKey);
+		if (lastStored != null) {
+			VersionedPatch vDiff = diff(shadowStoreKey, lastStored, target);
+			if (vDiff != null) {
+				return vDiff;
+			}
+			// the shadow was replaced since this instance stored it; diff against the shadow that is stored now
+		}
+		VersionedPatch vDiff = diff(shadowStoreKey, toShadow(shadowStore.getShadow(shadowStoreKey), target), target);
+		if (vDiff == null) {
+			throw concurrentModification(shadowStoreKey);
+		}
 		return vDiff;
 	}
 	
 	// private helper methods
 	
+	// stored shadows are never modified, so a patched shadow may share whatever the patch leaves untouched with the shadow
+	// it was patched from; a shadow that is the target itself (no shadow was stored yet) is copied whole, since the caller
+	// may go on to modify the target
+	private ApplyMode shadowApplyMode(Shadow<?> shadow, Object target) {
+		return shadow.getResource() == target ? ApplyMode.DEEP_COPY : ApplyMode.PATH_COPY;
+	}
+
 	private boolean shouldApplyPatch(Patch patch, Shadow<?> shadow) {
 		if (!(patch instanceof VersionedPatch)) return true;
 		VersionedPatch versionedPatch = (VersionedPatch) patch;
 		return versionedPatch.getServerVersion() == shadow.getServerVersion() && versionedPatch.getClientVersion() == shadow.getClientVersion();
 	}
 	
-	@SuppressWarnings("unchecked")
-	private Shadow<T> getShadow(T target) {
-		String shadowStoreKey = getShadowStoreKey(target);
-		Shadow<T> shadow = (Shadow<T>) shadowStore.getShadow(shadowStoreKey);
-		if (shadow == null) {
-			shadow = new Shadow<T>(DeepCloneUtils.deepClone(target), 0, 0); // OKAY
+	// produces the difference patch and replaces the shadow, or returns null if the shadow has been replaced since it was read
+	private VersionedPatch diff(String shadowStoreKey, Shadow<T> shadow, T target) {
+		Patch diff = computeDiff(shadow.getResource(), target);
+		T patched = diff.apply(shadow.getResource(), entityType);
+		VersionedPatch vDiff = replaceDiffedShadow(shadowStoreKey, shadow, diff, new Shadow<T>(patched, shadow.getServerVersion() + 1, shadow.getClientVersion()));
+		if (vDiff != null && dirtyTracking) {
+			clearDirtyPaths(target);
 		}
-		return shadow;
+		return vDiff;
 	}
 
-	@SuppressWarnings("unchecked")
-	private Shadow<T> getBackupShadow(T target) {
-		String shadowStoreKey = getShadowStoreKey(target) + "_backup";
-		Shadow<T> shadow = (Shadow<T>) shadowStore.getShadow(shadowStoreKey);
-		if (shadow == null) {
-			shadow = new Shadow<T>(DeepCloneUtils.deepClone(target), 0, 0); // OKAY
+	private VersionedPatch diff(String shadowStoreKey, Shadow<List<T>> shadow, List<T> target) {
+		Patch diff = computeDiff(shadow.getResource(), target);
+		List<T> patched = diff.apply(shadow.getResource(), entityType);
+		VersionedPatch vDiff = replaceDiffedShadow(shadowStoreKey, shadow, diff, new Shadow<List<T>>(patched, shadow.getServerVersion() + 1, shadow.getClientVersion()));
+		if (vDiff != null && dirtyTracking) {
+			for (T item : target) {
+				clearDirtyPaths(item);
+			}
 		}
-		return shadow;
+		return vDiff;
 	}
 
-	private void putShadow(Shadow<T> shadow) {
-		String shadowStoreKey = getShadowStoreKey(shadow.getResource());
-		shadowStore.putShadow(shadowStoreKey, shadow);
+	private Patch computeDiff(Object original, Object modified) {
+		if (dirtyTracking) {
+			return Diff.diffDirty(original, modified, equivalency, listDiffer);
+		}
+		if (equivalency != null) {
+			return Diff.diff(original, modified, equivalency);
+		}
+		return listDiffer != null ? Diff.diff(original, modified, listDiffer) : Diff.diff(original, modified);
 	}
 
-	private void putBackupShadow(Shadow<T> shadow) {
-		String shadowStoreKey = getShadowStoreKey(shadow.getResource()) + "_backup";
-		shadowStore.putShadow(shadowStoreKey, shadow);
+	private void clearDirtyPaths(Object target) {
+		if (target instanceof ChangeTracked) {
+			((ChangeTracked) target).clearDirtyPaths();
+		}
 	}
 
-	private void putListShadow(Shadow<List<T>> shadow) {
-		String shadowStoreKey = getShadowStoreKey(shadow.getResource());
-		shadowStore.putShadow(shadowStoreKey, shadow);
+	private VersionedPatch replaceDiffedShadow(String shadowStoreKey, Shadow<?> shadow, Patch diff, Shadow<?> newShadow) {
+		PendingWrite pending = getPendingWrite(shadowStoreKey);
+		if (pending != null) {
+			// the shadow being diffed hasn't been stored yet, so it's stored along with its backup as part of this write
+			pendingWrite = null;
+			if (!shadowStore.replaceShadow(shadowStoreKey, pending.expectedServerVersion, pending.expectedClientVersion, newShadow, pending.additionalShadows)) {
+				throw concurrentModification(shadowStoreKey);
+			}
+		} else if (!shadowStore.replaceShadow(shadowStoreKey, shadow.getServerVersion(), shadow.getClientVersion(), newShadow)) {
+			return null;
+		}
+		lastStoredShadow = new AbstractMap.SimpleImmutableEntry<String, Shadow<?>>(shadowStoreKey, newShadow);
+		return new VersionedPatch(diff.getOperations(), shadow.getServerVersion(), shadow.getClientVersion());
 	}
 
-	private void putBackupListShadow(Shadow<List<T>> shadow) {
-		String shadowStoreKey = getShadowStoreKey(shadow.getResource()) + "_backup";
-		shadowStore.putShadow(shadowStoreKey, shadow);
+	// a versioned patch may need to be applied to the backup shadow, so read it along with the shadow in a single batch
+	private Map<String, Shadow<?>> getStoredShadows(String shadowStoreKey, Patch patch) {
+		PendingWrite pending = getPendingWrite(shadowStoreKey);
+		if (pending != null) {
+			Map<String, Shadow<?>> shadows = new HashMap<String, Shadow<?>>(pending.additionalShadows);
+			if (patch instanceof VersionedPatch && !shadows.containsKey(shadowStoreKey + "_backup")) {
+				shadows.putAll(shadowStore.getShadows(shadowStoreKey + "_backup"));
+			}
+			shadows.put(shadowStoreKey, pending.shadow);
+			return shadows;
+		}
+		if (patch instanceof VersionedPatch) {
+			return shadowStore.getShadows(shadowStoreKey, shadowStoreKey + "_backup");
+		}
+		return shadowStore.getShadows(shadowStoreKey);
 	}
 
 	@SuppressWarnings("unchecked")
-	private Shadow<List<T>> getShadow(List<T> target) {
-		String shadowStoreKey = getShadowStoreKey(target);
-		Shadow<List<T>> shadow = (Shadow<List<T>>) shadowStore.getShadow(shadowStoreKey);
-		if (shadow == null) {
-			shadow = new Shadow<List<T>>(DeepCloneUtils.deepClone(target), 0, 0); // OKAY
+	private <R> Shadow<R> toShadow(Shadow<?> storedShadow, R target) {
+		if (storedShadow == null) {
+			// patches and diffs are applied to copies of the shadow, so the target needn't be copied until it's stored as a shadow
+			return new Shadow<R>(target, 0, 0);
 		}
-		return shadow;
+		return (Shadow<R>) storedShadow;
 	}
 
 	@SuppressWarnings("unchecked")
-	private Shadow<List<T>> getBackupShadow(List<T> target) {
-		String shadowStoreKey = getShadowStoreKey(target) + "_backup";
-		Shadow<List<T>> shadow = (Shadow<List<T>>) shadowStore.getShadow(shadowStoreKey);
-		if (shadow == null) {
-			shadow = new Shadow<List<T>>(DeepCloneUtils.deepClone(target), 0, 0); // OKAY
+	private <R> Shadow<R> toBackupShadow(Shadow<?> storedShadow, R target) {
+		if (storedShadow == null) {
+			return new Shadow<R>(DeepCloneUtils.deepClone(target), 0, 0); // OKAY
 		}
-		return shadow;
+		return (Shadow<R>) storedShadow;
 	}
 
-	private String getShadowStoreKey(T t) {
-		return "shadow/" + entityType.getSimpleName();
+	// the shadow most recently stored by this instance, so that a diff following an apply needn't read it back from the store
+	@SuppressWarnings("unchecked")
+	private <R> Shadow<R> getLastStoredShadow(String shadowStoreKey) {
+		PendingWrite pending = getPendingWrite(shadowStoreKey);
+		if (pending != null) {
+			return (Shadow<R>) pending.shadow;
+		}
+		Map.Entry<String, Shadow<?>> lastStored = lastStoredShadow;
+		return lastStored != null && lastStored.getKey().equals(shadowStoreKey) ? (Shadow<R>) lastStored.getValue() : null;
 	}
-	
-	private String getShadowStoreKey(List<T> t) {
-		return "shadow/" + entityType.getSimpleName() + "List";
+
+	// replaces the shadow, along with its backup if given, only if no other request has replaced it since it was read,
+	// so that concurrent updates aren't lost; with deferred writes, the shadows are held back until the following diff
+	private void storeShadow(String shadowStoreKey, int storedServerVersion, int storedClientVersion, Shadow<?> shadow, Shadow<?> backupShadow) {
+		Map<String, Shadow<?>> additionalShadows = backupShadow != null
+				? Collections.<String, Shadow<?>>singletonMap(shadowStoreKey + "_backup", backupShadow)
+				: Collections.<String, Shadow<?>>emptyMap();
+		if (deferredWrites) {
+			PendingWrite pending = getPendingWrite(shadowStoreKey);
+			if (pending == null) {
+				pendingWrite = new PendingWrite(shadowStoreKey, storedServerVersion, storedClientVersion, shadow, additionalShadows);
+			} else {
+				// the shadow was read from the pending write, so the stored shadow is still expected to have the versions it had
+				pendingWrite = new PendingWrite(shadowStoreKey, pending.expectedServerVersion, pending.expectedClientVersion, shadow,
+						backupShadow != null ? additionalShadows : pending.additionalShadows);
+			}
+			return;
+		}
+		if (!shadowStore.replaceShadow(shadowStoreKey, storedServerVersion, storedClientVersion, shadow, additionalShadows)) {
+			throw concurrentModification(shadowStoreKey);
+		}
+		lastStoredShadow = new AbstractMap.SimpleImmutableEntry<String, Shadow<?>>(shadowStoreKey, shadow);
+	}
+
+	// the write held back for a shadow, if any; a write held back for another shadow is stored now
+	private PendingWrite getPendingWrite(String shadowStoreKey) {
+		PendingWrite pending = pendingWrite;
+		if (pending == null || pending.key.equals(shadowStoreKey)) {
+			return pending;
+		}
+		pendingWrite = null;
+		if (!shadowStore.replaceShadow(pending.key, pending.expectedServerVersion, pending.expectedClientVersion, pending.shadow, pending.additionalShadows)) {
+			throw concurrentModification(pending.key);
+		}
+		lastStoredShadow = new AbstractMap.SimpleImmutableEntry<String, Shadow<?>>(pending.key, pending.shadow);
+		return null;
+	}
+
+	private PatchException concurrentModification(String shadowStoreKey) {
+		return new PatchException("Shadow '" + shadowStoreKey + "' was modified by a concurrent request.");
+	}
+
+	private static class PendingWrite {
+
+		private final String key;
+
+		private final int expectedServerVersion;
+
+		private final int expectedClientVersion;
+
+		private final Shadow<?> shadow;
+
+		private final Map<String, Shadow<?>> additionalShadows;
+
+		PendingWrite(String key, int expectedServerVersion, int expectedClientVersion, Shadow<?> shadow, Map<String, Shadow<?>> additionalShadows) {
+			this.key = key;
+			this.expectedServerVersion = expectedServerVersion;
+			this.expectedClientVersion = expectedClientVersion;
+			this.shadow = shadow;
+			this.additionalShadows = additionalShadows;
+		}
+
 	}
 
 }
@@ -16,31 +16,55 @@
 package org.springframework.sync.diffsync;
 
 import java.lang.reflect.Field;
+import java.util.Map;
 
+import org.springframework.util.ConcurrentReferenceHashMap;
 import org.springframework.util.ObjectUtils;
+import org.springframework.util.ReflectionUtils;
 
 /**
  * Determines if two objects are equivalent by comparing their "id" properties.
+ * An object's "id" property is also its key.
+ * The "id" field may be declared by the object's class or any of its superclasses, and is looked up once per class.
  * 
  * @author Craig Walls
  */
-public class IdPropertyEquivalency implements Equivalency {
+public class IdPropertyEquivalency implements KeyedEquivalency {
+
+	private static final Map<Class<?>, Field> ID_FIELDS = new ConcurrentReferenceHashMap<Class<?>, Field>();
 
 	@Override
 	public boolean isEquivalent(Object o1, Object o2) {
-		try {
-			Field idField1 = o1.getClass().getDeclaredField("id");
-			idField1.setAccessible(true);
-			Object id1 = idField1.get(o1);
-			Field idField2 = o2.getClass().getDeclaredField("id");
-			idField2.setAccessible(true);
-			Object id2 = idField2.get(o2);
-			return ObjectUtils.nullSafeEquals(id1, id2);
-		} catch (NoSuchFieldException e) {
-			return false;
-		} catch (IllegalAccessException e) {
+		Field idField1 = getIdField(o1.getClass());
+		Field idField2 = getIdField(o2.getClass());
+		if (idField1 == null || idField2 == null) {
 			return false;
 		}
+		return ObjectUtils.nullSafeEquals(ReflectionUtils.getField(idField1, o1), ReflectionUtils.getField(idField2, o2));
+	}
+
+	@Override
+	public Object getKey(Object o) {
+		Field idField = getIdField(o.getClass());
+		return idField != null ? ReflectionUtils.getField(idField, o) : null;
+	}
+
+	// the class's accessible "id" field, or null if it has none; also used by IdPropertyShadowKeyStrategy
+	static Field getIdField(Class<?> type) {
+		Field idField = ID_FIELDS.get(type);
+		if (idField == null && !ID_FIELDS.containsKey(type)) {
+			idField = ReflectionUtils.findField(type, "id");
+			if (idField != null) {
+				try {
+					ReflectionUtils.makeAccessible(idField);
+				} catch (RuntimeException e) {
+					// e.g., the field belongs to a module that isn't open to reflection
+					idField = null;
+				}
+			}
+			ID_FIELDS.put(type, idField);
+		}
+		return idField;
 	}
 	
 }
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.sync.diffsync;
+
+import java.lang.reflect.Field;
+import java.util.List;
+
+import org.springframework.util.ReflectionUtils;
+
+/**
+ * <p>{@link ShadowKeyStrategy} that keys the shadow of a single entity by the entity's "id" property, so that each
+ * entity of a type has its own shadow (e.g., "shadow/Todo/1"). An entity without an "id" property, or whose "id"
+ * is null, is keyed by its type alone (e.g., "shadow/Todo"). The "id" field is looked up once per class, sharing
+ * {@link IdPropertyEquivalency}'s lookup.</p>
+ * 
+ * <p>
+ * A list resource is identified by the type of its entities, so the shadow of a list is keyed by that type
+ * (e.g., "shadow/TodoList").
+ * </p>
+ * 
+ * @author Craig Walls
+ */
+public class IdPropertyShadowKeyStrategy implements ShadowKeyStrategy {
+
+	@Override
+	public String getShadowKey(Object entity, Class<?> entityType) {
+		String key = "shadow/" + entityType.getSimpleName();
+		Object id = getId(entity);
+		return id != null ? key + "/" + id : key;
+	}
+
+	@Override
+	public String getListShadowKey(List<?> list, Class<?> entityType) {
+		return "shadow/" + entityType.getSimpleName() + "List";
+	}
+
+	private Object getId(Object entity) {
+		if (entity == null) {
+			return null;
+		}
+		Field idField = IdPropertyEquivalency.getIdField(entity.getClass());
+		return idField != null ? ReflectionUtils.getField(idField, entity) : null;
+	}
+
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.sync.diffsync;
+
+/**
+ * An {@link Equivalency} that can produce a key for an object, such that equivalent objects have equal keys.
+ * 
+ * <p>Keys allow the items of two lists to be matched by hashing, rather than by comparing every pair of items.</p>
+ * 
+ * @author Craig Walls
+ */
+public interface KeyedEquivalency extends Equivalency {
+
+	/**
+	 * Produces the key identifying an object.
+	 * @param o the object
+	 * @return the object's key, or null if the object has no key, in which case it isn't matched with any other object.
+	 */
+	Object getKey(Object o);
+	
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.sync.diffsync;
+
+import java.util.List;
+
+/**
+ * <p>Strategy interface for determining the key that a resource's shadow is stored under in a {@link ShadowStore}.</p>
+ * 
+ * <p>
+ * Resources that are given different keys have independent shadows, so patches against one don't invalidate
+ * the shadow of another.
+ * </p>
+ * 
+ * @author Craig Walls
+ */
+public interface ShadowKeyStrategy {
+
+	/**
+	 * Determines the shadow key for a single entity resource.
+	 * @param entity the entity
+	 * @param entityType the entity type
+	 * @return the key that the entity's shadow is stored under
+	 */
+	String getShadowKey(Object entity, Class<?> entityType);
+
+	/**
+	 * Determines the shadow key for a list resource.
+	 * @param list the list of entities
+	 * @param entityType the type of the list's entities
+	 * @return the key that the list's shadow is stored under
+	 */
+	String getListShadowKey(List<?> list, Class<?> entityType);
+
+}
@@ -15,6 +15,8 @@
  */
 package org.springframework.sync.diffsync;
 
+import java.util.Map;
+
 /**
  * Strategy interface for maintaining shadow copies across requests.
  * 
@@ -36,4 +38,44 @@ public interface ShadowStore {
 	 */
 	Shadow<?> getShadow(String key);
 
+	/**
+	 * Stores a shadow copy, but only if the shadow currently stored under the key has the expected versions.
+	 * If no shadow is stored under the key, the shadow copy is stored only if both expected versions are 0.
+	 * This allows concurrent updates to the same shadow to be detected without locking.
+	 * @param key the key to store the shadow under
+	 * @param expectedServerVersion the server version that the currently stored shadow is expected to have
+	 * @param expectedClientVersion the client version that the currently stored shadow is expected to have
+	 * @param shadow the shadow copy
+	 * @return true if the shadow copy was stored, false if the currently stored shadow doesn't have the expected versions
+	 */
+	boolean replaceShadow(String key, int expectedServerVersion, int expectedClientVersion, Shadow<?> shadow);
+
+	/**
+	 * Stores a shadow copy as {@link #replaceShadow(String, int, int, Shadow)} does and, only if it is stored, also stores
+	 * other shadow copies (such as its backup) along with it.
+	 * Implementations backed by a remote store should check the versions and store all of the shadow copies in a single round trip.
+	 * @param key the key to store the shadow under
+	 * @param expectedServerVersion the server version that the currently stored shadow is expected to have
+	 * @param expectedClientVersion the client version that the currently stored shadow is expected to have
+	 * @param shadow the shadow copy
+	 * @param additionalShadows the other shadow copies to store, keyed by the keys to store them under
+	 * @return true if the shadow copies were stored, false if the currently stored shadow doesn't have the expected versions
+	 */
+	boolean replaceShadow(String key, int expectedServerVersion, int expectedClientVersion, Shadow<?> shadow, Map<String, Shadow<?>> additionalShadows);
+
+	/**
+	 * Retrieves several shadow copies at once.
+	 * Implementations backed by a remote store should retrieve them in a single round trip.
+	 * @param keys the keys that the shadows are stored under
+	 * @return the shadow copies, keyed by the keys they are stored under. Keys with no stored shadow are omitted.
+	 */
+	Map<String, Shadow<?>> getShadows(String... keys);
+
+	/**
+	 * Stores several shadow copies at once.
+	 * Implementations backed by a remote store should store them in a single round trip.
+	 * @param shadows the shadow copies, keyed by the keys to store them under
+	 */
+	void putShadows(Map<String, Shadow<?>> shadows);
+
 }
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.sync.diffsync.shadowstore;
+
+import org.springframework.sync.diffsync.AbstractShadowStore;
+import org.springframework.sync.diffsync.Shadow;
+import org.springframework.sync.diffsync.ShadowStore;
+import org.springframework.util.Assert;
+
+/**
+ * <p>Implementation of {@link ShadowStore} that keeps shadows in memory, in a {@link BoundedShadowCache} bounded by their total weight.</p>
+ * 
+ * <p>
+ * A single cache should be shared by the shadow stores of all nodes, so that its maximum weight bounds the memory held
+ * by the shadows of every session on the server. Shadows are kept in the cache under node-specific keys.
+ * </p>
+ * 
+ * <p>
+ * An evicted or expired shadow is simply missing from the store, as if the client had never synchronized.
+ * The next request for it starts over from a fresh shadow at versions 0 and 0 (a clean resync) rather than failing.
+ * </p>
+ * 
+ * @author Craig Walls
+ */
+public class BoundedMapShadowStore extends AbstractShadowStore {
+
+	private final BoundedShadowCache cache;
+
+	/**
+	 * Creates a bounded shadow store.
+	 * @param remoteNodeId the unique id of the node that this shadow store is being created for.
+	 * @param cache the cache that shadows are kept in, shared with the shadow stores of other nodes.
+	 */
+	public BoundedMapShadowStore(String remoteNodeId, BoundedShadowCache cache) {
+		super(remoteNodeId);
+		Assert.notNull(cache, "Cache must not be null");
+		this.cache = cache;
+	}
+
+	@Override
+	public void putShadow(String key, Shadow<?> shadow) {
+		cache.put(getNodeSpecificKey(key), shadow);
+	}
+
+	@Override
+	public Shadow<?> getShadow(String key) {
+		return cache.get(getNodeSpecificKey(key));
+	}
+
+	@Override
+	public boolean replaceShadow(String key, int expectedServerVersion, int expectedClientVersion, Shadow<?> shadow) {
+		return cache.replace(getNodeSpecificKey(key), expectedServerVersion, expectedClientVersion, shadow);
+	}
+
+}
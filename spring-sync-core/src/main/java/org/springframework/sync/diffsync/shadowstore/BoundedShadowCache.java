@@ -0,0 +1,285 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.sync.diffsync.shadowstore;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.sync.diffsync.Shadow;
+import org.springframework.util.Assert;
+
+/**
+ * <p>Keeps shadows in memory, bounded by their total weight, for use by {@link BoundedMapShadowStore}s.</p>
+ * 
+ * <p>
+ * Each shadow is weighed by a {@link ShadowWeigher} (by default an {@link EstimatingShadowWeigher}) when it is stored.
+ * When the total weight exceeds the maximum weight, the least recently used shadows are evicted until it no longer does.
+ * Shadows may also be expired once they haven't been accessed for an idle timeout and/or once they were stored
+ * longer ago than a time-to-live.
+ * </p>
+ * 
+ * <p>
+ * A single cache should be shared by the shadow stores of all nodes, so that the maximum weight bounds the memory held
+ * by all of an application's shadows rather than by those of each node.
+ * </p>
+ * 
+ * <p>
+ * Hit, miss, eviction, and expiration counts are kept to help size the cache.
+ * All operations are synchronized, except that shadows are weighed before the lock is taken;
+ * {@link #replace(String, int, int, Shadow)} is atomic.
+ * </p>
+ * 
+ * @author Craig Walls
+ */
+public class BoundedShadowCache {
+
+	private final long maximumWeight;
+
+	private final Map<String, Entry> store = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+	private volatile ShadowWeigher weigher = new EstimatingShadowWeigher();
+
+	private long idleTimeout;
+
+	private long timeToLive;
+
+	private long totalWeight;
+
+	private long hitCount;
+
+	private long missCount;
+
+	private long evictionCount;
+
+	private long expirationCount;
+
+	/**
+	 * Creates a bounded shadow cache.
+	 * @param maximumWeight the maximum total weight of the cached shadows, as estimated by the {@link ShadowWeigher}.
+	 */
+	public BoundedShadowCache(long maximumWeight) {
+		Assert.isTrue(maximumWeight > 0, "Maximum weight must be positive");
+		this.maximumWeight = maximumWeight;
+	}
+
+	/**
+	 * Sets the weigher used to estimate the weight of each shadow. Defaults to an {@link EstimatingShadowWeigher}.
+	 * @param weigher the weigher
+	 */
+	public void setWeigher(ShadowWeigher weigher) {
+		Assert.notNull(weigher, "Weigher must not be null");
+		this.weigher = weigher;
+	}
+
+	/**
+	 * Sets how long a shadow may go without being accessed before it expires. Defaults to 0 (no idle expiration).
+	 * @param idleTimeout the idle timeout, in milliseconds
+	 */
+	public synchronized void setIdleTimeout(long idleTimeout) {
+		this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * Sets how long a shadow may be kept after it was stored before it expires. Defaults to 0 (no expiration).
+	 * @param timeToLive the time-to-live, in milliseconds
+	 */
+	public synchronized void setTimeToLive(long timeToLive) {
+		this.timeToLive = timeToLive;
+	}
+
+	/**
+	 * Retrieves a shadow.
+	 * @param key the key that the shadow is stored under
+	 * @return the shadow, or null if there is none or it has been evicted or has expired
+	 */
+	public synchronized Shadow<?> get(String key) {
+		Entry entry = getEntry(key);
+		if (entry == null) {
+			missCount++;
+			return null;
+		}
+		hitCount++;
+		return entry.shadow;
+	}
+
+	/**
+	 * Stores a shadow.
+	 * @param key the key to store the shadow under
+	 * @param shadow the shadow
+	 */
+	public void put(String key, Shadow<?> shadow) {
+		long weight = weigher.weigh(shadow);
+		synchronized (this) {
+			store(key, shadow, weight);
+		}
+	}
+
+	/**
+	 * Stores a shadow, but only if the stored shadow has the expected versions, as described by
+	 * {@link org.springframework.sync.diffsync.ShadowStore#replaceShadow(String, int, int, Shadow)}.
+	 * @param key the key to store the shadow under
+	 * @param expectedServerVersion the server version that the stored shadow is expected to have
+	 * @param expectedClientVersion the client version that the stored shadow is expected to have
+	 * @param shadow the shadow
+	 * @return true if the shadow was stored
+	 */
+	public boolean replace(String key, int expectedServerVersion, int expectedClientVersion, Shadow<?> shadow) {
+		long weight = weigher.weigh(shadow);
+		synchronized (this) {
+			Entry current = getEntry(key);
+			boolean matches = current == null
+					? expectedServerVersion == 0 && expectedClientVersion == 0
+					: current.shadow.getServerVersion() == expectedServerVersion && current.shadow.getClientVersion() == expectedClientVersion;
+			if (!matches) {
+				return false;
+			}
+			store(key, shadow, weight);
+			return true;
+		}
+	}
+
+	/**
+	 * @return the number of shadows currently cached
+	 */
+	public synchronized int size() {
+		return store.size();
+	}
+
+	/**
+	 * @return the total weight of the shadows currently cached
+	 */
+	public synchronized long getTotalWeight() {
+		return totalWeight;
+	}
+
+	/**
+	 * @return the maximum total weight of the cached shadows
+	 */
+	public long getMaximumWeight() {
+		return maximumWeight;
+	}
+
+	/**
+	 * @return the number of times {@link #get(String)} found a shadow
+	 */
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * @return the number of times {@link #get(String)} found no shadow
+	 */
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * @return the number of shadows evicted to keep the total weight within the maximum weight
+	 */
+	public synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+
+	/**
+	 * @return the number of shadows removed because they expired
+	 */
+	public synchronized long getExpirationCount() {
+		return expirationCount;
+	}
+
+	/**
+	 * Provides the current time. May be overridden for testing.
+	 * @return the current time, in milliseconds
+	 */
+	protected long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	private Entry getEntry(String key) {
+		Entry entry = store.get(key);
+		if (entry == null) {
+			return null;
+		}
+		long now = currentTimeMillis();
+		if (isExpired(entry, now)) {
+			remove(key);
+			expirationCount++;
+			return null;
+		}
+		entry.lastAccessed = now;
+		return entry;
+	}
+
+	private void store(String key, Shadow<?> shadow, long weight) {
+		long now = currentTimeMillis();
+		remove(key);
+		Entry entry = new Entry(shadow, weight, now);
+		store.put(key, entry);
+		totalWeight += entry.weight;
+		evict(now);
+	}
+
+	private void evict(long now) {
+		Iterator<Entry> entries = store.values().iterator();
+		while (entries.hasNext()) {
+			Entry entry = entries.next();
+			if (isExpired(entry, now)) {
+				expirationCount++;
+			} else if (totalWeight > maximumWeight) {
+				evictionCount++;
+			} else {
+				// entries are ordered by last access, so no entry past this one has been idle for longer;
+				// shadows that outlived their time-to-live are removed when next accessed
+				break;
+			}
+			entries.remove();
+			totalWeight -= entry.weight;
+		}
+	}
+
+	private void remove(String key) {
+		Entry removed = store.remove(key);
+		if (removed != null) {
+			totalWeight -= removed.weight;
+		}
+	}
+
+	private boolean isExpired(Entry entry, long now) {
+		return (idleTimeout > 0 && now - entry.lastAccessed >= idleTimeout)
+				|| (timeToLive > 0 && now - entry.created >= timeToLive);
+	}
+
+	private static class Entry {
+
+		private final Shadow<?> shadow;
+
+		private final long weight;
+
+		private final long created;
+
+		private long lastAccessed;
+
+		Entry(Shadow<?> shadow, long weight, long now) {
+			this.shadow = shadow;
+			this.weight = weight;
+			this.created = now;
+			this.lastAccessed = now;
+		}
+
+	}
+
+}
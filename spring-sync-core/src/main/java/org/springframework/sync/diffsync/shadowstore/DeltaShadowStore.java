@@ -0,0 +1,562 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.sync.diffsync.shadowstore;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.springframework.sync.AddOperation;
+import org.springframework.sync.CopyOperation;
+import org.springframework.sync.Diff;
+import org.springframework.sync.FromOperation;
+import org.springframework.sync.MoveOperation;
+import org.springframework.sync.Patch;
+import org.springframework.sync.Patch.ApplyMode;
+import org.springframework.sync.PatchOperation;
+import org.springframework.sync.RemoveOperation;
+import org.springframework.sync.ReplaceOperation;
+import org.springframework.sync.TestOperation;
+import org.springframework.sync.diffsync.Shadow;
+import org.springframework.sync.diffsync.ShadowStore;
+import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.StringUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * <p>
+ * {@link ShadowStore} decorator that persists each shadow to another shadow store as a base snapshot plus a log of the
+ * patches applied to it since, so that writing a shadow costs roughly the size of the change rather than the size of the shadow.
+ * </p>
+ * 
+ * <p>
+ * For each key, the delegate store holds a small head entry carrying the shadow's versions along with a description of the log,
+ * the base snapshot, and up to {@link #setMaxDeltas(int) maxDeltas} patches. Reading a shadow reads its head, base, and
+ * patches in a single batch and applies the logged patches to a copy of the base. Writing a shadow writes the difference from
+ * the previous shadow along with a new head; once the log holds too many patches, or too many bytes of patches, the shadow is
+ * written as a new base instead, and the patches logged against the previous base are overwritten with empty entries. The most
+ * recently read or written shadows are remembered, so that a shadow that was just read needn't be read again to produce the
+ * difference when it is replaced, and a shadow whose head hasn't changed since needn't be rebuilt when it is read again.
+ * </p>
+ * 
+ * <p>
+ * Each base and patch entry is tagged with a random identifier recorded in the head. Should entries ever fail to match their head,
+ * as when a shadow is read while another request is replacing it, the shadow is treated as missing and the client
+ * resynchronizes from versions 0 and 0.
+ * </p>
+ * 
+ * <p>
+ * Patches are written as JSON with Jackson, so Jackson must be on the classpath. The type of each patch value is written
+ * along with it, so that the items of lists holding entities of several types are rebuilt with their own types. Shadow
+ * resources must be entities or lists of entities that Jackson can bind patch values to.
+ * </p>
+ * 
+ * @author Craig Walls
+ */
+public class DeltaShadowStore implements ShadowStore {
+
+	private static final String BASE_SUFFIX = "/base";
+
+	private static final Shadow<String> EMPTY_DELTA = new Shadow<String>("", 0, 0);
+
+	private static final String DELTA_SUFFIX = "/delta";
+
+	private final ShadowStore delegate;
+
+	private final ObjectMapper objectMapper = new ObjectMapper().enableDefaultTyping(ObjectMapper.DefaultTyping.NON_FINAL);
+
+	private final Random random = new Random();
+
+	private final Map<String, CachedShadow> cache = new LinkedHashMap<String, CachedShadow>(16, 0.75f, true);
+
+	private int maxDeltas = 20;
+
+	private int maxDeltaSize = 64 * 1024;
+
+	private int cacheSize = 100;
+
+	private ClassLoader classLoader = ClassUtils.getDefaultClassLoader();
+
+	/**
+	 * Constructs a delta-encoding shadow store.
+	 * @param delegate the shadow store that bases, patches, and heads are written to
+	 */
+	public DeltaShadowStore(ShadowStore delegate) {
+		Assert.notNull(delegate, "Delegate shadow store must not be null");
+		this.delegate = delegate;
+	}
+
+	/**
+	 * Sets the number of patches logged against a base before the shadow is written as a new base. Defaults to 20.
+	 * @param maxDeltas the maximum number of logged patches
+	 */
+	public void setMaxDeltas(int maxDeltas) {
+		this.maxDeltas = maxDeltas;
+	}
+
+	/**
+	 * Sets the total size, in characters of JSON Patch, of the patches logged against a base before the shadow is
+	 * written as a new base. Defaults to 65536.
+	 * @param maxDeltaSize the maximum size of the logged patches
+	 */
+	public void setMaxDeltaSize(int maxDeltaSize) {
+		this.maxDeltaSize = maxDeltaSize;
+	}
+
+	/**
+	 * Sets the number of recently read or written shadows to remember. Defaults to 100.
+	 * @param cacheSize the number of shadows to remember
+	 */
+	public void setCacheSize(int cacheSize) {
+		this.cacheSize = cacheSize;
+	}
+
+	/**
+	 * Sets the class loader used to load the types of shadow resources when applying logged patches.
+	 * @param classLoader the class loader
+	 */
+	public void setClassLoader(ClassLoader classLoader) {
+		this.classLoader = classLoader;
+	}
+
+	@Override
+	public Shadow<?> getShadow(String key) {
+		return getShadows(key).get(key);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The heads are read in one batch along with the bases and every patch slot, up to {@link #setMaxDeltas(int) maxDeltas}.
+	 * Patches beyond those, logged before maxDeltas was lowered, are read in a second batch.
+	 * </p>
+	 */
+	@Override
+	public Map<String, Shadow<?>> getShadows(String... keys) {
+		List<String> entryKeys = new ArrayList<String>();
+		for (String key : keys) {
+			entryKeys.add(key);
+			entryKeys.add(baseKey(key));
+			for (int i = 0; i < maxDeltas; i++) {
+				entryKeys.add(deltaKey(key, i));
+			}
+		}
+		Map<String, Shadow<?>> entries = new LinkedHashMap<String, Shadow<?>>(delegate.getShadows(entryKeys.toArray(new String[entryKeys.size()])));
+		List<String> remainingKeys = new ArrayList<String>();
+		for (String key : keys) {
+			Head head = Head.parse(entries.get(key));
+			for (int i = maxDeltas; head != null && i < head.deltaIds.size(); i++) {
+				remainingKeys.add(deltaKey(key, i));
+			}
+		}
+		if (!remainingKeys.isEmpty()) {
+			entries.putAll(delegate.getShadows(remainingKeys.toArray(new String[remainingKeys.size()])));
+		}
+		Map<String, Shadow<?>> shadows = new LinkedHashMap<String, Shadow<?>>();
+		for (String key : keys) {
+			Shadow<?> head = entries.get(key);
+			if (head == null) {
+				continue;
+			}
+			Shadow<?> shadow = rebuild(key, head, entries);
+			remember(key, head, shadow);
+			if (shadow != null) {
+				shadows.put(key, shadow);
+			}
+		}
+		return shadows;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>The head is written along with the base or patch in a single batch.</p>
+	 */
+	@Override
+	public void putShadow(String key, Shadow<?> shadow) {
+		Write write = prepareWrite(key, getCurrent(key), shadow);
+		Map<String, Shadow<?>> entries = new LinkedHashMap<String, Shadow<?>>();
+		entries.put(key, write.head);
+		entries.putAll(write.entries);
+		delegate.putShadows(entries);
+		remember(key, write.head, shadow);
+	}
+
+	@Override
+	public void putShadows(Map<String, Shadow<?>> shadows) {
+		for (Map.Entry<String, Shadow<?>> entry : shadows.entrySet()) {
+			putShadow(entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The head is replaced with {@link ShadowStore#replaceShadow(String, int, int, Shadow, Map)} on the delegate, which writes
+	 * the base or patch only if that succeeds, so that a failed replacement leaves the stored entries untouched.
+	 * </p>
+	 */
+	@Override
+	public boolean replaceShadow(String key, int expectedServerVersion, int expectedClientVersion, Shadow<?> shadow) {
+		return replaceShadow(key, expectedServerVersion, expectedClientVersion, shadow, new LinkedHashMap<String, Shadow<?>>());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>The heads, bases, and patches of all of the shadows are written in a single call to the delegate.</p>
+	 */
+	@Override
+	public boolean replaceShadow(String key, int expectedServerVersion, int expectedClientVersion, Shadow<?> shadow, Map<String, Shadow<?>> additionalShadows) {
+		CachedShadow current = getCurrent(key);
+		int currentServerVersion = current.shadow != null ? current.shadow.getServerVersion() : 0;
+		int currentClientVersion = current.shadow != null ? current.shadow.getClientVersion() : 0;
+		if (currentServerVersion != expectedServerVersion || currentClientVersion != expectedClientVersion) {
+			return false;
+		}
+		Write write = prepareWrite(key, current, shadow);
+		Map<String, Shadow<?>> entries = new LinkedHashMap<String, Shadow<?>>(write.entries);
+		Map<String, Write> additionalWrites = new LinkedHashMap<String, Write>();
+		for (Map.Entry<String, Shadow<?>> additional : additionalShadows.entrySet()) {
+			Write additionalWrite = prepareWrite(additional.getKey(), getCurrent(additional.getKey()), additional.getValue());
+			additionalWrites.put(additional.getKey(), additionalWrite);
+			entries.put(additional.getKey(), additionalWrite.head);
+			entries.putAll(additionalWrite.entries);
+		}
+		int headServerVersion = current.head != null ? current.head.getServerVersion() : 0;
+		int headClientVersion = current.head != null ? current.head.getClientVersion() : 0;
+		if (!delegate.replaceShadow(key, headServerVersion, headClientVersion, write.head, entries)) {
+			forget(key);
+			return false;
+		}
+		remember(key, write.head, shadow);
+		for (Map.Entry<String, Write> additional : additionalWrites.entrySet()) {
+			remember(additional.getKey(), additional.getValue().head, additionalShadows.get(additional.getKey()));
+		}
+		return true;
+	}
+
+	// determines the patch from the current shadow (or a new base) to write, along with the head to store for it
+	private Write prepareWrite(String key, CachedShadow current, Shadow<?> shadow) {
+		Head head = current.shadow != null ? Head.parse(current.head) : null;
+		String type = resourceType(shadow.getResource());
+		if (head != null && head.deltaIds.size() < maxDeltas && current.shadow.getResource() != null && shadow.getResource() != null) {
+			String delta = diff(current.shadow.getResource(), shadow.getResource());
+			Map<String, Shadow<?>> entries = new LinkedHashMap<String, Shadow<?>>();
+			if (delta == null) {
+				return new Write(head.withType(type).toShadow(shadow), entries);
+			}
+			if (head.deltaSize + delta.length() <= maxDeltaSize) {
+				long deltaId = random.nextLong();
+				Shadow<?> newHead = head.withType(type).withDelta(deltaId, delta.length()).toShadow(shadow);
+				entries.put(deltaKey(key, head.deltaIds.size()), entry(delta, deltaId));
+				return new Write(newHead, entries);
+			}
+		}
+		long baseId = random.nextLong();
+		Shadow<?> newHead = new Head(baseId, type != null ? type : (head != null ? head.type : ""), 0, new ArrayList<Long>()).toShadow(shadow);
+		Map<String, Shadow<?>> entries = new LinkedHashMap<String, Shadow<?>>();
+		entries.put(baseKey(key), entry(shadow.getResource(), baseId));
+		// the patches logged against the previous base would otherwise be read along with every later head
+		Head previous = Head.parse(current.head);
+		for (int i = 0; previous != null && i < previous.deltaIds.size(); i++) {
+			entries.put(deltaKey(key, i), EMPTY_DELTA);
+		}
+		return new Write(newHead, entries);
+	}
+
+	private CachedShadow getCurrent(String key) {
+		synchronized (cache) {
+			CachedShadow cached = cache.get(key);
+			if (cached != null) {
+				return cached;
+			}
+		}
+		getShadows(key);
+		synchronized (cache) {
+			CachedShadow cached = cache.get(key);
+			return cached != null ? cached : new CachedShadow(null, null);
+		}
+	}
+
+	private Shadow<?> rebuild(String key, Shadow<?> headShadow, Map<String, Shadow<?>> entries) {
+		Head head = Head.parse(headShadow);
+		if (head == null) {
+			return null;
+		}
+		Shadow<?> unchanged = getUnchanged(key, headShadow);
+		if (unchanged != null) {
+			return unchanged;
+		}
+		Shadow<?> base = entries.get(baseKey(key));
+		if (!hasId(base, head.baseId)) {
+			return null;
+		}
+		Object resource = base.getResource();
+		Class<?> type = loadType(head.type);
+		for (int i = 0; i < head.deltaIds.size(); i++) {
+			Shadow<?> delta = entries.get(deltaKey(key, i));
+			if (!hasId(delta, head.deltaIds.get(i))) {
+				return null;
+			}
+			resource = apply((String) delta.getResource(), resource, type, i == 0 ? ApplyMode.DEEP_COPY : ApplyMode.IN_PLACE);
+		}
+		return new Shadow<Object>(resource, headShadow.getServerVersion(), headShadow.getClientVersion());
+	}
+
+	// the remembered shadow, if it was remembered with the same head and so needn't be rebuilt
+	private Shadow<?> getUnchanged(String key, Shadow<?> head) {
+		synchronized (cache) {
+			CachedShadow cached = cache.get(key);
+			if (cached == null || cached.head == null || cached.shadow == null || !cached.head.getResource().equals(head.getResource())
+					|| cached.head.getServerVersion() != head.getServerVersion() || cached.head.getClientVersion() != head.getClientVersion()) {
+				return null;
+			}
+			return cached.shadow;
+		}
+	}
+
+	// produces the patch from the original to the modified resource as JSON, or null if they don't differ
+	private String diff(Object original, Object modified) {
+		Patch patch = Diff.diff(original, modified);
+		if (patch.size() == 0) {
+			return null;
+		}
+		List<PatchOperation> operations = patch.getOperations();
+		DeltaOperation[] deltaOperations = new DeltaOperation[operations.size()];
+		for (int i = 0; i < deltaOperations.length; i++) {
+			deltaOperations[i] = new DeltaOperation(operations.get(i));
+		}
+		try {
+			return objectMapper.writeValueAsString(deltaOperations);
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to write shadow patch", e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private Object apply(String delta, Object resource, Class<?> type, ApplyMode mode) {
+		DeltaOperation[] deltaOperations;
+		try {
+			deltaOperations = objectMapper.readValue(delta, DeltaOperation[].class);
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to read shadow patch", e);
+		}
+		List<PatchOperation> operations = new ArrayList<PatchOperation>(deltaOperations.length);
+		for (DeltaOperation deltaOperation : deltaOperations) {
+			operations.add(deltaOperation.toOperation());
+		}
+		Patch patch = new Patch(operations);
+		if (resource instanceof List) {
+			return applyToList(patch, (List<Object>) resource, (Class<Object>) type, mode);
+		}
+		return patch.apply(resource, (Class<Object>) type, mode);
+	}
+
+	private <T> List<T> applyToList(Patch patch, List<T> resource, Class<T> type, ApplyMode mode) {
+		return patch.apply(resource, type, mode);
+	}
+
+	// the type that patch values are bound to: the resource's type, or the type of a list resource's items
+	private String resourceType(Object resource) {
+		if (resource instanceof List) {
+			for (Object item : (List<?>) resource) {
+				if (item != null) {
+					return item.getClass().getName();
+				}
+			}
+			return null;
+		}
+		return resource != null ? resource.getClass().getName() : null;
+	}
+
+	private Class<?> loadType(String type) {
+		if (!StringUtils.hasText(type)) {
+			return Object.class;
+		}
+		try {
+			return ClassUtils.forName(type, classLoader);
+		} catch (ClassNotFoundException e) {
+			throw new IllegalStateException("Unable to load shadow resource type " + type, e);
+		}
+	}
+
+	private void remember(String key, Shadow<?> head, Shadow<?> shadow) {
+		synchronized (cache) {
+			cache.put(key, new CachedShadow(head, shadow));
+			while (cache.size() > cacheSize) {
+				cache.remove(cache.keySet().iterator().next());
+			}
+		}
+	}
+
+	private void forget(String key) {
+		synchronized (cache) {
+			cache.remove(key);
+		}
+	}
+
+	private String baseKey(String key) {
+		return key + BASE_SUFFIX;
+	}
+
+	private String deltaKey(String key, int index) {
+		return key + DELTA_SUFFIX + index;
+	}
+
+	// bases and patches are tagged with their id in place of versions, which only the head carries
+	private static Shadow<Object> entry(Object value, long id) {
+		return new Shadow<Object>(value, (int) (id >>> 32), (int) id);
+	}
+
+	private static boolean hasId(Shadow<?> entry, long id) {
+		return entry != null && entry.getServerVersion() == (int) (id >>> 32) && entry.getClientVersion() == (int) id;
+	}
+
+	private static class Write {
+
+		private final Shadow<?> head;
+
+		private final Map<String, Shadow<?>> entries;
+
+		Write(Shadow<?> head, Map<String, Shadow<?>> entries) {
+			this.head = head;
+			this.entries = entries;
+		}
+
+	}
+
+	/**
+	 * A logged patch operation. The value is written along with its type, since the type that a patch is applied with
+	 * is only the type of the resource, or of a list resource's first item.
+	 */
+	private static final class DeltaOperation {
+
+		public String op;
+
+		public String path;
+
+		public String from;
+
+		public Object value;
+
+		DeltaOperation() {
+		}
+
+		DeltaOperation(PatchOperation operation) {
+			this.op = operation.getOp();
+			this.path = operation.getPath();
+			this.from = operation instanceof FromOperation ? ((FromOperation) operation).getFrom() : null;
+			this.value = operation.getValue();
+		}
+
+		PatchOperation toOperation() {
+			if ("test".equals(op)) {
+				return new TestOperation(path, value);
+			} else if ("replace".equals(op)) {
+				return new ReplaceOperation(path, value);
+			} else if ("remove".equals(op)) {
+				return new RemoveOperation(path);
+			} else if ("add".equals(op)) {
+				return new AddOperation(path, value);
+			} else if ("copy".equals(op)) {
+				return new CopyOperation(path, from);
+			} else if ("move".equals(op)) {
+				return new MoveOperation(path, from);
+			}
+			throw new IllegalStateException("Unrecognized shadow patch operation: " + op);
+		}
+
+	}
+
+	private static class CachedShadow {
+
+		private final Shadow<?> head;
+
+		private final Shadow<?> shadow;
+
+		CachedShadow(Shadow<?> head, Shadow<?> shadow) {
+			this.head = head;
+			this.shadow = shadow;
+		}
+
+	}
+
+	/**
+	 * Describes a shadow's base and patches.
+	 * Written as "baseId;type;deltaSize;deltaId,deltaId,...".
+	 */
+	private static class Head {
+
+		private final long baseId;
+
+		private final String type;
+
+		private final int deltaSize;
+
+		private final List<Long> deltaIds;
+
+		Head(long baseId, String type, int deltaSize, List<Long> deltaIds) {
+			this.baseId = baseId;
+			this.type = type;
+			this.deltaSize = deltaSize;
+			this.deltaIds = deltaIds;
+		}
+
+		Head withType(String type) {
+			return type != null ? new Head(baseId, type, deltaSize, deltaIds) : this;
+		}
+
+		Head withDelta(long deltaId, int size) {
+			List<Long> ids = new ArrayList<Long>(deltaIds);
+			ids.add(deltaId);
+			return new Head(baseId, type, deltaSize + size, ids);
+		}
+
+		Shadow<String> toShadow(Shadow<?> shadow) {
+			StringBuilder value = new StringBuilder();
+			value.append(baseId).append(';').append(type).append(';').append(deltaSize).append(';');
+			for (int i = 0; i < deltaIds.size(); i++) {
+				value.append(i > 0 ? "," : "").append(deltaIds.get(i));
+			}
+			return new Shadow<String>(value.toString(), shadow.getServerVersion(), shadow.getClientVersion());
+		}
+
+		static Head parse(Shadow<?> shadow) {
+			if (shadow == null || !(shadow.getResource() instanceof String)) {
+				return null;
+			}
+			String[] parts = ((String) shadow.getResource()).split(";", -1);
+			if (parts.length != 4) {
+				return null;
+			}
+			try {
+				List<Long> deltaIds = new ArrayList<Long>();
+				for (String id : StringUtils.commaDelimitedListToStringArray(parts[3])) {
+					deltaIds.add(Long.valueOf(id));
+				}
+				return new Head(Long.parseLong(parts[0]), parts[1], Integer.parseInt(parts[2]), deltaIds);
+			} catch (NumberFormatException e) {
+				return null;
+			}
+		}
+
+	}
+
+}
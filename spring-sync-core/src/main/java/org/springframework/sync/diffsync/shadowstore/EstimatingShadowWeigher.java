@@ -0,0 +1,149 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.sync.diffsync.shadowstore;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.sync.diffsync.Shadow;
+import org.springframework.util.ReflectionUtils;
+
+/**
+ * <p>{@link ShadowWeigher} that estimates the number of bytes a shadow's resource occupies by walking its object graph.</p>
+ * 
+ * <p>
+ * Each object is counted once, as an object header plus a reference or primitive value per field (or per array element);
+ * strings are counted by their length. Collections and maps are counted by their elements, along with a per-element
+ * overhead for the container's own structures. Other JDK types, such as dates, are counted at a fixed size rather than
+ * walked, since their fields can't be read on a module-enforcing runtime. The estimate is approximate but cheap to compute, and is intended for
+ * bounding the memory used by a shadow store rather than for precise accounting.
+ * </p>
+ * 
+ * @author Craig Walls
+ */
+public class EstimatingShadowWeigher implements ShadowWeigher {
+
+	private static final int OBJECT_HEADER = 16;
+
+	private static final int REFERENCE = 8;
+
+	private static final int CONTAINER_ENTRY = 32;
+
+	private static final int JDK_OBJECT = 16;
+
+	private final ConcurrentMap<Class<?>, Field[]> fieldCache = new ConcurrentHashMap<Class<?>, Field[]>();
+
+	@Override
+	public long weigh(Shadow<?> shadow) {
+		return OBJECT_HEADER + 2 * 4 + REFERENCE + estimate(shadow.getResource(), new IdentityHashMap<Object, Boolean>());
+	}
+
+	private long estimate(Object object, Map<Object, Boolean> visited) {
+		if (object == null || visited.put(object, Boolean.TRUE) != null) {
+			return 0;
+		}
+		Class<?> type = object.getClass();
+		if (object instanceof String) {
+			return OBJECT_HEADER + 2L * ((String) object).length();
+		} else if (object instanceof Number || object instanceof Boolean || object instanceof Character || type.isEnum()) {
+			return OBJECT_HEADER + 8;
+		} else if (type.isArray()) {
+			return estimateArray(object, visited);
+		} else if (object instanceof Collection) {
+			long size = OBJECT_HEADER;
+			for (Object item : (Collection<?>) object) {
+				size += CONTAINER_ENTRY + estimate(item, visited);
+			}
+			return size;
+		} else if (object instanceof Map) {
+			long size = OBJECT_HEADER;
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) object).entrySet()) {
+				size += CONTAINER_ENTRY + estimate(entry.getKey(), visited) + estimate(entry.getValue(), visited);
+			}
+			return size;
+		} else if (type.getName().startsWith("java.") || type.getName().startsWith("javax.")) {
+			return OBJECT_HEADER + JDK_OBJECT;
+		}
+		long size = OBJECT_HEADER;
+		for (Field field : fields(type)) {
+			if (field.getType().isPrimitive()) {
+				size += primitiveSize(field.getType());
+			} else {
+				size += REFERENCE + estimate(ReflectionUtils.getField(field, object), visited);
+			}
+		}
+		return size;
+	}
+
+	private long estimateArray(Object array, Map<Object, Boolean> visited) {
+		int length = Array.getLength(array);
+		Class<?> componentType = array.getClass().getComponentType();
+		if (componentType.isPrimitive()) {
+			return OBJECT_HEADER + (long) length * primitiveSize(componentType);
+		}
+		long size = OBJECT_HEADER + (long) length * REFERENCE;
+		for (Object item : (Object[]) array) {
+			size += estimate(item, visited);
+		}
+		return size;
+	}
+
+	private int primitiveSize(Class<?> type) {
+		if (type == long.class || type == double.class) {
+			return 8;
+		} else if (type == int.class || type == float.class) {
+			return 4;
+		} else if (type == short.class || type == char.class) {
+			return 2;
+		}
+		return 1;
+	}
+
+	private Field[] fields(Class<?> type) {
+		Field[] fields = fieldCache.get(type);
+		if (fields == null) {
+			final List<Field> fieldList = new ArrayList<Field>();
+			ReflectionUtils.doWithFields(type, new ReflectionUtils.FieldCallback() {
+				@Override
+				public void doWith(Field field) {
+					try {
+						ReflectionUtils.makeAccessible(field);
+						fieldList.add(field);
+					} catch (RuntimeException e) {
+						// not accessible, such as a field inherited from a JDK class on a module-enforcing runtime
+					}
+				}
+			}, new ReflectionUtils.FieldFilter() {
+				@Override
+				public boolean matches(Field field) {
+					return !Modifier.isStatic(field.getModifiers());
+				}
+			});
+			fields = fieldList.toArray(new Field[fieldList.size()]);
+			fieldCache.putIfAbsent(type, fields);
+		}
+		return fields;
+	}
+
+}
@@ -0,0 +1,540 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.sync.diffsync.shadowstore;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import org.springframework.sync.diffsync.Shadow;
+import org.springframework.util.Assert;
+
+/**
+ * <p>Keeps shadows in memory and durably on local disk, for use by {@link FileShadowStore}s.</p>
+ * 
+ * <p>
+ * Each shadow written is encoded with a {@link ShadowCodec} and appended to a write-ahead log of segment files in the journal's
+ * directory. A write returns once its record has been forced to disk; writes made concurrently are forced together
+ * (group commit), so that a burst of writes costs few disk syncs. Shadows written together, such as a shadow and its backup,
+ * are appended as a single record, so that either all or none of them are recovered; removals are appended as records too. Once enough has been written to the log, the journal
+ * writes a snapshot of all shadows and deletes the log segments that the snapshot covers.
+ * </p>
+ * 
+ * <p>
+ * On construction, the journal recovers its shadows by loading the latest snapshot and replaying the log segments written
+ * after it. Records are checksummed; replay of a segment stops at the first incomplete or corrupt record, such as one
+ * being written when the process stopped.
+ * </p>
+ * 
+ * <p>
+ * A single journal should be shared by all of an application's {@link FileShadowStore}s, and no two journals may use the
+ * same directory. The journal should be closed when the application stops.
+ * </p>
+ * 
+ * @author Craig Walls
+ */
+public class FileShadowJournal implements Closeable {
+
+	private static final String SEGMENT_PREFIX = "wal-";
+
+	private static final String SNAPSHOT_PREFIX = "snapshot-";
+
+	private static final String SUFFIX = ".log";
+
+	private final File directory;
+
+	private final ShadowCodec codec;
+
+	private final ConcurrentMap<String, Shadow<?>> shadows = new ConcurrentHashMap<String, Shadow<?>>();
+
+	private final Object syncMonitor = new Object();
+
+	private final AtomicLong syncedSequence = new AtomicLong();
+
+	private final AtomicBoolean snapshotting = new AtomicBoolean();
+
+	private long segmentSize = 16 * 1024 * 1024;
+
+	private long snapshotThreshold = 64 * 1024 * 1024;
+
+	private boolean syncWrites = true;
+
+	// guarded by this
+	private FileChannel segment;
+
+	private long segmentNumber;
+
+	private long appendedSequence;
+
+	private long bytesSinceSnapshot;
+
+	/**
+	 * Opens a journal in a directory, recovering any shadows previously written to it, and encodes shadows with a {@link JacksonShadowCodec}.
+	 * @param directory the directory to keep the journal's files in. Created if it doesn't exist.
+	 */
+	public FileShadowJournal(File directory) {
+		this(directory, new JacksonShadowCodec());
+	}
+
+	/**
+	 * Opens a journal in a directory, recovering any shadows previously written to it.
+	 * @param directory the directory to keep the journal's files in. Created if it doesn't exist.
+	 * @param codec the codec used to encode shadows
+	 */
+	public FileShadowJournal(File directory, ShadowCodec codec) {
+		Assert.notNull(directory, "Directory must not be null");
+		Assert.notNull(codec, "Codec must not be null");
+		this.directory = directory;
+		this.codec = codec;
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IllegalStateException("Unable to create shadow journal directory " + directory);
+		}
+		try {
+			recover();
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to recover shadow journal in " + directory, e);
+		}
+	}
+
+	/**
+	 * Sets the size, in bytes, at which the log moves on to a new segment file. Defaults to 16MB.
+	 * @param segmentSize the segment size
+	 */
+	public void setSegmentSize(long segmentSize) {
+		this.segmentSize = segmentSize;
+	}
+
+	/**
+	 * Sets the number of bytes written to the log after which a snapshot is written. Defaults to 64MB.
+	 * @param snapshotThreshold the snapshot threshold
+	 */
+	public void setSnapshotThreshold(long snapshotThreshold) {
+		this.snapshotThreshold = snapshotThreshold;
+	}
+
+	/**
+	 * Sets whether writes wait for their records to be forced to disk. Defaults to true.
+	 * If false, recently written shadows may be lost if the machine (rather than just the process) stops.
+	 * @param syncWrites whether to force writes to disk
+	 */
+	public void setSyncWrites(boolean syncWrites) {
+		this.syncWrites = syncWrites;
+	}
+
+	/**
+	 * Retrieves a shadow.
+	 * @param key the key that the shadow is stored under
+	 * @return the shadow, or null if there is none
+	 */
+	public Shadow<?> get(String key) {
+		return shadows.get(key);
+	}
+
+	/**
+	 * Stores a shadow.
+	 * @param key the key to store the shadow under
+	 * @param shadow the shadow
+	 */
+	public void put(String key, Shadow<?> shadow) {
+		putAll(Collections.<String, Shadow<?>>singletonMap(key, shadow));
+	}
+
+	/**
+	 * Stores shadows in a single record.
+	 * @param shadows the shadows to store, keyed by the keys to store them under
+	 */
+	public void putAll(Map<String, Shadow<?>> shadows) {
+		if (shadows.isEmpty()) {
+			return;
+		}
+		byte[] record = record(encode(shadows));
+		long sequence;
+		synchronized (this) {
+			sequence = append(record);
+			this.shadows.putAll(shadows);
+		}
+		afterAppend(sequence);
+	}
+
+	/**
+	 * Stores a shadow, but only if the stored shadow has the expected versions, as described by
+	 * {@link org.springframework.sync.diffsync.ShadowStore#replaceShadow(String, int, int, Shadow)}.
+	 * @param key the key to store the shadow under
+	 * @param expectedServerVersion the server version that the stored shadow is expected to have
+	 * @param expectedClientVersion the client version that the stored shadow is expected to have
+	 * @param shadow the shadow
+	 * @return true if the shadow was stored
+	 */
+	public boolean replace(String key, int expectedServerVersion, int expectedClientVersion, Shadow<?> shadow) {
+		return replace(key, expectedServerVersion, expectedClientVersion, shadow, Collections.<String, Shadow<?>>emptyMap());
+	}
+
+	/**
+	 * Stores a shadow along with additional shadows in a single record, but only if the stored shadow has the expected
+	 * versions, as described by {@link #replace(String, int, int, Shadow)}.
+	 * @param key the key to store the shadow under
+	 * @param expectedServerVersion the server version that the stored shadow is expected to have
+	 * @param expectedClientVersion the client version that the stored shadow is expected to have
+	 * @param shadow the shadow
+	 * @param additionalShadows additional shadows to store if the shadow is stored, keyed by the keys to store them under
+	 * @return true if the shadows were stored
+	 */
+	public boolean replace(String key, int expectedServerVersion, int expectedClientVersion, Shadow<?> shadow, Map<String, Shadow<?>> additionalShadows) {
+		Map<String, Shadow<?>> written = new LinkedHashMap<String, Shadow<?>>();
+		written.put(key, shadow);
+		written.putAll(additionalShadows);
+		byte[] record = record(encode(written));
+		long sequence;
+		synchronized (this) {
+			Shadow<?> current = shadows.get(key);
+			boolean matches = current == null
+					? expectedServerVersion == 0 && expectedClientVersion == 0
+					: current.getServerVersion() == expectedServerVersion && current.getClientVersion() == expectedClientVersion;
+			if (!matches) {
+				return false;
+			}
+			sequence = append(record);
+			shadows.putAll(written);
+		}
+		afterAppend(sequence);
+		return true;
+	}
+
+	/**
+	 * Removes shadows, appending their removal to the log as a single record.
+	 * @param keys the keys of the shadows to remove
+	 */
+	public void removeAll(Collection<String> keys) {
+		if (keys.isEmpty()) {
+			return;
+		}
+		Map<String, byte[]> removals = new LinkedHashMap<String, byte[]>();
+		for (String key : keys) {
+			removals.put(key, null);
+		}
+		byte[] record = record(removals);
+		long sequence;
+		synchronized (this) {
+			sequence = append(record);
+			shadows.keySet().removeAll(keys);
+		}
+		afterAppend(sequence);
+	}
+
+	/**
+	 * Writes a snapshot of all shadows and deletes the log segments that it covers.
+	 * Called automatically once the snapshot threshold has been written to the log.
+	 */
+	public void snapshot() {
+		if (!snapshotting.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			long snapshotNumber;
+			Map<String, Shadow<?>> snapshot;
+			synchronized (this) {
+				// the snapshot covers every segment before the one that's started here
+				rollSegment();
+				snapshotNumber = segmentNumber;
+				snapshot = new HashMap<String, Shadow<?>>(shadows);
+				bytesSinceSnapshot = 0;
+			}
+			writeSnapshot(snapshotNumber, snapshot);
+			for (File file : listFiles(SEGMENT_PREFIX)) {
+				if (number(file, SEGMENT_PREFIX) < snapshotNumber) {
+					file.delete();
+				}
+			}
+			for (File file : listFiles(SNAPSHOT_PREFIX)) {
+				if (number(file, SNAPSHOT_PREFIX) < snapshotNumber) {
+					file.delete();
+				}
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to write shadow journal snapshot", e);
+		} finally {
+			snapshotting.set(false);
+		}
+	}
+
+	/**
+	 * Forces any unsynced records to disk and closes the log.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (segment != null) {
+			segment.force(false);
+			segment.close();
+			syncedSequence.set(appendedSequence);
+			segment = null;
+		}
+	}
+
+	/**
+	 * @return the number of shadows in the journal
+	 */
+	public int size() {
+		return shadows.size();
+	}
+
+	// appends a record to the current segment (without forcing it to disk), returning its sequence number
+	private long append(byte[] record) {
+		try {
+			Assert.state(segment != null, "Shadow journal is closed");
+			if (segment.size() >= segmentSize) {
+				rollSegment();
+			}
+			ByteBuffer buffer = ByteBuffer.wrap(record);
+			while (buffer.hasRemaining()) {
+				segment.write(buffer);
+			}
+			bytesSinceSnapshot += record.length;
+			return ++appendedSequence;
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to write to shadow journal", e);
+		}
+	}
+
+	private void afterAppend(long sequence) {
+		if (syncWrites) {
+			sync(sequence);
+		}
+		boolean snapshotDue;
+		synchronized (this) {
+			snapshotDue = bytesSinceSnapshot >= snapshotThreshold;
+		}
+		if (snapshotDue) {
+			snapshot();
+		}
+	}
+
+	// waits until the record with the given sequence number has been forced to disk, forcing it if no other write is doing so
+	private void sync(long sequence) {
+		if (syncedSequence.get() >= sequence) {
+			return;
+		}
+		synchronized (syncMonitor) {
+			if (syncedSequence.get() >= sequence) {
+				return;
+			}
+			long appended;
+			FileChannel channel;
+			synchronized (this) {
+				appended = appendedSequence;
+				channel = segment;
+			}
+			try {
+				if (channel != null) {
+					channel.force(false);
+				}
+			} catch (ClosedChannelException e) {
+				// the segment was rolled or the journal closed, either of which forces the segment first
+			} catch (IOException e) {
+				throw new IllegalStateException("Unable to sync shadow journal", e);
+			}
+			advanceSyncedSequence(appended);
+		}
+	}
+
+	private void advanceSyncedSequence(long sequence) {
+		long synced = syncedSequence.get();
+		while (synced < sequence && !syncedSequence.compareAndSet(synced, sequence)) {
+			synced = syncedSequence.get();
+		}
+	}
+
+	private void rollSegment() throws IOException {
+		if (segment != null) {
+			segment.force(false);
+			segment.close();
+			advanceSyncedSequence(appendedSequence);
+		}
+		segmentNumber++;
+		segment = new RandomAccessFile(file(SEGMENT_PREFIX, segmentNumber), "rw").getChannel();
+		segment.position(segment.size());
+	}
+
+	private void recover() throws IOException {
+		long snapshotNumber = 0;
+		List<File> snapshots = listFiles(SNAPSHOT_PREFIX);
+		for (int i = snapshots.size() - 1; i >= 0; i--) {
+			Map<String, Shadow<?>> recovered = new HashMap<String, Shadow<?>>();
+			if (readRecords(snapshots.get(i), recovered)) {
+				shadows.putAll(recovered);
+				snapshotNumber = number(snapshots.get(i), SNAPSHOT_PREFIX);
+				break;
+			}
+		}
+		for (File file : listFiles(SEGMENT_PREFIX)) {
+			long number = number(file, SEGMENT_PREFIX);
+			if (number >= snapshotNumber) {
+				readRecords(file, shadows);
+			}
+			segmentNumber = Math.max(segmentNumber, number);
+		}
+		segmentNumber = Math.max(segmentNumber, snapshotNumber);
+		// appends go to a new segment, so that they never follow an incomplete record
+		rollSegment();
+	}
+
+	private void writeSnapshot(long snapshotNumber, Map<String, Shadow<?>> snapshot) throws IOException {
+		File temp = new File(directory, SNAPSHOT_PREFIX + snapshotNumber + ".tmp");
+		FileOutputStream out = new FileOutputStream(temp);
+		try {
+			DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+			for (Map.Entry<String, Shadow<?>> entry : snapshot.entrySet()) {
+				data.write(record(Collections.singletonMap(entry.getKey(), codec.encode(entry.getValue()))));
+			}
+			data.flush();
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+		File file = file(SNAPSHOT_PREFIX, snapshotNumber);
+		if (!temp.renameTo(file)) {
+			throw new IOException("Unable to rename " + temp + " to " + file);
+		}
+	}
+
+	// reads records into the given map, returning false if the file ends with an incomplete or corrupt record
+	private boolean readRecords(File file, Map<String, Shadow<?>> into) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			while (true) {
+				int length;
+				try {
+					length = in.readInt();
+				} catch (EOFException e) {
+					return true;
+				}
+				if (length < 0) {
+					return false;
+				}
+				long checksum = in.readLong();
+				byte[] body = new byte[length];
+				in.readFully(body);
+				CRC32 crc = new CRC32();
+				crc.update(body);
+				if (crc.getValue() != checksum) {
+					return false;
+				}
+				DataInputStream bodyIn = new DataInputStream(new ByteArrayInputStream(body));
+				for (int entries = bodyIn.readInt(); entries > 0; entries--) {
+					String key = bodyIn.readUTF();
+					int encodedLength = bodyIn.readInt();
+					if (encodedLength < 0) {
+						into.remove(key);
+					} else {
+						byte[] encoded = new byte[encodedLength];
+						bodyIn.readFully(encoded);
+						into.put(key, codec.decode(encoded));
+					}
+				}
+			}
+		} catch (EOFException e) {
+			return false;
+		} finally {
+			in.close();
+		}
+	}
+
+	private Map<String, byte[]> encode(Map<String, Shadow<?>> shadows) {
+		Map<String, byte[]> encoded = new LinkedHashMap<String, byte[]>();
+		for (Map.Entry<String, Shadow<?>> entry : shadows.entrySet()) {
+			encoded.put(entry.getKey(), codec.encode(entry.getValue()));
+		}
+		return encoded;
+	}
+
+	// a record is the body's length and checksum, followed by the body: the number of entries, and for each entry its key,
+	// the length of its encoded shadow and the encoded shadow, or a length of -1 if the shadow was removed
+	private byte[] record(Map<String, byte[]> entries) {
+		try {
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			DataOutputStream bodyOut = new DataOutputStream(body);
+			bodyOut.writeInt(entries.size());
+			for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+				bodyOut.writeUTF(entry.getKey());
+				byte[] encoded = entry.getValue();
+				bodyOut.writeInt(encoded != null ? encoded.length : -1);
+				if (encoded != null) {
+					bodyOut.write(encoded);
+				}
+			}
+			byte[] bodyBytes = body.toByteArray();
+			CRC32 crc = new CRC32();
+			crc.update(bodyBytes);
+			ByteArrayOutputStream record = new ByteArrayOutputStream(bodyBytes.length + 12);
+			DataOutputStream recordOut = new DataOutputStream(record);
+			recordOut.writeInt(bodyBytes.length);
+			recordOut.writeLong(crc.getValue());
+			recordOut.write(bodyBytes);
+			return record.toByteArray();
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to write shadow journal record", e);
+		}
+	}
+
+	private File file(String prefix, long number) {
+		return new File(directory, String.format("%s%016d%s", prefix, number, SUFFIX));
+	}
+
+	// lists the journal's files with the given prefix, in order of their numbers
+	private List<File> listFiles(String prefix) {
+		List<File> files = new ArrayList<File>();
+		File[] all = directory.listFiles();
+		if (all != null) {
+			for (File file : all) {
+				if (file.getName().startsWith(prefix) && file.getName().endsWith(SUFFIX)) {
+					files.add(file);
+				}
+			}
+		}
+		Collections.sort(files);
+		return files;
+	}
+
+	private long number(File file, String prefix) {
+		String name = file.getName();
+		return Long.parseLong(name.substring(prefix.length(), name.length() - SUFFIX.length()));
+	}
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.sync.diffsync.shadowstore;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.sync.diffsync.AbstractShadowStore;
+import org.springframework.sync.diffsync.Shadow;
+import org.springframework.sync.diffsync.ShadowStore;
+
+/**
+ * {@link ShadowStore} implementation that keeps shadows durably on local disk, in a {@link FileShadowJournal}.
+ * Shadows survive restarts of the application, so that clients needn't resynchronize after a restart.
+ * A single journal should be shared by the shadow stores of all nodes.
+ * A shadow and its backup are written to the journal as a single record, with a single disk sync.
+ * The keys written or read by this store are tracked, and their shadows are removed from the journal when the store is
+ * destroyed, as when the session that it was created for ends.
+ * 
+ * @author Craig Walls
+ */
+public class FileShadowStore extends AbstractShadowStore implements DisposableBean {
+
+	private final FileShadowJournal journal;
+
+	private final Set<String> keys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	/**
+	 * Constructs a file-based {@link ShadowStore}.
+	 * @param remoteNodeId the unique id of the node that this shadow store is being created for.
+	 * @param journal the journal that shadows are kept in
+	 */
+	public FileShadowStore(String remoteNodeId, FileShadowJournal journal) {
+		super(remoteNodeId);
+		this.journal = journal;
+	}
+
+	@Override
+	public void putShadow(String key, Shadow<?> shadow) {
+		String nodeKey = getNodeSpecificKey(key);
+		journal.put(nodeKey, shadow);
+		keys.add(nodeKey);
+	}
+
+	@Override
+	public void putShadows(Map<String, Shadow<?>> shadows) {
+		Map<String, Shadow<?>> nodeShadows = nodeSpecific(shadows);
+		journal.putAll(nodeShadows);
+		keys.addAll(nodeShadows.keySet());
+	}
+
+	@Override
+	public Shadow<?> getShadow(String key) {
+		String nodeKey = getNodeSpecificKey(key);
+		Shadow<?> shadow = journal.get(nodeKey);
+		if (shadow != null) {
+			// a shadow recovered after a restart is removed along with those written by this store
+			keys.add(nodeKey);
+		}
+		return shadow;
+	}
+
+	@Override
+	public boolean replaceShadow(String key, int expectedServerVersion, int expectedClientVersion, Shadow<?> shadow) {
+		return replaceShadow(key, expectedServerVersion, expectedClientVersion, shadow, Collections.<String, Shadow<?>>emptyMap());
+	}
+
+	@Override
+	public boolean replaceShadow(String key, int expectedServerVersion, int expectedClientVersion, Shadow<?> shadow, Map<String, Shadow<?>> additionalShadows) {
+		String nodeKey = getNodeSpecificKey(key);
+		Map<String, Shadow<?>> nodeShadows = nodeSpecific(additionalShadows);
+		if (!journal.replace(nodeKey, expectedServerVersion, expectedClientVersion, shadow, nodeShadows)) {
+			return false;
+		}
+		keys.add(nodeKey);
+		keys.addAll(nodeShadows.keySet());
+		return true;
+	}
+
+	@Override
+	public void destroy() throws Exception {
+		Set<String> removed = new HashSet<String>(keys);
+		journal.removeAll(removed);
+		keys.removeAll(removed);
+	}
+
+	private Map<String, Shadow<?>> nodeSpecific(Map<String, Shadow<?>> shadows) {
+		Map<String, Shadow<?>> nodeShadows = new LinkedHashMap<String, Shadow<?>>();
+		for (Map.Entry<String, Shadow<?>> entry : shadows.entrySet()) {
+			nodeShadows.put(getNodeSpecificKey(entry.getKey()), entry.getValue());
+		}
+		return nodeShadows;
+	}
+
+}
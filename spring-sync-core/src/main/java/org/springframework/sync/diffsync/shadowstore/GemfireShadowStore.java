@@ -16,16 +16,46 @@
 package org.springframework.sync.diffsync.shadowstore;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.springframework.beans.factory.DisposableBean;
+import org.springframework.data.gemfire.GemfireCallback;
 import org.springframework.data.gemfire.GemfireOperations;
 import org.springframework.sync.diffsync.AbstractShadowStore;
 import org.springframework.sync.diffsync.Shadow;
 import org.springframework.sync.diffsync.ShadowStore;
 
+import com.gemstone.gemfire.cache.Region;
+
 /**
  * {@link ShadowStore} implementation that stores shadow copies in Pivotal GemFire.
+ * Shadows are stored as objects unless a {@link ShadowCodec} is set, in which case they are stored as encoded bytes.
+ * 
+ * <p>
+ * Batches of shadows, such as a shadow and its backup, are read and written with single getAll and putAll operations.
+ * The keys removed when the store is destroyed are removed in a single operation too.
+ * </p>
+ * 
+ * <p>
+ * Shadows are kept until the store is destroyed. To expire shadows that are no longer in use, configure an entry
+ * idle-timeout or time-to-live on the region that the {@link GemfireOperations} works with. The keys written by this
+ * store are tracked so that they can be removed when it is destroyed; when shadows expire on their own, key tracking
+ * can be disabled so that the store holds no per-key state. For example, to expire shadows that haven't been read or
+ * written for 30 minutes (expiration requires the region's statistics to be enabled):
+ * </p>
+ * 
+ * <pre>
+ * &lt;gfe:replicated-region id="shadows" statistics="true"&gt;
+ *   &lt;gfe:entry-tti timeout="1800" action="DESTROY"/&gt;
+ * &lt;/gfe:replicated-region&gt;
+ * </pre>
  * 
  * @author Craig Walls
  */
@@ -33,7 +63,13 @@ public class GemfireShadowStore extends AbstractShadowStore implements Disposabl
 
 	private GemfireOperations gemfireTemplate;
 	
-	private List<String> keys = new ArrayList<String>();
+	private Set<String> keys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	private ShadowCodec codec;
+
+	private boolean trackKeys = true;
+
+	private final Lock localLock = new ReentrantLock();
 
 	/**
 	 * Constructs a GemFire-based {@link ShadowStore}.
@@ -45,23 +81,160 @@ public class GemfireShadowStore extends AbstractShadowStore implements Disposabl
 		this.gemfireTemplate = gemfireTemplate;
 	}
 	
+	/**
+	 * Sets a codec to store shadows as encoded bytes rather than as objects.
+	 * @param codec the codec
+	 */
+	public void setShadowCodec(ShadowCodec codec) {
+		this.codec = codec;
+	}
+
+	/**
+	 * Sets whether the keys written by this store are tracked so that they're removed when the store is destroyed.
+	 * Defaults to true. Disable it when shadows are left to expire with the region's expiration settings.
+	 * @param trackKeys whether to track keys
+	 */
+	public void setTrackKeys(boolean trackKeys) {
+		this.trackKeys = trackKeys;
+	}
+
 	@Override
 	public void putShadow(String key, Shadow<?> shadow) {
 		String nodeKey = getNodeSpecificKey(key);
-		gemfireTemplate.put(nodeKey, shadow);
-		keys.add(nodeKey);
+		gemfireTemplate.put(nodeKey, encode(shadow));
+		track(nodeKey);
 	}
 
 	@Override
 	public Shadow<?> getShadow(String key) {
-		return gemfireTemplate.get(getNodeSpecificKey(key));
+		return decode(gemfireTemplate.get(getNodeSpecificKey(key)));
 	}
 
 	@Override
-	public void destroy() throws Exception {
+	public Map<String, Shadow<?>> getShadows(String... keys) {
+		List<String> nodeKeys = new ArrayList<String>(keys.length);
 		for (String key : keys) {
-			gemfireTemplate.remove(key);
+			nodeKeys.add(getNodeSpecificKey(key));
+		}
+		Map<String, Object> values = gemfireTemplate.getAll(nodeKeys);
+		Map<String, Shadow<?>> shadows = new LinkedHashMap<String, Shadow<?>>();
+		for (int i = 0; i < keys.length; i++) {
+			Shadow<?> shadow = decode(values.get(nodeKeys.get(i)));
+			if (shadow != null) {
+				shadows.put(keys[i], shadow);
+			}
+		}
+		return shadows;
+	}
+
+	@Override
+	public void putShadows(Map<String, Shadow<?>> shadows) {
+		Map<String, Object> nodeShadows = new LinkedHashMap<String, Object>();
+		for (Map.Entry<String, Shadow<?>> entry : shadows.entrySet()) {
+			nodeShadows.put(getNodeSpecificKey(entry.getKey()), encode(entry.getValue()));
+		}
+		gemfireTemplate.putAll(nodeShadows);
+		for (String nodeKey : nodeShadows.keySet()) {
+			track(nodeKey);
+		}
+	}
+
+	@Override
+	public boolean replaceShadow(String key, int expectedServerVersion, int expectedClientVersion, Shadow<?> shadow) {
+		return replaceShadow(key, expectedServerVersion, expectedClientVersion, shadow, new LinkedHashMap<String, Shadow<?>>());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>The stored shadow's versions are checked and the new shadows are written while holding the region's distributed
+	 * lock on the key, which requires a region with global scope. With any other region, the check and the writes are
+	 * only atomic among the threads of this process.</p>
+	 */
+	@Override
+	public boolean replaceShadow(String key, final int expectedServerVersion, final int expectedClientVersion, Shadow<?> shadow, Map<String, Shadow<?>> additionalShadows) {
+		final String nodeKey = getNodeSpecificKey(key);
+		final Object value = encode(shadow);
+		final Map<String, Object> additionalValues = new LinkedHashMap<String, Object>();
+		for (Map.Entry<String, Shadow<?>> entry : additionalShadows.entrySet()) {
+			additionalValues.put(getNodeSpecificKey(entry.getKey()), encode(entry.getValue()));
+		}
+		Boolean replaced = gemfireTemplate.execute(new GemfireCallback<Boolean>() {
+			@Override
+			@SuppressWarnings("unchecked")
+			public Boolean doInGemfire(Region<?, ?> region) {
+				Region<Object, Object> shadowRegion = (Region<Object, Object>) region;
+				Lock lock = getLock(shadowRegion, nodeKey);
+				lock.lock();
+				try {
+					if (!hasExpectedVersions(decode(shadowRegion.get(nodeKey)), expectedServerVersion, expectedClientVersion)) {
+						return false;
+					}
+					shadowRegion.put(nodeKey, value);
+					if (!additionalValues.isEmpty()) {
+						shadowRegion.putAll(additionalValues);
+					}
+					return true;
+				} finally {
+					lock.unlock();
+				}
+			}
+		});
+		if (Boolean.TRUE.equals(replaced)) {
+			track(nodeKey);
+			for (String additionalKey : additionalValues.keySet()) {
+				track(additionalKey);
+			}
+			return true;
+		}
+		return false;
+	}
+
+	private Lock getLock(Region<?, ?> region, String nodeKey) {
+		try {
+			return region.getDistributedLock(nodeKey);
+		} catch (IllegalStateException e) {
+			// distributed locks are only available on regions with global scope
+			return localLock;
+		}
+	}
+
+	private void track(String nodeKey) {
+		if (trackKeys) {
+			keys.add(nodeKey);
+		}
+	}
+
+	private Object encode(Shadow<?> shadow) {
+		return codec != null ? codec.encode(shadow) : shadow;
+	}
+
+	private Shadow<?> decode(Object value) {
+		if (value instanceof byte[]) {
+			return codec.decode((byte[]) value);
+		}
+		return (Shadow<?>) value;
+	}
+
+	/**
+	 * Removes the tracked keys from the region in a single operation.
+	 */
+	@Override
+	public void destroy() throws Exception {
+		final List<String> removedKeys = new ArrayList<String>(keys);
+		if (removedKeys.isEmpty()) {
+			return;
 		}
+		gemfireTemplate.execute(new GemfireCallback<Void>() {
+			@Override
+			public Void doInGemfire(Region<?, ?> region) {
+				// regions before GemFire 8.1 have no removeAll, so the keys are removed one at a time within the callback
+				for (String nodeKey : removedKeys) {
+					region.remove(nodeKey);
+				}
+				return null;
+			}
+		});
+		keys.removeAll(removedKeys);
 	}
 	
 }
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.sync.diffsync.shadowstore;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.springframework.sync.diffsync.Shadow;
+import org.springframework.util.ClassUtils;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * <p>{@link ShadowCodec} that encodes a shadow's resource with a Jackson {@link ObjectMapper}.</p>
+ * 
+ * <p>
+ * The encoding starts with a format byte and the shadow's server and client versions, followed by the resource's type
+ * and the resource as written by the {@link ObjectMapper}. A list resource is decoded as an {@link ArrayList}; when its
+ * elements are all of the same type they are decoded as that type, and otherwise the type of each element is recorded
+ * so that each is decoded as the type it was encoded from. By default the resource is written as JSON; an {@link ObjectMapper} created with a binary
+ * {@link com.fasterxml.jackson.core.JsonFactory}, such as Jackson's Smile or CBOR factories, produces a more compact encoding.
+ * </p>
+ * 
+ * <p>
+ * Encodings larger than the compression threshold (1024 bytes, by default) are compressed with Deflate.
+ * </p>
+ * 
+ * @author Craig Walls
+ */
+public class JacksonShadowCodec implements ShadowCodec {
+
+	private static final int PLAIN = 0;
+
+	private static final int DEFLATED = 1;
+
+	// written in place of a list's element type when its elements are of different types
+	private static final String MIXED_ELEMENT_TYPES = "*";
+
+	private final ObjectMapper objectMapper;
+
+	private int compressionThreshold = 1024;
+
+	private ClassLoader classLoader = ClassUtils.getDefaultClassLoader();
+
+	/**
+	 * Constructs a codec that writes shadow resources as JSON.
+	 */
+	public JacksonShadowCodec() {
+		this(new ObjectMapper());
+	}
+
+	/**
+	 * Constructs a codec that writes shadow resources with the given {@link ObjectMapper}.
+	 * @param objectMapper the object mapper
+	 */
+	public JacksonShadowCodec(ObjectMapper objectMapper) {
+		this.objectMapper = objectMapper;
+	}
+
+	/**
+	 * Sets the size, in bytes, above which encoded resources are compressed. A negative threshold disables compression.
+	 * @param compressionThreshold the compression threshold
+	 */
+	public void setCompressionThreshold(int compressionThreshold) {
+		this.compressionThreshold = compressionThreshold;
+	}
+
+	/**
+	 * Sets the class loader used to load the types of decoded resources.
+	 * @param classLoader the class loader
+	 */
+	public void setClassLoader(ClassLoader classLoader) {
+		this.classLoader = classLoader;
+	}
+
+	@Override
+	public byte[] encode(Shadow<?> shadow) {
+		try {
+			ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+			DataOutputStream payload = new DataOutputStream(payloadBytes);
+			Object resource = shadow.getResource();
+			writeType(payload, resource);
+			objectMapper.writeValue(payload, resource);
+			byte[] resourceBytes = payloadBytes.toByteArray();
+
+			ByteArrayOutputStream encodedBytes = new ByteArrayOutputStream(resourceBytes.length + 9);
+			DataOutputStream encoded = new DataOutputStream(encodedBytes);
+			boolean deflate = compressionThreshold >= 0 && resourceBytes.length > compressionThreshold;
+			encoded.writeByte(deflate ? DEFLATED : PLAIN);
+			encoded.writeInt(shadow.getServerVersion());
+			encoded.writeInt(shadow.getClientVersion());
+			if (deflate) {
+				Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+				try {
+					DeflaterOutputStream deflaterStream = new DeflaterOutputStream(encoded, deflater);
+					deflaterStream.write(resourceBytes);
+					deflaterStream.finish();
+				} finally {
+					deflater.end();
+				}
+			} else {
+				encoded.write(resourceBytes);
+			}
+			return encodedBytes.toByteArray();
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to encode shadow", e);
+		}
+	}
+
+	@Override
+	public Shadow<?> decode(byte[] bytes) {
+		try {
+			DataInputStream encoded = new DataInputStream(new ByteArrayInputStream(bytes));
+			int format = encoded.readUnsignedByte();
+			int serverVersion = encoded.readInt();
+			int clientVersion = encoded.readInt();
+			InputStream resourceStream;
+			if (format == DEFLATED) {
+				resourceStream = new InflaterInputStream(encoded);
+			} else if (format == PLAIN) {
+				resourceStream = encoded;
+			} else {
+				throw new IllegalArgumentException("Unknown shadow encoding format: " + format);
+			}
+			DataInputStream payload = new DataInputStream(resourceStream);
+			try {
+				return new Shadow<Object>(readResource(payload), serverVersion, clientVersion);
+			} finally {
+				payload.close();
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to decode shadow", e);
+		} catch (ClassNotFoundException e) {
+			throw new IllegalStateException("Unable to decode shadow", e);
+		}
+	}
+
+	private void writeType(DataOutputStream out, Object resource) throws IOException {
+		if (resource == null) {
+			out.writeUTF("");
+			out.writeUTF("");
+		} else if (resource instanceof List) {
+			out.writeUTF(ArrayList.class.getName());
+			writeElementTypes(out, (List<?>) resource);
+		} else {
+			out.writeUTF(resource.getClass().getName());
+			out.writeUTF("");
+		}
+	}
+
+	// the type shared by all of the elements or, if they differ, a table of the types and the index of each element's type
+	private void writeElementTypes(DataOutputStream out, List<?> list) throws IOException {
+		Map<Class<?>, Integer> types = new LinkedHashMap<Class<?>, Integer>();
+		for (Object item : list) {
+			if (item != null && !types.containsKey(item.getClass())) {
+				types.put(item.getClass(), types.size());
+			}
+		}
+		if (types.size() <= 1) {
+			out.writeUTF(types.isEmpty() ? Object.class.getName() : types.keySet().iterator().next().getName());
+			return;
+		}
+		out.writeUTF(MIXED_ELEMENT_TYPES);
+		out.writeInt(types.size());
+		for (Class<?> type : types.keySet()) {
+			out.writeUTF(type.getName());
+		}
+		out.writeInt(list.size());
+		for (Object item : list) {
+			out.writeInt(item != null ? types.get(item.getClass()) : -1);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private Object readResource(DataInputStream in) throws IOException, ClassNotFoundException {
+		String typeName = in.readUTF();
+		String elementTypeName = in.readUTF();
+		if (typeName.length() == 0) {
+			return null;
+		}
+		Class<?> type = ClassUtils.forName(typeName, classLoader);
+		if (elementTypeName.length() == 0) {
+			return objectMapper.readValue(in, type);
+		} else if (elementTypeName.equals(MIXED_ELEMENT_TYPES)) {
+			return readElements(in);
+		}
+		Class<?> elementType = ClassUtils.forName(elementTypeName, classLoader);
+		JavaType listType = objectMapper.getTypeFactory().constructCollectionType((Class<? extends List<?>>) type, elementType);
+		return objectMapper.readValue(in, listType);
+	}
+
+	// reads a list whose elements are of different types, each as the type recorded for it
+	private List<Object> readElements(DataInputStream in) throws IOException, ClassNotFoundException {
+		Class<?>[] types = new Class<?>[in.readInt()];
+		for (int i = 0; i < types.length; i++) {
+			types[i] = ClassUtils.forName(in.readUTF(), classLoader);
+		}
+		int[] elementTypes = new int[in.readInt()];
+		for (int i = 0; i < elementTypes.length; i++) {
+			elementTypes[i] = in.readInt();
+		}
+		List<Object> list = new ArrayList<Object>(elementTypes.length);
+		JsonParser parser = objectMapper.getFactory().createParser(in);
+		try {
+			if (parser.nextToken() != JsonToken.START_ARRAY) {
+				throw new IOException("Expected a list of " + elementTypes.length + " elements");
+			}
+			for (int elementType : elementTypes) {
+				parser.nextToken();
+				list.add(elementType >= 0 ? objectMapper.readValue(parser, types[elementType]) : null);
+			}
+		} finally {
+			parser.close();
+		}
+		return list;
+	}
+
+}
@@ -15,22 +15,23 @@
  */
 package org.springframework.sync.diffsync.shadowstore;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.springframework.sync.diffsync.AbstractShadowStore;
 import org.springframework.sync.diffsync.Shadow;
 import org.springframework.sync.diffsync.ShadowStore;
 
 /**
- * Implementation of {@link ShadowStore} that keeps shadows in an in-memory map.
+ * Implementation of {@link ShadowStore} that keeps shadows in an in-memory concurrent map.
+ * Shadows may be read and replaced concurrently; {@link #replaceShadow(String, int, int, Shadow)} is atomic and lock-free.
  * Not recommended for production applications, as it isn't scalable in terms of the number of clients.
  * Consider RedisShadowStore or GemfireShadowStore instead.
  * @author Craig Walls
  */
 public class MapBasedShadowStore extends AbstractShadowStore {
 
-	private Map<String, Shadow<?>> store = new HashMap<String, Shadow<?>>();
+	private ConcurrentMap<String, Shadow<?>> store = new ConcurrentHashMap<String, Shadow<?>>();
 	
 	public MapBasedShadowStore(String remoteNodeId) {
 		super(remoteNodeId);
@@ -46,4 +47,20 @@ public class MapBasedShadowStore extends AbstractShadowStore {
 		return store.get(getNodeSpecificKey(key));
 	}
 
+	@Override
+	public boolean replaceShadow(String key, int expectedServerVersion, int expectedClientVersion, Shadow<?> shadow) {
+		String nodeKey = getNodeSpecificKey(key);
+		while (true) {
+			Shadow<?> current = store.get(nodeKey);
+			if (!hasExpectedVersions(current, expectedServerVersion, expectedClientVersion)) {
+				return false;
+			}
+			boolean replaced = current == null ? store.putIfAbsent(nodeKey, shadow) == null : store.replace(nodeKey, current, shadow);
+			if (replaced) {
+				return true;
+			}
+			// another thread stored a shadow in the meantime; check its versions again
+		}
+	}
+
 }
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.sync.diffsync.shadowstore;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.sync.diffsync.Shadow;
+import org.springframework.sync.diffsync.ShadowStore;
+import org.springframework.util.Assert;
+
+/**
+ * <p>
+ * {@link ShadowStore} decorator that keeps the most recently used shadows of another (typically remote) shadow store in a
+ * bounded local cache, so that reading a shadow that this node recently read or wrote needs no round trip.
+ * </p>
+ * 
+ * <p>
+ * Writes go through to the delegate store and are then cached. Cached shadows carry their versions, so a shadow replaced
+ * by another node is detected when this node tries to replace it: {@link #replaceShadow(String, int, int, Shadow)} fails on
+ * the delegate, and the stale shadow is evicted so that the next read fetches the current one. To evict stale shadows as
+ * soon as another node writes them, call {@link #invalidate(String)} from a listener for the store's change notifications
+ * (such as a Redis pub/sub subscription).
+ * </p>
+ * 
+ * <p>
+ * A shadow read from the delegate is cached only if no shadow with the same or later versions has been cached in the
+ * meantime, so a read that races with a write on this node doesn't replace the written shadow with the one it replaced.
+ * When the near cache is destroyed, so is the delegate store, if it is a {@link DisposableBean}.
+ * </p>
+ * 
+ * @author Craig Walls
+ */
+public class NearCacheShadowStore implements ShadowStore, DisposableBean {
+
+	private final ShadowStore delegate;
+
+	private final int maxEntries;
+
+	private final Map<String, Shadow<?>> cache = new LinkedHashMap<String, Shadow<?>>(16, 0.75f, true);
+
+	private long hitCount;
+
+	private long missCount;
+
+	/**
+	 * Constructs a near cache in front of a shadow store.
+	 * @param delegate the shadow store to cache shadows from
+	 * @param maxEntries the maximum number of shadows to cache
+	 */
+	public NearCacheShadowStore(ShadowStore delegate, int maxEntries) {
+		Assert.notNull(delegate, "Delegate shadow store must not be null");
+		Assert.isTrue(maxEntries > 0, "Maximum entries must be positive");
+		this.delegate = delegate;
+		this.maxEntries = maxEntries;
+	}
+
+	@Override
+	public Shadow<?> getShadow(String key) {
+		synchronized (cache) {
+			Shadow<?> shadow = cache.get(key);
+			if (shadow != null) {
+				hitCount++;
+				return shadow;
+			}
+			missCount++;
+		}
+		Shadow<?> shadow = delegate.getShadow(key);
+		if (shadow != null) {
+			cacheFetched(key, shadow);
+		}
+		return shadow;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>Shadows that aren't cached are retrieved from the delegate in a single batch.</p>
+	 */
+	@Override
+	public Map<String, Shadow<?>> getShadows(String... keys) {
+		Map<String, Shadow<?>> shadows = new LinkedHashMap<String, Shadow<?>>();
+		List<String> misses = new ArrayList<String>();
+		synchronized (cache) {
+			for (String key : keys) {
+				Shadow<?> shadow = cache.get(key);
+				if (shadow != null) {
+					hitCount++;
+					shadows.put(key, shadow);
+				} else {
+					missCount++;
+					misses.add(key);
+				}
+			}
+		}
+		if (!misses.isEmpty()) {
+			Map<String, Shadow<?>> fetched = delegate.getShadows(misses.toArray(new String[misses.size()]));
+			for (Map.Entry<String, Shadow<?>> entry : fetched.entrySet()) {
+				cacheFetched(entry.getKey(), entry.getValue());
+			}
+			shadows.putAll(fetched);
+		}
+		return shadows;
+	}
+
+	@Override
+	public void putShadow(String key, Shadow<?> shadow) {
+		try {
+			delegate.putShadow(key, shadow);
+		} catch (RuntimeException e) {
+			invalidate(key);
+			throw e;
+		}
+		cache(key, shadow);
+	}
+
+	@Override
+	public void putShadows(Map<String, Shadow<?>> shadows) {
+		try {
+			delegate.putShadows(shadows);
+		} catch (RuntimeException e) {
+			for (String key : shadows.keySet()) {
+				invalidate(key);
+			}
+			throw e;
+		}
+		for (Map.Entry<String, Shadow<?>> entry : shadows.entrySet()) {
+			cache(entry.getKey(), entry.getValue());
+		}
+	}
+
+	@Override
+	public boolean replaceShadow(String key, int expectedServerVersion, int expectedClientVersion, Shadow<?> shadow) {
+		boolean replaced;
+		try {
+			replaced = delegate.replaceShadow(key, expectedServerVersion, expectedClientVersion, shadow);
+		} catch (RuntimeException e) {
+			invalidate(key);
+			throw e;
+		}
+		if (replaced) {
+			cache(key, shadow);
+		} else {
+			// another node has replaced the shadow, so the cached shadow (if any) is stale
+			invalidate(key);
+		}
+		return replaced;
+	}
+
+	@Override
+	public boolean replaceShadow(String key, int expectedServerVersion, int expectedClientVersion, Shadow<?> shadow, Map<String, Shadow<?>> additionalShadows) {
+		boolean replaced;
+		try {
+			replaced = delegate.replaceShadow(key, expectedServerVersion, expectedClientVersion, shadow, additionalShadows);
+		} catch (RuntimeException e) {
+			invalidate(key);
+			for (String additionalKey : additionalShadows.keySet()) {
+				invalidate(additionalKey);
+			}
+			throw e;
+		}
+		if (replaced) {
+			cache(key, shadow);
+			for (Map.Entry<String, Shadow<?>> entry : additionalShadows.entrySet()) {
+				cache(entry.getKey(), entry.getValue());
+			}
+		} else {
+			invalidate(key);
+		}
+		return replaced;
+	}
+
+	/**
+	 * Evicts all shadows from the cache and destroys the delegate store if it is a {@link DisposableBean}.
+	 */
+	@Override
+	public void destroy() throws Exception {
+		invalidateAll();
+		if (delegate instanceof DisposableBean) {
+			((DisposableBean) delegate).destroy();
+		}
+	}
+
+	/**
+	 * Evicts a shadow from the cache, so that it is next read from the delegate store.
+	 * @param key the key that the shadow is stored under
+	 */
+	public void invalidate(String key) {
+		synchronized (cache) {
+			cache.remove(key);
+		}
+	}
+
+	/**
+	 * Evicts all shadows from the cache.
+	 */
+	public void invalidateAll() {
+		synchronized (cache) {
+			cache.clear();
+		}
+	}
+
+	/**
+	 * @return the number of shadows currently cached
+	 */
+	public int size() {
+		synchronized (cache) {
+			return cache.size();
+		}
+	}
+
+	/**
+	 * @return the number of shadows read from the cache
+	 */
+	public long getHitCount() {
+		synchronized (cache) {
+			return hitCount;
+		}
+	}
+
+	/**
+	 * @return the number of shadows that weren't cached when read
+	 */
+	public long getMissCount() {
+		synchronized (cache) {
+			return missCount;
+		}
+	}
+
+	private void cache(String key, Shadow<?> shadow) {
+		synchronized (cache) {
+			cache.put(key, shadow);
+			while (cache.size() > maxEntries) {
+				cache.remove(cache.keySet().iterator().next());
+			}
+		}
+	}
+
+	// caches a shadow read from the delegate, unless a shadow at the same or later versions was cached since it was read
+	private void cacheFetched(String key, Shadow<?> shadow) {
+		synchronized (cache) {
+			Shadow<?> cached = cache.get(key);
+			if (cached != null && cached.getServerVersion() >= shadow.getServerVersion()
+					&& cached.getClientVersion() >= shadow.getClientVersion()) {
+				return;
+			}
+			cache(key, shadow);
+		}
+	}
+
+}
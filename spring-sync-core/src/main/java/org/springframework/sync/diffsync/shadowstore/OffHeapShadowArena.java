@@ -0,0 +1,302 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.sync.diffsync.shadowstore;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.sync.diffsync.Shadow;
+import org.springframework.util.Assert;
+
+/**
+ * <p>Keeps encoded shadows in direct (off-heap) memory, for use by {@link OffHeapShadowStore}s.</p>
+ * 
+ * <p>
+ * Shadows are encoded with a {@link ShadowCodec} (by default a {@link JacksonShadowCodec}) and copied into slabs of
+ * direct memory, which are divided into chunks whose sizes are powers of two. Freed chunks are reused for shadows of the
+ * same size class. Shadows larger than a slab are kept in a direct buffer of their own. Only the keys, the shadows' versions,
+ * and the locations of their encodings are kept on the heap; a shadow is decoded each time it is read.
+ * </p>
+ * 
+ * <p>
+ * A single arena should be shared by the shadow stores of all nodes, so that the slabs are allocated once for the application
+ * and the chunks freed by one node's store are reused by the others. The arena allocates no more than its budget of slabs,
+ * with each buffer kept for a shadow larger than a slab counting as the number of slabs it would fill.
+ * </p>
+ * 
+ * <p>
+ * Encoding and decoding happen outside of the arena's lock; only copying encoded shadows in and out of the slabs is synchronized.
+ * </p>
+ * 
+ * @author Craig Walls
+ */
+public class OffHeapShadowArena {
+
+	private static final int MIN_CHUNK_SIZE = 64;
+
+	private final ShadowCodec codec;
+
+	private final int slabSize;
+
+	private final int maxSlabs;
+
+	private final List<ByteBuffer> slabs = new ArrayList<ByteBuffer>();
+
+	private final Map<String, Location> index = new HashMap<String, Location>();
+
+	// free chunk offsets by size class; each offset encodes the slab's index in its upper half
+	private final List<Deque<Long>> freeChunks;
+
+	private int slabPosition;
+
+	// the number of slabs' worth of memory taken by buffers kept for shadows larger than a slab
+	private int oversizedSlabs;
+
+	/**
+	 * Creates an off-heap shadow arena with a budget of 64 slabs of 1MB each.
+	 */
+	public OffHeapShadowArena() {
+		this(new JacksonShadowCodec(), 1024 * 1024, 64);
+	}
+
+	/**
+	 * Creates an off-heap shadow arena.
+	 * @param codec the codec used to encode shadows
+	 * @param slabSize the size of each slab of direct memory, in bytes. Must be a power of two.
+	 * @param maxSlabs the maximum number of slabs to allocate, including the slabs' worth of memory taken by shadows larger than a slab
+	 */
+	public OffHeapShadowArena(ShadowCodec codec, int slabSize, int maxSlabs) {
+		Assert.notNull(codec, "Codec must not be null");
+		Assert.isTrue(slabSize >= MIN_CHUNK_SIZE && Integer.bitCount(slabSize) == 1, "Slab size must be a power of two of at least " + MIN_CHUNK_SIZE);
+		Assert.isTrue(maxSlabs > 0, "Maximum number of slabs must be positive");
+		this.codec = codec;
+		this.slabSize = slabSize;
+		this.maxSlabs = maxSlabs;
+		this.freeChunks = new ArrayList<Deque<Long>>();
+		for (int i = 0; i <= sizeClass(slabSize); i++) {
+			freeChunks.add(new ArrayDeque<Long>());
+		}
+		this.slabPosition = slabSize;
+	}
+
+	/**
+	 * Retrieves a shadow.
+	 * @param key the key that the shadow is stored under
+	 * @return the shadow, or null if there is none
+	 */
+	public Shadow<?> get(String key) {
+		byte[] encoded;
+		synchronized (this) {
+			Location location = index.get(key);
+			if (location == null) {
+				return null;
+			}
+			encoded = read(location);
+		}
+		return codec.decode(encoded);
+	}
+
+	/**
+	 * Stores a shadow.
+	 * @param key the key to store the shadow under
+	 * @param shadow the shadow
+	 * @throws IllegalStateException if the arena's budget of slabs is used up
+	 */
+	public void put(String key, Shadow<?> shadow) {
+		byte[] encoded = codec.encode(shadow);
+		synchronized (this) {
+			store(key, encoded, shadow);
+		}
+	}
+
+	/**
+	 * Stores a shadow, but only if the stored shadow has the expected versions, as described by
+	 * {@link org.springframework.sync.diffsync.ShadowStore#replaceShadow(String, int, int, Shadow)}.
+	 * @param key the key to store the shadow under
+	 * @param expectedServerVersion the server version that the stored shadow is expected to have
+	 * @param expectedClientVersion the client version that the stored shadow is expected to have
+	 * @param shadow the shadow
+	 * @return true if the shadow was stored
+	 * @throws IllegalStateException if the arena's budget of slabs is used up
+	 */
+	public boolean replace(String key, int expectedServerVersion, int expectedClientVersion, Shadow<?> shadow) {
+		byte[] encoded = codec.encode(shadow);
+		synchronized (this) {
+			Location current = index.get(key);
+			boolean matches = current == null
+					? expectedServerVersion == 0 && expectedClientVersion == 0
+					: current.serverVersion == expectedServerVersion && current.clientVersion == expectedClientVersion;
+			if (!matches) {
+				return false;
+			}
+			store(key, encoded, shadow);
+			return true;
+		}
+	}
+
+	/**
+	 * Removes a shadow, freeing its chunk for reuse.
+	 * @param key the key that the shadow is stored under
+	 */
+	public synchronized void remove(String key) {
+		Location removed = index.remove(key);
+		if (removed != null) {
+			free(removed);
+		}
+	}
+
+	/**
+	 * @return the number of shadows currently stored
+	 */
+	public synchronized int size() {
+		return index.size();
+	}
+
+	/**
+	 * @return the number of slabs of direct memory allocated
+	 */
+	public synchronized int getSlabCount() {
+		return slabs.size();
+	}
+
+	/**
+	 * @return the number of bytes taken by the stored shadows' chunks, including shadows kept in buffers of their own
+	 */
+	public synchronized long getUsedBytes() {
+		long used = 0;
+		for (Location location : index.values()) {
+			used += location.capacity;
+		}
+		return used;
+	}
+
+	private void store(String key, byte[] encoded, Shadow<?> shadow) {
+		Location location = allocate(encoded.length);
+		write(location, encoded);
+		location.serverVersion = shadow.getServerVersion();
+		location.clientVersion = shadow.getClientVersion();
+		Location previous = index.put(key, location);
+		if (previous != null) {
+			free(previous);
+		}
+	}
+
+	private Location allocate(int length) {
+		if (length > slabSize) {
+			int lengthInSlabs = (length - 1) / slabSize + 1;
+			checkBudget(lengthInSlabs);
+			oversizedSlabs += lengthInSlabs;
+			return new Location(ByteBuffer.allocateDirect(length), -1, 0, length, length);
+		}
+		int sizeClass = sizeClass(Math.max(length, MIN_CHUNK_SIZE));
+		int chunkSize = 1 << sizeClass;
+		Long free = freeChunks.get(sizeClass).poll();
+		if (free != null) {
+			int slab = (int) (free.longValue() >>> 32);
+			return new Location(slabs.get(slab), slab, (int) free.longValue(), length, chunkSize);
+		}
+		if (slabPosition + chunkSize > slabSize) {
+			newSlab();
+		}
+		int slab = slabs.size() - 1;
+		Location location = new Location(slabs.get(slab), slab, slabPosition, length, chunkSize);
+		slabPosition += chunkSize;
+		return location;
+	}
+
+	private void newSlab() {
+		checkBudget(1);
+		// the rest of the current slab is divided into free chunks, largest first
+		int slab = slabs.size() - 1;
+		while (slab >= 0 && slabSize - slabPosition >= MIN_CHUNK_SIZE) {
+			int sizeClass = 31 - Integer.numberOfLeadingZeros(slabSize - slabPosition);
+			freeChunks.get(sizeClass).push(chunk(slab, slabPosition));
+			slabPosition += 1 << sizeClass;
+		}
+		slabs.add(ByteBuffer.allocateDirect(slabSize));
+		slabPosition = 0;
+	}
+
+	private void checkBudget(int slabCount) {
+		if (slabs.size() + oversizedSlabs + slabCount > maxSlabs) {
+			throw new IllegalStateException("Unable to store shadow: all " + maxSlabs + " slabs of off-heap memory are in use");
+		}
+	}
+
+	private void free(Location location) {
+		if (location.slab >= 0) {
+			freeChunks.get(sizeClass(location.capacity)).push(chunk(location.slab, location.offset));
+		} else {
+			// the buffer is released once it's garbage collected
+			oversizedSlabs -= (location.capacity - 1) / slabSize + 1;
+		}
+	}
+
+	private void write(Location location, byte[] encoded) {
+		ByteBuffer buffer = location.buffer.duplicate();
+		buffer.position(location.offset);
+		buffer.put(encoded);
+	}
+
+	private byte[] read(Location location) {
+		byte[] encoded = new byte[location.length];
+		ByteBuffer buffer = location.buffer.duplicate();
+		buffer.position(location.offset);
+		buffer.get(encoded);
+		return encoded;
+	}
+
+	// the exponent of the smallest power of two that is at least the given size
+	private static int sizeClass(int size) {
+		return 32 - Integer.numberOfLeadingZeros(size - 1);
+	}
+
+	private static long chunk(int slab, int offset) {
+		return ((long) slab << 32) | offset;
+	}
+
+	private static class Location {
+
+		private final ByteBuffer buffer;
+
+		private final int slab;
+
+		private final int offset;
+
+		private final int length;
+
+		private final int capacity;
+
+		private int serverVersion;
+
+		private int clientVersion;
+
+		Location(ByteBuffer buffer, int slab, int offset, int length, int capacity) {
+			this.buffer = buffer;
+			this.slab = slab;
+			this.offset = offset;
+			this.length = length;
+			this.capacity = capacity;
+		}
+
+	}
+
+}
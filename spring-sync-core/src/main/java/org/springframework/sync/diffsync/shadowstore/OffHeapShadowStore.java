@@ -0,0 +1,88 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.sync.diffsync.shadowstore;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.sync.diffsync.AbstractShadowStore;
+import org.springframework.sync.diffsync.Shadow;
+import org.springframework.sync.diffsync.ShadowStore;
+import org.springframework.util.Assert;
+
+/**
+ * <p>Implementation of {@link ShadowStore} that keeps encoded shadows in direct (off-heap) memory, in an {@link OffHeapShadowArena}.</p>
+ * 
+ * <p>
+ * A single arena should be shared by the shadow stores of all nodes, so that its slabs and budget are shared by the whole
+ * application rather than allocated for each node. Shadows are kept in the arena under node-specific keys. The keys written
+ * by this store are tracked, and their chunks are freed for reuse when the store is destroyed, as when the session that a
+ * session-scoped store belongs to ends.
+ * </p>
+ * 
+ * @author Craig Walls
+ */
+public class OffHeapShadowStore extends AbstractShadowStore implements DisposableBean {
+
+	private final OffHeapShadowArena arena;
+
+	private final Set<String> keys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	/**
+	 * Creates an off-heap shadow store.
+	 * @param remoteNodeId the unique id of the node that this shadow store is being created for.
+	 * @param arena the arena that shadows are kept in, shared with the shadow stores of other nodes.
+	 */
+	public OffHeapShadowStore(String remoteNodeId, OffHeapShadowArena arena) {
+		super(remoteNodeId);
+		Assert.notNull(arena, "Arena must not be null");
+		this.arena = arena;
+	}
+
+	@Override
+	public void putShadow(String key, Shadow<?> shadow) {
+		String nodeKey = getNodeSpecificKey(key);
+		arena.put(nodeKey, shadow);
+		keys.add(nodeKey);
+	}
+
+	@Override
+	public Shadow<?> getShadow(String key) {
+		return arena.get(getNodeSpecificKey(key));
+	}
+
+	@Override
+	public boolean replaceShadow(String key, int expectedServerVersion, int expectedClientVersion, Shadow<?> shadow) {
+		String nodeKey = getNodeSpecificKey(key);
+		if (!arena.replace(nodeKey, expectedServerVersion, expectedClientVersion, shadow)) {
+			return false;
+		}
+		keys.add(nodeKey);
+		return true;
+	}
+
+	@Override
+	public void destroy() throws Exception {
+		for (Iterator<String> iterator = keys.iterator(); iterator.hasNext(); ) {
+			arena.remove(iterator.next());
+			iterator.remove();
+		}
+	}
+
+}
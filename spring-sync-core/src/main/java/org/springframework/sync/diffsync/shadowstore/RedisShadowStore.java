@@ -16,25 +16,88 @@
 package org.springframework.sync.diffsync.shadowstore;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.GenericToStringSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
 import org.springframework.sync.diffsync.AbstractShadowStore;
 import org.springframework.sync.diffsync.Shadow;
 import org.springframework.sync.diffsync.ShadowStore;
 
 /**
  * {@link ShadowStore} implementation that stores shadows in Redis, via an injected {@link RedisTemplate}.
+ * Shadows are written with the template's value serializer; a {@link RedisShadowSerializer} writes them more compactly
+ * than the default JDK serialization.
+ * 
+ * <p>
+ * Alongside each shadow, a small companion key holds the shadow's versions as a string. Every write is made by a Lua script
+ * that compares the companion key of the shadow being replaced with the expected versions and sets the shadows along with
+ * their companion keys, so that replacing a shadow and storing its backup takes a single round trip and doesn't transfer
+ * the stored shadow just to check its versions. A shadow whose companion key is missing, such as one evicted by Redis,
+ * is taken to have the expected versions.
+ * </p>
+ * 
+ * <p>
+ * Keys are prefixed with the remote node's id as a hash tag, such as <code>{node}:shadow/Todo/1</code>, so that all of a
+ * node's keys are kept in the same slot of a Redis Cluster and can be written together by the script.
+ * </p>
+ * 
+ * <p>
+ * Shadows are kept until the store is destroyed unless a time-to-live is set, in which case Redis expires each shadow
+ * once it hasn't been written for that long. The keys written by this store are tracked so that they can be deleted when
+ * it is destroyed; when shadows expire on their own, key tracking can be disabled so that the store holds no per-key state.
+ * </p>
  * 
  * @author Craig Walls
  */
 public class RedisShadowStore extends AbstractShadowStore implements DisposableBean {
 
+	private static final String VERSIONS_SUFFIX = "/versions";
+
+	// KEYS[1] holds the versions of the shadow at KEYS[2], which must equal ARGV[1] unless it is empty; a missing shadow
+	// is at versions 0:0 and a shadow without versions matches any; each of KEYS[i] is set to ARGV[i + 2], expiring
+	// after ARGV[2] seconds if that is positive
+	private static final RedisScript<Long> WRITE_SCRIPT = script(
+			"if ARGV[1] ~= '' then\n" +
+			"  local stored = redis.call('GET', KEYS[1])\n" +
+			"  if not stored then\n" +
+			"    stored = redis.call('EXISTS', KEYS[2]) == 1 and ARGV[1] or '0:0'\n" +
+			"  end\n" +
+			"  if stored ~= ARGV[1] then\n" +
+			"    return 0\n" +
+			"  end\n" +
+			"end\n" +
+			"local ttl = tonumber(ARGV[2])\n" +
+			"for i = 1, #KEYS do\n" +
+			"  if ttl > 0 then\n" +
+			"    redis.call('SET', KEYS[i], ARGV[i + 2], 'EX', ttl)\n" +
+			"  else\n" +
+			"    redis.call('SET', KEYS[i], ARGV[i + 2])\n" +
+			"  end\n" +
+			"end\n" +
+			"return 1\n");
+
+	private final String remoteNodeId;
+
 	private RedisOperations<String, Shadow<?>> redisTemplate;
 	
-	private List<String> keys = new ArrayList<String>();
+	private Set<String> keys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	private long timeToLive;
+
+	private boolean trackKeys = true;
 
 	/**
 	 * Constructs a Redis-based {@link ShadowStore}.
@@ -43,14 +106,31 @@ public class RedisShadowStore extends AbstractShadowStore implements DisposableB
 	 */
 	public RedisShadowStore(String remoteNodeId, RedisOperations<String, Shadow<?>> redisTemplate) {
 		super(remoteNodeId);
+		this.remoteNodeId = remoteNodeId;
 		this.redisTemplate = redisTemplate;
 	}
 
+	/**
+	 * Sets how long a shadow is kept after it was last written. The expiry is refreshed each time a shadow is written.
+	 * Defaults to 0 (shadows don't expire).
+	 * @param timeToLive the time-to-live, in seconds
+	 */
+	public void setTimeToLive(long timeToLive) {
+		this.timeToLive = timeToLive;
+	}
+
+	/**
+	 * Sets whether the keys written by this store are tracked so that they're deleted when the store is destroyed.
+	 * Defaults to true. Disable it when shadows are left to expire with a time-to-live.
+	 * @param trackKeys whether to track keys
+	 */
+	public void setTrackKeys(boolean trackKeys) {
+		this.trackKeys = trackKeys;
+	}
+
 	@Override
 	public void putShadow(String key, Shadow<?> shadow) {
-		String nodeKey = getNodeSpecificKey(key);
-		redisTemplate.opsForValue().set(nodeKey, shadow);
-		keys.add(nodeKey);
+		putShadows(Collections.<String, Shadow<?>>singletonMap(key, shadow));
 	}
 
 	@Override
@@ -58,9 +138,121 @@ public class RedisShadowStore extends AbstractShadowStore implements DisposableB
 		return redisTemplate.opsForValue().get(getNodeSpecificKey(key));
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * <p>The shadows are retrieved with a single MGET command.</p>
+	 */
+	@Override
+	public Map<String, Shadow<?>> getShadows(String... keys) {
+		List<String> nodeKeys = new ArrayList<String>(keys.length);
+		for (String key : keys) {
+			nodeKeys.add(getNodeSpecificKey(key));
+		}
+		List<Shadow<?>> values = redisTemplate.opsForValue().multiGet(nodeKeys);
+		Map<String, Shadow<?>> shadows = new LinkedHashMap<String, Shadow<?>>();
+		for (int i = 0; i < keys.length; i++) {
+			Shadow<?> shadow = values != null ? values.get(i) : null;
+			if (shadow != null) {
+				shadows.put(keys[i], shadow);
+			}
+		}
+		return shadows;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>The shadows and their versions are stored with a single script execution.</p>
+	 */
+	@Override
+	public void putShadows(Map<String, Shadow<?>> shadows) {
+		if (!shadows.isEmpty()) {
+			write("", shadows);
+		}
+	}
+
+	@Override
+	public boolean replaceShadow(String key, int expectedServerVersion, int expectedClientVersion, Shadow<?> shadow) {
+		return replaceShadow(key, expectedServerVersion, expectedClientVersion, shadow, Collections.<String, Shadow<?>>emptyMap());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>The stored versions are compared and the shadows and their versions are stored with a single script execution.</p>
+	 */
+	@Override
+	public boolean replaceShadow(String key, int expectedServerVersion, int expectedClientVersion, Shadow<?> shadow, Map<String, Shadow<?>> additionalShadows) {
+		Map<String, Shadow<?>> shadows = new LinkedHashMap<String, Shadow<?>>();
+		shadows.put(key, shadow);
+		shadows.putAll(additionalShadows);
+		return write(expectedServerVersion + ":" + expectedClientVersion, shadows);
+	}
+
 	@Override
 	public void destroy() throws Exception {
-		redisTemplate.delete(keys);
+		if (!keys.isEmpty()) {
+			redisTemplate.delete(keys);
+		}
+	}
+
+	@Override
+	protected String getNodeSpecificKey(String key) {
+		return "{" + remoteNodeId + "}:" + key;
+	}
+
+	// sets each shadow and its versions, provided that the versions of the first shadow's stored predecessor are as expected
+	private boolean write(String expectedVersions, Map<String, Shadow<?>> shadows) {
+		List<String> scriptKeys = new ArrayList<String>(shadows.size() * 2);
+		List<Object> scriptArgs = new ArrayList<Object>(shadows.size() * 2 + 2);
+		scriptArgs.add(expectedVersions);
+		scriptArgs.add(String.valueOf(timeToLive));
+		for (Map.Entry<String, Shadow<?>> entry : shadows.entrySet()) {
+			String nodeKey = getNodeSpecificKey(entry.getKey());
+			Shadow<?> shadow = entry.getValue();
+			scriptKeys.add(nodeKey + VERSIONS_SUFFIX);
+			scriptArgs.add(shadow.getServerVersion() + ":" + shadow.getClientVersion());
+			scriptKeys.add(nodeKey);
+			scriptArgs.add(shadow);
+		}
+		Long written = redisTemplate.execute(WRITE_SCRIPT, new ScriptArgumentSerializer(redisTemplate.getValueSerializer()),
+				new GenericToStringSerializer<Long>(Long.class), scriptKeys, scriptArgs.toArray());
+		if (written == null || written == 0) {
+			return false;
+		}
+		if (trackKeys) {
+			keys.addAll(scriptKeys);
+		}
+		return true;
+	}
+
+	private static RedisScript<Long> script(String scriptText) {
+		DefaultRedisScript<Long> script = new DefaultRedisScript<Long>();
+		script.setScriptText(scriptText);
+		script.setResultType(Long.class);
+		return script;
+	}
+
+	// writes shadows with the template's value serializer and versions as strings; only shadows are read back
+	private static class ScriptArgumentSerializer implements RedisSerializer<Object> {
+
+		private final RedisSerializer<Object> valueSerializer;
+
+		private final StringRedisSerializer stringSerializer = new StringRedisSerializer();
+
+		@SuppressWarnings("unchecked")
+		ScriptArgumentSerializer(RedisSerializer<?> valueSerializer) {
+			this.valueSerializer = (RedisSerializer<Object>) valueSerializer;
+		}
+
+		@Override
+		public byte[] serialize(Object value) throws SerializationException {
+			return value instanceof Shadow ? valueSerializer.serialize(value) : stringSerializer.serialize((String) value);
+		}
+
+		@Override
+		public Object deserialize(byte[] bytes) throws SerializationException {
+			return valueSerializer.deserialize(bytes);
+		}
+
 	}
 
 }
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.sync.diffsync.shadowstore;
+
+import org.springframework.sync.diffsync.Shadow;
+
+/**
+ * Strategy interface for estimating how much memory a {@link Shadow} occupies.
+ * 
+ * @author Craig Walls
+ */
+public interface ShadowWeigher {
+
+	/**
+	 * Estimates the weight of a shadow.
+	 * @param shadow the shadow
+	 * @return the shadow's weight, as an estimated number of bytes. Must not be negative.
+	 */
+	long weigh(Shadow<?> shadow);
+
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.sync.util;
+
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
+
+/**
+ * The reflective metadata needed to copy instances of a class: how to instantiate it and which fields to copy.
+ * Metadata is resolved once per class and cached. Fields are only resolved when an instance is first copied
+ * field by field, so the internals of collections, maps, and arrays, which are copied through their own API,
+ * are never made accessible.
+ * 
+ * @author Craig Walls
+ */
+class CopyableClass {
+
+	private static final ConcurrentMap<Class<?>, CopyableClass> CACHE = new ConcurrentHashMap<Class<?>, CopyableClass>();
+
+	private final Class<?> type;
+
+	private final boolean immutable;
+
+	private static final Field[] UNCOPYABLE = new Field[0];
+
+	private final Constructor<?> constructor;
+
+	private final Constructor<?> comparatorConstructor;
+
+	private volatile Field[] fields;
+
+	private CopyableClass(Class<?> type) {
+		this.type = type;
+		this.immutable = ClassUtils.isPrimitiveOrWrapper(type) || type == String.class || type.isEnum() ||
+				type == BigDecimal.class || type == BigInteger.class || Class.class == type;
+		this.constructor = immutable ? null : resolveConstructor(type);
+		this.comparatorConstructor = immutable ? null : resolveComparatorConstructor(type);
+	}
+
+	static CopyableClass forClass(Class<?> type) {
+		CopyableClass copyableClass = CACHE.get(type);
+		if (copyableClass == null) {
+			copyableClass = new CopyableClass(type);
+			CACHE.putIfAbsent(type, copyableClass);
+		}
+		return copyableClass;
+	}
+
+	/**
+	 * @return true if instances of the class can't be changed and may be shared rather than copied
+	 */
+	boolean isImmutable() {
+		return immutable;
+	}
+
+	/**
+	 * @return true if instances can be created with a no-argument constructor and have their fields copied
+	 */
+	boolean isInstantiable() {
+		return constructor != null && getFields() != null;
+	}
+
+	/**
+	 * @return the non-static, non-transient fields of the class and its superclasses, or null if they can't be
+	 * copied, either because they can't be made accessible (as with the JDK's own classes on a module-enforcing
+	 * runtime) or because the class customizes its serialized form, which may be held in transient fields
+	 */
+	Field[] getFields() {
+		Field[] resolved = fields;
+		if (resolved == null) {
+			resolved = resolveFields(type);
+			fields = resolved;
+		}
+		return resolved != UNCOPYABLE ? resolved : null;
+	}
+
+	/**
+	 * @return a new instance, created with the class's no-argument constructor
+	 */
+	Object newInstance() {
+		try {
+			return constructor.newInstance();
+		} catch (Exception e) {
+			throw new IllegalArgumentException("Unable to instantiate " + type.getName(), e);
+		}
+	}
+
+	/**
+	 * Creates an empty collection to copy a collection of this class into, preferring the same class
+	 * for the JDK's own collections and falling back to a general-purpose implementation otherwise.
+	 * A sorted set is created with the original's comparator.
+	 * @param original the collection that will be copied
+	 * @return an empty collection
+	 */
+	@SuppressWarnings("unchecked")
+	Collection<Object> newCollection(Collection<?> original) {
+		if (original instanceof SortedSet) {
+			Comparator<Object> comparator = ((SortedSet<Object>) original).comparator();
+			if (comparator == null && isJdkInstantiable()) {
+				return (Collection<Object>) newInstance();
+			}
+			return comparatorConstructor != null ? (Collection<Object>) newInstance(comparator)
+					: new TreeSet<Object>(comparator);
+		} else if (isJdkInstantiable()) {
+			return (Collection<Object>) newInstance();
+		} else if (original instanceof Set) {
+			return new LinkedHashSet<Object>(original.size());
+		} else if (original instanceof List) {
+			return new ArrayList<Object>(original.size());
+		}
+		return new ArrayList<Object>(original.size());
+	}
+
+	/**
+	 * Creates an empty map to copy a map of this class into, preferring the same class
+	 * for the JDK's own maps and falling back to a general-purpose implementation otherwise.
+	 * A sorted map is created with the original's comparator.
+	 * @param original the map that will be copied
+	 * @return an empty map
+	 */
+	@SuppressWarnings("unchecked")
+	Map<Object, Object> newMap(Map<?, ?> original) {
+		if (original instanceof SortedMap) {
+			Comparator<Object> comparator = ((SortedMap<Object, Object>) original).comparator();
+			if (comparator == null && isJdkInstantiable()) {
+				return (Map<Object, Object>) newInstance();
+			}
+			return comparatorConstructor != null ? (Map<Object, Object>) newInstance(comparator)
+					: new TreeMap<Object, Object>(comparator);
+		} else if (isJdkInstantiable()) {
+			return (Map<Object, Object>) newInstance();
+		}
+		return new LinkedHashMap<Object, Object>(original.size());
+	}
+
+	private boolean isJdkInstantiable() {
+		return constructor != null && type.getName().startsWith("java.util.");
+	}
+
+	private Object newInstance(Comparator<?> comparator) {
+		try {
+			return comparatorConstructor.newInstance(comparator);
+		} catch (Exception e) {
+			throw new IllegalArgumentException("Unable to instantiate " + type.getName(), e);
+		}
+	}
+
+	private static Constructor<?> resolveConstructor(Class<?> type) {
+		if (type.isInterface() || Modifier.isAbstract(type.getModifiers()) || type.isArray()) {
+			return null;
+		}
+		try {
+			Constructor<?> constructor = type.getDeclaredConstructor();
+			ReflectionUtils.makeAccessible(constructor);
+			return constructor;
+		} catch (NoSuchMethodException e) {
+			return null;
+		} catch (RuntimeException e) {
+			// not accessible, such as a non-public constructor of a JDK class on a module-enforcing runtime
+			return null;
+		}
+	}
+
+	// the public comparator-taking constructor of the JDK's own sorted sets and maps, such as TreeSet and TreeMap
+	private static Constructor<?> resolveComparatorConstructor(Class<?> type) {
+		if (!type.getName().startsWith("java.util.") || Modifier.isAbstract(type.getModifiers())
+				|| !(SortedSet.class.isAssignableFrom(type) || SortedMap.class.isAssignableFrom(type))) {
+			return null;
+		}
+		try {
+			return type.getConstructor(Comparator.class);
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	private static Field[] resolveFields(Class<?> type) {
+		if (hasCustomSerialization(type)) {
+			return UNCOPYABLE;
+		}
+		final List<Field> fields = new ArrayList<Field>();
+		try {
+			ReflectionUtils.doWithFields(type, new ReflectionUtils.FieldCallback() {
+				@Override
+				public void doWith(Field field) {
+					ReflectionUtils.makeAccessible(field);
+					fields.add(field);
+				}
+			}, new ReflectionUtils.FieldFilter() {
+				@Override
+				public boolean matches(Field field) {
+					return !Modifier.isStatic(field.getModifiers()) && !Modifier.isTransient(field.getModifiers());
+				}
+			});
+		} catch (RuntimeException e) {
+			return UNCOPYABLE;
+		}
+		return fields.toArray(new Field[fields.size()]);
+	}
+
+	private static boolean hasCustomSerialization(Class<?> type) {
+		return Serializable.class.isAssignableFrom(type) &&
+				(ReflectionUtils.findMethod(type, "writeObject", ObjectOutputStream.class) != null ||
+				ReflectionUtils.findMethod(type, "readObject", ObjectInputStream.class) != null ||
+				ReflectionUtils.findMethod(type, "writeReplace") != null ||
+				ReflectionUtils.findMethod(type, "readResolve") != null);
+	}
+
+}
@@ -15,27 +15,50 @@
  */
 package org.springframework.sync.util;
 
-import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.List;
 
-import org.apache.commons.lang.SerializationUtils;
+import org.springframework.util.Assert;
 
 /**
- * Utility methods for deep cloning an object graph.
+ * <p>Utility methods for deep cloning an object graph.</p>
+ * 
+ * <p>
+ * Cloning is delegated to a {@link DeepCloner}, a {@link ReflectiveDeepCloner} by default. Use
+ * {@link #setDeepCloner(DeepCloner)} to choose a different strategy, such as {@link SerializationDeepCloner}.
+ * The strategy is used everywhere an object graph is cloned, including when a patch is applied and when a shadow
+ * is created for differential synchronization.
+ * </p>
+ * 
  * @author Craig Walls
  */
 public class DeepCloneUtils {
 
+	private static volatile DeepCloner deepCloner = new ReflectiveDeepCloner();
+
+	/**
+	 * Sets the {@link DeepCloner} used to clone object graphs.
+	 * @param deepCloner the {@link DeepCloner}
+	 */
+	public static void setDeepCloner(DeepCloner deepCloner) {
+		Assert.notNull(deepCloner, "DeepCloner must not be null");
+		DeepCloneUtils.deepCloner = deepCloner;
+	}
+
+	/**
+	 * @return the {@link DeepCloner} used to clone object graphs.
+	 */
+	public static DeepCloner getDeepCloner() {
+		return deepCloner;
+	}
+
 	/**
 	 * Deep clones an object.
 	 * @param original a single, non-list object to be cloned
 	 * @param <T> the object's type
 	 * @return the cloned object
 	 */
-	@SuppressWarnings("unchecked")
 	public static <T> T deepClone(T original) {
-		return (T) SerializationUtils.clone((Serializable) original);
+		return deepCloner.deepClone(original);
 	}
 	
 	/**
@@ -44,13 +67,8 @@ public class DeepCloneUtils {
 	 * @param <T> the list's generic type
 	 * @return the cloned list
 	 */
-	@SuppressWarnings("unchecked")
 	public static <T> List<T> deepClone(List<T> original) {
-		List<T> copy = new ArrayList<T>(original.size());
-		for(T t : original) {
-			copy.add((T) SerializationUtils.clone((Serializable) t)); 
-		}
-		return copy;
+		return deepCloner.deepClone(original);
 	}
 	
 }
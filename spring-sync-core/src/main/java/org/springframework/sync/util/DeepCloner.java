@@ -0,0 +1,33 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.sync.util;
+
+/**
+ * Strategy interface for deep cloning an object graph.
+ * 
+ * @author Craig Walls
+ */
+public interface DeepCloner {
+
+	/**
+	 * Deep clones an object.
+	 * @param original the object to be cloned
+	 * @param <T> the object's type
+	 * @return the cloned object
+	 */
+	<T> T deepClone(T original);
+
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.sync.util;
+
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.apache.commons.lang.SerializationUtils;
+
+/**
+ * <p>{@link DeepCloner} that clones an object graph by instantiating each object with its no-argument constructor
+ * and copying its fields. Unlike {@link SerializationDeepCloner}, objects need not be {@link Serializable}.</p>
+ * 
+ * <p>
+ * The constructor and fields of each class are looked up once and cached. Immutable values (strings, primitive
+ * wrappers, enums, {@link java.math.BigDecimal}, and {@link java.math.BigInteger}) are shared rather than copied.
+ * Objects referenced more than once, including objects in cycles, are cloned once and the clone is shared in the
+ * same way. Collections and maps are cloned into a new collection or map of the same type if it's one of the JDK's
+ * own, or of a general-purpose type (such as {@link java.util.ArrayList}) otherwise.
+ * </p>
+ * 
+ * <p>
+ * As with serialization, transient fields aren't copied; they keep whatever value the no-argument constructor gives
+ * them. Objects without a no-argument constructor, objects whose fields can't be made accessible (such as the JDK's
+ * own classes on Java 9 and later), and objects that customize their serialized form (with writeObject(), for instance)
+ * are cloned by serialization if they're {@link Serializable}.
+ * </p>
+ * 
+ * @author Craig Walls
+ */
+public class ReflectiveDeepCloner implements DeepCloner {
+
+	@Override
+	public <T> T deepClone(T original) {
+		return deepClone(original, new IdentityHashMap<Object, Object>());
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> T deepClone(T original, Map<Object, Object> clones) {
+		if (original == null) {
+			return null;
+		}
+		CopyableClass copyableClass = CopyableClass.forClass(original.getClass());
+		if (copyableClass.isImmutable()) {
+			return original;
+		}
+		Object clone = clones.get(original);
+		if (clone != null) {
+			return (T) clone;
+		}
+		if (original.getClass().isArray()) {
+			return (T) cloneArray(original, clones);
+		} else if (original instanceof Collection) {
+			return (T) cloneCollection((Collection<?>) original, copyableClass, clones);
+		} else if (original instanceof Map) {
+			return (T) cloneMap((Map<?, ?>) original, copyableClass, clones);
+		}
+		return (T) cloneObject(original, copyableClass, clones);
+	}
+
+	private Object cloneArray(Object original, Map<Object, Object> clones) {
+		int length = Array.getLength(original);
+		Class<?> componentType = original.getClass().getComponentType();
+		Object clone = Array.newInstance(componentType, length);
+		clones.put(original, clone);
+		if (componentType.isPrimitive()) {
+			System.arraycopy(original, 0, clone, 0, length);
+		} else {
+			Object[] originalArray = (Object[]) original;
+			Object[] cloneArray = (Object[]) clone;
+			for (int i = 0; i < length; i++) {
+				cloneArray[i] = deepClone(originalArray[i], clones);
+			}
+		}
+		return clone;
+	}
+
+	private Collection<Object> cloneCollection(Collection<?> original, CopyableClass copyableClass, Map<Object, Object> clones) {
+		Collection<Object> clone = copyableClass.newCollection(original);
+		clones.put(original, clone);
+		for (Object item : original) {
+			clone.add(deepClone(item, clones));
+		}
+		return clone;
+	}
+
+	private Map<Object, Object> cloneMap(Map<?, ?> original, CopyableClass copyableClass, Map<Object, Object> clones) {
+		Map<Object, Object> clone = copyableClass.newMap(original);
+		clones.put(original, clone);
+		for (Map.Entry<?, ?> entry : original.entrySet()) {
+			clone.put(deepClone(entry.getKey(), clones), deepClone(entry.getValue(), clones));
+		}
+		return clone;
+	}
+
+	private Object cloneObject(Object original, CopyableClass copyableClass, Map<Object, Object> clones) {
+		if (!copyableClass.isInstantiable()) {
+			if (original instanceof Serializable) {
+				Object clone = SerializationUtils.clone((Serializable) original);
+				clones.put(original, clone);
+				return clone;
+			}
+			throw new IllegalArgumentException("Unable to clone " + original.getClass().getName() +
+					"; it has no no-argument constructor and is not Serializable.");
+		}
+		Object clone = copyableClass.newInstance();
+		clones.put(original, clone);
+		try {
+			for (Field field : copyableClass.getFields()) {
+				Object value = field.get(original);
+				field.set(clone, field.getType().isPrimitive() ? value : deepClone(value, clones));
+			}
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException("Unable to clone " + original.getClass().getName(), e);
+		}
+		return clone;
+	}
+
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.sync.util;
+
+import java.io.Serializable;
+
+import org.apache.commons.lang.SerializationUtils;
+
+/**
+ * {@link DeepCloner} that clones an object graph by serializing and deserializing it.
+ * Every object in the graph must be {@link Serializable}.
+ * 
+ * @author Craig Walls
+ */
+public class SerializationDeepCloner implements DeepCloner {
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> T deepClone(T original) {
+		return (T) SerializationUtils.clone((Serializable) original);
+	}
+
+}
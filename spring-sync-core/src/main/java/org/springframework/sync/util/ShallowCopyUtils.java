@@ -0,0 +1,88 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.sync.util;
+
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.util.Collection;
+import java.util.Map;
+
+import org.apache.commons.lang.SerializationUtils;
+import org.springframework.util.ReflectionUtils;
+
+/**
+ * <p>Utility methods for shallow copying an object.</p>
+ * 
+ * <p>
+ * Lists, sets, maps, and arrays are copied into a new container holding the same elements.
+ * Other objects are copied by instantiating them with their no-argument constructor and copying each of their
+ * non-transient fields; the constructor and fields are looked up once per class. Immutable values, such as strings,
+ * primitive wrappers, and enums, are returned as-is. An object without a no-argument constructor, whose fields
+ * can't be made accessible, or that customizes its serialized form is deep cloned if it is {@link Serializable}.
+ * </p>
+ * 
+ * @author Craig Walls
+ */
+public class ShallowCopyUtils {
+
+	/**
+	 * Shallow copies an object.
+	 * @param original the object to copy
+	 * @param <T> the object's type
+	 * @return the copy
+	 * @throws IllegalArgumentException if the object can't be copied
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> T shallowCopy(T original) {
+		if (original == null) {
+			return null;
+		}
+		CopyableClass copyableClass = CopyableClass.forClass(original.getClass());
+		if (copyableClass.isImmutable()) {
+			return original;
+		}
+		if (original.getClass().isArray()) {
+			int length = Array.getLength(original);
+			Object copy = Array.newInstance(original.getClass().getComponentType(), length);
+			System.arraycopy(original, 0, copy, 0, length);
+			return (T) copy;
+		}
+		if (original instanceof Collection) {
+			Collection<Object> copy = copyableClass.newCollection((Collection<?>) original);
+			copy.addAll((Collection<?>) original);
+			return (T) copy;
+		}
+		if (original instanceof Map) {
+			Map<Object, Object> copy = copyableClass.newMap((Map<?, ?>) original);
+			copy.putAll((Map<?, ?>) original);
+			return (T) copy;
+		}
+		if (!copyableClass.isInstantiable()) {
+			if (original instanceof Serializable) {
+				return (T) SerializationUtils.clone((Serializable) original);
+			}
+			throw new IllegalArgumentException("Unable to copy " + original.getClass().getName() +
+					"; it has no no-argument constructor and is not Serializable.");
+		}
+		Object copy = copyableClass.newInstance();
+		for (Field field : copyableClass.getFields()) {
+			ReflectionUtils.setField(field, copy, ReflectionUtils.getField(field, original));
+		}
+		return (T) copy;
+	}
+
+}
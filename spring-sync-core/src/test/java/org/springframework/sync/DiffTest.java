@@ -18,9 +18,17 @@ package org.springframework.sync;
 import static org.junit.Assert.*;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 
 import org.junit.Test;
+import org.springframework.sync.Patch.ApplyMode;
+import org.springframework.sync.diffsync.Equivalency;
+import org.springframework.sync.diffsync.IdPropertyEquivalency;
 
 public class DiffTest {
 
@@ -651,7 +659,454 @@ public class DiffTest {
 		assertEquals(true, operations.get(3).getValue());
 	}
 
+	@Test
+	public void inheritedFieldsAreDiffed() throws Exception {
+		DatedTodo original = new DatedTodo(1L, "A", 1L);
+		DatedTodo modified = new DatedTodo(1L, "B", 2L);
+
+		Patch diff = Diff.diff(original, modified);
+		List<PatchOperation> operations = diff.getOperations();
+		assertEquals(4, diff.size());
+		assertEquals("/description", operations.get(0).getPath());
+		assertEquals("/description", operations.get(1).getPath());
+		assertEquals("/due", operations.get(2).getPath());
+		assertEquals("replace", operations.get(3).getOp());
+		assertEquals("/due", operations.get(3).getPath());
+		assertEquals(2L, operations.get(3).getValue());
+	}
+
+	@Test
+	public void transientFieldsAreNotDiffed() throws Exception {
+		DatedTodo original = new DatedTodo(1L, "A", 1L);
+		original.cachedLabel = "A";
+		DatedTodo modified = new DatedTodo(1L, "A", 1L);
+		modified.cachedLabel = "B";
+
+		assertEquals(0, Diff.diff(original, modified).size());
+	}
+
+	@Test
+	public void fieldMetadataIsCachedAndClassified() throws Exception {
+		Diff.FieldMetadata[] fields = Diff.getFieldMetadata(TodoList.class);
+		assertSame(fields, Diff.getFieldMetadata(TodoList.class));
+
+		Diff.FieldMetadata[] datedFields = Diff.getFieldMetadata(DatedTodo.class);
+		assertEquals(4, datedFields.length);
+		assertEquals("id", datedFields[0].getName());
+		assertEquals(Diff.FieldKind.SIMPLE, datedFields[2].getKind());
+		assertEquals("due", datedFields[3].getName());
+		for (Diff.FieldMetadata field : fields) {
+			if (field.getName().equals("todos")) {
+				assertEquals(Diff.FieldKind.COLLECTION, field.getKind());
+			} else if (field.getName().equals("todoArray")) {
+				assertEquals(Diff.FieldKind.ARRAY, field.getKind());
+			}
+		}
+	}
+
+	@Test
+	public void specializedDifferMatchesReflectiveWalk() throws Exception {
+		Reading original = new Reading(1, 2L, 1.5, 'a', new Todo(1L, "A", false));
+		Reading modified = new Reading(2, 3L, Double.NaN, 'b', new Todo(1L, "B", true));
+
+		Patch specialized = Diff.diff(original, modified);
+		Patch reflective = Diff.diff(original, modified, false);
+		assertEquals(12, specialized.size());
+		assertEquals(reflective.size(), specialized.size());
+		for (int i = 0; i < specialized.size(); i++) {
+			PatchOperation expected = reflective.getOperations().get(i);
+			PatchOperation actual = specialized.getOperations().get(i);
+			assertEquals(expected.getOp(), actual.getOp());
+			assertEquals(expected.getPath(), actual.getPath());
+			assertEquals(expected.getValue(), actual.getValue());
+		}
+		assertEquals("/count", specialized.getOperations().get(1).getPath());
+		assertEquals(2, specialized.getOperations().get(1).getValue());
+		assertEquals("/todo/complete", specialized.getOperations().get(11).getPath());
+
+		assertEquals(0, Diff.diff(new Reading(1, 2L, Double.NaN, 'a', null), new Reading(1, 2L, Double.NaN, 'a', null)).size());
+		assertSame(Diff.getClassDiffer(Reading.class), Diff.getClassDiffer(Reading.class));
+	}
+
+	@Test
+	public void differentTypesFallBackToReflectiveWalk() throws Exception {
+		Todo original = new Todo(1L, "A", false);
+		DatedTodo modified = new DatedTodo(1L, "B", 2L);
+
+		Patch diff = Diff.diff(original, modified);
+		assertEquals(2, diff.size());
+		assertEquals("/description", diff.getOperations().get(1).getPath());
+		assertEquals("B", diff.getOperations().get(1).getValue());
+	}
+
+	@Test
+	public void reorderedListItemsByEquivalencyAreMoved() throws Exception {
+		List<Todo> original = buildTodoList();
+		List<Todo> modified = new ArrayList<Todo>();
+		modified.add(new Todo(3L, "C", false));
+		modified.add(new Todo(1L, "A", false));
+		modified.add(new Todo(2L, "B", false));
+
+		Patch diff = Diff.diff(original, modified, new IdPropertyEquivalency());
+		assertEquals(1, diff.size());
+		PatchOperation op = diff.getOperations().get(0);
+		assertEquals("move", op.getOp());
+		assertEquals("/0", op.getPath());
+		assertEquals("/2", ((MoveOperation) op).getFrom());
+		assertEquals(modified, diff.apply(buildTodoList(), Todo.class));
+	}
+
+	@Test
+	public void changedListItemsByEquivalencyAreDiffedByField() throws Exception {
+		List<Todo> original = buildTodoList();
+		List<Todo> modified = new ArrayList<Todo>();
+		modified.add(new Todo(2L, "BBB", false));
+		modified.add(new Todo(1L, "A", false));
+
+		Patch diff = Diff.diff(original, modified, new IdPropertyEquivalency());
+		List<PatchOperation> ops = diff.getOperations();
+		assertEquals(5, diff.size());
+		assertEquals("test", ops.get(0).getOp());
+		assertEquals("/2", ops.get(0).getPath());
+		assertEquals("remove", ops.get(1).getOp());
+		assertEquals("/2", ops.get(1).getPath());
+		assertEquals("move", ops.get(2).getOp());
+		assertEquals("/0", ops.get(2).getPath());
+		assertEquals("/1", ((MoveOperation) ops.get(2)).getFrom());
+		assertEquals("/0/description", ops.get(3).getPath());
+		assertEquals("replace", ops.get(4).getOp());
+		assertEquals("/0/description", ops.get(4).getPath());
+		assertEquals("BBB", ops.get(4).getValue());
+		assertEquals(modified, diff.apply(buildTodoList(), Todo.class));
+	}
+
+	@Test
+	public void unmatchedListItemsByEquivalencyAreAddedAndRemoved() throws Exception {
+		List<Todo> original = buildTodoList();
+		List<Todo> modified = new ArrayList<Todo>();
+		modified.add(new Todo(4L, "D", false));
+		modified.add(new Todo(3L, "C", true));
+		modified.add(new Todo(1L, "A", false));
+		modified.add(new Todo(5L, "E", false));
+
+		Patch diff = Diff.diff(original, modified, new IdPropertyEquivalency());
+		assertEquals(modified, diff.apply(buildTodoList(), Todo.class));
+		assertEquals(modified, Diff.diff(original, modified, new Equivalency() {
+			@Override
+			public boolean isEquivalent(Object o1, Object o2) {
+				return ((Todo) o1).getId().equals(((Todo) o2).getId());
+			}
+		}).apply(buildTodoList(), Todo.class));
+		PatchOperation last = diff.getOperations().get(diff.size() - 1);
+		assertEquals("add", last.getOp());
+		assertEquals("/3", last.getPath());
+		PatchOperation replace = diff.getOperations().get(diff.size() - 2);
+		assertEquals("replace", replace.getOp());
+		assertEquals("/1/complete", replace.getPath());
+	}
+
+	@Test
+	public void listsOfSimpleValuesByEquivalencyAreComparedByEquality() throws Exception {
+		List<String> original = Arrays.asList("a", "b", "c");
+		assertEquals(0, Diff.diff(original, new ArrayList<String>(original), new IdPropertyEquivalency()).size());
+
+		List<String> modified = Arrays.asList("a", "c");
+		Patch diff = Diff.diff(original, modified, new IdPropertyEquivalency());
+		assertEquals(2, diff.size());
+		assertEquals("remove", diff.getOperations().get(1).getOp());
+		assertEquals("/1", diff.getOperations().get(1).getPath());
+		assertEquals(2, Diff.diff(original, modified, new Equivalency() {
+			@Override
+			public boolean isEquivalent(Object o1, Object o2) {
+				return false;
+			}
+		}).size());
+	}
+
+	@Test
+	public void listItemsByEquivalencyAreMatchedByInheritedId() throws Exception {
+		List<Todo> original = new ArrayList<Todo>();
+		original.add(new DatedTodo(1L, "A", 10L));
+		original.add(new DatedTodo(2L, "B", 10L));
+		List<Todo> modified = new ArrayList<Todo>();
+		modified.add(new DatedTodo(2L, "B", 10L));
+		modified.add(new DatedTodo(1L, "A", 10L));
+
+		Patch diff = Diff.diff(original, modified, new IdPropertyEquivalency());
+		assertEquals(1, diff.size());
+		assertEquals("move", diff.getOperations().get(0).getOp());
+		assertEquals(2L, new IdPropertyEquivalency().getKey(new DatedTodo(2L, "B", 10L)));
+	}
+
+	@Test
+	public void changedMapEntriesAreDiffedByKey() throws Exception {
+		TodoBoard original = buildTodoBoard();
+		TodoBoard modified = buildTodoBoard();
+		modified.getTodos().remove("a");
+		modified.getTodos().put("b", new Todo(2L, "B", true));
+		modified.getTodos().put("d/e", new Todo(4L, "D", false));
+		modified.getPriorities().put(2, "low");
+
+		Patch diff = Diff.diff(original, modified);
+		assertEquals(7, diff.size());
+		List<PatchOperation> ops = diff.getOperations();
+		assertEquals("test", ops.get(0).getOp());
+		assertEquals("/todos/a", ops.get(0).getPath());
+		assertEquals("remove", ops.get(1).getOp());
+		assertEquals("/todos/a", ops.get(1).getPath());
+		assertEquals("replace", ops.get(3).getOp());
+		assertEquals("/todos/b/complete", ops.get(3).getPath());
+		assertEquals("add", ops.get(4).getOp());
+		assertEquals("/todos/d~1e", ops.get(4).getPath());
+		assertEquals("/priorities/2", ops.get(6).getPath());
+		assertEquals("low", ops.get(6).getValue());
+
+		assertEquals(modified, diff.apply(buildTodoBoard(), TodoBoard.class));
+		assertEquals(modified, diff.apply(buildTodoBoard(), TodoBoard.class, ApplyMode.PATH_COPY));
+		TodoBoard target = buildTodoBoard();
+		assertEquals(modified, diff.apply(target, TodoBoard.class, ApplyMode.IN_PLACE));
+		assertEquals(modified, target);
+	}
+
+	@Test
+	public void changedSetMembersAreAddedAndRemoved() throws Exception {
+		TodoBoard original = buildTodoBoard();
+		TodoBoard modified = buildTodoBoard();
+		modified.getTags().remove("home");
+		modified.getTags().add("garden");
+
+		Patch diff = Diff.diff(original, modified);
+		assertEquals(3, diff.size());
+		List<PatchOperation> ops = diff.getOperations();
+		assertEquals("test", ops.get(0).getOp());
+		assertEquals("/tags/home", ops.get(0).getPath());
+		assertEquals("remove", ops.get(1).getOp());
+		assertEquals("add", ops.get(2).getOp());
+		assertEquals("/tags/garden", ops.get(2).getPath());
+		assertEquals("garden", ops.get(2).getValue());
+
+		assertEquals(modified, diff.apply(buildTodoBoard(), TodoBoard.class));
+		assertEquals(modified, diff.apply(buildTodoBoard(), TodoBoard.class, ApplyMode.PATH_COPY));
+	}
+
+	@Test
+	public void mapsAndSetsAreDiffedAlikeBySpecializedAndReflectiveDiffers() throws Exception {
+		TodoBoard original = buildTodoBoard();
+		TodoBoard modified = buildTodoBoard();
+		modified.getTodos().get("c").setDescription("CC");
+		modified.getTags().add("garden");
+
+		Patch specialized = Diff.diff(original, modified);
+		Patch reflective = Diff.diff(original, modified, false);
+		assertEquals(3, specialized.size());
+		assertEquals(reflective.size(), specialized.size());
+		for (int i = 0; i < specialized.size(); i++) {
+			assertEquals(reflective.getOperations().get(i).getPath(), specialized.getOperations().get(i).getPath());
+		}
+		assertEquals(0, Diff.diff(buildTodoBoard(), buildTodoBoard()).size());
+	}
+
+	@Test
+	public void failedMapAndSetOperationsAreUndoneInPlace() throws Exception {
+		TodoBoard target = buildTodoBoard();
+		Patch patch = new Patch(Arrays.<PatchOperation>asList(
+				new RemoveOperation("/todos/a"),
+				new AddOperation("/todos/b", new Todo(5L, "E", false)),
+				new RemoveOperation("/tags/home"),
+				new AddOperation("/tags/garden", "garden"),
+				new RemoveOperation("/priorities/9")));
+
+		try {
+			patch.apply(target, TodoBoard.class, ApplyMode.IN_PLACE);
+			fail();
+		} catch (PatchException e) {
+			assertEquals(buildTodoBoard(), target);
+		}
+	}
+
+	@Test
+	public void collectionsWithEmptyKeysOrMembersAreReplacedWhole() throws Exception {
+		TodoBoard original = buildTodoBoard();
+		TodoBoard modified = buildTodoBoard();
+		modified.getTodos().put("", new Todo(4L, "D", false));
+		modified.getTags().add("");
+
+		Patch diff = Diff.diff(original, modified);
+		assertEquals(4, diff.size());
+		List<PatchOperation> ops = diff.getOperations();
+		assertEquals("/todos", ops.get(1).getPath());
+		assertEquals("replace", ops.get(1).getOp());
+		assertEquals("/tags", ops.get(3).getPath());
+		assertEquals("replace", ops.get(3).getOp());
+
+		assertEquals(modified, diff.apply(buildTodoBoard(), TodoBoard.class));
+		TodoBoard target = buildTodoBoard();
+		assertEquals(modified, diff.apply(target, TodoBoard.class, ApplyMode.IN_PLACE));
+	}
+
+	@Test
+	public void entriesAddedToEmptyMapTakeTheDeclaredKeyType() throws Exception {
+		TodoBoard original = buildTodoBoard();
+		original.getPriorities().clear();
+		TodoBoard modified = buildTodoBoard();
+		modified.getPriorities().remove(1);
+
+		Patch diff = Diff.diff(original, modified);
+		assertEquals(1, diff.size());
+		assertEquals("/priorities/2", diff.getOperations().get(0).getPath());
+
+		TodoBoard target = buildTodoBoard();
+		target.getPriorities().clear();
+		assertEquals(modified, diff.apply(target, TodoBoard.class));
+		assertEquals(modified, diff.apply(target, TodoBoard.class, ApplyMode.PATH_COPY));
+		assertEquals(modified, diff.apply(target, TodoBoard.class, ApplyMode.IN_PLACE));
+		assertEquals(Integer.valueOf(2), target.getPriorities().keySet().iterator().next());
+	}
+
+	@Test
+	public void replacedSetMembersAreUndoneInPlace() throws Exception {
+		TodoBoard target = buildTodoBoard();
+		Patch patch = new Patch(Arrays.<PatchOperation>asList(
+				new ReplaceOperation("/tags/home", "garden"),
+				new RemoveOperation("/priorities/9")));
+
+		try {
+			patch.apply(target, TodoBoard.class, ApplyMode.IN_PLACE);
+			fail();
+		} catch (PatchException e) {
+			assertEquals(buildTodoBoard(), target);
+		}
+
+		TodoBoard replaced = buildTodoBoard();
+		new Patch(Arrays.<PatchOperation>asList(new ReplaceOperation("/tags/home", "garden")))
+				.apply(replaced, TodoBoard.class, ApplyMode.IN_PLACE);
+		assertEquals(new LinkedHashSet<String>(Arrays.asList("work", "garden")), replaced.getTags());
+	}
+
+	@Test
+	public void dirtyDiffComparesOnlyDirtyProperties() throws Exception {
+		TrackedTodo original = buildTrackedTodo();
+		TrackedTodo modified = buildTrackedTodo();
+		modified.setComplete(true);
+		modified.clearDirtyPaths();
+		modified.setDescription("AA");
+		modified.addNote("two");
+		assertEquals(2, modified.getDirtyPaths().size());
+
+		Patch diff = Diff.diffDirty(original, modified);
+		assertEquals(3, diff.size());
+		List<PatchOperation> ops = diff.getOperations();
+		assertEquals("/description", ops.get(1).getPath());
+		assertEquals("AA", ops.get(1).getValue());
+		assertEquals("add", ops.get(2).getOp());
+		assertEquals("/notes/1", ops.get(2).getPath());
+
+		// the complete property was changed without being reported dirty, so only a full diff finds it
+		assertEquals(5, Diff.diff(original, modified).size());
+	}
+
+	@Test
+	public void dirtyDiffDescendsIntoCleanChangeTrackedProperties() throws Exception {
+		TrackedTodo original = buildTrackedTodo();
+		TrackedTodo modified = buildTrackedTodo();
+		modified.getSubtask().setComplete(true);
+		assertTrue(modified.getDirtyPaths().isEmpty());
+
+		Patch diff = Diff.diffDirty(original, modified);
+		assertEquals(2, diff.size());
+		assertEquals("/subtask/complete", diff.getOperations().get(1).getPath());
+		assertEquals(modified, diff.apply(buildTrackedTodo(), TrackedTodo.class));
+
+		modified.clearDirtyPaths();
+		assertEquals(0, Diff.diffDirty(original, modified).size());
+	}
+
+	@Test
+	public void dirtyDiffOfListComparesDirtyPropertiesOfPairedItems() throws Exception {
+		List<TrackedTodo> original = new ArrayList<TrackedTodo>();
+		List<TrackedTodo> modified = new ArrayList<TrackedTodo>();
+		for (long i = 0; i < 3; i++) {
+			original.add(new TrackedTodo(i, "T" + i, false));
+			modified.add(new TrackedTodo(i, "T" + i, false));
+		}
+		modified.get(1).setDescription("changed");
+
+		Patch diff = Diff.diffDirty(original, modified, new IdPropertyEquivalency(), null);
+		assertEquals(2, diff.size());
+		assertEquals("/1/description", diff.getOperations().get(1).getPath());
+		assertEquals(modified, diff.apply(original, TrackedTodo.class));
+	}
+
+	@Test
+	public void changeTrackerFieldsAreNotDiffed() throws Exception {
+		TrackedTodo modified = buildTrackedTodo();
+		modified.setDescription("A");
+		assertEquals(0, Diff.diff(buildTrackedTodo(), modified).size());
+		for (Diff.FieldMetadata field : Diff.getFieldMetadata(TrackedTodo.class)) {
+			assertNotEquals("changes", field.getName());
+		}
+	}
+
+	private static class Reading {
+
+		private int count;
+
+		private long total;
+
+		private double average;
+
+		private char grade;
+
+		private Todo todo;
+
+		public Reading(int count, long total, double average, char grade, Todo todo) {
+			this.count = count;
+			this.total = total;
+			this.average = average;
+			this.grade = grade;
+			this.todo = todo;
+		}
+
+	}
+
+	private static class DatedTodo extends Todo {
+
+		private static final long serialVersionUID = 1L;
+
+		private Long due;
+
+		private transient String cachedLabel;
+
+		public DatedTodo(Long id, String description, Long due) {
+			super(id, description, false);
+			this.due = due;
+		}
+
+	}
 	
+	private TrackedTodo buildTrackedTodo() {
+		TrackedTodo todo = new TrackedTodo(1L, "A", false);
+		todo.setNotes(new ArrayList<String>(Arrays.asList("one")));
+		todo.setSubtask(new TrackedTodo(2L, "B", false));
+		todo.clearDirtyPaths();
+		return todo;
+	}
+
+	private TodoBoard buildTodoBoard() {
+		TodoBoard board = new TodoBoard();
+		Map<String, Todo> todos = new LinkedHashMap<String, Todo>();
+		todos.put("a", new Todo(1L, "A", false));
+		todos.put("b", new Todo(2L, "B", false));
+		todos.put("c", new Todo(3L, "C", false));
+		board.setTodos(todos);
+		Map<Integer, String> priorities = new HashMap<Integer, String>();
+		priorities.put(1, "high");
+		priorities.put(2, "normal");
+		board.setPriorities(priorities);
+		board.setTags(new LinkedHashSet<String>(Arrays.asList("work", "home")));
+		return board;
+	}
+
 	private List<Todo> buildTodoList() {
 		List<Todo> original = new ArrayList<Todo>();
 		original.add(new Todo(1L, "A", false));
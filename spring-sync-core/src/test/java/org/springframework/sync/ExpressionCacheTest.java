@@ -0,0 +1,73 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.sync;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.springframework.expression.Expression;
+
+public class ExpressionCacheTest {
+
+	@Test
+	public void hitsAndMisses() {
+		ExpressionCache cache = new ExpressionCache(10);
+		Expression expression = PathToSpEL.spelToExpression("[1].description");
+		assertNull(cache.get("/1/description"));
+		cache.put("/1/description", expression);
+		assertSame(expression, cache.get("/1/description"));
+		assertSame(expression, cache.get("/1/description"));
+		assertEquals(2, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+		assertEquals(0, cache.getEvictionCount());
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsed() {
+		ExpressionCache cache = new ExpressionCache(2);
+		cache.put("/0", PathToSpEL.spelToExpression("[0]"));
+		cache.put("/1", PathToSpEL.spelToExpression("[1]"));
+		cache.get("/0");
+		cache.put("/2", PathToSpEL.spelToExpression("[2]"));
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getEvictionCount());
+		assertNotNull(cache.get("/0"));
+		assertNull(cache.get("/1"));
+		assertNotNull(cache.get("/2"));
+	}
+
+	@Test
+	public void clear() {
+		ExpressionCache cache = new ExpressionCache(2);
+		cache.put("/0", PathToSpEL.spelToExpression("[0]"));
+		cache.clear();
+		assertEquals(0, cache.size());
+		assertNull(cache.get("/0"));
+	}
+
+	@Test
+	public void pathToExpressionReusesCachedExpressions() {
+		ExpressionCache cache = PathToSpEL.getExpressionCache();
+		Expression expression = PathToSpEL.pathToExpression("/42/description");
+		long hits = cache.getHitCount();
+		assertSame(expression, PathToSpEL.pathToExpression("/42/description"));
+		assertSame(expression, PathToSpEL.pathToExpression("42//description/"));
+		assertSame(expression, PathToSpEL.pathToParentExpression("/42/description/complete"));
+		assertEquals(hits + 3, cache.getHitCount());
+	}
+
+}
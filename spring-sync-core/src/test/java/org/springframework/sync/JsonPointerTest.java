@@ -0,0 +1,84 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.sync;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class JsonPointerTest {
+
+	@Test
+	public void classifiesTokens() {
+		JsonPointer pointer = JsonPointer.parse("/todos/12/~/-");
+		assertEquals(4, pointer.size());
+		assertTrue(pointer.getToken(0).isProperty());
+		assertEquals("todos", pointer.getToken(0).getName());
+		assertTrue(pointer.getToken(1).isIndex());
+		assertFalse(pointer.getToken(1).isEndOfList());
+		assertEquals(12, pointer.getToken(1).getIndex());
+		assertTrue(pointer.getToken(2).isEndOfList());
+		assertEquals(-1, pointer.getToken(2).getIndex());
+		assertTrue(pointer.getToken(3).isEndOfList());
+	}
+
+	@Test
+	public void unescapesTokens() {
+		JsonPointer pointer = JsonPointer.parse("/a~1b/c~0d/~01");
+		assertEquals("a/b", pointer.getToken(0).getName());
+		assertEquals("c~d", pointer.getToken(1).getName());
+		assertEquals("~1", pointer.getToken(2).getName());
+		assertTrue(pointer.getToken(2).isProperty());
+		assertEquals("/a~1b/c~0d/~01", pointer.toString());
+	}
+
+	@Test
+	public void ignoresEmptyTokens() {
+		JsonPointer pointer = JsonPointer.parse("1//description/");
+		assertEquals(2, pointer.size());
+		assertEquals("/1/description", pointer.toString());
+		assertEquals(JsonPointer.parse("/1/description"), pointer);
+	}
+
+	@Test
+	public void numbersTooLargeForAnIndexAreProperties() {
+		assertTrue(JsonPointer.parse("/1234567890").getToken(0).isProperty());
+		assertTrue(JsonPointer.parse("/12a").getToken(0).isProperty());
+	}
+
+	@Test
+	public void root() {
+		assertTrue(JsonPointer.parse("").isRoot());
+		assertTrue(JsonPointer.parse("/").isRoot());
+		assertNull(JsonPointer.parse("").getLastToken());
+		assertEquals("", JsonPointer.parse("/").toString());
+	}
+
+	@Test
+	public void parent() {
+		JsonPointer pointer = JsonPointer.parse("/todos/1/description");
+		assertEquals("/todos/1", pointer.getParent().toString());
+		assertEquals("description", pointer.getLastToken().getName());
+		assertTrue(JsonPointer.parse("/todos").getParent().isRoot());
+		assertTrue(JsonPointer.parse("").getParent().isRoot());
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void propertyHasNoIndex() {
+		JsonPointer.parse("/description").getLastToken().getIndex();
+	}
+
+}
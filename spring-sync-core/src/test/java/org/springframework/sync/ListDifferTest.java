@@ -0,0 +1,183 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.sync;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import difflib.Delta;
+import difflib.DiffAlgorithm;
+import difflib.myers.MyersDiff;
+
+public class ListDifferTest {
+
+	@Test
+	public void commonPrefixAndSuffixAreTrimmed() throws Exception {
+		ListDiffer listDiffer = new ListDiffer();
+		difflib.Patch patch = listDiffer.diff(Arrays.asList("a", "b", "c", "d"), Arrays.asList("a", "b", "x", "c", "d"));
+		assertEquals(1, patch.getDeltas().size());
+		Delta delta = patch.getDeltas().get(0);
+		assertEquals(Delta.TYPE.INSERT, delta.getType());
+		assertEquals(2, delta.getRevised().getPosition());
+		assertEquals(Arrays.asList("x"), delta.getRevised().getLines());
+		assertEquals(1, listDiffer.getDiffCount());
+		assertEquals(1, listDiffer.getTrimmedCount());
+		assertEquals(0, listDiffer.getAlgorithmCount());
+
+		patch = listDiffer.diff(Arrays.asList("a", "b", "c", "d"), Arrays.asList("a", "x", "y", "d"));
+		assertEquals(1, patch.getDeltas().size());
+		assertEquals(Delta.TYPE.CHANGE, patch.getDeltas().get(0).getType());
+		assertEquals(1, patch.getDeltas().get(0).getOriginal().getPosition());
+		assertEquals(1, listDiffer.getAlgorithmCount());
+		assertEquals(0, listDiffer.getLinearCount());
+	}
+
+	@Test
+	public void largeListsUseLinearAlgorithm() throws Exception {
+		ListDiffer listDiffer = new ListDiffer();
+		listDiffer.setLinearThreshold(2);
+		List<String> original = Arrays.asList("a", "b", "c", "d", "e");
+		List<String> modified = Arrays.asList("a", "c", "b", "x", "e");
+		assertPatches(original, modified, listDiffer.diff(original, modified));
+		assertEquals(1, listDiffer.getLinearCount());
+		assertEquals(0, listDiffer.getAlgorithmCount());
+		assertTrue(listDiffer.getLinearTime() > 0);
+	}
+
+	@Test
+	public void algorithmsPatchRandomEdits() throws Exception {
+		DiffAlgorithm[] algorithms = { new MyersDiff(), new HistogramDiffAlgorithm(), new HashIndexDiffAlgorithm(), new HashIndexDiffAlgorithm(2) };
+		Random random = new Random(42);
+		for (int round = 0; round < 200; round++) {
+			List<String> original = new ArrayList<String>();
+			int size = random.nextInt(40);
+			for (int i = 0; i < size; i++) {
+				original.add("item" + random.nextInt(20));
+			}
+			List<String> modified = new ArrayList<String>(original);
+			int edits = random.nextInt(8);
+			for (int edit = 0; edit < edits; edit++) {
+				int position = modified.isEmpty() ? 0 : random.nextInt(modified.size());
+				switch (random.nextInt(3)) {
+					case 0:
+						modified.add(position, "new" + random.nextInt(5));
+						break;
+					case 1:
+						if (!modified.isEmpty()) {
+							modified.remove(position);
+						}
+						break;
+					default:
+						if (!modified.isEmpty()) {
+							modified.set(position, "changed" + random.nextInt(5));
+						}
+				}
+			}
+			for (DiffAlgorithm algorithm : algorithms) {
+				assertPatches(original, modified, algorithm.diff(original, modified));
+				assertPatches(original, modified, new ListDiffer(algorithm).diff(original, modified));
+				assertEquals(modified, Diff.diff(original, modified, new ListDiffer(algorithm)).apply(new ArrayList<String>(original), String.class));
+			}
+		}
+	}
+
+	@Test
+	public void histogramAnchorsOnRareElements() throws Exception {
+		List<String> original = Arrays.asList("x", "x", "a", "x", "x");
+		List<String> modified = Arrays.asList("a", "x", "x", "x", "x", "y");
+		difflib.Patch patch = new HistogramDiffAlgorithm().diff(original, modified);
+		assertPatches(original, modified, patch);
+		// "a" occurs once, so it's matched first and the "x"s before it are deleted and inserted after it instead
+		assertEquals(2, patch.getDeltas().size());
+		assertEquals(Delta.TYPE.DELETE, patch.getDeltas().get(0).getType());
+		assertEquals(Arrays.asList("x", "x"), patch.getDeltas().get(0).getOriginal().getLines());
+		assertEquals(Delta.TYPE.INSERT, patch.getDeltas().get(1).getType());
+		assertEquals(Arrays.asList("x", "x", "y"), patch.getDeltas().get(1).getRevised().getLines());
+	}
+
+	@Test
+	public void diffWithListDifferPatchesTodoList() throws Exception {
+		List<Todo> original = new ArrayList<Todo>();
+		List<Todo> modified = new ArrayList<Todo>();
+		for (long i = 0; i < 50; i++) {
+			original.add(new Todo(i, "Todo " + i, false));
+			modified.add(new Todo(i, "Todo " + i, i % 10 == 5));
+		}
+		modified.remove(20);
+		modified.add(30, new Todo(100L, "New", false));
+
+		for (DiffAlgorithm algorithm : new DiffAlgorithm[] { new MyersDiff(), new HistogramDiffAlgorithm(), new HashIndexDiffAlgorithm() }) {
+			ListDiffer listDiffer = new ListDiffer(algorithm);
+			Patch patch = Diff.diff(original, modified, listDiffer);
+			assertEquals(modified, patch.apply(new ArrayList<Todo>(original), Todo.class));
+			assertEquals(1, listDiffer.getAlgorithmCount());
+		}
+	}
+
+	@Test
+	public void pairedElementsComparedInParallelInPathOrder() throws Exception {
+		List<TodoList> original = new ArrayList<TodoList>();
+		List<TodoList> modified = new ArrayList<TodoList>();
+		for (int i = 0; i < 200; i++) {
+			original.add(todoList("List " + i, i, false));
+			modified.add(todoList(i % 7 == 0 ? "Changed " + i : "List " + i, i, i % 3 == 0));
+		}
+		modified.remove(50);
+		modified.add(120, todoList("New", 1000, false));
+
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			ListDiffer listDiffer = new ListDiffer();
+			listDiffer.setExecutor(executor);
+			listDiffer.setParallelThreshold(10);
+			listDiffer.setParallelism(4);
+			Patch parallel = Diff.diff(original, modified, listDiffer);
+			Patch sequential = Diff.diff(original, modified, new ListDiffer());
+			assertEquals(1, listDiffer.getParallelCount());
+
+			assertEquals(sequential.size(), parallel.size());
+			for (int i = 0; i < sequential.size(); i++) {
+				assertEquals(sequential.getOperations().get(i).getOp(), parallel.getOperations().get(i).getOp());
+				assertEquals(sequential.getOperations().get(i).getPath(), parallel.getOperations().get(i).getPath());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private TodoList todoList(String name, int id, boolean complete) {
+		TodoList todoList = new TodoList();
+		todoList.setName(name);
+		List<Todo> todos = new ArrayList<Todo>();
+		todos.add(new Todo((long) id, "Todo " + id, complete));
+		todos.add(new Todo((long) id + 1, "Todo " + (id + 1), false));
+		todoList.setTodos(todos);
+		return todoList;
+	}
+
+	private void assertPatches(List<String> original, List<String> modified, difflib.Patch patch) throws Exception {
+		assertEquals(modified, patch.applyTo(original));
+	}
+
+}
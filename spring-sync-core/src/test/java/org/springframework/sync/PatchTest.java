@@ -15,12 +15,14 @@
  */
 package org.springframework.sync;
 
-import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.*;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.junit.Test;
+import org.springframework.sync.Patch.ApplyMode;
 
 public class PatchTest {
 
@@ -50,4 +52,96 @@ public class PatchTest {
 		assertEquals(new Todo(4L, "D", false), operations.get(0).getValue());
 	}
 
+	@Test
+	public void pathCopyLeavesOriginalUnchangedAndSharesUntouchedObjects() throws Exception {
+		List<Todo> todos = todos();
+		Patch patch = new Patch(Arrays.<PatchOperation>asList(new ReplaceOperation("/1/description", "BBB")));
+		
+		List<Todo> patched = patch.apply(todos, Todo.class, ApplyMode.PATH_COPY);
+		assertEquals(todos(), todos);
+		assertEquals("BBB", patched.get(1).getDescription());
+		assertNotSame(todos.get(1), patched.get(1));
+		assertSame(todos.get(0), patched.get(0));
+		assertSame(todos.get(2), patched.get(2));
+	}
+
+	@Test
+	public void pathCopyOfNestedListFollowsShiftedIndexes() throws Exception {
+		TodoList todoList = new TodoList();
+		todoList.setTodos(todos());
+		Patch patch = new Patch(Arrays.<PatchOperation>asList(
+				new MoveOperation("/todos/2", "/todos/0"),
+				new ReplaceOperation("/todos/0/complete", true),
+				new AddOperation("/todos/~", new Todo(4L, "D", false))));
+		
+		TodoList patched = patch.apply(todoList, TodoList.class, ApplyMode.PATH_COPY);
+		assertEquals(todos(), todoList.getTodos());
+		assertEquals(Arrays.asList(new Todo(2L, "B", true), new Todo(3L, "C", false), new Todo(1L, "A", false), new Todo(4L, "D", false)), patched.getTodos());
+		assertNotSame(todoList.getTodos(), patched.getTodos());
+		assertSame(todoList.getTodos().get(0), patched.getTodos().get(2));
+		assertSame(todoList.getTodos().get(2), patched.getTodos().get(1));
+	}
+
+	@Test
+	public void pathCopyLeavesOriginalUnchangedWhenAnOperationFails() throws Exception {
+		List<Todo> todos = todos();
+		Patch patch = new Patch(Arrays.<PatchOperation>asList(
+				new ReplaceOperation("/0/description", "AAA"),
+				new TestOperation("/1/description", "X")));
+		
+		try {
+			patch.apply(todos, Todo.class, ApplyMode.PATH_COPY);
+			fail();
+		} catch (PatchException e) {
+			assertEquals(todos(), todos);
+		}
+	}
+
+	@Test
+	public void inPlaceModifiesAndReturnsTheGivenObject() throws Exception {
+		List<Todo> todos = todos();
+		Todo todo = todos.get(1);
+		Patch patch = new Patch(Arrays.<PatchOperation>asList(
+				new ReplaceOperation("/1/description", "BBB"),
+				new RemoveOperation("/0")));
+		
+		List<Todo> patched = patch.apply(todos, Todo.class, ApplyMode.IN_PLACE);
+		assertSame(todos, patched);
+		assertSame(todo, patched.get(0));
+		assertEquals(Arrays.asList(new Todo(2L, "BBB", false), new Todo(3L, "C", false)), patched);
+	}
+
+	@Test
+	public void inPlaceUndoesModificationsWhenAnOperationFails() throws Exception {
+		TodoList todoList = new TodoList();
+		todoList.setName("Chores");
+		todoList.setTodos(todos());
+		List<Todo> originalTodos = todoList.getTodos();
+		Patch patch = new Patch(Arrays.<PatchOperation>asList(
+				new ReplaceOperation("/name", "Errands"),
+				new MoveOperation("/todos/2", "/todos/0"),
+				new AddOperation("/todos/1", new Todo(4L, "D", false)),
+				new RemoveOperation("/todos/~"),
+				new ReplaceOperation("/todos/0/complete", true),
+				new CopyOperation("/todos/0", "/todos/1"),
+				new TestOperation("/todos/0/description", "X")));
+		
+		try {
+			patch.apply(todoList, TodoList.class, ApplyMode.IN_PLACE);
+			fail();
+		} catch (PatchException e) {
+			assertEquals("Chores", todoList.getName());
+			assertSame(originalTodos, todoList.getTodos());
+			assertEquals(todos(), todoList.getTodos());
+		}
+	}
+
+	private List<Todo> todos() {
+		List<Todo> todos = new ArrayList<Todo>();
+		todos.add(new Todo(1L, "A", false));
+		todos.add(new Todo(2L, "B", false));
+		todos.add(new Todo(3L, "C", false));
+		return todos;
+	}
+
 }
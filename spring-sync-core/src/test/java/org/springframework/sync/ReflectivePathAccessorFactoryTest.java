@@ -0,0 +1,143 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.sync;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class ReflectivePathAccessorFactoryTest {
+
+	private ReflectivePathAccessorFactory factory = new ReflectivePathAccessorFactory();
+
+	@Test
+	public void getAndSetThroughListIndex() {
+		List<Todo> todos = todos();
+		PathAccessor accessor = factory.getPathAccessor(JsonPointer.parse("/1/description"));
+		assertEquals("B", accessor.getValue(todos));
+		accessor.setValue(todos, "BBB");
+		assertEquals("BBB", todos.get(1).getDescription());
+	}
+
+	@Test
+	public void getAndSetLastItemOfList() {
+		List<Todo> todos = todos();
+		PathAccessor accessor = factory.getPathAccessor(JsonPointer.parse("/~/complete"));
+		assertEquals(false, accessor.getValue(todos));
+		accessor.setValue(todos, true);
+		assertTrue(todos.get(2).isComplete());
+	}
+
+	@Test
+	public void getAndSetThroughNestedPropertiesAndArrays() {
+		TodoList todoList = new TodoList();
+		todoList.setTodos(todos());
+		todoList.setTodoArray(new Todo[] { new Todo(4L, "D", false) });
+		assertEquals("C", factory.getPathAccessor(JsonPointer.parse("/todos/2/description")).getValue(todoList));
+		factory.getPathAccessor(JsonPointer.parse("/todoArray/0/description")).setValue(todoList, "DDD");
+		assertEquals("DDD", todoList.getTodoArray()[0].getDescription());
+	}
+
+	@Test
+	public void convertsValuesToPropertyType() {
+		List<Todo> todos = todos();
+		factory.getPathAccessor(JsonPointer.parse("/0/id")).setValue(todos, 42);
+		assertEquals(Long.valueOf(42L), todos.get(0).getId());
+	}
+
+	@Test
+	public void setNullOnPrimitiveProperty() {
+		try {
+			factory.getPathAccessor(JsonPointer.parse("/0/complete")).setValue(todos(), null);
+			fail();
+		} catch (PatchException e) {
+			assertEquals("Path '/0/complete' is not nullable.", e.getMessage());
+		}
+	}
+
+	@Test
+	public void indexOutOfBounds() {
+		try {
+			factory.getPathAccessor(JsonPointer.parse("/5/description")).getValue(todos());
+			fail();
+		} catch (PatchException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void fallsBackForUnresolvableProperties() {
+		final List<String> fallbackPaths = new ArrayList<String>();
+		ReflectivePathAccessorFactory factory = new ReflectivePathAccessorFactory(new PathAccessorFactory() {
+			public PathAccessor getPathAccessor(final JsonPointer pointer) {
+				return new PathAccessor() {
+					public Object getValue(Object target) {
+						fallbackPaths.add(pointer.toString());
+						return "fallback";
+					}
+					public void setValue(Object target, Object value) {
+						fallbackPaths.add(pointer.toString());
+					}
+				};
+			}
+		});
+		assertEquals("fallback", factory.getPathAccessor(JsonPointer.parse("/0/bogus")).getValue(todos()));
+		assertEquals("A", factory.getPathAccessor(JsonPointer.parse("/0/description")).getValue(todos()));
+		assertEquals(Arrays.asList("/0/bogus"), fallbackPaths);
+	}
+
+	@Test
+	public void unresolvablePropertiesAreNotCached() {
+		assertNull(factory.getPropertyHandle(Todo.class, "bogus"));
+		assertNull(factory.getPropertyHandle(Todo.class, "bogus"));
+		assertNull(factory.getPropertyHandle(Object.class, "bogus"));
+		assertNotNull(factory.getPropertyHandle(Todo.class, "description"));
+		assertSame(factory.getPropertyHandle(Todo.class, "description"), factory.getPropertyHandle(Todo.class, "description"));
+
+		Map<?, ?> propertyHandles = (Map<?, ?>) ReflectionTestUtils.getField(factory, "propertyHandles");
+		assertEquals(1, propertyHandles.size());
+		assertEquals(Collections.singleton("description"), ((Map<?, ?>) propertyHandles.get(Todo.class)).keySet());
+	}
+
+	@Test
+	public void patchOperationsWithSpelPathAccessors() throws Exception {
+		PathAccessorFactory original = PatchOperation.getPathAccessorFactory();
+		try {
+			PatchOperation.setPathAccessorFactory(new SpelPathAccessorFactory());
+			List<Todo> todos = todos();
+			new ReplaceOperation("/1/description", "BBB").perform(todos, Todo.class);
+			assertEquals("BBB", todos.get(1).getDescription());
+		} finally {
+			PatchOperation.setPathAccessorFactory(original);
+		}
+	}
+
+	private List<Todo> todos() {
+		List<Todo> todos = new ArrayList<Todo>();
+		todos.add(new Todo(1L, "A", false));
+		todos.add(new Todo(2L, "B", false));
+		todos.add(new Todo(3L, "C", false));
+		return todos;
+	}
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.sync;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.lang.builder.EqualsBuilder;
+import org.apache.commons.lang.builder.HashCodeBuilder;
+
+public class TrackedTodo implements ChangeTracked, Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final ChangeTracker changes = new ChangeTracker();
+
+	private Long id;
+
+	private String description;
+
+	private boolean complete;
+
+	private List<String> notes;
+
+	private TrackedTodo subtask;
+
+	public TrackedTodo() {}
+
+	public TrackedTodo(Long id, String description, boolean complete) {
+		this.id = id;
+		this.description = description;
+		this.complete = complete;
+	}
+
+	public Long getId() {
+		return id;
+	}
+
+	public void setId(Long id) {
+		this.id = id;
+		changes.markDirty("id");
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	public void setDescription(String description) {
+		this.description = description;
+		changes.markDirty("description");
+	}
+
+	public boolean isComplete() {
+		return complete;
+	}
+
+	public void setComplete(boolean complete) {
+		this.complete = complete;
+		changes.markDirty("complete");
+	}
+
+	public List<String> getNotes() {
+		return notes;
+	}
+
+	public void setNotes(List<String> notes) {
+		this.notes = notes;
+		changes.markDirty("notes");
+	}
+
+	public void addNote(String note) {
+		notes.add(note);
+		changes.markDirty("notes");
+	}
+
+	public TrackedTodo getSubtask() {
+		return subtask;
+	}
+
+	public void setSubtask(TrackedTodo subtask) {
+		this.subtask = subtask;
+		changes.markDirty("subtask");
+	}
+
+	@Override
+	public Set<String> getDirtyPaths() {
+		return changes.getDirtyPaths();
+	}
+
+	@Override
+	public void clearDirtyPaths() {
+		changes.clearDirtyPaths();
+		if (subtask != null) {
+			subtask.clearDirtyPaths();
+		}
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return EqualsBuilder.reflectionEquals(this, other, new String[] { "changes" });
+	}
+
+	@Override
+	public int hashCode() {
+		return HashCodeBuilder.reflectionHashCode(this, new String[] { "changes" });
+	}
+
+}
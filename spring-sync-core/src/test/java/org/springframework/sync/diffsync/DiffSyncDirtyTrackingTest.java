@@ -0,0 +1,56 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.sync.diffsync;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.springframework.sync.TrackedTodo;
+import org.springframework.sync.diffsync.shadowstore.MapBasedShadowStore;
+
+public class DiffSyncDirtyTrackingTest {
+
+	@Test
+	public void diffComparesDirtyPropertiesAndClearsThem() {
+		MapBasedShadowStore shadowStore = new MapBasedShadowStore("x");
+		shadowStore.putShadow("shadow/TrackedTodo/1", new Shadow<TrackedTodo>(new TrackedTodo(1L, "A", false), 0, 0));
+		DiffSync<TrackedTodo> sync = new DiffSync<TrackedTodo>(shadowStore, TrackedTodo.class);
+		sync.setDirtyTracking(true);
+
+		TrackedTodo target = new TrackedTodo(1L, "A", false);
+		target.setDescription("B");
+		VersionedPatch patch = sync.diff(target);
+		assertEquals(2, patch.size());
+		assertEquals("/description", patch.getOperations().get(1).getPath());
+		assertTrue(target.getDirtyPaths().isEmpty());
+		assertEquals(target, shadowStore.getShadow("shadow/TrackedTodo/1").getResource());
+
+		assertEquals(0, sync.diff(target).size());
+	}
+
+	@Test
+	public void diffWithoutDirtyTrackingComparesAllProperties() {
+		MapBasedShadowStore shadowStore = new MapBasedShadowStore("x");
+		shadowStore.putShadow("shadow/TrackedTodo/1", new Shadow<TrackedTodo>(new TrackedTodo(1L, "A", false), 0, 0));
+		DiffSync<TrackedTodo> sync = new DiffSync<TrackedTodo>(shadowStore, TrackedTodo.class);
+
+		TrackedTodo target = new TrackedTodo(1L, "B", false);
+		target.setComplete(true);
+		assertEquals(4, sync.diff(target).size());
+		assertFalse(target.getDirtyPaths().isEmpty());
+	}
+
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.sync.diffsync.shadowstore;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import org.junit.Test;
+import org.springframework.sync.diffsync.Shadow;
+
+public class BoundedMapShadowStoreTest {
+
+	@Test
+	public void evictsLeastRecentlyUsedWhenOverweight() {
+		BoundedShadowCache cache = new BoundedShadowCache(30);
+		cache.setWeigher(new FixedWeigher());
+		BoundedMapShadowStore store = new BoundedMapShadowStore("x", cache);
+		store.putShadow("a", new Shadow<String>("A", 0, 0));
+		store.putShadow("b", new Shadow<String>("B", 0, 0));
+		store.putShadow("c", new Shadow<String>("C", 0, 0));
+		assertNotNull(store.getShadow("a"));
+		store.putShadow("d", new Shadow<String>("D", 0, 0));
+		assertEquals(3, cache.size());
+		assertEquals(30, cache.getTotalWeight());
+		assertEquals(1, cache.getEvictionCount());
+		assertNull(store.getShadow("b"));
+		assertNotNull(store.getShadow("a"));
+		assertNotNull(store.getShadow("c"));
+		assertNotNull(store.getShadow("d"));
+		assertEquals(4, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+	}
+
+	@Test
+	public void replacingShadowReweighs() {
+		BoundedShadowCache cache = new BoundedShadowCache(100);
+		cache.setWeigher(new FixedWeigher());
+		BoundedMapShadowStore store = new BoundedMapShadowStore("x", cache);
+		store.putShadow("a", new Shadow<String>("A", 0, 0));
+		store.putShadow("a", new Shadow<String>("AAA", 1, 0));
+		assertEquals(1, cache.size());
+		assertEquals(30, cache.getTotalWeight());
+	}
+
+	@Test
+	public void shadowHeavierThanMaximumIsNotKept() {
+		BoundedShadowCache cache = new BoundedShadowCache(20);
+		cache.setWeigher(new FixedWeigher());
+		BoundedMapShadowStore store = new BoundedMapShadowStore("x", cache);
+		store.putShadow("a", new Shadow<String>("AAA", 0, 0));
+		assertNull(store.getShadow("a"));
+		assertEquals(0, cache.getTotalWeight());
+	}
+
+	@Test
+	public void evictedShadowCanBeReplacedFromVersionsZero() {
+		BoundedShadowCache cache = new BoundedShadowCache(10);
+		cache.setWeigher(new FixedWeigher());
+		BoundedMapShadowStore store = new BoundedMapShadowStore("x", cache);
+		store.putShadow("a", new Shadow<String>("A", 3, 2));
+		store.putShadow("b", new Shadow<String>("B", 0, 0));
+		assertFalse(store.replaceShadow("a", 3, 2, new Shadow<String>("A", 3, 3)));
+		assertTrue(store.replaceShadow("a", 0, 0, new Shadow<String>("A", 0, 1)));
+		assertEquals(1, store.getShadow("a").getClientVersion());
+	}
+
+	@Test
+	public void expiresIdleShadows() {
+		TestClockShadowCache cache = new TestClockShadowCache(100);
+		cache.setIdleTimeout(1000);
+		BoundedMapShadowStore store = new BoundedMapShadowStore("x", cache);
+		store.putShadow("a", new Shadow<String>("A", 0, 0));
+		store.putShadow("b", new Shadow<String>("B", 0, 0));
+		cache.now = 900;
+		assertNotNull(store.getShadow("a"));
+		cache.now = 1500;
+		assertNotNull(store.getShadow("a"));
+		assertNull(store.getShadow("b"));
+		assertEquals(1, cache.getExpirationCount());
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void expiresIdleShadowsWhenStoring() {
+		TestClockShadowCache cache = new TestClockShadowCache(100);
+		cache.setIdleTimeout(1000);
+		BoundedMapShadowStore store = new BoundedMapShadowStore("x", cache);
+		store.putShadow("a", new Shadow<String>("A", 0, 0));
+		cache.now = 1000;
+		store.putShadow("b", new Shadow<String>("B", 0, 0));
+		assertEquals(1, cache.size());
+		assertEquals(1, cache.getExpirationCount());
+		assertEquals(0, cache.getEvictionCount());
+	}
+
+	@Test
+	public void expiresShadowsAfterTimeToLive() {
+		TestClockShadowCache cache = new TestClockShadowCache(100);
+		cache.setTimeToLive(1000);
+		BoundedMapShadowStore store = new BoundedMapShadowStore("x", cache);
+		store.putShadow("a", new Shadow<String>("A", 0, 0));
+		cache.now = 999;
+		assertNotNull(store.getShadow("a"));
+		cache.now = 1000;
+		assertNull(store.getShadow("a"));
+		assertEquals(0, cache.getTotalWeight());
+	}
+
+	@Test
+	public void storesSharingACacheAreBoundedTogether() {
+		BoundedShadowCache cache = new BoundedShadowCache(30);
+		cache.setWeigher(new FixedWeigher());
+		BoundedMapShadowStore storeX = new BoundedMapShadowStore("x", cache);
+		BoundedMapShadowStore storeY = new BoundedMapShadowStore("y", cache);
+		storeX.putShadow("a", new Shadow<String>("XA", 0, 0));
+		storeY.putShadow("a", new Shadow<String>("Y", 0, 0));
+		assertEquals("XA", storeX.getShadow("a").getResource());
+		assertEquals("Y", storeY.getShadow("a").getResource());
+		assertEquals(30, cache.getTotalWeight());
+		storeY.putShadow("b", new Shadow<String>("Y", 0, 0));
+		assertEquals(1, cache.getEvictionCount());
+		assertNull(storeX.getShadow("a"));
+		assertNotNull(storeY.getShadow("a"));
+		assertTrue(storeY.replaceShadow("a", 0, 0, new Shadow<String>("Y", 1, 0)));
+		assertTrue(storeX.replaceShadow("a", 0, 0, new Shadow<String>("X", 0, 1)));
+		assertEquals(1, storeY.getShadow("a").getServerVersion());
+	}
+
+	@Test
+	public void estimatesWeightOfResource() {
+		EstimatingShadowWeigher weigher = new EstimatingShadowWeigher();
+		long small = weigher.weigh(new Shadow<Object>(Arrays.asList(new Todo(1L, "A", false)), 0, 0));
+		long large = weigher.weigh(new Shadow<Object>(Arrays.asList(new Todo(1L, "A", false), new Todo(2L, "B", true)), 0, 0));
+		assertTrue(small > 0);
+		assertTrue(large > small);
+		Todo shared = new Todo(1L, "A", false);
+		assertEquals(small, weigher.weigh(new Shadow<Object>(Arrays.asList(shared), 0, 0)));
+		assertTrue(weigher.weigh(new Shadow<Object>(Arrays.asList(shared, shared), 0, 0)) < large);
+	}
+
+	@Test
+	public void estimatesJdkTypesWithoutWalkingThem() {
+		EstimatingShadowWeigher weigher = new EstimatingShadowWeigher();
+		long withoutDate = weigher.weigh(new Shadow<Object>(new DatedTodo(1L, "A", null), 0, 0));
+		long withDate = weigher.weigh(new Shadow<Object>(new DatedTodo(1L, "A", new Date()), 0, 0));
+		assertTrue(withDate > withoutDate);
+
+		BoundedMapShadowStore store = new BoundedMapShadowStore("x", new BoundedShadowCache(10000));
+		store.putShadow("a", new Shadow<Object>(new DatedTodo(1L, "A", new Date()), 0, 0));
+		assertNotNull(store.getShadow("a"));
+	}
+
+	private static class FixedWeigher implements ShadowWeigher {
+		@Override
+		public long weigh(Shadow<?> shadow) {
+			return 10 * ((String) shadow.getResource()).length();
+		}
+	}
+
+	private static class TestClockShadowCache extends BoundedShadowCache {
+
+		private long now;
+
+		public TestClockShadowCache(long maximumWeight) {
+			super(maximumWeight);
+			setWeigher(new FixedWeigher());
+		}
+
+		@Override
+		protected long currentTimeMillis() {
+			return now;
+		}
+
+	}
+
+	private static class Todo {
+		@SuppressWarnings("unused")
+		private Long id;
+		@SuppressWarnings("unused")
+		private String description;
+		@SuppressWarnings("unused")
+		private boolean complete;
+
+		Todo(Long id, String description, boolean complete) {
+			this.id = id;
+			this.description = description;
+			this.complete = complete;
+		}
+	}
+
+	private static class DatedTodo extends Todo {
+		@SuppressWarnings("unused")
+		private Date due;
+
+		DatedTodo(Long id, String description, Date due) {
+			super(id, description, false);
+			this.due = due;
+		}
+	}
+
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.sync.diffsync.shadowstore;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.springframework.sync.Diff;
+import org.springframework.sync.Todo;
+import org.springframework.sync.diffsync.DiffSync;
+import org.springframework.sync.diffsync.Shadow;
+import org.springframework.sync.diffsync.VersionedPatch;
+
+public class DeltaShadowStoreTest {
+
+	@Test
+	public void writesPatchesAfterBase() {
+		MapBasedShadowStore delegate = new MapBasedShadowStore("x");
+		DeltaShadowStore store = new DeltaShadowStore(delegate);
+		List<Todo> todos = todos(100);
+		store.putShadow("key", new Shadow<List<Todo>>(todos, 0, 0));
+		List<Todo> changed = copy(todos);
+		changed.get(42).setComplete(true);
+		assertTrue(store.replaceShadow("key", 0, 0, new Shadow<List<Todo>>(changed, 0, 1)));
+
+		Shadow<?> base = delegate.getShadow("key/base");
+		assertSame(todos, base.getResource());
+		assertTrue(delegate.getShadow("key/delta0").getResource() instanceof String);
+		assertTrue(((String) delegate.getShadow("key/delta0").getResource()).contains("/42/complete"));
+
+		Shadow<?> rebuilt = new DeltaShadowStore(delegate).getShadow("key");
+		assertEquals(changed, rebuilt.getResource());
+		assertEquals(0, rebuilt.getServerVersion());
+		assertEquals(1, rebuilt.getClientVersion());
+		assertEquals(todos(100), todos);
+	}
+
+	@Test
+	public void rebuildsFromManyPatches() {
+		MapBasedShadowStore delegate = new MapBasedShadowStore("x");
+		DeltaShadowStore store = new DeltaShadowStore(delegate);
+		List<Todo> todos = todos(10);
+		store.putShadow("key", new Shadow<List<Todo>>(todos, 0, 0));
+		for (int i = 0; i < 5; i++) {
+			todos = copy(todos);
+			todos.get(i).setDescription("changed " + i);
+			todos.add(new Todo(100L + i, "new " + i, false));
+			assertTrue(store.replaceShadow("key", i, 0, new Shadow<List<Todo>>(todos, i + 1, 0)));
+		}
+		assertNotNull(delegate.getShadow("key/delta4"));
+		Shadow<?> rebuilt = new DeltaShadowStore(delegate).getShadow("key");
+		assertEquals(todos, rebuilt.getResource());
+		assertEquals(5, rebuilt.getServerVersion());
+	}
+
+	@Test
+	public void compactsAfterMaxDeltas() {
+		MapBasedShadowStore delegate = new MapBasedShadowStore("x");
+		DeltaShadowStore store = new DeltaShadowStore(delegate);
+		store.setMaxDeltas(2);
+		Todo todo = new Todo(1L, "A", false);
+		store.putShadow("key", new Shadow<Todo>(todo, 0, 0));
+		for (int i = 1; i <= 3; i++) {
+			todo = new Todo(1L, "A" + i, false);
+			store.putShadow("key", new Shadow<Todo>(todo, 0, i));
+		}
+		assertEquals(new Todo(1L, "A3", false), delegate.getShadow("key/base").getResource());
+		assertEquals("", delegate.getShadow("key/delta0").getResource());
+		assertEquals("", delegate.getShadow("key/delta1").getResource());
+		assertEquals(new Todo(1L, "A3", false), new DeltaShadowStore(delegate).getShadow("key").getResource());
+		assertEquals(new Todo(1L, "A3", false), store.getShadow("key").getResource());
+	}
+
+	@Test
+	public void compactsAfterMaxDeltaSize() {
+		MapBasedShadowStore delegate = new MapBasedShadowStore("x");
+		DeltaShadowStore store = new DeltaShadowStore(delegate);
+		store.setMaxDeltaSize(10);
+		store.putShadow("key", new Shadow<Todo>(new Todo(1L, "A", false), 0, 0));
+		store.putShadow("key", new Shadow<Todo>(new Todo(1L, "B", false), 0, 1));
+		assertNull(delegate.getShadow("key/delta0"));
+		assertEquals(new Todo(1L, "B", false), delegate.getShadow("key/base").getResource());
+	}
+
+	@Test
+	public void replaceOnlyWhenVersionsMatch() {
+		DeltaShadowStore store = new DeltaShadowStore(new MapBasedShadowStore("x"));
+		assertFalse(store.replaceShadow("key", 1, 0, new Shadow<Todo>(new Todo(1L, "A", false), 1, 1)));
+		assertTrue(store.replaceShadow("key", 0, 0, new Shadow<Todo>(new Todo(1L, "A", false), 0, 1)));
+		assertFalse(store.replaceShadow("key", 0, 0, new Shadow<Todo>(new Todo(1L, "B", false), 0, 1)));
+		assertTrue(store.replaceShadow("key", 0, 1, new Shadow<Todo>(new Todo(1L, "B", false), 0, 2)));
+		assertEquals(new Todo(1L, "B", false), store.getShadow("key").getResource());
+	}
+
+	@Test
+	public void replaceFailsWhenHeadChangedByAnotherStore() {
+		MapBasedShadowStore delegate = new MapBasedShadowStore("x");
+		DeltaShadowStore store1 = new DeltaShadowStore(delegate);
+		DeltaShadowStore store2 = new DeltaShadowStore(delegate);
+		store1.putShadow("key", new Shadow<Todo>(new Todo(1L, "A", false), 0, 0));
+		assertNotNull(store2.getShadow("key"));
+		assertTrue(store1.replaceShadow("key", 0, 0, new Shadow<Todo>(new Todo(1L, "B", false), 0, 1)));
+		assertFalse(store2.replaceShadow("key", 0, 0, new Shadow<Todo>(new Todo(1L, "C", false), 0, 1)));
+		assertEquals(new Todo(1L, "B", false), store2.getShadow("key").getResource());
+	}
+
+	@Test
+	public void mismatchedEntryIsTreatedAsMissing() {
+		MapBasedShadowStore delegate = new MapBasedShadowStore("x");
+		DeltaShadowStore store = new DeltaShadowStore(delegate);
+		store.putShadow("key", new Shadow<Todo>(new Todo(1L, "A", false), 0, 0));
+		store.putShadow("key", new Shadow<Todo>(new Todo(1L, "B", false), 0, 1));
+		delegate.putShadow("key/delta0", new Shadow<String>("[]", 0, 0));
+
+		DeltaShadowStore otherStore = new DeltaShadowStore(delegate);
+		assertNull(otherStore.getShadow("key"));
+		assertTrue(otherStore.replaceShadow("key", 0, 0, new Shadow<Todo>(new Todo(1L, "C", false), 0, 1)));
+		assertEquals(new Todo(1L, "C", false), new DeltaShadowStore(delegate).getShadow("key").getResource());
+	}
+
+	@Test
+	public void listItemsOfSeveralTypesAreRebuiltWithTheirTypes() {
+		MapBasedShadowStore delegate = new MapBasedShadowStore("x");
+		DeltaShadowStore store = new DeltaShadowStore(delegate);
+		List<Todo> todos = todos(3);
+		store.putShadow("key", new Shadow<List<Todo>>(todos, 0, 0));
+		List<Todo> changed = copy(todos);
+		changed.add(new JacksonShadowCodecTest.DatedTodo(3L, "Dated", 1000L));
+		changed.get(0).setId(10L);
+		assertTrue(store.replaceShadow("key", 0, 0, new Shadow<List<Todo>>(changed, 0, 1)));
+
+		List<?> rebuilt = (List<?>) new DeltaShadowStore(delegate).getShadow("key").getResource();
+		assertEquals(Todo.class, rebuilt.get(0).getClass());
+		assertEquals(Long.valueOf(10L), ((Todo) rebuilt.get(0)).getId());
+		assertTrue(rebuilt.get(3) instanceof JacksonShadowCodecTest.DatedTodo);
+		assertEquals(Long.valueOf(1000L), ((JacksonShadowCodecTest.DatedTodo) rebuilt.get(3)).getDue());
+		assertEquals("Dated", ((Todo) rebuilt.get(3)).getDescription());
+	}
+
+	@Test
+	public void readsShadowsInOneBatchAndRebuildsOnlyChangedShadows() {
+		final List<Integer> batches = new ArrayList<Integer>();
+		MapBasedShadowStore delegate = new MapBasedShadowStore("x") {
+			@Override
+			public Map<String, Shadow<?>> getShadows(String... keys) {
+				batches.add(keys.length);
+				return super.getShadows(keys);
+			}
+		};
+		DeltaShadowStore store = new DeltaShadowStore(delegate);
+		store.setMaxDeltas(3);
+		store.putShadow("key", new Shadow<Todo>(new Todo(1L, "A", false), 0, 0));
+		store.putShadow("key", new Shadow<Todo>(new Todo(1L, "B", false), 0, 1));
+		store.putShadow("key_backup", new Shadow<Todo>(new Todo(1L, "A", false), 0, 0));
+
+		batches.clear();
+		DeltaShadowStore reader = new DeltaShadowStore(delegate);
+		reader.setMaxDeltas(3);
+		Map<String, Shadow<?>> shadows = reader.getShadows("key", "key_backup");
+		assertEquals(new Todo(1L, "B", false), shadows.get("key").getResource());
+		assertEquals(new Todo(1L, "A", false), shadows.get("key_backup").getResource());
+		assertEquals(Arrays.asList(10), batches);
+		assertSame(shadows.get("key"), reader.getShadow("key"));
+
+		store.putShadow("key", new Shadow<Todo>(new Todo(1L, "C", false), 0, 2));
+		assertEquals(new Todo(1L, "C", false), reader.getShadow("key").getResource());
+
+		batches.clear();
+		reader.setMaxDeltas(1);
+		assertEquals(new Todo(1L, "C", false), reader.getShadow("key").getResource());
+		assertEquals(Arrays.asList(3, 1), batches);
+	}
+
+	@Test
+	public void diffSyncCycles() {
+		MapBasedShadowStore delegate = new MapBasedShadowStore("x");
+		DiffSync<Todo> sync = new DiffSync<Todo>(new DeltaShadowStore(delegate), Todo.class);
+		List<Todo> todos = todos(10);
+		List<Todo> changed = copy(todos);
+		changed.get(3).setComplete(true);
+		VersionedPatch patch = new VersionedPatch(Diff.diff(todos, changed).getOperations(), 0, 0);
+
+		List<Todo> patched = sync.apply(todos, patch);
+		assertEquals(changed, patched);
+		assertEquals(0, sync.diff(patched).size());
+
+		Shadow<?> shadow = new DeltaShadowStore(delegate).getShadow("shadow/TodoList");
+		assertEquals(changed, shadow.getResource());
+		assertEquals(1, shadow.getServerVersion());
+		assertEquals(1, shadow.getClientVersion());
+		assertEquals(changed, new DeltaShadowStore(delegate).getShadow("shadow/TodoList_backup").getResource());
+	}
+
+	private List<Todo> todos(int count) {
+		List<Todo> todos = new ArrayList<Todo>();
+		for (int i = 0; i < count; i++) {
+			todos.add(new Todo((long) i, "Todo " + i, false));
+		}
+		return todos;
+	}
+
+	private List<Todo> copy(List<Todo> todos) {
+		List<Todo> copy = new ArrayList<Todo>();
+		for (Todo todo : todos) {
+			copy.add(new Todo(todo.getId(), todo.getDescription(), todo.isComplete()));
+		}
+		return copy;
+	}
+
+}
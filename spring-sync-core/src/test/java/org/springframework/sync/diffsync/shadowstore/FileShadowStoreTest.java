@@ -0,0 +1,215 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.sync.diffsync.shadowstore;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.sync.Todo;
+import org.springframework.sync.diffsync.Shadow;
+
+public class FileShadowStoreTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void recoversShadowsAfterRestart() throws Exception {
+		File directory = folder.newFolder();
+		FileShadowJournal journal = new FileShadowJournal(directory);
+		FileShadowStore store = new FileShadowStore("x", journal);
+		store.putShadow("todo", new Shadow<Todo>(new Todo(1L, "A", false), 0, 0));
+		assertTrue(store.replaceShadow("todo", 0, 0, new Shadow<Todo>(new Todo(1L, "B", true), 0, 1)));
+		store.putShadow("list", new Shadow<List<Todo>>(todos(3), 1, 2));
+		journal.close();
+
+		FileShadowStore recovered = new FileShadowStore("x", new FileShadowJournal(directory));
+		assertEquals(new Todo(1L, "B", true), recovered.getShadow("todo").getResource());
+		assertEquals(1, recovered.getShadow("todo").getClientVersion());
+		assertEquals(todos(3), recovered.getShadow("list").getResource());
+		assertEquals(1, recovered.getShadow("list").getServerVersion());
+		assertEquals(2, recovered.getShadow("list").getClientVersion());
+		assertNull(new FileShadowStore("y", new FileShadowJournal(folder.newFolder())).getShadow("todo"));
+	}
+
+	@Test
+	public void replaceOnlyWhenVersionsMatch() throws Exception {
+		FileShadowStore store = new FileShadowStore("x", new FileShadowJournal(folder.newFolder()));
+		assertFalse(store.replaceShadow("key", 1, 0, new Shadow<String>("A", 1, 1)));
+		assertTrue(store.replaceShadow("key", 0, 0, new Shadow<String>("A", 0, 1)));
+		assertFalse(store.replaceShadow("key", 0, 0, new Shadow<String>("B", 0, 1)));
+		assertEquals("A", store.getShadow("key").getResource());
+	}
+
+	@Test
+	public void recoversFromSnapshotAndLaterSegments() throws Exception {
+		File directory = folder.newFolder();
+		FileShadowJournal journal = new FileShadowJournal(directory);
+		journal.setSegmentSize(256);
+		journal.setSnapshotThreshold(2048);
+		FileShadowStore store = new FileShadowStore("x", journal);
+		for (int i = 0; i < 200; i++) {
+			store.putShadow("todo" + (i % 20), new Shadow<Todo>(new Todo((long) i, "Todo " + i, false), 0, i));
+		}
+		journal.close();
+		assertEquals(1, directory.list(new PrefixFilter("snapshot-")).length);
+		assertTrue(directory.list(new PrefixFilter("wal-")).length < 20);
+
+		FileShadowJournal recovered = new FileShadowJournal(directory);
+		assertEquals(20, recovered.size());
+		for (int i = 180; i < 200; i++) {
+			Shadow<?> shadow = new FileShadowStore("x", recovered).getShadow("todo" + (i % 20));
+			assertEquals(new Todo((long) i, "Todo " + i, false), shadow.getResource());
+			assertEquals(i, shadow.getClientVersion());
+		}
+	}
+
+	@Test
+	public void ignoresIncompleteRecordAtEndOfLog() throws Exception {
+		File directory = folder.newFolder();
+		FileShadowJournal journal = new FileShadowJournal(directory);
+		FileShadowStore store = new FileShadowStore("x", journal);
+		store.putShadow("a", new Shadow<String>("A", 0, 0));
+		store.putShadow("b", new Shadow<String>("B", 0, 0));
+		journal.close();
+		File segment = new File(directory, directory.list(new PrefixFilter("wal-"))[0]);
+		RandomAccessFile file = new RandomAccessFile(segment, "rw");
+		file.setLength(file.length() - 3);
+		file.close();
+
+		FileShadowJournal recovered = new FileShadowJournal(directory);
+		FileShadowStore recoveredStore = new FileShadowStore("x", recovered);
+		assertEquals("A", recoveredStore.getShadow("a").getResource());
+		assertNull(recoveredStore.getShadow("b"));
+		recoveredStore.putShadow("b", new Shadow<String>("C", 0, 0));
+		recovered.close();
+		assertEquals("C", new FileShadowStore("x", new FileShadowJournal(directory)).getShadow("b").getResource());
+	}
+
+	@Test
+	public void shadowAndBackupAreRecoveredTogetherOrNotAtAll() throws Exception {
+		File directory = folder.newFolder();
+		FileShadowJournal journal = new FileShadowJournal(directory);
+		FileShadowStore store = new FileShadowStore("x", journal);
+		store.putShadow("todo", new Shadow<String>("A", 0, 0));
+		Map<String, Shadow<?>> backup = Collections.<String, Shadow<?>>singletonMap("todo_backup", new Shadow<String>("B", 0, 1));
+		assertTrue(store.replaceShadow("todo", 0, 0, new Shadow<String>("B", 0, 1), backup));
+		assertFalse(store.replaceShadow("todo", 0, 0, new Shadow<String>("C", 0, 1), backup));
+		journal.close();
+
+		FileShadowStore recovered = new FileShadowStore("x", new FileShadowJournal(directory));
+		assertEquals("B", recovered.getShadow("todo").getResource());
+		assertEquals("B", recovered.getShadow("todo_backup").getResource());
+
+		File segment = new File(directory, directory.list(new PrefixFilter("wal-"))[0]);
+		RandomAccessFile file = new RandomAccessFile(segment, "rw");
+		file.setLength(file.length() - 3);
+		file.close();
+		recovered = new FileShadowStore("x", new FileShadowJournal(directory));
+		assertEquals("A", recovered.getShadow("todo").getResource());
+		assertNull(recovered.getShadow("todo_backup"));
+	}
+
+	@Test
+	public void destroyRemovesShadowsDurably() throws Exception {
+		File directory = folder.newFolder();
+		FileShadowJournal journal = new FileShadowJournal(directory);
+		FileShadowStore store = new FileShadowStore("x", journal);
+		FileShadowStore other = new FileShadowStore("y", journal);
+		store.putShadow("a", new Shadow<String>("A", 0, 0));
+		store.putShadows(Collections.<String, Shadow<?>>singletonMap("b", new Shadow<String>("B", 0, 0)));
+		other.putShadow("a", new Shadow<String>("Y", 0, 0));
+		journal.close();
+
+		journal = new FileShadowJournal(directory);
+		store = new FileShadowStore("x", journal);
+		store.putShadow("a", new Shadow<String>("C", 0, 0));
+		assertEquals("B", store.getShadow("b").getResource());
+		store.destroy();
+		assertNull(store.getShadow("a"));
+		assertNull(store.getShadow("b"));
+		journal.close();
+
+		FileShadowJournal recovered = new FileShadowJournal(directory);
+		assertEquals(1, recovered.size());
+		assertNull(new FileShadowStore("x", recovered).getShadow("a"));
+		assertNull(new FileShadowStore("x", recovered).getShadow("b"));
+		assertEquals("Y", new FileShadowStore("y", recovered).getShadow("a").getResource());
+	}
+
+	@Test
+	public void concurrentWritesAreAllRecovered() throws Exception {
+		File directory = folder.newFolder();
+		final FileShadowJournal journal = new FileShadowJournal(directory);
+		journal.setSegmentSize(4096);
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			final String node = "node" + i;
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					FileShadowStore store = new FileShadowStore(node, journal);
+					for (int j = 0; j < 50; j++) {
+						store.putShadow("key" + j, new Shadow<String>(node + j, 0, j));
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		journal.close();
+
+		FileShadowJournal recovered = new FileShadowJournal(directory);
+		assertEquals(200, recovered.size());
+		assertEquals("node349", new FileShadowStore("node3", recovered).getShadow("key49").getResource());
+	}
+
+	private List<Todo> todos(int count) {
+		List<Todo> todos = new ArrayList<Todo>();
+		for (int i = 0; i < count; i++) {
+			todos.add(new Todo((long) i, "Todo " + i, false));
+		}
+		return todos;
+	}
+
+	private static class PrefixFilter implements FilenameFilter {
+
+		private final String prefix;
+
+		PrefixFilter(String prefix) {
+			this.prefix = prefix;
+		}
+
+		@Override
+		public boolean accept(File dir, String name) {
+			return name.startsWith(prefix) && name.endsWith(".log");
+		}
+
+	}
+
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.sync.diffsync.shadowstore;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+
+import org.easymock.IAnswer;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.gemfire.GemfireCallback;
+import org.springframework.data.gemfire.GemfireOperations;
+import org.springframework.sync.diffsync.Shadow;
+
+import com.gemstone.gemfire.cache.Region;
+
+public class GemfireShadowStoreTest {
+
+	private GemfireOperations gemfireTemplate;
+
+	@Before
+	public void setup() {
+		gemfireTemplate = createMock(GemfireOperations.class);
+	}
+
+	@Test
+	public void getShadowsInOneOperation() {
+		Map<Object, Object> values = new HashMap<Object, Object>();
+		values.put("x:key", new Shadow<String>("A", 1, 1));
+		expect(gemfireTemplate.getAll(Arrays.asList("x:key", "x:key_backup"))).andReturn(values);
+		replay(gemfireTemplate);
+
+		Map<String, Shadow<?>> shadows = new GemfireShadowStore("x", gemfireTemplate).getShadows("key", "key_backup");
+		assertEquals(1, shadows.size());
+		assertEquals("A", shadows.get("key").getResource());
+		verify(gemfireTemplate);
+	}
+
+	@Test
+	public void putShadowsAndRemoveThemOnDestroyInOneOperationEach() throws Exception {
+		Shadow<String> shadow = new Shadow<String>("A", 0, 1);
+		Shadow<String> backup = new Shadow<String>("A", 0, 1);
+		Map<String, Object> expected = new LinkedHashMap<String, Object>();
+		expected.put("x:key", shadow);
+		expected.put("x:key_backup", backup);
+		gemfireTemplate.putAll(expected);
+		Region<Object, Object> region = createRegion();
+		expect(region.remove("x:key")).andReturn(shadow);
+		expect(region.remove("x:key_backup")).andReturn(backup);
+		expectExecute(region);
+		replay(gemfireTemplate, region);
+
+		GemfireShadowStore store = new GemfireShadowStore("x", gemfireTemplate);
+		Map<String, Shadow<?>> shadows = new LinkedHashMap<String, Shadow<?>>();
+		shadows.put("key", shadow);
+		shadows.put("key_backup", backup);
+		store.putShadows(shadows);
+		store.destroy();
+		store.destroy();
+		verify(gemfireTemplate, region);
+	}
+
+	@Test
+	public void replaceShadowUnderRegionLock() throws Exception {
+		Region<Object, Object> region = createRegion();
+		Lock lock = createStrictMock(Lock.class);
+		expect(region.getDistributedLock("x:key")).andReturn(lock);
+		lock.lock();
+		lock.unlock();
+		expect(region.get("x:key")).andReturn(new Shadow<String>("A", 0, 1));
+		Shadow<String> shadow = new Shadow<String>("B", 0, 2);
+		expect(region.put("x:key", shadow)).andReturn(null);
+		expectExecute(region);
+		replay(gemfireTemplate, region, lock);
+
+		GemfireShadowStore store = new GemfireShadowStore("x", gemfireTemplate);
+		store.setTrackKeys(false);
+		assertTrue(store.replaceShadow("key", 0, 1, shadow));
+		verify(gemfireTemplate, region, lock);
+	}
+
+	@Test
+	public void replaceShadowFailsOnVersionMismatch() throws Exception {
+		Region<Object, Object> region = createRegion();
+		Lock lock = createStrictMock(Lock.class);
+		expect(region.getDistributedLock("x:key")).andReturn(lock);
+		lock.lock();
+		lock.unlock();
+		expect(region.get("x:key")).andReturn(new Shadow<String>("A", 1, 1));
+		expectExecute(region);
+		replay(gemfireTemplate, region, lock);
+
+		GemfireShadowStore store = new GemfireShadowStore("x", gemfireTemplate);
+		assertFalse(store.replaceShadow("key", 0, 1, new Shadow<String>("B", 0, 2)));
+		verify(gemfireTemplate, region, lock);
+	}
+
+	@Test
+	public void replaceEncodedShadowInRegionWithoutDistributedLocks() throws Exception {
+		JacksonShadowCodec codec = new JacksonShadowCodec();
+		Region<Object, Object> region = createRegion();
+		expect(region.getDistributedLock("x:key")).andThrow(new IllegalStateException("Not global scope"));
+		expect(region.get("x:key")).andReturn(codec.encode(new Shadow<String>("A", 0, 1)));
+		expect(region.put(eq("x:key"), isA(byte[].class))).andReturn(null);
+		expectExecute(region);
+		replay(gemfireTemplate, region);
+
+		GemfireShadowStore store = new GemfireShadowStore("x", gemfireTemplate);
+		store.setShadowCodec(codec);
+		store.setTrackKeys(false);
+		assertTrue(store.replaceShadow("key", 0, 1, new Shadow<String>("B", 0, 2)));
+		verify(gemfireTemplate, region);
+	}
+
+	@SuppressWarnings("unchecked")
+	private Region<Object, Object> createRegion() {
+		return createMock(Region.class);
+	}
+
+	@SuppressWarnings("unchecked")
+	private void expectExecute(final Region<Object, Object> region) throws Exception {
+		expect(gemfireTemplate.execute(anyObject(GemfireCallback.class))).andAnswer(new IAnswer<Object>() {
+			@Override
+			public Object answer() throws Throwable {
+				return ((GemfireCallback<?>) getCurrentArguments()[0]).doInGemfire(region);
+			}
+		});
+	}
+
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.sync.diffsync.shadowstore;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.springframework.sync.Todo;
+import org.springframework.sync.diffsync.Shadow;
+
+public class JacksonShadowCodecTest {
+
+	@Test
+	public void entityRoundTrip() {
+		JacksonShadowCodec codec = new JacksonShadowCodec();
+		Shadow<?> decoded = codec.decode(codec.encode(new Shadow<Todo>(new Todo(1L, "A", true), 3, 5)));
+		assertEquals(new Todo(1L, "A", true), decoded.getResource());
+		assertEquals(3, decoded.getServerVersion());
+		assertEquals(5, decoded.getClientVersion());
+	}
+
+	@Test
+	public void listRoundTrip() {
+		JacksonShadowCodec codec = new JacksonShadowCodec();
+		List<Todo> todos = Arrays.asList(new Todo(1L, "A", false), new Todo(2L, "B", true));
+		Shadow<?> decoded = codec.decode(codec.encode(new Shadow<List<Todo>>(todos, 1, 2)));
+		assertEquals(todos, decoded.getResource());
+		assertTrue(decoded.getResource() instanceof ArrayList);
+		assertEquals(1, decoded.getServerVersion());
+		assertEquals(2, decoded.getClientVersion());
+	}
+
+	@Test
+	public void listOfMixedTypesRoundTrip() {
+		JacksonShadowCodec codec = new JacksonShadowCodec();
+		List<Todo> todos = Arrays.asList(new Todo(1L, "A", false), new DatedTodo(2L, "B", 1234L), null, new DatedTodo(3L, "C", 5678L));
+		for (int threshold : new int[] { -1, 0 }) {
+			codec.setCompressionThreshold(threshold);
+			List<?> decoded = (List<?>) codec.decode(codec.encode(new Shadow<List<Todo>>(todos, 1, 2))).getResource();
+			assertEquals(todos, decoded);
+			assertEquals(Todo.class, decoded.get(0).getClass());
+			assertEquals(DatedTodo.class, decoded.get(1).getClass());
+			assertEquals(Long.valueOf(5678L), ((DatedTodo) decoded.get(3)).getDue());
+		}
+	}
+
+	@Test
+	public void emptyListAndNullRoundTrip() {
+		JacksonShadowCodec codec = new JacksonShadowCodec();
+		assertEquals(new ArrayList<Todo>(), codec.decode(codec.encode(new Shadow<List<Todo>>(new ArrayList<Todo>(), 0, 0))).getResource());
+		assertNull(codec.decode(codec.encode(new Shadow<Todo>(null, 0, 0))).getResource());
+	}
+
+	@Test
+	public void compressesAboveThreshold() throws Exception {
+		List<Todo> todos = new ArrayList<Todo>();
+		for (int i = 0; i < 1000; i++) {
+			todos.add(new Todo((long) i, "Todo item number " + i, i % 2 == 0));
+		}
+		Shadow<List<Todo>> shadow = new Shadow<List<Todo>>(todos, 7, 9);
+
+		JacksonShadowCodec uncompressed = new JacksonShadowCodec();
+		uncompressed.setCompressionThreshold(-1);
+		byte[] plain = uncompressed.encode(shadow);
+		JacksonShadowCodec codec = new JacksonShadowCodec();
+		byte[] deflated = codec.encode(shadow);
+
+		assertTrue(deflated.length < plain.length / 4);
+		assertEquals(todos, codec.decode(deflated).getResource());
+		assertEquals(todos, codec.decode(plain).getResource());
+		assertEquals(9, codec.decode(deflated).getClientVersion());
+		assertTrue(deflated.length < javaSerializedSize(todos) / 4);
+	}
+
+	@Test
+	public void redisSerializerRoundTrip() {
+		RedisShadowSerializer serializer = new RedisShadowSerializer();
+		Shadow<?> decoded = serializer.deserialize(serializer.serialize(new Shadow<Todo>(new Todo(1L, "A", false), 1, 1)));
+		assertEquals(new Todo(1L, "A", false), decoded.getResource());
+		assertNull(serializer.deserialize(null));
+	}
+
+	private int javaSerializedSize(Object object) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(object);
+		out.close();
+		return bytes.size();
+	}
+
+	public static class DatedTodo extends Todo {
+
+		private static final long serialVersionUID = 1L;
+
+		private Long due;
+
+		public DatedTodo() {
+		}
+
+		public DatedTodo(Long id, String description, Long due) {
+			super(id, description, false);
+			this.due = due;
+		}
+
+		public Long getDue() {
+			return due;
+		}
+
+		public void setDue(Long due) {
+			this.due = due;
+		}
+
+	}
+
+}
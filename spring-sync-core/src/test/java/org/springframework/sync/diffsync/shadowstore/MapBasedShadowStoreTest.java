@@ -0,0 +1,105 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.sync.diffsync.shadowstore;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.springframework.sync.diffsync.Shadow;
+
+public class MapBasedShadowStoreTest {
+
+	@Test
+	public void replaceMissingShadow() {
+		MapBasedShadowStore store = new MapBasedShadowStore("x");
+		assertFalse(store.replaceShadow("key", 1, 0, new Shadow<String>("A", 2, 0)));
+		assertNull(store.getShadow("key"));
+		assertTrue(store.replaceShadow("key", 0, 0, new Shadow<String>("A", 0, 1)));
+		assertEquals("A", store.getShadow("key").getResource());
+	}
+
+	@Test
+	public void replaceOnlyWhenVersionsMatch() {
+		MapBasedShadowStore store = new MapBasedShadowStore("x");
+		store.putShadow("key", new Shadow<String>("A", 1, 1));
+		assertFalse(store.replaceShadow("key", 1, 0, new Shadow<String>("B", 1, 1)));
+		assertEquals("A", store.getShadow("key").getResource());
+		assertTrue(store.replaceShadow("key", 1, 1, new Shadow<String>("B", 1, 2)));
+		assertEquals("B", store.getShadow("key").getResource());
+		assertEquals(2, store.getShadow("key").getClientVersion());
+	}
+
+	@Test
+	public void batchGetAndPut() {
+		MapBasedShadowStore store = new MapBasedShadowStore("x");
+		Map<String, Shadow<?>> shadows = new HashMap<String, Shadow<?>>();
+		shadows.put("a", new Shadow<String>("A", 0, 0));
+		shadows.put("b", new Shadow<String>("B", 1, 0));
+		store.putShadows(shadows);
+		Map<String, Shadow<?>> stored = store.getShadows("a", "b", "c");
+		assertEquals(2, stored.size());
+		assertEquals("A", stored.get("a").getResource());
+		assertEquals("B", stored.get("b").getResource());
+		assertFalse(stored.containsKey("c"));
+	}
+
+	@Test
+	public void keysAreNodeSpecific() {
+		MapBasedShadowStore store1 = new MapBasedShadowStore("1");
+		MapBasedShadowStore store2 = new MapBasedShadowStore("2");
+		store1.putShadow("key", new Shadow<String>("A", 0, 0));
+		assertNull(store2.getShadow("key"));
+	}
+
+	@Test
+	public void concurrentReplacementsAreNotLost() throws Exception {
+		final MapBasedShadowStore store = new MapBasedShadowStore("x");
+		final AtomicInteger replacements = new AtomicInteger();
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (int j = 0; j < 1000; j++) {
+						Shadow<?> shadow = store.getShadow("key");
+						int clientVersion = shadow != null ? shadow.getClientVersion() : 0;
+						if (store.replaceShadow("key", 0, clientVersion, new Shadow<String>("A", 0, clientVersion + 1))) {
+							replacements.incrementAndGet();
+						}
+					}
+				}
+			};
+			threads[i].start();
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(replacements.get(), store.getShadow("key").getClientVersion());
+	}
+
+}
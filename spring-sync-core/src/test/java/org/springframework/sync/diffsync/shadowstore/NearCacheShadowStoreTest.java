@@ -0,0 +1,172 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.sync.diffsync.shadowstore;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+
+import org.junit.Test;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.sync.diffsync.Shadow;
+
+public class NearCacheShadowStoreTest {
+
+	@Test
+	public void readsAreServedFromCache() {
+		CountingShadowStore remote = new CountingShadowStore();
+		NearCacheShadowStore store = new NearCacheShadowStore(remote, 10);
+		store.putShadow("key", new Shadow<String>("A", 0, 0));
+		assertEquals("A", store.getShadow("key").getResource());
+		assertEquals("A", store.getShadow("key").getResource());
+		assertEquals(0, remote.reads);
+		assertEquals("A", remote.getShadow("key").getResource());
+		assertEquals(2, store.getHitCount());
+	}
+
+	@Test
+	public void missesAreFetchedInOneBatch() {
+		CountingShadowStore remote = new CountingShadowStore();
+		remote.putShadow("a", new Shadow<String>("A", 0, 0));
+		remote.putShadow("b", new Shadow<String>("B", 0, 0));
+		NearCacheShadowStore store = new NearCacheShadowStore(remote, 10);
+		assertEquals("A", store.getShadow("a").getResource());
+		Map<String, Shadow<?>> shadows = store.getShadows("a", "b", "c");
+		assertEquals(2, shadows.size());
+		assertEquals("B", shadows.get("b").getResource());
+		// "a" was cached, so only "b" and "c" are fetched
+		assertEquals(3, remote.reads);
+		assertEquals(1, remote.batches);
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsed() {
+		CountingShadowStore remote = new CountingShadowStore();
+		NearCacheShadowStore store = new NearCacheShadowStore(remote, 2);
+		store.putShadow("a", new Shadow<String>("A", 0, 0));
+		store.putShadow("b", new Shadow<String>("B", 0, 0));
+		store.getShadow("a");
+		store.putShadow("c", new Shadow<String>("C", 0, 0));
+		assertEquals(2, store.size());
+		store.getShadow("a");
+		assertEquals(0, remote.reads);
+		store.getShadow("b");
+		assertEquals(1, remote.reads);
+	}
+
+	@Test
+	public void staleShadowIsEvictedWhenReplaceFails() {
+		CountingShadowStore remote = new CountingShadowStore();
+		NearCacheShadowStore node1 = new NearCacheShadowStore(remote, 10);
+		NearCacheShadowStore node2 = new NearCacheShadowStore(remote, 10);
+		node1.putShadow("key", new Shadow<String>("A", 0, 0));
+		assertEquals("A", node2.getShadow("key").getResource());
+		assertTrue(node1.replaceShadow("key", 0, 0, new Shadow<String>("B", 0, 1)));
+
+		assertEquals("A", node2.getShadow("key").getResource());
+		assertFalse(node2.replaceShadow("key", 0, 0, new Shadow<String>("C", 0, 1)));
+		assertEquals("B", node2.getShadow("key").getResource());
+		assertTrue(node2.replaceShadow("key", 0, 1, new Shadow<String>("C", 0, 2)));
+		assertEquals("C", remote.getShadow("key").getResource());
+	}
+
+	@Test
+	public void invalidatedByChangeNotification() {
+		final CountingShadowStore remote = new CountingShadowStore();
+		final NearCacheShadowStore node1 = new NearCacheShadowStore(remote, 10);
+		NearCacheShadowStore node2 = new NearCacheShadowStore(remote, 10) {
+			@Override
+			public void putShadow(String key, Shadow<?> shadow) {
+				super.putShadow(key, shadow);
+				// stands in for a pub/sub notification to the other node
+				node1.invalidate(key);
+			}
+		};
+		node1.putShadow("key", new Shadow<String>("A", 0, 0));
+		node2.putShadow("key", new Shadow<String>("B", 0, 1));
+		assertEquals("B", node1.getShadow("key").getResource());
+	}
+
+	@Test
+	public void readDoesNotReplaceShadowWrittenWhileItWasFetched() {
+		final CountingShadowStore remote = new CountingShadowStore();
+		remote.putShadow("key", new Shadow<String>("A", 0, 0));
+		final NearCacheShadowStore[] store = new NearCacheShadowStore[1];
+		store[0] = new NearCacheShadowStore(new MapBasedShadowStore("x") {
+			@Override
+			public Shadow<?> getShadow(String key) {
+				Shadow<?> shadow = remote.getShadow(key);
+				// another request on this node replaces the shadow after it was fetched
+				assertTrue(store[0].replaceShadow(key, 0, 0, new Shadow<String>("B", 0, 1)));
+				return shadow;
+			}
+
+			@Override
+			public boolean replaceShadow(String key, int expectedServerVersion, int expectedClientVersion, Shadow<?> shadow) {
+				return remote.replaceShadow(key, expectedServerVersion, expectedClientVersion, shadow);
+			}
+		}, 10);
+
+		assertEquals("A", store[0].getShadow("key").getResource());
+		assertEquals("B", store[0].getShadow("key").getResource());
+		assertTrue(store[0].replaceShadow("key", 0, 1, new Shadow<String>("C", 0, 2)));
+	}
+
+	@Test
+	public void destroyDestroysDelegate() throws Exception {
+		final boolean[] destroyed = new boolean[1];
+		class DisposableShadowStore extends MapBasedShadowStore implements DisposableBean {
+			DisposableShadowStore() {
+				super("x");
+			}
+
+			@Override
+			public void destroy() {
+				destroyed[0] = true;
+			}
+		}
+		NearCacheShadowStore store = new NearCacheShadowStore(new DisposableShadowStore(), 10);
+		store.putShadow("key", new Shadow<String>("A", 0, 0));
+		store.destroy();
+		assertTrue(destroyed[0]);
+		assertEquals(0, store.size());
+	}
+
+	private static class CountingShadowStore extends MapBasedShadowStore {
+
+		private int reads;
+
+		private int batches;
+
+		public CountingShadowStore() {
+			super("x");
+		}
+
+		@Override
+		public Shadow<?> getShadow(String key) {
+			reads++;
+			return super.getShadow(key);
+		}
+
+		@Override
+		public Map<String, Shadow<?>> getShadows(String... keys) {
+			batches++;
+			return super.getShadows(keys);
+		}
+
+	}
+
+}
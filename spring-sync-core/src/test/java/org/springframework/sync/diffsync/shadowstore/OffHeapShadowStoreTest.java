@@ -0,0 +1,149 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.sync.diffsync.shadowstore;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.springframework.sync.Todo;
+import org.springframework.sync.diffsync.Shadow;
+
+public class OffHeapShadowStoreTest {
+
+	@Test
+	public void roundTrip() {
+		OffHeapShadowArena arena = new OffHeapShadowArena();
+		OffHeapShadowStore store = new OffHeapShadowStore("x", arena);
+		List<Todo> todos = todos(100);
+		store.putShadow("list", new Shadow<List<Todo>>(todos, 2, 3));
+		store.putShadow("todo", new Shadow<Todo>(new Todo(1L, "A", true), 0, 1));
+		Shadow<?> list = store.getShadow("list");
+		assertEquals(todos, list.getResource());
+		assertNotSame(todos, list.getResource());
+		assertEquals(2, list.getServerVersion());
+		assertEquals(3, list.getClientVersion());
+		assertEquals(new Todo(1L, "A", true), store.getShadow("todo").getResource());
+		assertNull(store.getShadow("other"));
+		assertEquals(2, arena.size());
+		assertEquals(1, arena.getSlabCount());
+	}
+
+	@Test
+	public void replaceOnlyWhenVersionsMatch() {
+		OffHeapShadowStore store = new OffHeapShadowStore("x", new OffHeapShadowArena());
+		assertFalse(store.replaceShadow("key", 1, 0, new Shadow<String>("A", 1, 1)));
+		assertTrue(store.replaceShadow("key", 0, 0, new Shadow<String>("A", 0, 1)));
+		assertFalse(store.replaceShadow("key", 0, 0, new Shadow<String>("B", 0, 1)));
+		assertTrue(store.replaceShadow("key", 0, 1, new Shadow<String>("B", 0, 2)));
+		assertEquals("B", store.getShadow("key").getResource());
+	}
+
+	@Test
+	public void reusesFreedChunks() {
+		OffHeapShadowArena arena = new OffHeapShadowArena(new JacksonShadowCodec(), 4096, 1);
+		OffHeapShadowStore store = new OffHeapShadowStore("x", arena);
+		for (int i = 0; i < 100; i++) {
+			store.putShadow("key", new Shadow<Todo>(new Todo((long) i, "Todo " + i, false), 0, i));
+		}
+		assertEquals(1, arena.getSlabCount());
+		assertEquals(new Todo(99L, "Todo 99", false), store.getShadow("key").getResource());
+	}
+
+	@Test
+	public void storesShadowsLargerThanSlab() {
+		JacksonShadowCodec codec = new JacksonShadowCodec();
+		codec.setCompressionThreshold(-1);
+		OffHeapShadowArena arena = new OffHeapShadowArena(codec, 1024, 64);
+		OffHeapShadowStore store = new OffHeapShadowStore("x", arena);
+		List<Todo> todos = todos(100);
+		store.putShadow("key", new Shadow<List<Todo>>(todos, 0, 0));
+		assertEquals(todos, store.getShadow("key").getResource());
+		assertEquals(0, arena.getSlabCount());
+		assertTrue(arena.getUsedBytes() > 1024);
+	}
+
+	@Test
+	public void failsWhenSlabsAreExhausted() {
+		OffHeapShadowStore store = new OffHeapShadowStore("x", new OffHeapShadowArena(new JacksonShadowCodec(), 128, 1));
+		store.putShadow("a", new Shadow<String>("A", 0, 0));
+		store.putShadow("b", new Shadow<String>("B", 0, 0));
+		try {
+			store.putShadow("c", new Shadow<String>("C", 0, 0));
+			fail();
+		} catch (IllegalStateException e) {
+			assertNull(store.getShadow("c"));
+			assertEquals("A", store.getShadow("a").getResource());
+		}
+	}
+
+	@Test
+	public void shadowsLargerThanSlabCountAgainstBudget() {
+		JacksonShadowCodec codec = new JacksonShadowCodec();
+		codec.setCompressionThreshold(-1);
+		OffHeapShadowStore store = new OffHeapShadowStore("x", new OffHeapShadowArena(codec, 1024, 2));
+		try {
+			store.putShadow("key", new Shadow<List<Todo>>(todos(100), 0, 0));
+			fail();
+		} catch (IllegalStateException e) {
+			assertNull(store.getShadow("key"));
+		}
+		store.putShadow("key", new Shadow<String>("A", 0, 0));
+		assertEquals("A", store.getShadow("key").getResource());
+	}
+
+	@Test
+	public void storesSharingAnArenaShareItsSlabs() {
+		OffHeapShadowArena arena = new OffHeapShadowArena(new JacksonShadowCodec(), 4096, 1);
+		OffHeapShadowStore store1 = new OffHeapShadowStore("1", arena);
+		OffHeapShadowStore store2 = new OffHeapShadowStore("2", arena);
+		store1.putShadow("key", new Shadow<String>("A", 0, 0));
+		store2.putShadow("key", new Shadow<String>("B", 0, 0));
+		assertEquals("A", store1.getShadow("key").getResource());
+		assertEquals("B", store2.getShadow("key").getResource());
+		assertEquals(2, arena.size());
+		assertEquals(1, arena.getSlabCount());
+	}
+
+	@Test
+	public void destroyFreesChunksForReuse() throws Exception {
+		OffHeapShadowArena arena = new OffHeapShadowArena(new JacksonShadowCodec(), 128, 1);
+		OffHeapShadowStore store1 = new OffHeapShadowStore("1", arena);
+		OffHeapShadowStore store2 = new OffHeapShadowStore("2", arena);
+		store1.putShadow("a", new Shadow<String>("A", 0, 0));
+		store1.replaceShadow("b", 0, 0, new Shadow<String>("B", 0, 0));
+		store1.destroy();
+		assertEquals(0, arena.size());
+		assertEquals(0, arena.getUsedBytes());
+		assertNull(store1.getShadow("a"));
+
+		store2.putShadow("a", new Shadow<String>("A", 0, 0));
+		store2.putShadow("b", new Shadow<String>("B", 0, 0));
+		assertEquals(2, arena.size());
+		assertEquals(1, arena.getSlabCount());
+	}
+
+	private List<Todo> todos(int count) {
+		List<Todo> todos = new ArrayList<Todo>();
+		for (int i = 0; i < count; i++) {
+			todos.add(new Todo((long) i, "Todo " + i, false));
+		}
+		return todos;
+	}
+
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.sync.diffsync.shadowstore;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.sync.Diff;
+import org.springframework.sync.Patch;
+import org.springframework.sync.Todo;
+import org.springframework.sync.diffsync.DiffSync;
+import org.springframework.sync.diffsync.Shadow;
+import org.springframework.sync.diffsync.VersionedPatch;
+
+import redis.clients.jedis.Jedis;
+import redis.embedded.RedisServer;
+
+public class RedisShadowStoreTest {
+
+	private static RedisServer server;
+
+	private static JedisConnectionFactory connectionFactory;
+
+	private static List<String> commands = new CopyOnWriteArrayList<String>();
+
+	private static RedisTemplate<String, Shadow<?>> redisTemplate;
+
+	private static Jedis jedis;
+
+	@BeforeClass
+	public static void startRedis() throws Exception {
+		ServerSocket socket = new ServerSocket(0);
+		int port = socket.getLocalPort();
+		socket.close();
+		try {
+			server = new RedisServer(port);
+			server.start();
+		} catch (Exception e) {
+			// no Redis binary for this platform; the tests are skipped
+			server = null;
+			return;
+		}
+		connectionFactory = new JedisConnectionFactory();
+		connectionFactory.setPort(port);
+		connectionFactory.afterPropertiesSet();
+		redisTemplate = new RedisTemplate<String, Shadow<?>>();
+		redisTemplate.setConnectionFactory(CommandRecorder.recordingFactory(connectionFactory, commands));
+		redisTemplate.setKeySerializer(new StringRedisSerializer());
+		redisTemplate.setValueSerializer(new RedisShadowSerializer());
+		redisTemplate.afterPropertiesSet();
+		jedis = new Jedis("localhost", port);
+
+		// loads the write script, so that every test sees it executed by its digest
+		new RedisShadowStore("warmup", redisTemplate).putShadow("key", new Shadow<Todo>(new Todo(1L, "A", false), 0, 0));
+	}
+
+	@AfterClass
+	public static void stopRedis() throws Exception {
+		if (server != null) {
+			jedis.close();
+			connectionFactory.destroy();
+			server.stop();
+		}
+	}
+
+	@Before
+	public void setup() {
+		assumeTrue(server != null);
+		jedis.flushDB();
+		commands.clear();
+	}
+
+	@Test
+	public void putShadowStoresShadowAndVersionsWithOneCommand() throws Exception {
+		RedisShadowStore store = new RedisShadowStore("x", redisTemplate);
+		store.putShadow("key", new Shadow<Todo>(new Todo(1L, "A", false), 1, 2));
+		assertEquals(Arrays.asList("evalSha"), commands);
+		assertEquals("1:2", jedis.get("{x}:key/versions"));
+		assertEquals(Long.valueOf(-1), jedis.ttl("{x}:key"));
+		assertEquals(new Todo(1L, "A", false), store.getShadow("key").getResource());
+
+		store.destroy();
+		assertTrue(jedis.keys("*").isEmpty());
+	}
+
+	@Test
+	public void putShadowWithTimeToLive() throws Exception {
+		RedisShadowStore store = new RedisShadowStore("x", redisTemplate);
+		store.setTimeToLive(60);
+		store.setTrackKeys(false);
+		store.putShadow("key", new Shadow<Todo>(new Todo(1L, "A", false), 0, 0));
+		assertTrue(jedis.ttl("{x}:key") > 0);
+		assertTrue(jedis.ttl("{x}:key/versions") > 0);
+
+		store.destroy();
+		assertEquals(Arrays.asList("evalSha"), commands);
+		assertEquals(2, jedis.keys("*").size());
+	}
+
+	@Test
+	public void replaceShadowComparesStoredVersions() {
+		RedisShadowStore store = new RedisShadowStore("x", redisTemplate);
+		assertFalse(store.replaceShadow("key", 1, 0, new Shadow<Todo>(new Todo(1L, "A", false), 1, 1)));
+		assertTrue(store.replaceShadow("key", 0, 0, new Shadow<Todo>(new Todo(1L, "A", false), 1, 0)));
+		assertFalse(store.replaceShadow("key", 0, 0, new Shadow<Todo>(new Todo(1L, "B", false), 1, 0)));
+		Map<String, Shadow<?>> backup = Collections.<String, Shadow<?>>singletonMap("key_backup", new Shadow<Todo>(new Todo(1L, "B", false), 1, 1));
+		assertTrue(store.replaceShadow("key", 1, 0, new Shadow<Todo>(new Todo(1L, "B", false), 1, 1), backup));
+		assertEquals(Arrays.asList("evalSha", "evalSha", "evalSha", "evalSha"), commands);
+		assertEquals("1:1", jedis.get("{x}:key/versions"));
+		assertEquals("1:1", jedis.get("{x}:key_backup/versions"));
+		assertEquals(new Todo(1L, "B", false), store.getShadow("key_backup").getResource());
+	}
+
+	@Test
+	public void replaceShadowWithoutStoredVersionsMatches() {
+		RedisShadowStore store = new RedisShadowStore("x", redisTemplate);
+		store.putShadow("key", new Shadow<Todo>(new Todo(1L, "A", false), 1, 2));
+		jedis.del("{x}:key/versions");
+
+		assertTrue(store.replaceShadow("key", 1, 2, new Shadow<Todo>(new Todo(1L, "B", false), 2, 2)));
+		assertEquals("2:2", jedis.get("{x}:key/versions"));
+		assertFalse(store.replaceShadow("key", 1, 2, new Shadow<Todo>(new Todo(1L, "C", false), 2, 3)));
+		assertEquals(new Todo(1L, "B", false), store.getShadow("key").getResource());
+	}
+
+	@Test
+	public void applyAndDiffCycleTakesTwoCommands() {
+		RedisShadowStore store = new RedisShadowStore("x", redisTemplate);
+		Todo todo = new Todo(1L, "A", false);
+
+		DiffSync<Todo> sync = new DiffSync<Todo>(store, Todo.class);
+		sync.setDeferredWrites(true);
+		Patch patch = Diff.diff(todo, new Todo(1L, "A", true));
+		Todo patched = sync.apply(todo, new VersionedPatch(patch.getOperations(), 0, 0));
+		patched.setDescription("B");
+		VersionedPatch diff = sync.diff(patched);
+		assertEquals(Arrays.asList("mGet", "evalSha"), commands);
+		assertEquals(0, diff.getServerVersion());
+		assertEquals(1, diff.getClientVersion());
+		assertEquals("1:1", jedis.get("{x}:shadow/Todo/1/versions"));
+		assertEquals("0:1", jedis.get("{x}:shadow/Todo/1_backup/versions"));
+		assertEquals(new Todo(1L, "A", true), store.getShadow("shadow/Todo/1_backup").getResource());
+
+		commands.clear();
+		sync = new DiffSync<Todo>(store, Todo.class);
+		sync.setDeferredWrites(true);
+		patch = Diff.diff(patched, new Todo(1L, "B", false));
+		patched = sync.apply(patched, new VersionedPatch(patch.getOperations(), 1, 1));
+		diff = sync.diff(patched);
+		assertEquals(Arrays.asList("mGet", "evalSha"), commands);
+		assertEquals(1, diff.getServerVersion());
+		assertEquals(2, diff.getClientVersion());
+		assertEquals("2:2", jedis.get("{x}:shadow/Todo/1/versions"));
+		assertEquals(new Todo(1L, "B", false), store.getShadow("shadow/Todo/1").getResource());
+	}
+
+	// records the commands sent through the connections of a connection factory, named as the methods that send them
+	private static class CommandRecorder implements InvocationHandler {
+
+		private static final List<String> NON_COMMANDS = Arrays.asList("close", "isClosed", "isPipelined", "isQueueing",
+				"getNativeConnection", "openPipeline", "closePipeline");
+
+		private final Object target;
+
+		private final List<String> commands;
+
+		private CommandRecorder(Object target, List<String> commands) {
+			this.target = target;
+			this.commands = commands;
+		}
+
+		static RedisConnectionFactory recordingFactory(RedisConnectionFactory connectionFactory, List<String> commands) {
+			return (RedisConnectionFactory) Proxy.newProxyInstance(CommandRecorder.class.getClassLoader(),
+					new Class<?>[] { RedisConnectionFactory.class }, new CommandRecorder(connectionFactory, commands));
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			Object result;
+			try {
+				result = method.invoke(target, args);
+			} catch (InvocationTargetException e) {
+				throw e.getTargetException();
+			}
+			if (result instanceof RedisConnection) {
+				return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { RedisConnection.class },
+						new CommandRecorder(result, commands));
+			}
+			if (target instanceof RedisConnection && !NON_COMMANDS.contains(method.getName())) {
+				commands.add(method.getName());
+			}
+			return result;
+		}
+
+	}
+
+}
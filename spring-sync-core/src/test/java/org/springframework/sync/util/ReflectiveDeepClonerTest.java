@@ -0,0 +1,172 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.sync.util;
+
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import org.junit.Test;
+import org.springframework.sync.Todo;
+
+public class ReflectiveDeepClonerTest {
+
+	private ReflectiveDeepCloner cloner = new ReflectiveDeepCloner();
+
+	@Test
+	public void cloneObject() {
+		Todo original = new Todo(1L, "A", true);
+		Todo clone = cloner.deepClone(original);
+		assertNotSame(original, clone);
+		assertEquals(original, clone);
+		assertSame(original.getDescription(), clone.getDescription());
+	}
+
+	@Test
+	public void cloneList() {
+		List<Todo> original = new ArrayList<Todo>();
+		original.add(new Todo(1L, "A", false));
+		original.add(new Todo(2L, "B", true));
+		List<Todo> clone = cloner.deepClone(original);
+		assertEquals(ArrayList.class, clone.getClass());
+		assertEquals(original, clone);
+		assertNotSame(original.get(0), clone.get(0));
+		assertNotSame(original.get(1), clone.get(1));
+	}
+
+	@Test
+	public void cloneJdkListWithoutNoArgConstructor() {
+		List<Todo> original = Arrays.asList(new Todo(1L, "A", false));
+		List<Todo> clone = cloner.deepClone(original);
+		assertEquals(original, clone);
+		assertNotSame(original.get(0), clone.get(0));
+	}
+
+	@Test
+	public void cloneObjectThatIsNotSerializable() {
+		Node original = new Node("root");
+		original.children.put("child", new Node("child"));
+		original.amounts = new BigDecimal[] { BigDecimal.ONE };
+		Node clone = cloner.deepClone(original);
+		assertNotSame(original, clone);
+		assertEquals("root", clone.name);
+		assertNotSame(original.children, clone.children);
+		assertNotSame(original.children.get("child"), clone.children.get("child"));
+		assertEquals("child", clone.children.get("child").name);
+		assertNotSame(original.amounts, clone.amounts);
+		assertSame(BigDecimal.ONE, clone.amounts[0]);
+	}
+
+	@Test
+	public void cloneCycles() {
+		Node parent = new Node("parent");
+		Node child = new Node("child");
+		parent.children.put("child", child);
+		child.parent = parent;
+		Node clone = cloner.deepClone(parent);
+		Node childClone = clone.children.get("child");
+		assertNotSame(child, childClone);
+		assertSame(clone, childClone.parent);
+	}
+
+	@Test
+	public void sharedReferencesRemainShared() {
+		Todo todo = new Todo(1L, "A", false);
+		List<Todo> original = new ArrayList<Todo>();
+		original.add(todo);
+		original.add(todo);
+		List<Todo> clone = cloner.deepClone(original);
+		assertNotSame(todo, clone.get(0));
+		assertSame(clone.get(0), clone.get(1));
+	}
+
+	@Test
+	public void transientFieldsAreNotCopied() {
+		Node original = new Node("root");
+		original.label = "cached";
+		Node clone = cloner.deepClone(original);
+		assertEquals("root", clone.name);
+		assertNull(clone.label);
+	}
+
+	@Test
+	public void cloneJdkObjectsHoldingCollections() {
+		Map<String, Date> original = new HashMap<String, Date>();
+		original.put("due", new Date(1000L));
+		Map<String, Date> clone = cloner.deepClone(original);
+		assertEquals(HashMap.class, clone.getClass());
+		assertEquals(original, clone);
+		assertNotSame(original.get("due"), clone.get("due"));
+	}
+
+	@Test
+	public void cloneSortedSetsAndMapsWithTheirComparators() {
+		TreeSet<String> set = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+		set.addAll(Arrays.asList("B", "a"));
+		TreeMap<Integer, String> map = new TreeMap<Integer, String>(Collections.<Integer>reverseOrder());
+		map.put(1, "one");
+		map.put(2, "two");
+		ConcurrentSkipListSet<String> concurrentSet = new ConcurrentSkipListSet<String>(Collections.<String>reverseOrder());
+		concurrentSet.addAll(Arrays.asList("a", "b"));
+
+		TreeSet<String> setClone = cloner.deepClone(set);
+		assertSame(String.CASE_INSENSITIVE_ORDER, setClone.comparator());
+		assertTrue(setClone.contains("A"));
+		assertEquals(Arrays.asList("a", "B"), new ArrayList<String>(setClone));
+		TreeMap<Integer, String> mapClone = cloner.deepClone(map);
+		assertEquals(Arrays.asList(2, 1), new ArrayList<Integer>(mapClone.keySet()));
+		ConcurrentSkipListSet<String> concurrentSetClone = cloner.deepClone(concurrentSet);
+		assertEquals(Arrays.asList("b", "a"), new ArrayList<String>(concurrentSetClone));
+
+		TreeSet<String> setCopy = ShallowCopyUtils.shallowCopy(set);
+		assertSame(String.CASE_INSENSITIVE_ORDER, setCopy.comparator());
+		TreeMap<Integer, String> mapCopy = ShallowCopyUtils.shallowCopy(map);
+		assertEquals(Arrays.asList(2, 1), new ArrayList<Integer>(mapCopy.keySet()));
+	}
+
+	private static class Node {
+
+		private String name;
+
+		private Node parent;
+
+		private Map<String, Node> children = new HashMap<String, Node>();
+
+		private BigDecimal[] amounts;
+
+		private transient String label;
+
+		@SuppressWarnings("unused")
+		private Node() {
+		}
+
+		Node(String name) {
+			this.name = name;
+		}
+
+	}
+
+}
@@ -25,8 +25,10 @@ import org.springframework.sync.PatchException;
 import org.springframework.sync.diffsync.DiffSync;
 import org.springframework.sync.diffsync.Equivalency;
 import org.springframework.sync.diffsync.IdPropertyEquivalency;
+import org.springframework.sync.diffsync.IdPropertyShadowKeyStrategy;
 import org.springframework.sync.diffsync.PersistenceCallback;
 import org.springframework.sync.diffsync.PersistenceCallbackRegistry;
+import org.springframework.sync.diffsync.ShadowKeyStrategy;
 import org.springframework.sync.diffsync.ShadowStore;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.PathVariable;
@@ -49,12 +51,23 @@ public class DiffSyncController {
 	
 	private Equivalency equivalency = new IdPropertyEquivalency();
 
+	private ShadowKeyStrategy shadowKeyStrategy = new IdPropertyShadowKeyStrategy();
+
 	@Autowired
 	public DiffSyncController(PersistenceCallbackRegistry callbackRegistry, ShadowStore shadowStore) {
 		this.callbackRegistry = callbackRegistry;
 		this.shadowStore = shadowStore;
 	}
 
+	/**
+	 * Sets the strategy for determining the key that each resource's shadow is stored under.
+	 * Defaults to {@link IdPropertyShadowKeyStrategy}.
+	 * @param shadowKeyStrategy the {@link ShadowKeyStrategy}
+	 */
+	public void setShadowKeyStrategy(ShadowKeyStrategy shadowKeyStrategy) {
+		this.shadowKeyStrategy = shadowKeyStrategy;
+	}
+
 	@SuppressWarnings({ "unchecked", "rawtypes" })
 	@RequestMapping(
 			value="${spring.diffsync.path:}/{resource}",
@@ -81,14 +94,16 @@ public class DiffSyncController {
 	
 	@SuppressWarnings("unchecked")
 	private <T> Patch applyAndDiff(Patch patch, Object target, PersistenceCallback<T> persistenceCallback) {
-		DiffSync<T> sync = new DiffSync<T>(shadowStore, persistenceCallback.getEntityType());
+		DiffSync<T> sync = new DiffSync<T>(shadowStore, persistenceCallback.getEntityType(), shadowKeyStrategy);
+		sync.setDeferredWrites(true);
 		T patched = sync.apply((T) target, patch);
 		persistenceCallback.persistChange(patched);
 		return sync.diff(patched);
 	}
 	
 	private <T> Patch applyAndDiffAgainstList(Patch patch, List<T> target, PersistenceCallback<T> persistenceCallback) {
-		DiffSync<T> sync = new DiffSync<T>(shadowStore, persistenceCallback.getEntityType());
+		DiffSync<T> sync = new DiffSync<T>(shadowStore, persistenceCallback.getEntityType(), shadowKeyStrategy);
+		sync.setDeferredWrites(true);
 		
 		List<T> patched = sync.apply(target, patch);
 
@@ -18,6 +18,7 @@ package org.springframework.sync.diffsync;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -26,7 +27,9 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.junit.After;
 import org.junit.Test;
@@ -46,6 +49,7 @@ import org.springframework.sync.json.JsonPatchPatchConverter;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.ObjectUtils;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -290,6 +294,77 @@ public class DiffSyncTest {
 		assertEquals(1, patched.size());
 		assertEquals(new Todo(1L, "A", false), patched.get(0));
 	}
+
+	@Test
+	public void patchList_resultIsNotSharedWithShadow() throws Exception {
+		ShadowStore shadowStore = new MapBasedShadowStore("x");
+		DiffSync<Todo> sync = new DiffSync<Todo>(shadowStore, Todo.class);
+		Patch patch = readJsonPatchFromResource("patch-change-single-status");
+
+		List<Todo> todos = getTodoList();
+		List<Todo> patched = sync.apply(todos, patch);
+		assertEquals(new Todo(2L, "B", true), patched.get(1));
+
+		patched.get(1).setDescription("BBB");
+		Shadow<?> shadow = shadowStore.getShadow("shadow/TodoList");
+		assertEquals(new Todo(2L, "B", true), ((List<?>) shadow.getResource()).get(1));
+	}
+
+	@Test
+	public void patchList_targetChangedSinceShadow() throws Exception {
+		DiffSync<Todo> sync = new DiffSync<Todo>(new MapBasedShadowStore("x"), Todo.class);
+		List<Todo> todos = getTodoList();
+		sync.diff(todos);
+
+		// server-side change that the client hasn't seen yet
+		todos.get(0).setDescription("AAA");
+		Patch patch = readJsonPatchFromResource("patch-change-single-status");
+		List<Todo> patched = sync.apply(todos, patch);
+
+		assertEquals(new Todo(1L, "AAA", false), patched.get(0));
+		assertEquals(new Todo(2L, "B", true), patched.get(1));
+		assertEquals(new Todo(2L, "B", false), todos.get(1));
+	}
+
+	@Test
+	public void patchEntity_targetWithIdEqualityChangedSinceShadow() throws Exception {
+		ShadowStore shadowStore = new MapBasedShadowStore("x");
+		DiffSync<IdEqualityTodo> sync = new DiffSync<IdEqualityTodo>(shadowStore, IdEqualityTodo.class);
+		IdEqualityTodo todo = new IdEqualityTodo(1L, "A", false);
+		sync.diff(todo);
+
+		// server-side change that the client hasn't seen yet; the target still equals its shadow by id
+		todo.setDescription("AAA");
+		IdEqualityTodo patched = sync.apply(readJsonPatchFromResource("single-change-status"), todo);
+
+		assertEquals("AAA", patched.getDescription());
+		assertTrue(patched.isComplete());
+		assertSame(shadowStore.getShadow("shadow/IdEqualityTodo/1").getResource(),
+				shadowStore.getShadow("shadow/IdEqualityTodo/1_backup").getResource());
+	}
+
+	@Test
+	public void patchList_storedShadowCopiedOnlyAlongPatchedPaths() throws Exception {
+		ShadowStore shadowStore = new MapBasedShadowStore("x");
+		DiffSync<Todo> sync = new DiffSync<Todo>(shadowStore, Todo.class);
+		List<Todo> todos = getTodoList();
+		sync.diff(todos);
+		@SuppressWarnings("unchecked")
+		List<Todo> storedShadow = (List<Todo>) shadowStore.getShadow("shadow/TodoList").getResource();
+
+		Patch patch = readJsonPatchFromResource("patch-change-single-status");
+		List<Todo> patched = sync.apply(todos, patch);
+
+		assertEquals(new Todo(2L, "B", true), patched.get(1));
+		assertEquals(new Todo(2L, "B", false), todos.get(1));
+		assertSame(todos.get(0), patched.get(0));
+		@SuppressWarnings("unchecked")
+		List<Todo> shadow = (List<Todo>) shadowStore.getShadow("shadow/TodoList").getResource();
+		assertEquals(new Todo(2L, "B", true), shadow.get(1));
+		assertEquals(new Todo(2L, "B", false), storedShadow.get(1));
+		assertSame(storedShadow.get(0), shadow.get(0));
+		assertSame(shadow, shadowStore.getShadow("shadow/TodoList_backup").getResource());
+	}
 	
 	//
 	// Apply patches - single entity
@@ -390,6 +465,139 @@ public class DiffSyncTest {
 	}
 
 	
+	@Test
+	public void patchEntity_independentShadowsPerEntity() throws Exception {
+		ShadowStore shadowStore = new MapBasedShadowStore("x");
+		DiffSync<Todo> sync = new DiffSync<Todo>(shadowStore, Todo.class);
+		Patch patch = readJsonPatchFromResource("single-change-status");
+
+		Todo patched1 = sync.apply(new Todo(1L, "A", false), new VersionedPatch(patch.getOperations(), 0, 0));
+		Todo patched2 = sync.apply(new Todo(2L, "B", false), new VersionedPatch(patch.getOperations(), 0, 0));
+		assertTrue(patched1.isComplete());
+		assertTrue(patched2.isComplete());
+		assertEquals(1, shadowStore.getShadow("shadow/Todo/1").getClientVersion());
+		assertEquals(1, shadowStore.getShadow("shadow/Todo/2").getClientVersion());
+	}
+
+	@Test
+	public void patchEntity_concurrentShadowUpdateIsDetected() throws Exception {
+		ShadowStore shadowStore = new MapBasedShadowStore("x") {
+			@Override
+			public Shadow<?> getShadow(String key) {
+				Shadow<?> shadow = super.getShadow(key);
+				// another request replaces the shadow right after this one reads it
+				putShadow(key, new Shadow<Todo>(new Todo(1L, "A", false), 0, 5));
+				return shadow;
+			}
+		};
+		DiffSync<Todo> sync = new DiffSync<Todo>(shadowStore, Todo.class);
+		Patch patch = readJsonPatchFromResource("single-change-status");
+
+		try {
+			sync.apply(new Todo(1L, "A", false), new VersionedPatch(patch.getOperations(), 0, 0));
+			fail();
+		} catch (PatchException e) {
+			assertEquals(5, shadowStore.getShadow("shadow/Todo/1").getClientVersion());
+		}
+	}
+
+	@Test
+	public void patchEntity_applyAndDiffReadShadowsOnce() throws Exception {
+		final List<String> reads = new ArrayList<String>();
+		ShadowStore shadowStore = new MapBasedShadowStore("x") {
+			@Override
+			public Shadow<?> getShadow(String key) {
+				reads.add(key);
+				return super.getShadow(key);
+			}
+			@Override
+			public Map<String, Shadow<?>> getShadows(String... keys) {
+				reads.add(keys.length + " keys");
+				Map<String, Shadow<?>> shadows = new HashMap<String, Shadow<?>>();
+				for (String key : keys) {
+					Shadow<?> shadow = super.getShadow(key);
+					if (shadow != null) {
+						shadows.put(key, shadow);
+					}
+				}
+				return shadows;
+			}
+		};
+		DiffSync<Todo> sync = new DiffSync<Todo>(shadowStore, Todo.class);
+		Patch patch = readJsonPatchFromResource("single-change-status");
+
+		Todo patched = sync.apply(new Todo(1L, "A", false), new VersionedPatch(patch.getOperations(), 0, 0));
+		patched.setDescription("B");
+		VersionedPatch diff = sync.diff(patched);
+
+		assertEquals(1, reads.size());
+		assertEquals("2 keys", reads.get(0));
+		assertEquals(2, diff.size());
+		assertEquals(0, diff.getServerVersion());
+		assertEquals(1, diff.getClientVersion());
+		Shadow<?> shadow = shadowStore.getShadow("shadow/Todo/1");
+		assertEquals(new Todo(1L, "B", true), shadow.getResource());
+		assertEquals(1, shadow.getServerVersion());
+		assertEquals(1, shadow.getClientVersion());
+	}
+
+	@Test
+	public void patchEntity_diffAfterShadowReplacedSinceApply() throws Exception {
+		ShadowStore shadowStore = new MapBasedShadowStore("x");
+		DiffSync<Todo> sync = new DiffSync<Todo>(shadowStore, Todo.class);
+		Patch patch = readJsonPatchFromResource("single-change-status");
+
+		Todo patched = sync.apply(new Todo(1L, "A", false), new VersionedPatch(patch.getOperations(), 0, 0));
+		// another request replaces the shadow between this request's apply and diff
+		shadowStore.putShadow("shadow/Todo/1", new Shadow<Todo>(new Todo(1L, "C", true), 0, 2));
+		VersionedPatch diff = sync.diff(patched);
+
+		assertEquals(2, diff.size());
+		assertEquals(2, diff.getClientVersion());
+		Shadow<?> shadow = shadowStore.getShadow("shadow/Todo/1");
+		assertEquals(new Todo(1L, "A", true), shadow.getResource());
+		assertEquals(1, shadow.getServerVersion());
+		assertEquals(2, shadow.getClientVersion());
+	}
+
+	@Test
+	public void patchEntity_deferredWritesStoreShadowsWithDiff() throws Exception {
+		ShadowStore shadowStore = new MapBasedShadowStore("x");
+		DiffSync<Todo> sync = new DiffSync<Todo>(shadowStore, Todo.class);
+		sync.setDeferredWrites(true);
+		Patch patch = readJsonPatchFromResource("single-change-status");
+
+		Todo patched = sync.apply(new Todo(1L, "A", false), new VersionedPatch(patch.getOperations(), 0, 0));
+		assertNull(shadowStore.getShadow("shadow/Todo/1"));
+		assertNull(shadowStore.getShadow("shadow/Todo/1_backup"));
+		patched.setDescription("B");
+		VersionedPatch diff = sync.diff(patched);
+
+		assertEquals(0, diff.getServerVersion());
+		assertEquals(1, diff.getClientVersion());
+		Shadow<?> shadow = shadowStore.getShadow("shadow/Todo/1");
+		assertEquals(new Todo(1L, "B", true), shadow.getResource());
+		assertEquals(1, shadow.getServerVersion());
+		assertEquals(1, shadow.getClientVersion());
+		Shadow<?> backup = shadowStore.getShadow("shadow/Todo/1_backup");
+		assertEquals(new Todo(1L, "A", true), backup.getResource());
+		assertEquals(0, backup.getServerVersion());
+		assertEquals(1, backup.getClientVersion());
+	}
+
+	@Test(expected=PatchException.class)
+	public void patchEntity_deferredWritesShadowReplacedSinceApply() throws Exception {
+		ShadowStore shadowStore = new MapBasedShadowStore("x");
+		DiffSync<Todo> sync = new DiffSync<Todo>(shadowStore, Todo.class);
+		sync.setDeferredWrites(true);
+		Patch patch = readJsonPatchFromResource("single-change-status");
+
+		Todo patched = sync.apply(new Todo(1L, "A", false), new VersionedPatch(patch.getOperations(), 0, 0));
+		// another request replaces the shadow between this request's apply and diff
+		shadowStore.putShadow("shadow/Todo/1", new Shadow<Todo>(new Todo(1L, "C", true), 0, 1));
+		sync.diff(patched);
+	}
+
 	//
 	// Guaranteed Delivery - Normal operations scenario
 	//
@@ -615,6 +823,30 @@ public class DiffSyncTest {
 	//
 	// private helpers
 	//
+
+	private static class IdEqualityTodo extends Todo {
+
+		private static final long serialVersionUID = 1L;
+
+		@SuppressWarnings("unused")
+		public IdEqualityTodo() {
+		}
+
+		public IdEqualityTodo(Long id, String description, boolean complete) {
+			super(id, description, complete);
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof IdEqualityTodo && ObjectUtils.nullSafeEquals(getId(), ((IdEqualityTodo) other).getId());
+		}
+
+		@Override
+		public int hashCode() {
+			return ObjectUtils.nullSafeHashCode(getId());
+		}
+
+	}
 	
 	private List<Todo> getTodoList() {
 		List<Todo> todos = new ArrayList<Todo>();